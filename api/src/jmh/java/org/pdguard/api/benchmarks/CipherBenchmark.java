@@ -0,0 +1,133 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pdguard.api.security.CipherEngine;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark compares the throughput of encryption and decryption of
+ * small fields (e.g. a surname) between plain AES, which creates a new
+ * {@link Cipher} for every operation, and {@link CipherEngine}.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+    /** Field which is encrypted. */
+    private static final byte[] FIELD = "Sotiropoulos".getBytes(
+            StandardCharsets.UTF_8);
+
+    /** Encryption key. */
+    private SecretKey key;
+
+    /** Field encrypted with plain AES. */
+    private byte[] legacyEncrypted;
+
+    /** Field encrypted by CipherEngine. */
+    private byte[] encrypted;
+
+    /**
+     * This method generates the key and the encrypted fields.
+     *
+     * @throws GeneralSecurityException is thrown when AES is not supported.
+     */
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        key = KeyGenerator.getInstance("AES").generateKey();
+        legacyEncrypted = legacyEncrypt();
+        encrypted = encrypt();
+    }
+
+    /**
+     * This method encrypts a field the way earlier versions did.
+     *
+     * @return Encrypted field.
+     * @throws GeneralSecurityException is thrown when encryption fails.
+     */
+    @Benchmark
+    public byte[] legacyEncrypt() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher.doFinal(FIELD);
+    }
+
+    /**
+     * This method decrypts a field the way earlier versions did.
+     *
+     * @return Decrypted field.
+     * @throws GeneralSecurityException is thrown when decryption fails.
+     */
+    @Benchmark
+    public byte[] legacyDecrypt() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        return cipher.doFinal(legacyEncrypted);
+    }
+
+    /**
+     * This method encrypts a field with CipherEngine.
+     *
+     * @return Encrypted field.
+     */
+    @Benchmark
+    public byte[] encrypt() {
+        return CipherEngine.encrypt(FIELD, key);
+    }
+
+    /**
+     * This method decrypts a field with CipherEngine.
+     *
+     * @return Decrypted field.
+     */
+    @Benchmark
+    public byte[] decrypt() {
+        return CipherEngine.decrypt(encrypted, key);
+    }
+
+    /**
+     * This method decrypts a field encrypted with plain AES through
+     * CipherEngine, i.e. the backward compatible path.
+     *
+     * @return Decrypted field.
+     */
+    @Benchmark
+    public byte[] decryptLegacyData() {
+        return CipherEngine.decrypt(legacyEncrypted, key);
+    }
+}
@@ -0,0 +1,117 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.benchmarks;
+
+import com.google.common.base.CaseFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.utils.ParameterCodec;
+import org.pdguard.api.utils.ResponseParser;
+
+import java.lang.reflect.Field;
+import java.net.URLDecoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark compares the encoding and decoding of a request token
+ * through reflection, as {@link ResponseParser} used to do, with
+ * {@link ParameterCodec}.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    /** Response of escrow agent which carries a request token. */
+    private static final String RESPONSE = "request_token="
+            + "7d9c1a5e8d1b4e0ab0f3&token_secret=0f1e2d3c4b5a69788796"
+            + "&authorized=true";
+
+    /** Request token which is encoded. */
+    private final RequestToken token = new RequestToken(
+            "7d9c1a5e8d1b4e0ab0f3", "0f1e2d3c4b5a69788796");
+
+    /**
+     * This method decodes the response through reflection.
+     *
+     * @return Decoded request token.
+     * @throws Exception is thrown when decoding fails.
+     */
+    @Benchmark
+    public Object reflectiveDecode() throws Exception {
+        Object obj = RequestToken.class.newInstance();
+        for (String pair : RESPONSE.split("&")) {
+            String fieldName = URLDecoder.decode(CaseFormat.UPPER_UNDERSCORE
+                    .to(CaseFormat.LOWER_CAMEL, pair.split("=")[0]), "UTF-8");
+            String value = URLDecoder.decode(pair.split("=")[1], "UTF-8");
+            RequestToken.class.getDeclaredField(fieldName);
+            ResponseParser.nonPublicField(fieldName, value,
+                    RequestToken.class, obj);
+        }
+        return obj;
+    }
+
+    /**
+     * This method decodes the response with ParameterCodec.
+     *
+     * @return Decoded request token.
+     */
+    @Benchmark
+    public Object codecDecode() {
+        return ParameterCodec.forClass(RequestToken.class).decode(RESPONSE);
+    }
+
+    /**
+     * This method encodes the request token through reflection.
+     *
+     * @return URL encoded request token.
+     * @throws Exception is thrown when encoding fails.
+     */
+    @Benchmark
+    public String reflectiveEncode() throws Exception {
+        StringBuilder response = new StringBuilder();
+        for (Field field : RequestToken.class.getDeclaredFields()) {
+            if (response.length() > 0)
+                response.append('&');
+            response.append(ResponseParser.nonPublicField(RequestToken.class,
+                    token, field));
+        }
+        return response.toString();
+    }
+
+    /**
+     * This method encodes the request token with ParameterCodec.
+     *
+     * @return URL encoded request token.
+     */
+    @Benchmark
+    public String codecEncode() {
+        return ParameterCodec.forClass(RequestToken.class).encode(token);
+    }
+}
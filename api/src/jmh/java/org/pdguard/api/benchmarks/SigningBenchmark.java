@@ -0,0 +1,119 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pdguard.api.model.SignatureBase;
+import org.pdguard.api.security.Signature;
+import org.pdguard.api.security.SigningEngine;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark compares the signing of an authorization request through
+ * {@link SignatureBase} and {@link Signature}, as services used to sign
+ * requests, with {@link SigningEngine}.
+ *
+ * Allocations per signed request are reported by the GC profiler:
+ * mvn -P benchmark compile exec:exec -Djmh.args="Signing -prof gc".
+ *
+ * @author Thodoris Sotiropoulos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+    /** URL of escrow agent's web service. */
+    private static final String URL = "https://localhost:9443/authorize";
+
+    /** Secret which signs requests. */
+    private static final String SECRET = "0123456789abcdef&fedcba9876543210";
+
+    /** Parameters of an authorization request. */
+    private TreeMap<String, String> parameters;
+
+    /** This method builds the parameters of an authorization request. */
+    @Setup
+    public void setUp() {
+        parameters = new TreeMap<>();
+        parameters.put("client_id", "f3e1c5b0-32a4-4ff6-9a8b-0c6c2f6b6f3e");
+        parameters.put("data_type", "HOME_ADDRESS");
+        parameters.put("data_use", "COMPOSE_EMAIL_TO_SUBJECT");
+        parameters.put("interaction_purpose", "ADVERT");
+        parameters.put("nonce", "\u00e2\ufffd\ufffd q\u00e7Z\ufffd");
+        parameters.put("request_token", "7d9c1a5e-8d1b-4e0a-b0f3");
+        parameters.put("request_type", "DECRYPTION");
+        parameters.put("timestamp", "1444444444444");
+    }
+
+    /**
+     * This method signs the request the way services used to.
+     *
+     * @return Parameters query with the addition of signature parameter.
+     * @throws UnsupportedEncodingException never; UTF-8 is supported.
+     */
+    @Benchmark
+    public String signatureBase() throws UnsupportedEncodingException {
+        SignatureBase signatureBase = new SignatureBase(parameters, URL,
+                "POST");
+        Signature signature = new Signature(signatureBase
+                .getSignatureBaseString(), new SecretKeySpec(
+                SECRET.getBytes("UTF-8"), "HmacSHA1"));
+        signature.signMessage();
+        return signatureBase.getEncodedParametersString() + "&signature="
+                + URLEncoder.encode(signature.getSignatureContent(), "UTF-8")
+                .replace("+", "%20");
+    }
+
+    /**
+     * This method signs the request with SigningEngine.
+     *
+     * @return Parameters query with the addition of signature parameter.
+     */
+    @Benchmark
+    public String signingEngine() {
+        return SigningEngine.signRequest(parameters, URL, "POST", SECRET);
+    }
+
+    /**
+     * This method verifies the signature of the request with SigningEngine,
+     * as escrow agent does.
+     *
+     * @return true if signature is valid.
+     */
+    @Benchmark
+    public boolean verify() {
+        return SigningEngine.verify(parameters, URL, "POST", SECRET,
+                "not a valid signature of request=");
+    }
+}
@@ -0,0 +1,546 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api;
+
+import org.pdguard.api.cache.RequestCoalescer;
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.services.Deadline;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.api.utils.ProtocolMode;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * This class is an asynchronous facade of {@link DataProtection}.
+ *
+ * Encryption and decryption return a <code>CompletableFuture</code> instead
+ * of blocking the calling thread. The three steps of the PDGuard protocol
+ * (request token, authorization, encryption key) and the cryptographic
+ * operation run as separate stages on a bounded executor, so a thread is
+ * occupied only while a step is in progress and concurrent requests overlap
+ * their network latency.
+ *
+ * Every call may be given a deadline. When it expires, the returned future
+ * completes with a <code>DeadlineExceededException</code> and the remaining
+ * steps of the protocol are skipped. Cancelling the returned future has the
+ * same effect.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class AsyncDataProtection {
+    /** Default number of threads of executor. */
+    public static final int DEFAULT_THREADS = 16;
+
+    /** Default number of steps waiting for a thread of executor. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Time (in seconds) after which idle threads of executor terminate. */
+    private static final long KEEP_ALIVE_TIME = 60;
+
+    /** Scheduler of deadlines shared by all instances. */
+    private static final ScheduledExecutorService DEADLINES = Executors
+            .newSingleThreadScheduledExecutor(daemonThreads(
+                    "pdguard-deadline"));
+
+    /** Blocking API which carries out the steps of the PDGuard protocol. */
+    private final DataProtection dataProtection;
+
+    /** Executor which runs the steps of the PDGuard protocol. */
+    private final Executor executor;
+
+    /**
+     * Creates an asynchronous facade with a default bounded executor.
+     *
+     * @param dataProtection Blocking API which carries out the steps of the
+     * PDGuard protocol.
+     */
+    public AsyncDataProtection(final DataProtection dataProtection) {
+        this(dataProtection, newBoundedExecutor(DEFAULT_THREADS,
+                DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * Creates an asynchronous facade with the given executor.
+     *
+     * A step whose execution is rejected by executor is not run; the future
+     * of the call completes exceptionally with the
+     * {@link RejectedExecutionException} instead.
+     *
+     * @param dataProtection Blocking API which carries out the steps of the
+     * PDGuard protocol.
+     * @param executor Executor which runs the steps of the PDGuard protocol.
+     */
+    public AsyncDataProtection(final DataProtection dataProtection,
+            final Executor executor) {
+        this.dataProtection = dataProtection;
+        this.executor = executor;
+    }
+
+    /**
+     * This method creates a bounded executor suitable for this class.
+     *
+     * Threads are daemon threads which terminate when idle. When both the
+     * threads and the queue are exhausted, further steps are rejected and
+     * the futures of their calls complete exceptionally with a
+     * {@link RejectedExecutionException}; steps, which block on escrow agent,
+     * never run on the thread of caller.
+     *
+     * @param threads Maximum number of threads.
+     * @param queueCapacity Maximum number of steps waiting for a thread.
+     *
+     * @return A new executor.
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(final int threads,
+            final int queueCapacity) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                daemonThreads("pdguard-async"),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * This method creates a factory of named daemon threads.
+     *
+     * @param name Prefix of names of threads.
+     *
+     * @return A new thread factory.
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, name + "-"
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Decrypt the specified data block asynchronously without a deadline.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     *
+     * @return Future of the data decrypted.
+     *
+     * @see DataProtection#decryptData(byte[], DataType, DataUse,
+     * InteractionPurpose)
+     */
+    public CompletableFuture<byte[]> decryptData(final byte[] encryptedData,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose) {
+        return decryptData(encryptedData, dataType, dataUse,
+                interactionPurpose, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decrypt the specified data block asynchronously.
+     *
+     * Future completes exceptionally with the exception that
+     * {@link DataProtection#decryptData(byte[], DataType, DataUse,
+     * InteractionPurpose)} would throw or with a
+     * <code>DeadlineExceededException</code> if the deadline expires.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     * @param timeout Maximum time to complete call; zero for no deadline.
+     * @param unit Unit of timeout.
+     *
+     * @return Future of the data decrypted.
+     */
+    public CompletableFuture<byte[]> decryptData(final byte[] encryptedData,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose, final long timeout,
+            final TimeUnit unit) {
+        return protect(new DecryptionBundle(dataType, dataUse,
+                interactionPurpose), PDGuardRequestType.DECRYPTION,
+                new Function<SecretKey, byte[]>() {
+                    @Override
+                    public byte[] apply(final SecretKey key) {
+                        return dataProtection.decrypt(encryptedData, key,
+                                dataType);
+                    }
+                }, timeout, unit);
+    }
+
+    /**
+     * Encrypt the specified data block asynchronously without a deadline.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     * @param update True if an existing field is updated; false otherwise.
+     *
+     * @return Future of the data encrypted.
+     *
+     * @see DataProtection#encryptData(byte[], DataType, DataProvenance,
+     * boolean)
+     */
+    public CompletableFuture<byte[]> encryptData(final byte[] cleartextData,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update) {
+        return encryptData(cleartextData, dataType, dataProvenance, update, 0,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Encrypt the specified data block asynchronously.
+     *
+     * Future completes exceptionally with the exception that
+     * {@link DataProtection#encryptData(byte[], DataType, DataProvenance,
+     * boolean)} would throw or with a
+     * <code>DeadlineExceededException</code> if the deadline expires.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     * @param update True if an existing field is updated; false otherwise.
+     * @param timeout Maximum time to complete call; zero for no deadline.
+     * @param unit Unit of timeout.
+     *
+     * @return Future of the data encrypted.
+     */
+    public CompletableFuture<byte[]> encryptData(final byte[] cleartextData,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update, final long timeout, final TimeUnit unit) {
+        return protect(new EncryptionBundle(dataType, dataProvenance, update),
+                PDGuardRequestType.ENCRYPTION,
+                new Function<SecretKey, byte[]>() {
+                    @Override
+                    public byte[] apply(final SecretKey key) {
+                        return dataProtection.encrypt(cleartextData, key,
+                                dataType);
+                    }
+                }, timeout, unit);
+    }
+
+    /**
+     * This method gets the encryption key of a request asynchronously.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param timeout Maximum time to complete call; zero for no deadline.
+     * @param unit Unit of timeout.
+     *
+     * @return Future of the encryption key.
+     */
+    public CompletableFuture<SecretKey> getEncryptionKey(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final long timeout,
+            final TimeUnit unit) {
+        return protect(authBundle, requestType, Function.<SecretKey>identity(),
+                timeout, unit);
+    }
+
+    /**
+     * This method chains the steps of the PDGuard protocol and the given
+     * cryptographic operation.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param operation Operation to apply to the encryption key.
+     * @param timeout Maximum time to complete call; zero for no deadline.
+     * @param unit Unit of timeout.
+     * @param <T> Type of result of operation.
+     *
+     * @return Future of the result of operation.
+     */
+    private <T> CompletableFuture<T> protect(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final Function<SecretKey, T> operation, final long timeout,
+            final TimeUnit unit) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Deadline deadline;
+        if (timeout > 0) {
+            deadline = Deadline.after(timeout, unit);
+            scheduleDeadline(result, timeout, unit);
+        } else
+            deadline = Deadline.none();
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(final T value, final Throwable error) {
+                if (error != null)
+                    deadline.cancel();
+            }
+        });
+        try {
+            String denial = dataProtection.getCachedDenial(authBundle,
+                    requestType);
+            SecretKey cached = denial == null ? dataProtection.getCachedKey(
+                    authBundle, requestType) : null;
+            CompletableFuture<SecretKey> key;
+            if (denial != null) {
+                key = new CompletableFuture<>();
+                key.completeExceptionally(new AccessDeniedException(denial));
+            } else if (cached != null)
+                key = CompletableFuture.completedFuture(cached);
+            else
+                key = coalesceEncryptionKey(authBundle, requestType, result,
+                        deadline);
+            key.thenApplyAsync(new Function<SecretKey, T>() {
+                @Override
+                public T apply(final SecretKey secretKey) {
+                    checkNotDone(result);
+                    return operation.apply(secretKey);
+                }
+            }, executor).whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(final T value, final Throwable error) {
+                    if (error == null)
+                        result.complete(value);
+                    else
+                        result.completeExceptionally(unwrap(error));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * This method requests the encryption key of a request, sharing the
+     * future of an identical request in flight if the underlying blocking
+     * API has a request coalescer.
+     *
+     * A coalesced request is shared by callers with different deadlines, so
+     * its steps are neither skipped nor aborted when the deadline of one of
+     * them expires; they are bounded by the timeouts of transport only.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param result Future returned to caller.
+     * @param deadline Deadline of call.
+     *
+     * @return Future of the encryption key.
+     */
+    private CompletableFuture<SecretKey> coalesceEncryptionKey(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final CompletableFuture<?> result, final Deadline deadline) {
+        RequestCoalescer coalescer = dataProtection.getRequestCoalescer();
+        if (coalescer == null)
+            return requestEncryptionKey(authBundle, requestType, result,
+                    deadline);
+        return coalescer.executeAsync(dataProtection.getClientCredentials(),
+                authBundle, requestType,
+                new Supplier<CompletableFuture<SecretKey>>() {
+                    @Override
+                    public CompletableFuture<SecretKey> get() {
+                        return requestEncryptionKey(authBundle, requestType,
+                                new CompletableFuture<Void>(), null);
+                    }
+                });
+    }
+
+    /**
+     * This method chains the steps of the PDGuard protocol according to the
+     * protocol mode of the underlying blocking API.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param result Future returned to caller; once it is done, the remaining
+     * steps are skipped.
+     * @param deadline Deadline of call or null; each step gets an equal share
+     * of the time left when it starts.
+     *
+     * @return Future of the encryption key.
+     */
+    private CompletableFuture<SecretKey> requestEncryptionKey(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final CompletableFuture<?> result, final Deadline deadline) {
+        if (dataProtection.getProtocolMode() == ProtocolMode.ONE_SHOT)
+            return CompletableFuture.supplyAsync(new Supplier<SecretKey>() {
+                @Override
+                public SecretKey get() {
+                    checkNotDone(result);
+                    try {
+                        SecretKey key = dataProtection.requestOneShotKey(
+                                authBundle, requestType, deadline);
+                        dataProtection.cacheKey(authBundle, requestType, key);
+                        return key;
+                    } catch (AccessDeniedException e) {
+                        dataProtection.cacheDenial(authBundle, requestType,
+                                e.getMessage());
+                        throw new CompletionException(e);
+                    } catch (IOException
+                            | EscrowAgentErrorResponseException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            }, executor);
+        return CompletableFuture.supplyAsync(new Supplier<RequestToken>() {
+            @Override
+            public RequestToken get() {
+                checkNotDone(result);
+                try {
+                    return dataProtection.getRequestToken(DataProtection.split(
+                            deadline, DataProtection.THREE_STEP_PHASES));
+                } catch (IOException | EscrowAgentErrorResponseException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor).thenApplyAsync(new Function<RequestToken,
+                RequestToken>() {
+            @Override
+            public RequestToken apply(final RequestToken token) {
+                checkNotDone(result);
+                try {
+                    return dataProtection.authorizeRequestToken(authBundle,
+                            requestType, token, DataProtection.split(deadline,
+                            DataProtection.THREE_STEP_PHASES - 1));
+                } catch (AccessDeniedException e) {
+                    dataProtection.cacheDenial(authBundle, requestType,
+                            e.getMessage());
+                    throw new CompletionException(e);
+                } catch (IOException | EscrowAgentErrorResponseException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor).thenApplyAsync(new Function<RequestToken, SecretKey>() {
+            @Override
+            public SecretKey apply(final RequestToken token) {
+                checkNotDone(result);
+                try {
+                    SecretKey key = dataProtection.exchangeRequestToken(
+                            authBundle, requestType, token,
+                            DataProtection.split(deadline, 1));
+                    dataProtection.cacheKey(authBundle, requestType, key);
+                    return key;
+                } catch (IOException | EscrowAgentErrorResponseException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * This method completes the given future with a
+     * <code>DeadlineExceededException</code> once the deadline expires.
+     *
+     * @param result Future returned to caller.
+     * @param timeout Maximum time to complete call.
+     * @param unit Unit of timeout.
+     */
+    private static void scheduleDeadline(final CompletableFuture<?> result,
+            final long timeout, final TimeUnit unit) {
+        final ScheduledFuture<?> deadline = DEADLINES.schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.completeExceptionally(new DeadlineExceededException(
+                        "Deadline of PDGuard request expired"));
+            }
+        }, timeout, unit);
+        result.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(final Object value, final Throwable error) {
+                deadline.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * This method aborts a step of the PDGuard protocol if the call has
+     * already been completed, e.g. because its deadline expired.
+     *
+     * @param result Future returned to caller.
+     *
+     * @throws CancellationException is thrown when the call has been
+     * completed.
+     */
+    private static void checkNotDone(final CompletableFuture<?> result) {
+        if (result.isDone())
+            throw new CancellationException("PDGuard request is complete");
+    }
+
+    /**
+     * This method gets the exception thrown by a step of the PDGuard
+     * protocol.
+     *
+     * @param error Exception with which a stage completed.
+     *
+     * @return Cause of exception if it is a completion exception; the
+     * exception itself otherwise.
+     */
+    private static Throwable unwrap(final Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null)
+            return error.getCause();
+        return error;
+    }
+
+    /**
+     * Getter of dataProtection field.
+     *
+     * @return Blocking API which carries out the steps of the PDGuard
+     * protocol.
+     */
+    public DataProtection getDataProtection() {
+        return dataProtection;
+    }
+
+    /**
+     * Getter of executor field.
+     *
+     * @return Executor which runs the steps of the PDGuard protocol.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+}
@@ -0,0 +1,437 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api;
+
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.DecryptionRequest;
+import org.pdguard.api.model.EncryptionRequest;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * This class encrypts and decrypts large sets of records, e.g. a table of
+ * a database which is migrated or exported, with {@link DataProtection}.
+ *
+ * Records are read from an iterator or a stream in windows of fixed size.
+ * The encryption key is derived from the authorization bundle of a record,
+ * so the keys of each window are requested once per distinct bundle, in a
+ * single batch request, and are reused by the rest of the records of the
+ * run. The cryptographic operations of a window run in parallel on a
+ * fork-join pool while the results of the previous window are handed to
+ * the consumer, so at most two windows are held in memory at any time.
+ *
+ * Results are given to the consumer in the order of records. The result of
+ * a record denied by escrow agent is null.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class BulkDataProtection {
+    /** Default number of records processed at a time. */
+    public static final int DEFAULT_WINDOW_SIZE = 1024;
+
+    /** Number of records below which a task is not split any further. */
+    private static final int SEQUENTIAL_THRESHOLD = 32;
+
+    /** Encryption operation of records. */
+    private final Operation<EncryptionRequest> encryption =
+            new Operation<EncryptionRequest>() {
+        @Override
+        AuthorizationBundle getAuthBundle(final EncryptionRequest request) {
+            return request.getAuthBundle();
+        }
+
+        @Override
+        byte[] apply(final EncryptionRequest request, final SecretKey key) {
+            return dataProtection.encrypt(request.getCleartextData(), key,
+                    request.getAuthBundle().getDataType());
+        }
+    };
+
+    /** Decryption operation of records. */
+    private final Operation<DecryptionRequest> decryption =
+            new Operation<DecryptionRequest>() {
+        @Override
+        AuthorizationBundle getAuthBundle(final DecryptionRequest request) {
+            return request.getAuthBundle();
+        }
+
+        @Override
+        byte[] apply(final DecryptionRequest request, final SecretKey key) {
+            return dataProtection.decrypt(request.getEncryptedData(), key,
+                    request.getAuthBundle().getDataType());
+        }
+    };
+
+    /** Data protection of the data subject whom records belong to. */
+    private final DataProtection dataProtection;
+
+    /** Pool which runs the cryptographic operations. */
+    private final ForkJoinPool pool;
+
+    /** Maximum number of records processed at a time. */
+    private final int windowSize;
+
+    /**
+     * Creates a new engine which runs on the common fork-join pool.
+     *
+     * @param dataProtection Data protection of the data subject whom
+     * records belong to.
+     */
+    public BulkDataProtection(final DataProtection dataProtection) {
+        this(dataProtection, ForkJoinPool.commonPool(), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new engine.
+     *
+     * @param dataProtection Data protection of the data subject whom
+     * records belong to.
+     * @param pool Pool which runs the cryptographic operations.
+     * @param windowSize Maximum number of records processed at a time.
+     */
+    public BulkDataProtection(final DataProtection dataProtection,
+            final ForkJoinPool pool, final int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("Invalid window size");
+        this.dataProtection = dataProtection;
+        this.pool = pool;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * This method encrypts a set of records.
+     *
+     * @param requests Records to encrypt along with the information which
+     * escrow agent requires to allow their storage.
+     * @param consumer Consumer of the encrypted records, which are given in
+     * the order of requests; the result of a denied request is null.
+     *
+     * @return Number of records processed.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws org.pdguard.api.exceptions.CryptoException (Runtime) when an
+     * unexpected error in the encryption occurs.
+     */
+    public long encryptAll(final Iterator<EncryptionRequest> requests,
+            final Consumer<byte[]> consumer) throws IOException,
+            EscrowAgentErrorResponseException {
+        return process(requests, encryption, consumer);
+    }
+
+    /**
+     * This method encrypts a stream of records.
+     *
+     * @param requests Records to encrypt along with the information which
+     * escrow agent requires to allow their storage.
+     * @param consumer Consumer of the encrypted records, which are given in
+     * the order of requests; the result of a denied request is null.
+     *
+     * @return Number of records processed.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws org.pdguard.api.exceptions.CryptoException (Runtime) when an
+     * unexpected error in the encryption occurs.
+     */
+    public long encryptAll(final Stream<EncryptionRequest> requests,
+            final Consumer<byte[]> consumer) throws IOException,
+            EscrowAgentErrorResponseException {
+        return process(requests.iterator(), encryption, consumer);
+    }
+
+    /**
+     * This method decrypts a set of records.
+     *
+     * @param requests Records to decrypt along with the information which
+     * escrow agent requires to allow their use.
+     * @param consumer Consumer of the decrypted records, which are given in
+     * the order of requests; the result of a denied request is null.
+     *
+     * @return Number of records processed.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws org.pdguard.api.exceptions.CryptoException (Runtime) when an
+     * unexpected error in the decryption occurs.
+     */
+    public long decryptAll(final Iterator<DecryptionRequest> requests,
+            final Consumer<byte[]> consumer) throws IOException,
+            EscrowAgentErrorResponseException {
+        return process(requests, decryption, consumer);
+    }
+
+    /**
+     * This method decrypts a stream of records.
+     *
+     * @param requests Records to decrypt along with the information which
+     * escrow agent requires to allow their use.
+     * @param consumer Consumer of the decrypted records, which are given in
+     * the order of requests; the result of a denied request is null.
+     *
+     * @return Number of records processed.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws org.pdguard.api.exceptions.CryptoException (Runtime) when an
+     * unexpected error in the decryption occurs.
+     */
+    public long decryptAll(final Stream<DecryptionRequest> requests,
+            final Consumer<byte[]> consumer) throws IOException,
+            EscrowAgentErrorResponseException {
+        return process(requests.iterator(), decryption, consumer);
+    }
+
+    /**
+     * Getter of windowSize field.
+     *
+     * @return Maximum number of records processed at a time.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * This method runs an operation on a set of records window by window.
+     *
+     * The keys of a window are resolved on the calling thread while the
+     * operations of the previous window are running on the pool.
+     *
+     * @param requests Records to process.
+     * @param operation Operation to run on every record.
+     * @param consumer Consumer of the results.
+     * @param <T> Type of records.
+     *
+     * @return Number of records processed.
+     *
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    private <T> long process(final Iterator<T> requests,
+            final Operation<T> operation, final Consumer<byte[]> consumer)
+            throws IOException, EscrowAgentErrorResponseException {
+        Map<AuthorizationBundle, SecretKey> keys = new HashMap<>();
+        Window<T> previous = null;
+        long count = 0;
+        try {
+            while (requests.hasNext()) {
+                Window<T> window = new Window<>(operation, read(requests));
+                resolveKeys(window, keys);
+                pool.execute(window);
+                if (previous != null)
+                    count += previous.drain(consumer);
+                previous = window;
+            }
+            if (previous != null)
+                count += previous.drain(consumer);
+            previous = null;
+        } finally {
+            if (previous != null)
+                previous.cancel(false);
+        }
+        return count;
+    }
+
+    /**
+     * This method reads the next window of records.
+     *
+     * @param requests Records to process.
+     * @param <T> Type of records.
+     *
+     * @return At most windowSize records.
+     */
+    private <T> List<T> read(final Iterator<T> requests) {
+        List<T> items = new ArrayList<>(windowSize);
+        while (items.size() < windowSize && requests.hasNext())
+            items.add(requests.next());
+        return items;
+    }
+
+    /**
+     * This method finds the encryption keys of the records of a window.
+     *
+     * Keys which were resolved by earlier windows of the run are reused;
+     * the rest of them are requested once per distinct bundle.
+     *
+     * @param window Window of records.
+     * @param keys Keys resolved so far by the run; the key of a denied
+     * bundle is null.
+     * @param <T> Type of records.
+     *
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    private <T> void resolveKeys(final Window<T> window,
+            final Map<AuthorizationBundle, SecretKey> keys)
+            throws IOException, EscrowAgentErrorResponseException {
+        List<AuthorizationBundle> pending = new ArrayList<>();
+        for (T item : window.items) {
+            AuthorizationBundle authBundle = window.operation.getAuthBundle(
+                    item);
+            if (!keys.containsKey(authBundle)) {
+                keys.put(authBundle, null);
+                pending.add(authBundle);
+            }
+        }
+        if (!pending.isEmpty()) {
+            List<SecretKey> requested = dataProtection.getEncryptionKeys(
+                    pending);
+            for (int i = 0; i < pending.size(); i++)
+                keys.put(pending.get(i), requested.get(i));
+        }
+        for (int i = 0; i < window.keys.length; i++)
+            window.keys[i] = keys.get(window.operation.getAuthBundle(
+                    window.items.get(i)));
+    }
+
+    /**
+     * Cryptographic operation which is run on every record.
+     *
+     * @param <T> Type of records.
+     */
+    private abstract static class Operation<T> {
+        /**
+         * This method gets the bundle which defines the key of a record.
+         *
+         * @param request Record.
+         * @return Bundle of information required by escrow agent.
+         */
+        abstract AuthorizationBundle getAuthBundle(T request);
+
+        /**
+         * This method runs the operation on a record.
+         *
+         * @param request Record.
+         * @param key Encryption key of record.
+         * @return Result of operation.
+         */
+        abstract byte[] apply(T request, SecretKey key);
+    }
+
+    /**
+     * Window of records whose operations run as a single fork-join task.
+     *
+     * @param <T> Type of records.
+     */
+    private static final class Window<T> extends RecursiveAction {
+        /** Serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** Operation to run on every record. */
+        private final transient Operation<T> operation;
+
+        /** Records of window. */
+        private final transient List<T> items;
+
+        /** Encryption keys of records; null if a record is denied. */
+        private final transient SecretKey[] keys;
+
+        /** Results of operations in the order of records. */
+        private final byte[][] results;
+
+        /**
+         * Creates a new window.
+         *
+         * @param operation Operation to run on every record.
+         * @param items Records of window.
+         */
+        Window(final Operation<T> operation, final List<T> items) {
+            this.operation = operation;
+            this.items = items;
+            this.keys = new SecretKey[items.size()];
+            this.results = new byte[items.size()][];
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(new Range(0, items.size()));
+        }
+
+        /**
+         * This method waits for the operations of window and gives their
+         * results to a consumer.
+         *
+         * @param consumer Consumer of results.
+         * @return Number of records of window.
+         */
+        int drain(final Consumer<byte[]> consumer) {
+            join();
+            for (byte[] result : results)
+                consumer.accept(result);
+            return results.length;
+        }
+
+        /** Range of records of window which is processed by a single task. */
+        private final class Range extends RecursiveAction {
+            /** Serial version UID. */
+            private static final long serialVersionUID = 1L;
+
+            /** Index of first record of range. */
+            private final int from;
+
+            /** Index after the last record of range. */
+            private final int to;
+
+            /**
+             * Creates a new range.
+             *
+             * @param from Index of first record of range.
+             * @param to Index after the last record of range.
+             */
+            Range(final int from, final int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= SEQUENTIAL_THRESHOLD) {
+                    for (int i = from; i < to; i++)
+                        if (keys[i] != null)
+                            results[i] = operation.apply(items.get(i),
+                                    keys[i]);
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                invokeAll(new Range(from, middle), new Range(middle, to));
+            }
+        }
+    }
+}
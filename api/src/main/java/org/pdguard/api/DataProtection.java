@@ -16,31 +16,52 @@
 
 package org.pdguard.api;
 
+import org.pdguard.api.PDGuardMetrics.Outcome;
+import org.pdguard.api.PDGuardMetrics.Phase;
+import org.pdguard.api.cache.AuthorizationCache;
+import org.pdguard.api.cache.DenialCache;
+import org.pdguard.api.cache.RequestCoalescer;
+import org.pdguard.api.exceptions.AccessDeniedException;
 import org.pdguard.api.exceptions.CryptoException;
 import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
 import org.pdguard.api.model.AuthorizationBundle;
 import org.pdguard.api.model.ClientCredentials;
 import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.DecryptionRequest;
 import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EncryptionRequest;
 import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.security.CipherEngine;
+import org.pdguard.api.security.EnvelopeCipher;
 import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.security.StreamCipher;
 import org.pdguard.api.services.AuthorizationService;
+import org.pdguard.api.services.BatchAuthorizationService;
+import org.pdguard.api.services.Deadline;
 import org.pdguard.api.services.EncryptionKeyService;
+import org.pdguard.api.services.EscrowAgentService;
+import org.pdguard.api.services.OneShotKeyService;
+import org.pdguard.api.services.RequestTokenPool;
 import org.pdguard.api.services.RequestTokenService;
 import org.pdguard.api.utils.DataUse;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataType;
 import org.pdguard.api.utils.InteractionPurpose;
 import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.api.utils.ProtocolMode;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -50,6 +71,13 @@ import java.security.NoSuchAlgorithmException;
  * @author Diomidis Spinellis, Thodoris Sotiropoulos
  */
 public class DataProtection {
+    /** Number of phases of the three step protocol. */
+    static final int THREE_STEP_PHASES = 3;
+
+    /** Message of the denials of items of batch requests. */
+    private static final String BATCH_DENIAL = "Access denied by escrow"
+            + " agent";
+
     /**
      * A number uniquely identifying the data subject
      * with the specified escrow agent.
@@ -59,6 +87,42 @@ public class DataProtection {
     /** The DNS name of the escrow agent's web service endpoint. */
     private String escrowAgentName;
 
+    /** Escrow agent called by services. */
+    private EscrowAgent escrowAgent;
+
+    /** Secure connection shared by all requests to the escrow agent. */
+    private SecureConnection secureConnection;
+
+    /**
+     * Cache of encryption keys and authorization decisions; null if caching
+     * is disabled.
+     */
+    private AuthorizationCache authorizationCache;
+
+    /**
+     * Cache of requests denied by escrow agent; null if denials are not
+     * cached.
+     */
+    private DenialCache denialCache;
+
+    /** Way in which encryption keys are obtained from escrow agent. */
+    private ProtocolMode protocolMode = ProtocolMode.THREE_STEP;
+
+    /**
+     * Pool of prefetched request tokens of client; null if request tokens
+     * are obtained on demand.
+     */
+    private RequestTokenPool requestTokenPool;
+
+    /**
+     * Coalescer of concurrent identical key requests; null if every call
+     * runs its own request.
+     */
+    private RequestCoalescer requestCoalescer;
+
+    /** Listener of the latency of requests; null if it is not measured. */
+    private PDGuardMetrics metrics;
+
     /**
      * Initializes all required parameters to establish a secure connection
      * with the specified escrow agent to obtain encryption key.
@@ -70,8 +134,44 @@ public class DataProtection {
      */
     public DataProtection(final String escrowAgentName,
             final ClientCredentials clientCredentials) {
+        this(new EscrowAgent(escrowAgentName), clientCredentials);
+    }
+
+    /**
+     * Initializes all required parameters to establish a secure connection
+     * with the specified escrow agent to obtain encryption key.
+     *
+     * The escrow agent may carry its own transport, e.g. a
+     * {@link org.pdguard.api.services.ReplicaSet} which spreads requests
+     * across several instances of it.
+     *
+     * @param escrowAgent Escrow agent to call.
+     * @param clientCredentials Client credentials used by escrow agent to
+     * verify request.
+     */
+    public DataProtection(final EscrowAgent escrowAgent,
+            final ClientCredentials clientCredentials) {
+        this(escrowAgent, clientCredentials, new SecureConnection());
+    }
+
+    /**
+     * Initializes all required parameters to establish a secure connection
+     * with the specified escrow agent, using the given connection
+     * configuration, e.g. one shared by many data subjects.
+     *
+     * @param escrowAgent Escrow agent to call.
+     * @param clientCredentials Client credentials used by escrow agent to
+     * verify request.
+     * @param secureConnection Connection configuration to establish an
+     * encrypted connection with escrow agent.
+     */
+    public DataProtection(final EscrowAgent escrowAgent,
+            final ClientCredentials clientCredentials,
+            final SecureConnection secureConnection) {
         this.clientCredentials = clientCredentials;
-        this.escrowAgentName = escrowAgentName;
+        this.escrowAgent = escrowAgent;
+        this.escrowAgentName = escrowAgent.getEscrowAgentName();
+        this.secureConnection = secureConnection;
     }
 
     /**
@@ -103,16 +203,80 @@ public class DataProtection {
                 interactionPurpose);
         SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
                 .DECRYPTION);
-        try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
-            return cipher.doFinal(encryptedData);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException
-                | InvalidKeyException | IllegalBlockSizeException
-                | BadPaddingException e) {
-            throw new CryptoException("Data decryption cannot be completed. An"
-                    + " unexpected error occurred.", e.getCause());
+        return decrypt(encryptedData, key, dataType);
+    }
+
+    /**
+     * Decrypt the specified data block, failing if the escrow agent does not
+     * grant the encryption key within the specified time.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     * @param timeout Maximum time to wait for the escrow agent.
+     * @param unit Time unit of timeout.
+     *
+     * @throws org.pdguard.api.exceptions.DeadlineExceededException is thrown
+     * when the escrow agent does not respond in time.
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when the data subject
+     * denies access to the corresponding data or there is an error response
+     * from escrow agent.
+     *
+     * @return The data decrypted.
+     */
+    public byte[] decryptData(final byte[] encryptedData,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose, final long timeout,
+            final TimeUnit unit) throws IOException,
+            EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new DecryptionBundle(dataType, dataUse,
+                interactionPurpose);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .DECRYPTION, Deadline.after(timeout, unit));
+        return decrypt(encryptedData, key, dataType);
+    }
+
+    /**
+     * Decrypt the specified data blocks.
+     *
+     * Access to all data blocks is authorized by escrow agent in batches of
+     * up to {@link BatchAuthorizationService#MAX_BATCH_SIZE} distinct
+     * requests; each batch takes two round trips, one for the request token
+     * and one for the authorization and the key exchange. Data subject's
+     * decision applies to each block separately, so access to some blocks
+     * may be denied while access to others is allowed.
+     *
+     * @param requests The data blocks to decrypt along with their type, their
+     * intended use and the purpose of the requested interaction.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the decryption occurs.
+     *
+     * @return The data decrypted in the order of requests. The data of a
+     * block to which data subject denied access is null.
+     */
+    public List<byte[]> decryptAll(final List<DecryptionRequest> requests)
+            throws IOException, EscrowAgentErrorResponseException {
+        List<AuthorizationBundle> authBundles = new ArrayList<>(
+                requests.size());
+        for (DecryptionRequest request : requests)
+            authBundles.add(request.getAuthBundle());
+        List<SecretKey> keys = getEncryptionKeys(authBundles);
+        List<byte[]> data = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            SecretKey key = keys.get(i);
+            data.add(key == null ? null : decrypt(requests.get(i)
+                    .getEncryptedData(), key, authBundles.get(i)
+                    .getDataType()));
         }
+        return data;
     }
 
     /**
@@ -149,51 +313,1125 @@ public class DataProtection {
                 dataProvenance, update);
         SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
                 .ENCRYPTION);
+        return encrypt(cleartextData, key, dataType);
+    }
+
+    /**
+     * Encrypt the specified data block, failing if the escrow agent does not
+     * grant the encryption key within the specified time.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     * @param update True if an existing field is updated; false otherwise.
+     * @param timeout Maximum time to wait for the escrow agent.
+     * @param unit Time unit of timeout.
+     *
+     * @throws org.pdguard.api.exceptions.DeadlineExceededException is thrown
+     * when the escrow agent does not respond in time.
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when the data subject denies
+     * access to the corresponding data or there is an error response from
+     * escrow agent.
+     *
+     * @return The data encrypted.
+     */
+    public byte[] encryptData(final byte[] cleartextData,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update, final long timeout, final TimeUnit unit)
+            throws IOException, EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new EncryptionBundle(dataType,
+                dataProvenance, update);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .ENCRYPTION, Deadline.after(timeout, unit));
+        return encrypt(cleartextData, key, dataType);
+    }
+
+    /**
+     * Encrypt the specified data blocks.
+     *
+     * Storage of all data blocks is authorized by escrow agent in batches of
+     * up to {@link BatchAuthorizationService#MAX_BATCH_SIZE} distinct
+     * requests; each batch takes two round trips, one for the request token
+     * and one for the authorization and the key exchange. Data subject's
+     * decision applies to each block separately, so storage of some blocks
+     * may be denied while storage of others is allowed.
+     *
+     * @param requests The data blocks to encrypt along with their type,
+     * their provenance and whether they update an existing field.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when there is an error
+     * response from escrow agent.
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the encryption occurs.
+     *
+     * @return The data encrypted in the order of requests. The data of a
+     * block whose storage was denied by data subject is null.
+     */
+    public List<byte[]> encryptAll(final List<EncryptionRequest> requests)
+            throws IOException, EscrowAgentErrorResponseException {
+        List<AuthorizationBundle> authBundles = new ArrayList<>(
+                requests.size());
+        for (EncryptionRequest request : requests)
+            authBundles.add(request.getAuthBundle());
+        List<SecretKey> keys = getEncryptionKeys(authBundles);
+        List<byte[]> data = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            SecretKey key = keys.get(i);
+            data.add(key == null ? null : encrypt(requests.get(i)
+                    .getCleartextData(), key, authBundles.get(i)
+                    .getDataType()));
+        }
+        return data;
+    }
+
+    /**
+     * Decrypt a stream of data which was encrypted by
+     * {@link #encryptStream(InputStream, OutputStream, DataType,
+     * DataProvenance, boolean)}.
+     *
+     * The encryption key is requested once for the whole stream. Data are
+     * decrypted chunk by chunk, so memory use does not depend on the length
+     * of the stream. Each chunk is written to the output stream as soon as
+     * it has been authenticated. Streams are neither flushed nor closed.
+     *
+     * @param in The stream of data to decrypt.
+     * @param out The stream where the decrypted data are written.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails or when reading or writing data fails.
+     * @throws EscrowAgentErrorResponseException when the data subject
+     * denies access to the corresponding data or there is an error response
+     * from escrow agent.
+     * @throws CryptoException (Runtime) when the encrypted data are
+     * malformed, truncated or tampered with, or when an unexpected error in
+     * the decryption occurs.
+     *
+     * @return The number of bytes decrypted.
+     */
+    public long decryptStream(final InputStream in, final OutputStream out,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose)
+            throws IOException, EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new DecryptionBundle(dataType, dataUse,
+                interactionPurpose);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .DECRYPTION);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            long length = StreamCipher.decrypt(in, out, key);
+            outcome = Outcome.ALLOWED;
+            return length;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.DECRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * Encrypt a stream of data.
+     *
+     * The encryption key is requested once for the whole stream. Data are
+     * encrypted in authenticated chunks of fixed size, so memory use does not
+     * depend on the length of the stream. Streams are neither flushed nor
+     * closed.
+     *
+     * @param in The stream of data to encrypt.
+     * @param out The stream where the encrypted data are written.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     * @param update True if an existing field is updated; false otherwise.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails or when reading or writing data fails.
+     * @throws EscrowAgentErrorResponseException when the data subject denies
+     * access to the corresponding data or there is an error response from
+     * escrow agent.
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the encryption occurs.
+     *
+     * @return The number of bytes encrypted.
+     */
+    public long encryptStream(final InputStream in, final OutputStream out,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update) throws IOException,
+            EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new EncryptionBundle(dataType,
+                dataProvenance, update);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .ENCRYPTION);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            return cipher.doFinal(cleartextData);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException
-                | InvalidKeyException | IllegalBlockSizeException
-                | BadPaddingException e) {
-            throw new CryptoException("Data encryption cannot be completed. An"
-                    + " unexpected error occurred.", e.getCause());
+            long length = StreamCipher.encrypt(in, out, key);
+            outcome = Outcome.ALLOWED;
+            return length;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.ENCRYPTION,
+                    dataType, start);
         }
     }
 
     /**
-     * This method processes a request to get the encryption key to either
-     * encrypt or decrypt a block of data.
+     * Decrypt a record which was encrypted by
+     * {@link #encryptEnvelope(byte[], DataType, DataProvenance, boolean)}.
      *
-     * It requests a request token in order to exchange it with a encryption
-     * key. Then, it requests escrow agent to grant authorization for the
-     * specified use of data and finally, it gets encryption key.
+     * @param record The record to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
      *
-     * @param authBundle Bundle of parameters required by escrow agent to grant
-     * authorization.
-     * @param requestType Type of PDGuard request. Either a encryption or
-     * decryption request.
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when the data subject
+     * denies access to the corresponding data or there is an error response
+     * from escrow agent.
+     * @throws CryptoException (Runtime) when the record is malformed or
+     * an unexpected error in the decryption occurs.
      *
-     * @return Encryption key to either encrypt or decrypt data.
+     * @return The data decrypted.
+     */
+    public byte[] decryptEnvelope(final byte[] record,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose)
+            throws IOException, EscrowAgentErrorResponseException {
+        return decryptEnvelopes(Collections.singletonList(record), dataType,
+                dataUse, interactionPurpose).get(0);
+    }
+
+    /**
+     * Decrypt the specified records of the same type of data.
      *
-     * @throws IOException is thrown when the communication
+     * The key of escrow agent is requested once; it unwraps the data key of
+     * every record.
+     *
+     * @param records The records to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
      * with the escrow agent fails.
-     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
-     * sends back an error response.
+     * @throws EscrowAgentErrorResponseException when the data subject
+     * denies access to the corresponding data or there is an error response
+     * from escrow agent.
+     * @throws CryptoException (Runtime) when a record is malformed or
+     * an unexpected error in the decryption occurs.
+     *
+     * @return The data decrypted in the order of records.
      */
-    public SecretKey getEncryptionKey(
-            final AuthorizationBundle authBundle, final PDGuardRequestType
-            requestType) throws IOException, EscrowAgentErrorResponseException {
-        EscrowAgent escrowAgent = new EscrowAgent(escrowAgentName);
-        SecureConnection secure = new SecureConnection();
-        RequestTokenService tokenService = new RequestTokenService(
-                clientCredentials, escrowAgent, secure);
-        AuthorizationService authService = new AuthorizationService(
-                clientCredentials, escrowAgent, secure, authBundle,
-                tokenService.getRequestToken(), requestType);
-        EncryptionKeyService keyService = new EncryptionKeyService(
-                clientCredentials, escrowAgent, secure, authService
-                .authorizeRequestToken());
-        return keyService.requestEncryptionKey().loadKey();
+    public List<byte[]> decryptEnvelopes(final List<byte[]> records,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose)
+            throws IOException, EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new DecryptionBundle(dataType, dataUse,
+                interactionPurpose);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .DECRYPTION);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            List<byte[]> data = new ArrayList<>(records.size());
+            for (byte[] record : records)
+                data.add(EnvelopeCipher.decrypt(record, key));
+            outcome = Outcome.ALLOWED;
+            return data;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.DECRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * Encrypt the specified data block as a record with a data key of its
+     * own.
+     *
+     * The data key is generated locally and it is wrapped with the key of
+     * escrow agent. Hence, when the key of escrow agent changes, records can
+     * be updated through
+     * {@link #rewrapEnvelopes(List, SecretKey, DataType, DataProvenance)}
+     * without encrypting their data again.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     * @param update True if an existing field is updated; false otherwise.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when the data subject denies
+     * access to the corresponding data or there is an error response from
+     * escrow agent.
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the encryption occurs.
+     *
+     * @return The record encrypted.
+     */
+    public byte[] encryptEnvelope(final byte[] cleartextData,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update) throws IOException,
+            EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new EncryptionBundle(dataType,
+                dataProvenance, update);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .ENCRYPTION);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            byte[] record = EnvelopeCipher.encrypt(cleartextData, key);
+            outcome = Outcome.ALLOWED;
+            return record;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.ENCRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * Wrap the data keys of the specified records with the current key of
+     * escrow agent, e.g. after the key has been rotated.
+     *
+     * The current key is requested once. Only the wrapped data keys are
+     * encrypted again; the encrypted data of records are left intact.
+     *
+     * @param records The records whose data keys are wrapped again.
+     * @param previousKey The key of escrow agent which currently wraps the
+     * data keys of records.
+     * @param dataType The type of the data of records.
+     * @param dataProvenance The data's provenance; where the data was obtained
+     * from.
+     *
+     * @throws java.io.IOException IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException when the data subject denies
+     * access to the corresponding data or there is an error response from
+     * escrow agent.
+     * @throws CryptoException (Runtime) when a record is malformed or it
+     * was not encrypted with the previous key.
+     *
+     * @return The records with their data keys wrapped by the current key,
+     * in the order of records.
+     */
+    public List<byte[]> rewrapEnvelopes(final List<byte[]> records,
+            final SecretKey previousKey, final DataType dataType,
+            final DataProvenance dataProvenance) throws IOException,
+            EscrowAgentErrorResponseException {
+        AuthorizationBundle authBundle = new EncryptionBundle(dataType,
+                dataProvenance, true);
+        SecretKey key = getEncryptionKey(authBundle, PDGuardRequestType
+                .ENCRYPTION);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            List<byte[]> rewrapped = new ArrayList<>(records.size());
+            for (byte[] record : records)
+                rewrapped.add(EnvelopeCipher.rewrap(record, previousKey,
+                        key));
+            outcome = Outcome.ALLOWED;
+            return rewrapped;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.ENCRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * This method decrypts a block of data with the given key.
+     *
+     * Data encrypted in the format of {@link CipherEngine} as well as data
+     * encrypted with plain AES by earlier versions are accepted.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param key Encryption key.
+     *
+     * @return The data decrypted.
+     *
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the decryption occurs.
+     */
+    static byte[] decrypt(final byte[] encryptedData,
+            final SecretKey key) {
+        return CipherEngine.decrypt(encryptedData, key);
+    }
+
+    /**
+     * This method encrypts a block of data with the given key in the
+     * format of {@link CipherEngine}.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param key Encryption key.
+     *
+     * @return The data encrypted.
+     *
+     * @throws CryptoException (Runtime) when an unexpected
+     * error in the encryption occurs.
+     */
+    static byte[] encrypt(final byte[] cleartextData,
+            final SecretKey key) {
+        return CipherEngine.encrypt(cleartextData, key);
+    }
+
+    /**
+     * This method decrypts a block of data and reports the latency of
+     * decryption.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param key Encryption key.
+     * @param dataType The type of the data to decrypt.
+     *
+     * @return The data decrypted.
+     */
+    byte[] decrypt(final byte[] encryptedData, final SecretKey key,
+            final DataType dataType) {
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            byte[] data = decrypt(encryptedData, key);
+            outcome = Outcome.ALLOWED;
+            return data;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.DECRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * This method encrypts a block of data and reports the latency of
+     * encryption.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param key Encryption key.
+     * @param dataType The type of the data to encrypt.
+     *
+     * @return The data encrypted.
+     */
+    byte[] encrypt(final byte[] cleartextData, final SecretKey key,
+            final DataType dataType) {
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            byte[] data = encrypt(cleartextData, key);
+            outcome = Outcome.ALLOWED;
+            return data;
+        } finally {
+            record(Phase.CRYPTO, outcome, PDGuardRequestType.ENCRYPTION,
+                    dataType, start);
+        }
+    }
+
+    /**
+     * This method processes a request to get the encryption key to either
+     * encrypt or decrypt a block of data.
+     *
+     * If an authorization cache is set and the same request was authorized
+     * recently, the cached key is returned without contacting escrow agent.
+     * Likewise, if a denial cache is set and the same request was denied
+     * recently, the denial is thrown again without contacting escrow agent.
+     * If a request coalescer is set and an identical request is in flight,
+     * its outcome is shared instead of running a new request.
+     * Otherwise, it requests a request token in order to exchange it with a
+     * encryption key. Then, it requests escrow agent to grant authorization
+     * for the specified use of data and finally, it gets encryption key.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    public SecretKey getEncryptionKey(
+            final AuthorizationBundle authBundle, final PDGuardRequestType
+            requestType) throws IOException, EscrowAgentErrorResponseException {
+        return getEncryptionKey(authBundle, requestType, null);
+    }
+
+    /**
+     * This method processes a request to get the encryption key to either
+     * encrypt or decrypt a block of data within a deadline.
+     *
+     * The time left is split across the phases of the PDGuard protocol: the
+     * request token, the authorization and the encryption key phases get an
+     * equal share of the time left when they start. A phase which runs out
+     * of its share fails and its connection is closed. Cancelling the
+     * deadline aborts the phase in progress.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param deadline Deadline of request or null if request is bounded by
+     * the timeouts of transport only.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws org.pdguard.api.exceptions.DeadlineExceededException is thrown
+     * when the deadline expires.
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails or the deadline is cancelled.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    public SecretKey getEncryptionKey(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        String denial = getCachedDenial(authBundle, requestType);
+        if (denial != null)
+            throw new AccessDeniedException(denial);
+        SecretKey key = getCachedKey(authBundle, requestType);
+        if (key != null)
+            return key;
+        RequestCoalescer coalescer = requestCoalescer;
+        if (coalescer == null)
+            return fetchEncryptionKey(authBundle, requestType, deadline);
+        return coalescer.execute(clientCredentials, authBundle, requestType,
+                new RequestCoalescer.KeyRequest() {
+                    @Override
+                    public SecretKey execute() throws IOException,
+                            EscrowAgentErrorResponseException {
+                        return fetchEncryptionKey(authBundle, requestType,
+                                deadline);
+                    }
+                }, deadline == null ? Long.MAX_VALUE : deadline.remaining(
+                        TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method runs the PDGuard protocol to get the encryption key of a
+     * request and updates the authorization cache with its outcome.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param deadline Deadline of request or null.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    private SecretKey fetchEncryptionKey(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        SecretKey key;
+        try {
+            key = requestEncryptionKey(authBundle, requestType, deadline);
+        } catch (AccessDeniedException e) {
+            cacheDenial(authBundle, requestType, e.getMessage());
+            throw e;
+        }
+        cacheKey(authBundle, requestType, key);
+        return key;
+    }
+
+    /**
+     * This method processes a batch of requests to get the encryption keys
+     * to either encrypt or decrypt blocks of data.
+     *
+     * Requests whose keys are found in the authorization cache are served
+     * locally, and so are requests whose denials are found in the denial
+     * cache. The rest of them are authorized by escrow agent in batch
+     * requests; identical bundles are requested once, and every batch holds
+     * at most {@link BatchAuthorizationService#MAX_BATCH_SIZE} bundles. The
+     * type of each request is defined by its bundle;
+     * encryption bundles define encryption requests and decryption bundles
+     * define decryption requests.
+     *
+     * @param authBundles Bundles of parameters required by escrow agent to
+     * grant authorization.
+     *
+     * @return Encryption keys in the order of bundles. The key of a request
+     * denied by escrow agent is null.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    public List<SecretKey> getEncryptionKeys(
+            final List<? extends AuthorizationBundle> authBundles)
+            throws IOException, EscrowAgentErrorResponseException {
+        List<SecretKey> keys = new ArrayList<>(authBundles.size());
+        Map<AuthorizationBundle, List<Integer>> pending =
+                new LinkedHashMap<>();
+        for (int i = 0; i < authBundles.size(); i++) {
+            AuthorizationBundle authBundle = authBundles.get(i);
+            PDGuardRequestType requestType = BatchAuthorizationService
+                    .getRequestType(authBundle);
+            SecretKey key = getCachedKey(authBundle, requestType);
+            keys.add(key);
+            if (key == null && getCachedDenial(authBundle,
+                    requestType) == null) {
+                List<Integer> positions = pending.get(authBundle);
+                if (positions == null) {
+                    positions = new ArrayList<>();
+                    pending.put(authBundle, positions);
+                }
+                positions.add(i);
+            }
+        }
+        List<AuthorizationBundle> unique = new ArrayList<>(pending.keySet());
+        for (int from = 0; from < unique.size();
+                from += BatchAuthorizationService.MAX_BATCH_SIZE) {
+            List<AuthorizationBundle> batch = unique.subList(from, Math.min(
+                    unique.size(), from
+                    + BatchAuthorizationService.MAX_BATCH_SIZE));
+            List<SecretKey> requested = requestEncryptionKeys(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                AuthorizationBundle authBundle = batch.get(i);
+                SecretKey key = requested.get(i);
+                for (int position : pending.get(authBundle))
+                    keys.set(position, key);
+                PDGuardRequestType requestType = BatchAuthorizationService
+                        .getRequestType(authBundle);
+                if (key == null)
+                    cacheDenial(authBundle, requestType, BATCH_DENIAL);
+                else
+                    cacheKey(authBundle, requestType, key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * This method gets a request token and exchanges it with the encryption
+     * keys of a batch of requests in a single call of escrow agent.
+     *
+     * @param authBundles Bundles of parameters required by escrow agent to
+     * grant authorization.
+     *
+     * @return Encryption keys in the order of bundles. The key of a request
+     * denied by escrow agent is null.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    List<SecretKey> requestEncryptionKeys(
+            final List<AuthorizationBundle> authBundles) throws IOException,
+            EscrowAgentErrorResponseException {
+        BatchAuthorizationService batchService = new BatchAuthorizationService(
+                clientCredentials, escrowAgent,
+                secureConnection, authBundles, getRequestToken(null));
+        List<EncryptionKey> encryptionKeys;
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            encryptionKeys = batchService.authorizeBatch();
+            outcome = Outcome.ALLOWED;
+        } finally {
+            recordCall(Phase.AUTHORIZATION, outcome, batchService, null, null,
+                    start);
+        }
+        List<SecretKey> keys = new ArrayList<>(authBundles.size());
+        for (EncryptionKey encryptionKey : encryptionKeys) {
+            if (encryptionKey == null) {
+                keys.add(null);
+                continue;
+            }
+            SecretKey key = encryptionKey.loadKey();
+            if (key == null)
+                throw new CryptoException("Escrow agent sent back an invalid"
+                        + " encryption key.");
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * This method runs the PDGuard protocol with escrow agent to get the
+     * encryption key of a request.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param deadline Deadline of request or null.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    private SecretKey requestEncryptionKey(
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        if (protocolMode == ProtocolMode.ONE_SHOT)
+            return requestOneShotKey(authBundle, requestType, deadline);
+        RequestToken requestToken = getRequestToken(split(deadline,
+                THREE_STEP_PHASES));
+        RequestToken authorized = authorizeRequestToken(authBundle,
+                requestType, requestToken, split(deadline,
+                THREE_STEP_PHASES - 1));
+        return exchangeRequestToken(authBundle, requestType, authorized,
+                split(deadline, 1));
+    }
+
+    /**
+     * This method gets the deadline of the next phase of a request.
+     *
+     * @param deadline Deadline of request or null.
+     * @param phases Number of phases left, including the next one.
+     *
+     * @return Deadline of phase or null if request has no deadline.
+     */
+    static Deadline split(final Deadline deadline, final int phases) {
+        return deadline == null ? null : deadline.split(phases);
+    }
+
+    /**
+     * This method gets the encryption key of a request in a single round
+     * trip, without a request token.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param deadline Deadline of request or null.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    SecretKey requestOneShotKey(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        OneShotKeyService service = new OneShotKeyService(clientCredentials,
+                escrowAgent, secureConnection, authBundle,
+                requestType);
+        service.setDeadline(deadline);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            SecretKey key = service.requestEncryptionKey().loadKey();
+            outcome = Outcome.ALLOWED;
+            return key;
+        } catch (AccessDeniedException e) {
+            outcome = Outcome.DENIED;
+            throw e;
+        } finally {
+            recordCall(Phase.ENCRYPTION_KEY, outcome, service, requestType,
+                    authBundle, start);
+        }
+    }
+
+    /**
+     * This method gets an unauthorized request token from escrow agent. It
+     * is the first step of the PDGuard protocol.
+     *
+     * @param deadline Deadline of phase or null. It applies only to tokens
+     * requested from escrow agent, not to tokens taken from the request
+     * token pool.
+     *
+     * @return Unauthorized request token.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    RequestToken getRequestToken(final Deadline deadline) throws IOException,
+            EscrowAgentErrorResponseException {
+        RequestTokenPool pool = requestTokenPool;
+        if (pool != null)
+            return pool.take(deadline);
+        RequestTokenService service = new RequestTokenService(
+                clientCredentials, escrowAgent,
+                secureConnection);
+        service.setDeadline(deadline);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            RequestToken requestToken = service.getRequestToken();
+            outcome = Outcome.ALLOWED;
+            return requestToken;
+        } finally {
+            recordCall(Phase.REQUEST_TOKEN, outcome, service, null, null,
+                    start);
+        }
+    }
+
+    /**
+     * This method requests escrow agent to authorize a request token for the
+     * specified use of data. It is the second step of the PDGuard protocol.
+     *
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param requestToken Unauthorized request token.
+     * @param deadline Deadline of phase or null.
+     *
+     * @return Authorized request token.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    RequestToken authorizeRequestToken(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final RequestToken requestToken, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        AuthorizationService service = new AuthorizationService(
+                clientCredentials, escrowAgent,
+                secureConnection, authBundle, requestToken, requestType);
+        service.setDeadline(deadline);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            RequestToken authorized = service.authorizeRequestToken();
+            outcome = Outcome.ALLOWED;
+            return authorized;
+        } catch (AccessDeniedException e) {
+            outcome = Outcome.DENIED;
+            throw e;
+        } finally {
+            recordCall(Phase.AUTHORIZATION, outcome, service, requestType,
+                    authBundle, start);
+        }
+    }
+
+    /**
+     * This method exchanges an authorized request token with an encryption
+     * key. It is the last step of the PDGuard protocol.
+     *
+     * @param authBundle Bundle of parameters of the authorized request.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     * @param requestToken Authorized request token.
+     * @param deadline Deadline of phase or null.
+     *
+     * @return Encryption key to either encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    SecretKey exchangeRequestToken(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final RequestToken requestToken, final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        EncryptionKeyService service = new EncryptionKeyService(
+                clientCredentials, escrowAgent,
+                secureConnection, requestToken);
+        service.setDeadline(deadline);
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.ERROR;
+        try {
+            SecretKey key = service.requestEncryptionKey().loadKey();
+            outcome = Outcome.ALLOWED;
+            return key;
+        } catch (AccessDeniedException e) {
+            outcome = Outcome.DENIED;
+            throw e;
+        } finally {
+            recordCall(Phase.ENCRYPTION_KEY, outcome, service, requestType,
+                    authBundle, start);
+        }
+    }
+
+    /**
+     * This method reports the latency of a call of escrow agent's web
+     * service, split into the establishment of connections, the parsing of
+     * response and the rest of the call.
+     *
+     * @param phase Phase of the web service.
+     * @param outcome Outcome of call.
+     * @param service Service which made the call.
+     * @param requestType Type of PDGuard request or null if the call is not
+     * bound to a request.
+     * @param authBundle Bundle of parameters of request or null if the call
+     * is not bound to a request.
+     * @param start Time (as given by System.nanoTime) when the call started.
+     */
+    private void recordCall(final Phase phase, final Outcome outcome,
+            final EscrowAgentService service,
+            final PDGuardRequestType requestType,
+            final AuthorizationBundle authBundle, final long start) {
+        PDGuardMetrics listener = metrics;
+        if (listener == null)
+            return;
+        long elapsed = System.nanoTime() - start;
+        DataType dataType = authBundle == null ? null
+                : authBundle.getDataType();
+        long handshakeTime = service.getHandshakeTime();
+        long parsingTime = service.getParsingTime();
+        if (handshakeTime > 0)
+            listener.record(Phase.TLS_HANDSHAKE, Outcome.ALLOWED,
+                    escrowAgentName, requestType, dataType, handshakeTime);
+        if (parsingTime > 0)
+            listener.record(Phase.PARSING, outcome, escrowAgentName,
+                    requestType, dataType, parsingTime);
+        listener.record(phase, outcome, escrowAgentName, requestType,
+                dataType, Math.max(0, elapsed - handshakeTime - parsingTime));
+    }
+
+    /**
+     * This method reports the latency of a phase of a request.
+     *
+     * @param phase Phase of request.
+     * @param outcome Outcome of phase.
+     * @param requestType Type of PDGuard request.
+     * @param dataType Type of data.
+     * @param start Time (as given by System.nanoTime) when the phase
+     * started.
+     */
+    private void record(final Phase phase, final Outcome outcome,
+            final PDGuardRequestType requestType, final DataType dataType,
+            final long start) {
+        PDGuardMetrics listener = metrics;
+        if (listener != null)
+            listener.record(phase, outcome, escrowAgentName, requestType,
+                    dataType, System.nanoTime() - start);
+    }
+
+    /**
+     * This method looks up the encryption key of a request in the
+     * authorization cache.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     *
+     * @return Cached encryption key or null if caching is disabled or the
+     * request was not authorized recently.
+     */
+    SecretKey getCachedKey(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        AuthorizationCache cache = authorizationCache;
+        return cache == null ? null : cache.get(clientCredentials, authBundle,
+                requestType);
+    }
+
+    /**
+     * This method stores the encryption key of an authorized request in the
+     * authorization cache, if caching is enabled.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param key Encryption key returned by escrow agent.
+     */
+    void cacheKey(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final SecretKey key) {
+        if (key == null)
+            return;
+        AuthorizationCache cache = authorizationCache;
+        if (cache != null)
+            cache.put(clientCredentials, authBundle, requestType, key);
+        DenialCache denials = denialCache;
+        if (denials != null)
+            denials.invalidate(clientCredentials, authBundle, requestType);
+    }
+
+    /**
+     * This method looks up the denial of a request in the denial cache.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     *
+     * @return Message of escrow agent's denial or null if denials are not
+     * cached or the request was not denied recently.
+     */
+    String getCachedDenial(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        DenialCache denials = denialCache;
+        return denials == null ? null : denials.get(clientCredentials,
+                authBundle, requestType);
+    }
+
+    /**
+     * This method removes the cached authorization of a denied request and
+     * stores its denial, if caching is enabled.
+     *
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param message Message of escrow agent's denial.
+     */
+    void cacheDenial(final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final String message) {
+        AuthorizationCache cache = authorizationCache;
+        if (cache != null)
+            cache.invalidate(clientCredentials, authBundle, requestType);
+        DenialCache denials = denialCache;
+        if (denials != null)
+            denials.put(clientCredentials, authBundle, requestType, message);
+    }
+
+    /**
+     * Setter of authorizationCache field.
+     *
+     * Caching is disabled by default. A cache may be shared by many
+     * <code>DataProtection</code> objects.
+     *
+     * @param authorizationCache Cache of encryption keys and authorization
+     * decisions or null to disable caching.
+     */
+    public void setAuthorizationCache(
+            final AuthorizationCache authorizationCache) {
+        this.authorizationCache = authorizationCache;
+    }
+
+    /**
+     * Setter of denialCache field.
+     *
+     * Denials are not cached by default. A cache may be shared by many
+     * <code>DataProtection</code> objects. Its time to live should be short,
+     * as data subjects may grant a denied access at any time; entries can be
+     * flushed early through the methods of the cache.
+     *
+     * @param denialCache Cache of requests denied by escrow agent or null to
+     * disable caching of denials.
+     */
+    public void setDenialCache(final DenialCache denialCache) {
+        this.denialCache = denialCache;
+    }
+
+    /**
+     * Getter of denialCache field.
+     *
+     * @return Cache of requests denied by escrow agent or null if denials are
+     * not cached.
+     */
+    public DenialCache getDenialCache() {
+        return denialCache;
+    }
+
+    /**
+     * Setter of protocolMode field.
+     *
+     * Three step mode is the default. One shot mode requires an escrow agent
+     * which supports it.
+     *
+     * @param protocolMode Way in which encryption keys are obtained from
+     * escrow agent.
+     */
+    public void setProtocolMode(final ProtocolMode protocolMode) {
+        this.protocolMode = protocolMode;
+    }
+
+    /**
+     * Getter of protocolMode field.
+     *
+     * @return Way in which encryption keys are obtained from escrow agent.
+     */
+    public ProtocolMode getProtocolMode() {
+        return protocolMode;
+    }
+
+    /**
+     * Setter of requestTokenPool field.
+     *
+     * Request tokens are obtained on demand by default. Pool must belong to
+     * the same client credentials and escrow agent as this object; it may be
+     * shared by many <code>DataProtection</code> objects of the same client.
+     *
+     * @param requestTokenPool Pool of prefetched request tokens or null to
+     * obtain request tokens on demand.
+     */
+    public void setRequestTokenPool(final RequestTokenPool requestTokenPool) {
+        this.requestTokenPool = requestTokenPool;
+    }
+
+    /**
+     * Getter of requestTokenPool field.
+     *
+     * @return Pool of prefetched request tokens or null if request tokens
+     * are obtained on demand.
+     */
+    public RequestTokenPool getRequestTokenPool() {
+        return requestTokenPool;
+    }
+
+    /**
+     * Setter of requestCoalescer field.
+     *
+     * Coalescing is disabled by default. A coalescer may be shared by many
+     * <code>DataProtection</code> objects, so that concurrent identical
+     * requests of different objects are coalesced as well.
+     *
+     * @param requestCoalescer Coalescer of concurrent identical key requests
+     * or null to disable coalescing.
+     */
+    public void setRequestCoalescer(final RequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    /**
+     * Getter of requestCoalescer field.
+     *
+     * @return Coalescer of concurrent identical key requests or null if
+     * coalescing is disabled.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Setter of metrics field.
+     *
+     * Latency is not measured by default. A listener may be shared by many
+     * <code>DataProtection</code> objects.
+     *
+     * @param metrics Listener of the latency of requests or null to stop
+     * measuring it.
+     */
+    public void setMetrics(final PDGuardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Getter of metrics field.
+     *
+     * @return Listener of the latency of requests or null if latency is not
+     * measured.
+     */
+    public PDGuardMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Getter of clientCredentials field.
+     *
+     * @return Client credentials used by escrow agent to verify requests.
+     */
+    ClientCredentials getClientCredentials() {
+        return clientCredentials;
+    }
+
+    /**
+     * Getter of authorizationCache field.
+     *
+     * @return Cache of encryption keys and authorization decisions or null
+     * if caching is disabled.
+     */
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
     }
 }
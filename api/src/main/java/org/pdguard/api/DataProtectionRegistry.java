@@ -0,0 +1,568 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api;
+
+import org.pdguard.api.cache.AuthorizationCache;
+import org.pdguard.api.cache.DenialCache;
+import org.pdguard.api.cache.RequestCoalescer;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.services.EscrowAgentTransport;
+import org.pdguard.api.services.PooledTransport;
+import org.pdguard.api.utils.ProtocolMode;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out the {@link DataProtection} objects of the data
+ * subjects served by an application.
+ *
+ * A data controller with many customers would otherwise create a
+ * <code>DataProtection</code> object, with its own caches, for every request
+ * of every customer. The objects handed out by a registry are lightweight
+ * handles of a data subject's credentials; the infrastructure they use is
+ * shared per escrow agent host: the transport with its pooled connections,
+ * the TLS context, the cache of encryption keys, the cache of denials and
+ * the coalescer of identical requests. The metrics listener and the executor
+ * of asynchronous handles are shared by all hosts.
+ *
+ * Handles are kept for reuse while they are in use. A handle which has not
+ * been asked for longer than the idle timeout is dropped, and so is the
+ * least recently used handle when the number of handles reaches its
+ * maximum; asking again for a dropped handle creates a new one. Hence, the
+ * memory used by a registry is bounded by its maximum number of handles and
+ * the sizes of its caches, regardless of the number of data subjects.
+ *
+ * Registry must be configured before the first handle is asked for; hosts
+ * are set up with the configuration which is in effect at that time.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class DataProtectionRegistry implements Closeable {
+    /** Default maximum number of handles kept. */
+    public static final int DEFAULT_MAX_SUBJECTS = 10000;
+
+    /** Default time (in milliseconds) an unused handle is kept. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000L;
+
+    /** Default maximum number of keys cached per escrow agent host. */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** Default time to live (in milliseconds) of cached keys. */
+    public static final long DEFAULT_CACHE_TIME_TO_LIVE = 60 * 1000L;
+
+    /** Initial capacity of map of handles. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of map of handles. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of handles kept. */
+    private final int maxSubjects;
+
+    /** Time (in nanoseconds) an unused handle is kept. */
+    private final long idleTimeout;
+
+    /** Shared infrastructure by name of escrow agent host. */
+    private final ConcurrentHashMap<String, Host> hosts =
+            new ConcurrentHashMap<>();
+
+    /** Handles in least recently used order. */
+    private final LinkedHashMap<SubjectId, Subject> subjects;
+
+    /** Number of handles dropped. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Transport of escrow agents. */
+    private volatile EscrowAgentTransport transport = PooledTransport
+            .getSharedInstance();
+
+    /** Connection configuration of escrow agents. */
+    private volatile SecureConnection secureConnection;
+
+    /** Maximum number of keys cached per host; zero disables caching. */
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /** Time to live (in milliseconds) of cached keys. */
+    private volatile long cacheTimeToLive = DEFAULT_CACHE_TIME_TO_LIVE;
+
+    /** Maximum number of denials cached per host; zero disables caching. */
+    private volatile int denialCacheSize;
+
+    /** Time to live (in milliseconds) of cached denials. */
+    private volatile long denialCacheTimeToLive;
+
+    /** Whether identical concurrent requests are coalesced. */
+    private volatile boolean coalescing = true;
+
+    /** Way in which encryption keys are obtained from escrow agents. */
+    private volatile ProtocolMode protocolMode = ProtocolMode.THREE_STEP;
+
+    /** Listener of the latency of requests; null if it is not measured. */
+    private volatile PDGuardMetrics metrics;
+
+    /** Executor of asynchronous handles; null until it is needed. */
+    private Executor executor;
+
+    /** Whether executor was created by registry and must be shut down. */
+    private boolean ownsExecutor;
+
+    /** Creates a registry with the default configuration. */
+    public DataProtectionRegistry() {
+        this(DEFAULT_MAX_SUBJECTS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a registry with the specified bounds.
+     *
+     * @param maxSubjects Maximum number of handles kept.
+     * @param idleTimeout Time (in milliseconds) an unused handle is kept.
+     */
+    public DataProtectionRegistry(final int maxSubjects,
+            final long idleTimeout) {
+        if (maxSubjects < 1 || idleTimeout < 0)
+            throw new IllegalArgumentException("Invalid registry"
+                    + " configuration");
+        this.maxSubjects = maxSubjects;
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        subjects = new LinkedHashMap<SubjectId, Subject>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<SubjectId, Subject> eldest) {
+                if (size() <= DataProtectionRegistry.this.maxSubjects)
+                    return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * This method gets the handle of a data subject.
+     *
+     * @param escrowAgentName The DNS name of the data subject's escrow agent.
+     * @param clientCredentials Client credentials of data subject.
+     * @return Handle which encrypts and decrypts the data of data subject.
+     */
+    public DataProtection get(final String escrowAgentName,
+            final ClientCredentials clientCredentials) {
+        return getSubject(escrowAgentName, clientCredentials).dataProtection;
+    }
+
+    /**
+     * This method gets the asynchronous handle of a data subject.
+     *
+     * Asynchronous handles run on the executor of registry.
+     *
+     * @param escrowAgentName The DNS name of the data subject's escrow agent.
+     * @param clientCredentials Client credentials of data subject.
+     * @return Asynchronous handle which encrypts and decrypts the data of
+     * data subject.
+     */
+    public AsyncDataProtection getAsync(final String escrowAgentName,
+            final ClientCredentials clientCredentials) {
+        Subject subject = getSubject(escrowAgentName, clientCredentials);
+        synchronized (subject) {
+            if (subject.async == null)
+                subject.async = new AsyncDataProtection(
+                        subject.dataProtection, getExecutor());
+            return subject.async;
+        }
+    }
+
+    /**
+     * This method gets the handle of a data subject, creating it if it is
+     * not kept, and drops the handles which have been idle for too long.
+     *
+     * @param escrowAgentName The DNS name of the data subject's escrow agent.
+     * @param clientCredentials Client credentials of data subject.
+     * @return Handle of data subject.
+     */
+    private Subject getSubject(final String escrowAgentName,
+            final ClientCredentials clientCredentials) {
+        SubjectId subjectId = new SubjectId(escrowAgentName,
+                clientCredentials);
+        long now = System.nanoTime();
+        synchronized (subjects) {
+            Subject subject = subjects.get(subjectId);
+            if (subject == null) {
+                subject = new Subject(getHost(escrowAgentName)
+                        .newDataProtection(clientCredentials));
+                subjects.put(subjectId, subject);
+            }
+            subject.lastUsed = now;
+            evictIdleSubjects(now);
+            return subject;
+        }
+    }
+
+    /**
+     * This method gets the shared infrastructure of an escrow agent host.
+     *
+     * @param escrowAgentName The DNS name of escrow agent.
+     * @return Infrastructure of host.
+     */
+    private Host getHost(final String escrowAgentName) {
+        Host host = hosts.get(escrowAgentName);
+        if (host != null)
+            return host;
+        Host created = new Host(escrowAgentName);
+        host = hosts.putIfAbsent(escrowAgentName, created);
+        return host == null ? created : host;
+    }
+
+    /** This method drops the handles which have been idle for too long. */
+    public void evictIdleSubjects() {
+        synchronized (subjects) {
+            evictIdleSubjects(System.nanoTime());
+        }
+    }
+
+    /**
+     * This method drops the handles which have been idle for too long.
+     * Handles are kept in least recently used order, so only the eldest
+     * ones are examined.
+     *
+     * @param now Current time (as given by System.nanoTime).
+     */
+    private void evictIdleSubjects(final long now) {
+        Iterator<Subject> it = subjects.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastUsed < idleTimeout)
+                return;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * This method drops the handle of a data subject and the encryption keys
+     * and denials cached for it, e.g. when the data subject is deleted.
+     *
+     * @param escrowAgentName The DNS name of the data subject's escrow agent.
+     * @param clientCredentials Client credentials of data subject.
+     */
+    public void invalidate(final String escrowAgentName,
+            final ClientCredentials clientCredentials) {
+        synchronized (subjects) {
+            subjects.remove(new SubjectId(escrowAgentName,
+                    clientCredentials));
+        }
+        Host host = hosts.get(escrowAgentName);
+        if (host == null)
+            return;
+        if (host.authorizationCache != null)
+            host.authorizationCache.invalidate(clientCredentials);
+        if (host.denialCache != null)
+            host.denialCache.invalidate(clientCredentials);
+    }
+
+    /**
+     * This method shuts down the executor of asynchronous handles, if it was
+     * created by registry, and drops all handles. The shared transport is
+     * left open.
+     */
+    @Override
+    public void close() {
+        synchronized (subjects) {
+            subjects.clear();
+        }
+        synchronized (this) {
+            if (ownsExecutor)
+                ((ExecutorService) executor).shutdown();
+            executor = null;
+            ownsExecutor = false;
+        }
+    }
+
+    /**
+     * Getter of executor field. A bounded executor is created when the first
+     * asynchronous handle is asked for, unless one has been set.
+     *
+     * @return Executor of asynchronous handles.
+     */
+    public synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = AsyncDataProtection.newBoundedExecutor(
+                    AsyncDataProtection.DEFAULT_THREADS,
+                    AsyncDataProtection.DEFAULT_QUEUE_CAPACITY);
+            ownsExecutor = true;
+        }
+        return executor;
+    }
+
+    /**
+     * Setter of executor field.
+     *
+     * @param executor Executor of asynchronous handles; it is not shut down
+     * by registry.
+     */
+    public synchronized void setExecutor(final Executor executor) {
+        this.executor = executor;
+        ownsExecutor = false;
+    }
+
+    /**
+     * Setter of transport field.
+     *
+     * @param transport Transport of escrow agents.
+     */
+    public void setTransport(final EscrowAgentTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Setter of secureConnection field.
+     *
+     * @param secureConnection Connection configuration of escrow agents; by
+     * default, the TLS context shared by application is used.
+     */
+    public void setSecureConnection(final SecureConnection secureConnection) {
+        this.secureConnection = secureConnection;
+    }
+
+    /**
+     * This method configures the cache of encryption keys of every escrow
+     * agent host.
+     *
+     * @param maxEntries Maximum number of keys cached per host; zero
+     * disables caching.
+     * @param timeToLive Time to live (in milliseconds) of cached keys.
+     */
+    public void setKeyCaching(final int maxEntries, final long timeToLive) {
+        cacheSize = maxEntries;
+        cacheTimeToLive = timeToLive;
+    }
+
+    /**
+     * This method configures the cache of denials of every escrow agent
+     * host. Denials are not cached by default.
+     *
+     * @param maxEntries Maximum number of denials cached per host; zero
+     * disables caching.
+     * @param timeToLive Time to live (in milliseconds) of cached denials.
+     */
+    public void setDenialCaching(final int maxEntries,
+            final long timeToLive) {
+        denialCacheSize = maxEntries;
+        denialCacheTimeToLive = timeToLive;
+    }
+
+    /**
+     * Setter of coalescing field.
+     *
+     * @param coalescing Whether identical concurrent requests are coalesced.
+     */
+    public void setCoalescing(final boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Setter of protocolMode field.
+     *
+     * @param protocolMode Way in which encryption keys are obtained from
+     * escrow agents.
+     */
+    public void setProtocolMode(final ProtocolMode protocolMode) {
+        this.protocolMode = protocolMode;
+    }
+
+    /**
+     * Setter of metrics field.
+     *
+     * @param metrics Listener of the latency of requests or null.
+     */
+    public void setMetrics(final PDGuardMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Getter of the cache of encryption keys of an escrow agent host.
+     *
+     * @param escrowAgentName The DNS name of escrow agent.
+     * @return Cache of host or null if keys are not cached or no handle of
+     * host has been asked for.
+     */
+    public AuthorizationCache getAuthorizationCache(
+            final String escrowAgentName) {
+        Host host = hosts.get(escrowAgentName);
+        return host == null ? null : host.authorizationCache;
+    }
+
+    /**
+     * Getter of the cache of denials of an escrow agent host.
+     *
+     * @param escrowAgentName The DNS name of escrow agent.
+     * @return Cache of host or null if denials are not cached or no handle
+     * of host has been asked for.
+     */
+    public DenialCache getDenialCache(final String escrowAgentName) {
+        Host host = hosts.get(escrowAgentName);
+        return host == null ? null : host.denialCache;
+    }
+
+    /**
+     * Getter of the number of handles kept.
+     *
+     * @return Number of handles kept, including idle ones which have not
+     * been dropped yet.
+     */
+    public int size() {
+        synchronized (subjects) {
+            return subjects.size();
+        }
+    }
+
+    /**
+     * Getter of the number of dropped handles.
+     *
+     * @return Number of handles dropped because they were idle or the
+     * maximum number of handles was reached.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Infrastructure shared by the handles of an escrow agent host. */
+    private final class Host {
+        /** Escrow agent with the transport of registry. */
+        private final EscrowAgent escrowAgent;
+
+        /** Connection configuration of escrow agent. */
+        private final SecureConnection connection;
+
+        /** Cache of encryption keys or null. */
+        private final AuthorizationCache authorizationCache;
+
+        /** Cache of denials or null. */
+        private final DenialCache denialCache;
+
+        /** Coalescer of identical requests or null. */
+        private final RequestCoalescer requestCoalescer;
+
+        /**
+         * Sets up the infrastructure of a host with the current
+         * configuration of registry.
+         *
+         * @param escrowAgentName The DNS name of escrow agent.
+         */
+        Host(final String escrowAgentName) {
+            escrowAgent = new EscrowAgent(escrowAgentName, transport);
+            connection = secureConnection == null ? new SecureConnection()
+                    : secureConnection;
+            authorizationCache = cacheSize > 0 ? new AuthorizationCache(
+                    cacheSize, cacheTimeToLive) : null;
+            denialCache = denialCacheSize > 0 ? new DenialCache(
+                    denialCacheSize, denialCacheTimeToLive) : null;
+            requestCoalescer = coalescing ? new RequestCoalescer() : null;
+        }
+
+        /**
+         * This method creates the handle of a data subject of host.
+         *
+         * @param clientCredentials Client credentials of data subject.
+         * @return Handle of data subject.
+         */
+        DataProtection newDataProtection(
+                final ClientCredentials clientCredentials) {
+            DataProtection dataProtection = new DataProtection(escrowAgent,
+                    clientCredentials, connection);
+            dataProtection.setAuthorizationCache(authorizationCache);
+            dataProtection.setDenialCache(denialCache);
+            dataProtection.setRequestCoalescer(requestCoalescer);
+            dataProtection.setProtocolMode(protocolMode);
+            dataProtection.setMetrics(metrics);
+            return dataProtection;
+        }
+    }
+
+    /** Handle of a data subject kept by registry. */
+    private static final class Subject {
+        /** Handle of data subject. */
+        private final DataProtection dataProtection;
+
+        /** Asynchronous handle of data subject or null until it is needed. */
+        private AsyncDataProtection async;
+
+        /** Time (as given by System.nanoTime) when handle was last asked. */
+        private long lastUsed;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param dataProtection Handle of data subject.
+         */
+        Subject(final DataProtection dataProtection) {
+            this.dataProtection = dataProtection;
+        }
+    }
+
+    /** Identifier of a data subject. */
+    private static final class SubjectId {
+        /** The DNS name of the data subject's escrow agent. */
+        private final String escrowAgentName;
+
+        /** Identifier of client. */
+        private final String clientId;
+
+        /** Secret of client. */
+        private final String clientSecret;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param escrowAgentName The DNS name of escrow agent.
+         * @param credentials Client credentials of data subject.
+         */
+        SubjectId(final String escrowAgentName,
+                final ClientCredentials credentials) {
+            this.escrowAgentName = escrowAgentName;
+            clientId = credentials.getClientId();
+            clientSecret = credentials.getClientSecret();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof SubjectId))
+                return false;
+            SubjectId subjectId = (SubjectId) o;
+            return Objects.equals(escrowAgentName, subjectId.escrowAgentName)
+                    && Objects.equals(clientId, subjectId.clientId)
+                    && Objects.equals(clientSecret, subjectId.clientSecret);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(escrowAgentName, clientId, clientSecret);
+        }
+    }
+}
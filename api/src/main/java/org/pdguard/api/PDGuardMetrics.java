@@ -0,0 +1,101 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api;
+
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+/**
+ * This interface is implemented by listeners which receive the latency of
+ * every phase of a PDGuard request, e.g. to chart where the time of a slow
+ * <code>decryptData</code> call was spent.
+ *
+ * The calls of escrow agent's web services are split into disjoint phases:
+ * establishing connections (including the TLS handshake), the exchange with
+ * the web service itself and the parsing of its response. The encryption
+ * or decryption of data which follows is reported as a phase of its own.
+ *
+ * Listeners are called synchronously by the threads which make the
+ * requests, possibly concurrently, so they must be thread-safe and return
+ * quickly.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public interface PDGuardMetrics {
+    /**
+     * This method receives the latency of a phase of a request.
+     *
+     * @param phase Phase of request.
+     * @param outcome Outcome of phase.
+     * @param escrowAgentName The DNS name of escrow agent.
+     * @param requestType Type of PDGuard request or null if the phase is not
+     * bound to a request, e.g. when a request token is obtained or a batch
+     * is authorized.
+     * @param dataType Type of data or null if the phase is not bound to a
+     * request.
+     * @param nanos Duration of phase in nanoseconds.
+     */
+    void record(Phase phase, Outcome outcome, String escrowAgentName,
+            PDGuardRequestType requestType, DataType dataType, long nanos);
+
+    /**
+     * This enumeration defines the phases of a PDGuard request.
+     */
+    enum Phase {
+        /**
+         * Establishment of a new connection with escrow agent, including the
+         * TLS handshake. It is not reported when a pooled connection is
+         * reused.
+         */
+        TLS_HANDSHAKE,
+
+        /** Call of the web service which issues request tokens. */
+        REQUEST_TOKEN,
+
+        /** Call of the web service which authorizes request tokens. */
+        AUTHORIZATION,
+
+        /**
+         * Call of the web service which issues encryption keys, in either
+         * protocol mode.
+         */
+        ENCRYPTION_KEY,
+
+        /** Parsing of a response of escrow agent. */
+        PARSING,
+
+        /** Encryption or decryption of data with the encryption key. */
+        CRYPTO
+    }
+
+    /**
+     * This enumeration defines the outcomes of a phase.
+     */
+    enum Outcome {
+        /** Phase completed successfully. */
+        ALLOWED,
+
+        /** Escrow agent denied access to data. */
+        DENIED,
+
+        /**
+         * Phase failed, e.g. because of a communication failure or an error
+         * response of escrow agent.
+         */
+        ERROR
+    }
+}
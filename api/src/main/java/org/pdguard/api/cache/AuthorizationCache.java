@@ -0,0 +1,388 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.cache;
+
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded cache of the encryption keys and the authorization
+ * decisions obtained from escrow agents.
+ *
+ * Escrow agent derives the encryption key from the data subject and the
+ * type of data, so keys are cached per client credentials and data type.
+ * Authorization, on the other hand, depends on the whole authorization bundle;
+ * a cached key is returned only if the same bundle was authorized as well.
+ *
+ * Entries expire after a fixed time to live. When the cache is full, the
+ * least recently used entries are evicted. The bytes of evicted, expired or
+ * invalidated keys are overwritten with zeros.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class AuthorizationCache {
+    /** Initial capacity of maps. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of maps. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of keys and of decisions held by cache. */
+    private final int maxEntries;
+
+    /** Time to live (in nanoseconds) of entries. */
+    private final long timeToLive;
+
+    /** Cached keys in least recently used order. */
+    private final Map<KeyId, CachedKey> keys;
+
+    /** Expiration times of cached decisions in least recently used order. */
+    private final Map<DecisionId, Long> decisions;
+
+    /** Number of lookups served by cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups not served by cache. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries Maximum number of keys and of decisions held by cache.
+     * @param timeToLive Time to live (in milliseconds) of entries.
+     */
+    public AuthorizationCache(final int maxEntries, final long timeToLive) {
+        if (maxEntries < 1 || timeToLive < 0)
+            throw new IllegalArgumentException("Invalid cache configuration");
+        this.maxEntries = maxEntries;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        keys = new LinkedHashMap<KeyId, CachedKey>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<KeyId, CachedKey> eldest) {
+                if (size() <= AuthorizationCache.this.maxEntries)
+                    return false;
+                eldest.getValue().destroy();
+                return true;
+            }
+        };
+        decisions = new LinkedHashMap<DecisionId, Long>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<DecisionId, Long> eldest) {
+                return size() > AuthorizationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * This method looks up the encryption key for an authorized request.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @return Encryption key or null if either the key or the authorization
+     * of request is not cached.
+     */
+    public synchronized SecretKey get(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        long now = System.nanoTime();
+        DecisionId decisionId = new DecisionId(credentials, authBundle,
+                requestType);
+        Long expiration = decisions.get(decisionId);
+        if (expiration != null && expiration - now <= 0) {
+            decisions.remove(decisionId);
+            expiration = null;
+        }
+        KeyId keyId = new KeyId(credentials, authBundle.getDataType());
+        CachedKey key = keys.get(keyId);
+        if (key != null && key.expiration - now <= 0) {
+            keys.remove(keyId).destroy();
+            key = null;
+        }
+        if (expiration == null || key == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new SecretKeySpec(key.encoded, key.algorithm);
+    }
+
+    /**
+     * This method stores the encryption key of an authorized request.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param key Encryption key returned by escrow agent.
+     */
+    public synchronized void put(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final SecretKey key) {
+        byte[] encoded = key.getEncoded();
+        if (encoded == null)
+            return;
+        long expiration = System.nanoTime() + timeToLive;
+        decisions.put(new DecisionId(credentials, authBundle, requestType),
+                expiration);
+        CachedKey previous = keys.put(new KeyId(credentials,
+                authBundle.getDataType()), new CachedKey(encoded,
+                key.getAlgorithm(), expiration));
+        if (previous != null)
+            previous.destroy();
+    }
+
+    /**
+     * This method removes the cached authorization of a request, e.g. when
+     * escrow agent has denied it.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        decisions.remove(new DecisionId(credentials, authBundle,
+                requestType));
+    }
+
+    /**
+     * This method removes the cached key and all cached authorizations of
+     * a data type.
+     *
+     * @param credentials Credentials of client.
+     * @param dataType Type of data.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials,
+            final DataType dataType) {
+        KeyId keyId = new KeyId(credentials, dataType);
+        CachedKey key = keys.remove(keyId);
+        if (key != null)
+            key.destroy();
+        Iterator<DecisionId> it = decisions.keySet().iterator();
+        while (it.hasNext()) {
+            DecisionId decisionId = it.next();
+            if (decisionId.keyId.equals(keyId))
+                it.remove();
+        }
+    }
+
+    /**
+     * This method removes all cached keys and authorizations of a client.
+     *
+     * @param credentials Credentials of client.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials) {
+        Iterator<Map.Entry<KeyId, CachedKey>> keyIt = keys.entrySet()
+                .iterator();
+        while (keyIt.hasNext()) {
+            Map.Entry<KeyId, CachedKey> entry = keyIt.next();
+            if (entry.getKey().isOwnedBy(credentials)) {
+                entry.getValue().destroy();
+                keyIt.remove();
+            }
+        }
+        Iterator<DecisionId> it = decisions.keySet().iterator();
+        while (it.hasNext())
+            if (it.next().keyId.isOwnedBy(credentials))
+                it.remove();
+    }
+
+    /** This method removes all entries of cache. */
+    public synchronized void invalidateAll() {
+        for (CachedKey key : keys.values())
+            key.destroy();
+        keys.clear();
+        decisions.clear();
+    }
+
+    /**
+     * Getter of the number of cached keys.
+     *
+     * @return Number of keys held by cache, including expired ones which have
+     * not been removed yet.
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    /**
+     * Getter of the number of cache hits.
+     *
+     * @return Number of lookups served by cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Getter of the number of cache misses.
+     *
+     * @return Number of lookups not served by cache.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Identifier of a cached key. */
+    private static final class KeyId {
+        /** Identifier of client. */
+        private final String clientId;
+
+        /** Secret of client. */
+        private final String clientSecret;
+
+        /** Type of data. */
+        private final DataType dataType;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param credentials Credentials of client.
+         * @param dataType Type of data.
+         */
+        KeyId(final ClientCredentials credentials, final DataType dataType) {
+            clientId = credentials.getClientId();
+            clientSecret = credentials.getClientSecret();
+            this.dataType = dataType;
+        }
+
+        /**
+         * This method checks if key belongs to the specified client.
+         *
+         * @param credentials Credentials of client.
+         * @return true if key was obtained with the same credentials.
+         */
+        boolean isOwnedBy(final ClientCredentials credentials) {
+            return Objects.equals(clientId, credentials.getClientId())
+                    && Objects.equals(clientSecret,
+                    credentials.getClientSecret());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof KeyId))
+                return false;
+            KeyId keyId = (KeyId) o;
+            return dataType == keyId.dataType
+                    && Objects.equals(clientId, keyId.clientId)
+                    && Objects.equals(clientSecret, keyId.clientSecret);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientId, clientSecret, dataType);
+        }
+    }
+
+    /** Identifier of a cached authorization decision. */
+    private static final class DecisionId {
+        /** Identifier of the key that the decision refers to. */
+        private final KeyId keyId;
+
+        /** Bundle of parameters of request. */
+        private final AuthorizationBundle authBundle;
+
+        /** Type of PDGuard request. */
+        private final PDGuardRequestType requestType;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param credentials Credentials of client.
+         * @param authBundle Bundle of parameters of request.
+         * @param requestType Type of PDGuard request.
+         */
+        DecisionId(final ClientCredentials credentials,
+                final AuthorizationBundle authBundle,
+                final PDGuardRequestType requestType) {
+            keyId = new KeyId(credentials, authBundle.getDataType());
+            this.authBundle = authBundle;
+            this.requestType = requestType;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof DecisionId))
+                return false;
+            DecisionId decisionId = (DecisionId) o;
+            return requestType == decisionId.requestType
+                    && keyId.equals(decisionId.keyId)
+                    && authBundle.equals(decisionId.authBundle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keyId, authBundle, requestType);
+        }
+    }
+
+    /** Encryption key held by cache. */
+    private static final class CachedKey {
+        /** Bytes of key. */
+        private final byte[] encoded;
+
+        /** Algorithm of key. */
+        private final String algorithm;
+
+        /** Time (as given by System.nanoTime) when the key expires. */
+        private final long expiration;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param encoded Bytes of key; cache takes ownership of array.
+         * @param algorithm Algorithm of key.
+         * @param expiration Time when the key expires.
+         */
+        CachedKey(final byte[] encoded, final String algorithm,
+                final long expiration) {
+            this.encoded = encoded;
+            this.algorithm = algorithm;
+            this.expiration = expiration;
+        }
+
+        /** This method overwrites bytes of key with zeros. */
+        void destroy() {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.cache;
+
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded cache of the requests which escrow agents have
+ * denied recently.
+ *
+ * A denial is cached per client credentials and authorization bundle, i.e.
+ * per data type, data use and interaction purpose for decryption requests,
+ * so that retries of a denied request fail locally instead of running the
+ * PDGuard protocol only to be denied again. Data subjects may change their
+ * rules at any time, hence the time to live of denials is meant to be short
+ * and is configured separately from the {@link AuthorizationCache}.
+ * Denials can also be flushed early, e.g. when a data subject is known to
+ * have granted access.
+ *
+ * When the cache is full, the least recently used denials are evicted.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class DenialCache {
+    /** Initial capacity of map. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of map. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of denials held by cache. */
+    private final int maxEntries;
+
+    /** Time to live (in nanoseconds) of denials. */
+    private final long timeToLive;
+
+    /** Cached denials in least recently used order. */
+    private final Map<DenialId, Denial> denials;
+
+    /** Number of lookups served by cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of lookups not served by cache. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries Maximum number of denials held by cache.
+     * @param timeToLive Time to live (in milliseconds) of denials.
+     */
+    public DenialCache(final int maxEntries, final long timeToLive) {
+        if (maxEntries < 1 || timeToLive < 0)
+            throw new IllegalArgumentException("Invalid cache configuration");
+        this.maxEntries = maxEntries;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        denials = new LinkedHashMap<DenialId, Denial>(INITIAL_CAPACITY,
+                LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<DenialId, Denial> eldest) {
+                return size() > DenialCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * This method looks up the denial of a request.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @return Message of escrow agent's denial or null if the request was not
+     * denied recently.
+     */
+    public synchronized String get(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        DenialId denialId = new DenialId(credentials, authBundle,
+                requestType);
+        Denial denial = denials.get(denialId);
+        if (denial != null && denial.expiration - System.nanoTime() <= 0) {
+            denials.remove(denialId);
+            denial = null;
+        }
+        if (denial == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return denial.message;
+    }
+
+    /**
+     * This method stores the denial of a request.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param message Message of escrow agent's denial.
+     */
+    public synchronized void put(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final String message) {
+        denials.put(new DenialId(credentials, authBundle, requestType),
+                new Denial(message, System.nanoTime() + timeToLive));
+    }
+
+    /**
+     * This method removes the denial of a request, e.g. when escrow agent
+     * has authorized it.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        denials.remove(new DenialId(credentials, authBundle, requestType));
+    }
+
+    /**
+     * This method removes all denials of a data type.
+     *
+     * @param credentials Credentials of client.
+     * @param dataType Type of data.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials,
+            final DataType dataType) {
+        Iterator<DenialId> it = denials.keySet().iterator();
+        while (it.hasNext()) {
+            DenialId denialId = it.next();
+            if (denialId.isOwnedBy(credentials)
+                    && denialId.authBundle.getDataType() == dataType)
+                it.remove();
+        }
+    }
+
+    /**
+     * This method removes all denials of a client.
+     *
+     * @param credentials Credentials of client.
+     */
+    public synchronized void invalidate(final ClientCredentials credentials) {
+        Iterator<DenialId> it = denials.keySet().iterator();
+        while (it.hasNext())
+            if (it.next().isOwnedBy(credentials))
+                it.remove();
+    }
+
+    /** This method removes all denials of cache. */
+    public synchronized void invalidateAll() {
+        denials.clear();
+    }
+
+    /**
+     * Getter of the number of cached denials.
+     *
+     * @return Number of denials held by cache, including expired ones which
+     * have not been removed yet.
+     */
+    public synchronized int size() {
+        return denials.size();
+    }
+
+    /**
+     * Getter of the number of cache hits.
+     *
+     * @return Number of lookups served by cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Getter of the number of cache misses.
+     *
+     * @return Number of lookups not served by cache.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Identifier of a denied request. */
+    private static final class DenialId {
+        /** Identifier of client. */
+        private final String clientId;
+
+        /** Secret of client. */
+        private final String clientSecret;
+
+        /** Bundle of parameters of request. */
+        private final AuthorizationBundle authBundle;
+
+        /** Type of PDGuard request. */
+        private final PDGuardRequestType requestType;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param credentials Credentials of client.
+         * @param authBundle Bundle of parameters of request.
+         * @param requestType Type of PDGuard request.
+         */
+        DenialId(final ClientCredentials credentials,
+                final AuthorizationBundle authBundle,
+                final PDGuardRequestType requestType) {
+            clientId = credentials.getClientId();
+            clientSecret = credentials.getClientSecret();
+            this.authBundle = authBundle;
+            this.requestType = requestType;
+        }
+
+        /**
+         * This method checks if request was made by the specified client.
+         *
+         * @param credentials Credentials of client.
+         * @return true if request was made with the same credentials.
+         */
+        boolean isOwnedBy(final ClientCredentials credentials) {
+            return Objects.equals(clientId, credentials.getClientId())
+                    && Objects.equals(clientSecret,
+                    credentials.getClientSecret());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof DenialId))
+                return false;
+            DenialId denialId = (DenialId) o;
+            return requestType == denialId.requestType
+                    && Objects.equals(clientId, denialId.clientId)
+                    && Objects.equals(clientSecret, denialId.clientSecret)
+                    && authBundle.equals(denialId.authBundle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientId, clientSecret, authBundle,
+                    requestType);
+        }
+    }
+
+    /** Denial held by cache. */
+    private static final class Denial {
+        /** Message of escrow agent's denial. */
+        private final String message;
+
+        /** Time (as given by System.nanoTime) when the denial expires. */
+        private final long expiration;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param message Message of escrow agent's denial.
+         * @param expiration Time when the denial expires.
+         */
+        Denial(final String message, final long expiration) {
+            this.message = message;
+            this.expiration = expiration;
+        }
+    }
+}
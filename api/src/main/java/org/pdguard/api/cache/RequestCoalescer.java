@@ -0,0 +1,331 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.cache;
+
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * This class coalesces concurrent identical requests for encryption keys.
+ *
+ * Requests are identical if they are made with the same client credentials,
+ * authorization bundle and type of PDGuard request. The first caller runs
+ * the request against escrow agent; callers which arrive while it is in
+ * flight share its future and get the same key or the same exception,
+ * instead of running the PDGuard protocol once more. Once a request
+ * completes, the next identical call runs a new one; results are not kept,
+ * which is the job of {@link AuthorizationCache}.
+ *
+ * A coalescer may be shared by many <code>DataProtection</code> objects.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class RequestCoalescer {
+    /** Futures of requests in flight. */
+    private final ConcurrentMap<FlightId, CompletableFuture<SecretKey>>
+            flights = new ConcurrentHashMap<>();
+
+    /** Number of requests which were run against escrow agent. */
+    private final AtomicLong executions = new AtomicLong();
+
+    /** Number of calls which were served by a request in flight. */
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    /**
+     * A blocking request for an encryption key which may be coalesced.
+     */
+    public interface KeyRequest {
+        /**
+         * This method runs the request against escrow agent.
+         *
+         * @return Encryption key.
+         *
+         * @throws IOException is thrown when the communication
+         * with the escrow agent fails.
+         * @throws EscrowAgentErrorResponseException is thrown when escrow
+         * agent sends back an error response.
+         */
+        SecretKey execute() throws IOException,
+                EscrowAgentErrorResponseException;
+    }
+
+    /**
+     * This method runs a request for an encryption key, unless an identical
+     * request is already in flight, in which case it waits for its outcome.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param request Request to run if no identical request is in flight.
+     *
+     * @return Encryption key returned by the request.
+     *
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails or the calling thread is interrupted while
+     * waiting.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    public SecretKey execute(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final KeyRequest request)
+            throws IOException, EscrowAgentErrorResponseException {
+        return execute(credentials, authBundle, requestType, request,
+                Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method runs a request for an encryption key, unless an identical
+     * request is already in flight, in which case it waits at most the
+     * specified time for its outcome. The request in flight is not affected
+     * when a caller stops waiting for it.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param request Request to run if no identical request is in flight.
+     * @param timeout Maximum time to wait for a request in flight.
+     * @param unit Time unit of timeout.
+     *
+     * @return Encryption key returned by the request.
+     *
+     * @throws DeadlineExceededException is thrown when the request in flight
+     * does not complete in time.
+     * @throws IOException is thrown when the communication
+     * with the escrow agent fails or the calling thread is interrupted while
+     * waiting.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
+     */
+    public SecretKey execute(final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType, final KeyRequest request,
+            final long timeout, final TimeUnit unit)
+            throws IOException, EscrowAgentErrorResponseException {
+        FlightId flightId = new FlightId(credentials, authBundle, requestType);
+        CompletableFuture<SecretKey> flight = new CompletableFuture<>();
+        CompletableFuture<SecretKey> inFlight = flights.putIfAbsent(flightId,
+                flight);
+        if (inFlight != null) {
+            deduplicated.incrementAndGet();
+            return await(inFlight, timeout, unit);
+        }
+        executions.incrementAndGet();
+        SecretKey key = null;
+        Throwable failure = null;
+        try {
+            key = request.execute();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        flights.remove(flightId, flight);
+        if (failure == null)
+            flight.complete(key);
+        else
+            flight.completeExceptionally(failure);
+        return await(flight, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method starts an asynchronous request for an encryption key,
+     * unless an identical request is already in flight, in which case it
+     * returns the future of that request.
+     *
+     * @param credentials Credentials of client.
+     * @param authBundle Bundle of parameters of request.
+     * @param requestType Type of PDGuard request.
+     * @param request Supplier which starts the request if no identical
+     * request is in flight.
+     *
+     * @return Future of the encryption key, shared by all callers of the
+     * same request.
+     */
+    public CompletableFuture<SecretKey> executeAsync(
+            final ClientCredentials credentials,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType,
+            final Supplier<CompletableFuture<SecretKey>> request) {
+        final FlightId flightId = new FlightId(credentials, authBundle,
+                requestType);
+        final CompletableFuture<SecretKey> flight = new CompletableFuture<>();
+        CompletableFuture<SecretKey> inFlight = flights.putIfAbsent(flightId,
+                flight);
+        if (inFlight != null) {
+            deduplicated.incrementAndGet();
+            return inFlight;
+        }
+        executions.incrementAndGet();
+        CompletableFuture<SecretKey> started;
+        try {
+            started = request.get();
+        } catch (RuntimeException | Error e) {
+            flights.remove(flightId, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete(new BiConsumer<SecretKey, Throwable>() {
+            @Override
+            public void accept(final SecretKey key, final Throwable error) {
+                flights.remove(flightId, flight);
+                if (error == null)
+                    flight.complete(key);
+                else
+                    flight.completeExceptionally(error);
+            }
+        });
+        return flight;
+    }
+
+    /**
+     * Getter of the number of requests run against escrow agent.
+     *
+     * @return Number of calls which were not coalesced.
+     */
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * Getter of the number of deduplicated calls.
+     *
+     * @return Number of calls which were served by an identical request in
+     * flight.
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    /**
+     * Getter of the number of requests in flight.
+     *
+     * @return Number of distinct requests currently run against escrow agent.
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * This method waits for a request to complete.
+     *
+     * @param flight Future of request.
+     * @param timeout Maximum time to wait.
+     * @param unit Time unit of timeout.
+     *
+     * @return Encryption key returned by request.
+     *
+     * @throws IOException is thrown when request failed with an
+     * IOException, the calling thread is interrupted or the time to wait
+     * elapses.
+     * @throws EscrowAgentErrorResponseException is thrown when request
+     * failed with an error response of escrow agent.
+     */
+    private static SecretKey await(final CompletableFuture<SecretKey> flight,
+            final long timeout, final TimeUnit unit)
+            throws IOException, EscrowAgentErrorResponseException {
+        try {
+            return flight.get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(
+                    "Deadline exceeded while waiting for encryption key");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for encryption key");
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof CompletionException && t.getCause() != null)
+                t = t.getCause();
+            if (t instanceof IOException)
+                throw (IOException) t;
+            if (t instanceof EscrowAgentErrorResponseException)
+                throw (EscrowAgentErrorResponseException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            throw new CompletionException(t);
+        }
+    }
+
+    /** Identifier of a request. */
+    private static final class FlightId {
+        /** Identifier of client. */
+        private final String clientId;
+
+        /** Secret of client. */
+        private final String clientSecret;
+
+        /** Bundle of parameters of request. */
+        private final AuthorizationBundle authBundle;
+
+        /** Type of PDGuard request. */
+        private final PDGuardRequestType requestType;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param credentials Credentials of client.
+         * @param authBundle Bundle of parameters of request.
+         * @param requestType Type of PDGuard request.
+         */
+        FlightId(final ClientCredentials credentials,
+                final AuthorizationBundle authBundle,
+                final PDGuardRequestType requestType) {
+            clientId = credentials.getClientId();
+            clientSecret = credentials.getClientSecret();
+            this.authBundle = authBundle;
+            this.requestType = requestType;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof FlightId))
+                return false;
+            FlightId flightId = (FlightId) o;
+            return requestType == flightId.requestType
+                    && Objects.equals(clientId, flightId.clientId)
+                    && Objects.equals(clientSecret, flightId.clientSecret)
+                    && authBundle.equals(flightId.authBundle);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientId, clientSecret, authBundle,
+                    requestType);
+        }
+    }
+}
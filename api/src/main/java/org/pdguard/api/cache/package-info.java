@@ -0,0 +1,26 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+/**
+ * This package contains client side caches of the results of PDGuard
+ * requests, so that data controller's applications do not have to contact
+ * escrow agent for every block of data they encrypt or decrypt.
+ * Concurrent identical requests which miss the cache may be coalesced into
+ * a single request to escrow agent.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+package org.pdguard.api.cache;
@@ -0,0 +1,55 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.exceptions;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when a PDGuard request cannot be completed before
+ * its deadline, e.g. because escrow agent is slow to respond.
+ *
+ * The connection used by the request is closed, so escrow agent may or may
+ * not have processed the request.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class DeadlineExceededException extends IOException {
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construct a new DeadlineExceededException with the specified
+     * explanatory message.
+     *
+     * @param message the detail message.
+     */
+    public DeadlineExceededException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Construct a new DeadlineExceededException with the specified
+     * explanatory message and cause.
+     *
+     * @param message the detail message.
+     * @param cause another exception, which indicates the underlying cause.
+     */
+    public DeadlineExceededException(final String message,
+            final Throwable cause) {
+        super(message, cause);
+    }
+}
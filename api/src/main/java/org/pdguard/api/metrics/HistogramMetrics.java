@@ -0,0 +1,231 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.metrics;
+
+import org.pdguard.api.PDGuardMetrics;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps a {@link LatencyHistogram} for every combination of
+ * escrow agent, phase, request type, data type and outcome it receives.
+ *
+ * Snapshots of all histograms can be taken at any time, e.g. to chart the
+ * median and the 99th percentile of every phase, while requests keep being
+ * recorded.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class HistogramMetrics implements PDGuardMetrics {
+    /** Histograms of latency per series. */
+    private final ConcurrentHashMap<Series, LatencyHistogram> histograms =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void record(final Phase phase, final Outcome outcome,
+            final String escrowAgentName,
+            final PDGuardRequestType requestType, final DataType dataType,
+            final long nanos) {
+        Series series = new Series(phase, outcome, escrowAgentName,
+                requestType, dataType);
+        LatencyHistogram histogram = histograms.get(series);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = histograms.putIfAbsent(series,
+                    histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * This method takes a snapshot of the histograms of all series.
+     *
+     * @return Snapshots of histograms (in nanoseconds) ordered by series.
+     */
+    public Map<Series, HistogramSnapshot> snapshot() {
+        Map<Series, HistogramSnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<Series, LatencyHistogram> entry
+                : histograms.entrySet())
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        return snapshots;
+    }
+
+    /**
+     * This method takes a snapshot of the histogram of a series.
+     *
+     * @param phase Phase of request.
+     * @param outcome Outcome of phase.
+     * @param escrowAgentName The DNS name of escrow agent.
+     * @param requestType Type of PDGuard request or null.
+     * @param dataType Type of data or null.
+     *
+     * @return Snapshot of histogram (in nanoseconds) or null if no value was
+     * recorded for the series.
+     */
+    public HistogramSnapshot snapshot(final Phase phase,
+            final Outcome outcome, final String escrowAgentName,
+            final PDGuardRequestType requestType, final DataType dataType) {
+        LatencyHistogram histogram = histograms.get(new Series(phase,
+                outcome, escrowAgentName, requestType, dataType));
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    /**
+     * This method exports snapshots of all histograms as text, one line per
+     * series.
+     *
+     * @return Series and their histograms (in nanoseconds).
+     */
+    public String export() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<Series, HistogramSnapshot> entry
+                : snapshot().entrySet())
+            report.append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        return report.toString();
+    }
+
+    /** This method discards all histograms. */
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * This class identifies a series of latencies by the tags of the events
+     * which belong to it.
+     */
+    public static final class Series implements Comparable<Series> {
+        /** Phase of request. */
+        private final Phase phase;
+
+        /** Outcome of phase. */
+        private final Outcome outcome;
+
+        /** The DNS name of escrow agent. */
+        private final String escrowAgentName;
+
+        /** Type of PDGuard request or null. */
+        private final PDGuardRequestType requestType;
+
+        /** Type of data or null. */
+        private final DataType dataType;
+
+        /**
+         * Creates a new series.
+         *
+         * @param phase Phase of request.
+         * @param outcome Outcome of phase.
+         * @param escrowAgentName The DNS name of escrow agent.
+         * @param requestType Type of PDGuard request or null.
+         * @param dataType Type of data or null.
+         */
+        Series(final Phase phase, final Outcome outcome,
+                final String escrowAgentName,
+                final PDGuardRequestType requestType,
+                final DataType dataType) {
+            this.phase = phase;
+            this.outcome = outcome;
+            this.escrowAgentName = escrowAgentName;
+            this.requestType = requestType;
+            this.dataType = dataType;
+        }
+
+        /**
+         * Getter of phase field.
+         *
+         * @return Phase of request.
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * Getter of outcome field.
+         *
+         * @return Outcome of phase.
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Getter of escrowAgentName field.
+         *
+         * @return The DNS name of escrow agent.
+         */
+        public String getEscrowAgentName() {
+            return escrowAgentName;
+        }
+
+        /**
+         * Getter of requestType field.
+         *
+         * @return Type of PDGuard request or null.
+         */
+        public PDGuardRequestType getRequestType() {
+            return requestType;
+        }
+
+        /**
+         * Getter of dataType field.
+         *
+         * @return Type of data or null.
+         */
+        public DataType getDataType() {
+            return dataType;
+        }
+
+        @Override
+        public int compareTo(final Series o) {
+            return toString().compareTo(o.toString());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Series))
+                return false;
+            Series series = (Series) o;
+            return phase == series.phase && outcome == series.outcome
+                    && requestType == series.requestType
+                    && dataType == series.dataType
+                    && Objects.equals(escrowAgentName,
+                    series.escrowAgentName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(phase, outcome, escrowAgentName, requestType,
+                    dataType);
+        }
+
+        @Override
+        public String toString() {
+            return "agent=" + escrowAgentName + " phase=" + phase
+                    + " request=" + requestType + " data=" + dataType
+                    + " outcome=" + outcome;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.metrics;
+
+import java.util.Locale;
+
+/**
+ * This class is an immutable snapshot of a {@link LatencyHistogram}.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class HistogramSnapshot {
+    /** Maximum percentile. */
+    private static final double HUNDRED = 100.0;
+
+    /** Median. */
+    private static final double P50 = 50.0;
+
+    /** 90th percentile. */
+    private static final double P90 = 90.0;
+
+    /** 99th percentile. */
+    private static final double P99 = 99.0;
+
+    /** 99.9th percentile. */
+    private static final double P999 = 99.9;
+
+    /** Number of values recorded per bucket. */
+    private final long[] counts;
+
+    /** Number of values recorded. */
+    private final long count;
+
+    /** Sum of values recorded. */
+    private final long sum;
+
+    /** Smallest value recorded. */
+    private final long min;
+
+    /** Largest value recorded. */
+    private final long max;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param counts Number of values recorded per bucket; snapshot takes
+     * ownership of array.
+     * @param sum Sum of values recorded.
+     * @param min Smallest value recorded.
+     * @param max Largest value recorded.
+     */
+    HistogramSnapshot(final long[] counts, final long sum, final long min,
+            final long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        this.count = total;
+        this.sum = sum;
+        this.min = total == 0 ? 0 : min;
+        this.max = max;
+    }
+
+    /**
+     * This method estimates the value below which the given percentage of
+     * recorded values fall.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Value at percentile or zero if no value was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (count == 0)
+            return 0;
+        double p = Math.min(Math.max(percentile, 0), HUNDRED);
+        long rank = Math.max(1, (long) Math.ceil(p / HUNDRED * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.max(min, Math.min(max,
+                        LatencyHistogram.highestValueOf(i)));
+        }
+        return max;
+    }
+
+    /**
+     * Getter of count field.
+     *
+     * @return Number of values recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * This method computes the mean of recorded values.
+     *
+     * @return Mean of values or zero if no value was recorded.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Getter of min field.
+     *
+     * @return Smallest value recorded or zero if no value was recorded.
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * Getter of max field.
+     *
+     * @return Largest value recorded or zero if no value was recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * This method exports the snapshot as a single line of name=value pairs,
+     * e.g. for a log file.
+     *
+     * @return Count, mean, minimum, common percentiles and maximum of
+     * recorded values.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "count=%d mean=%.0f min=%d"
+                + " p50=%d p90=%d p99=%d p99.9=%d max=%d", count, getMean(),
+                min, getValueAtPercentile(P50), getValueAtPercentile(P90),
+                getValueAtPercentile(P99), getValueAtPercentile(P999), max);
+    }
+}
@@ -0,0 +1,122 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a lock-free histogram of non-negative values, e.g.
+ * latencies in nanoseconds.
+ *
+ * Like HdrHistogram, values are counted in buckets whose width grows with
+ * the magnitude of values: every power of two is split into 32 sub-buckets,
+ * so the value reported for a percentile is within about 3% of the value
+ * recorded, whatever its magnitude. Values smaller than 32 are counted
+ * exactly. Recording a value updates a few atomic counters and never blocks
+ * or allocates.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class LatencyHistogram {
+    /** Number of bits of the sub-bucket index. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of sub-buckets per power of two. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Number of bits of a long value. */
+    private static final int LONG_BITS = 64;
+
+    /** Number of buckets needed to count any long value. */
+    static final int BUCKET_COUNT = (LONG_BITS - SUB_BUCKET_BITS)
+            << SUB_BUCKET_BITS;
+
+    /** Number of values recorded per bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Sum of values recorded. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Smallest value recorded. */
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    /** Largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * This method records a value.
+     *
+     * @param value Value to record; negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(indexOf(v));
+        sum.addAndGet(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v))
+            current = max.get();
+        current = min.get();
+        while (v < current && !min.compareAndSet(current, v))
+            current = min.get();
+    }
+
+    /**
+     * This method takes a snapshot of the values recorded so far.
+     *
+     * Values which are recorded while the snapshot is taken may or may not
+     * be included in it.
+     *
+     * @return Snapshot of histogram.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            copy[i] = counts.get(i);
+        return new HistogramSnapshot(copy, sum.get(), min.get(), max.get());
+    }
+
+    /**
+     * This method finds the bucket which counts the specified value.
+     *
+     * @param value Non-negative value.
+     * @return Index of bucket.
+     */
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = LONG_BITS - 1 - Long.numberOfLeadingZeros(value)
+                - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS)
+                + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * This method finds the largest value counted by a bucket.
+     *
+     * @param index Index of bucket.
+     * @return Largest value which falls into bucket.
+     */
+    static long highestValueOf(final int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + (index
+                & (SUB_BUCKET_COUNT - 1))) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+}
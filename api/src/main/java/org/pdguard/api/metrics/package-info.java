@@ -0,0 +1,26 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+/**
+ * This package contains built-in implementations of
+ * {@link org.pdguard.api.PDGuardMetrics}, which keep the latency of PDGuard
+ * requests in memory so that applications can chart it without an external
+ * monitoring agent.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+package org.pdguard.api.metrics;
@@ -18,6 +18,8 @@ package org.pdguard.api.model;
 
 import org.pdguard.api.utils.DataType;
 
+import java.util.Objects;
+
 /**
  * This class represents the bundle of information which are required for all
  * types of PDGuard requests. Either a decryption request or an encryption
@@ -51,4 +53,30 @@ public class AuthorizationBundle {
     public final DataType getDataType() {
         return dataType;
     }
+
+    /**
+     * Two authorization bundles are equal if they are of the same type and
+     * carry the same information.
+     *
+     * @param o Object to compare with.
+     * @return true if bundles are equal; false otherwise.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        return dataType == ((AuthorizationBundle) o).dataType;
+    }
+
+    /**
+     * This method computes hash code of bundle based on its information.
+     *
+     * @return Hash code of bundle.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(dataType);
+    }
 }
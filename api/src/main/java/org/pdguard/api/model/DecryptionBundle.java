@@ -20,6 +20,8 @@ import org.pdguard.api.utils.DataType;
 import org.pdguard.api.utils.DataUse;
 import org.pdguard.api.utils.InteractionPurpose;
 
+import java.util.Objects;
+
 /**
  * This class represents the bundle of information which are required for a
  * PDGuard decryption request.
@@ -68,4 +70,30 @@ public final class DecryptionBundle extends AuthorizationBundle {
     public InteractionPurpose getInteractionPurpose() {
         return interactionPurpose;
     }
+
+    /**
+     * Two decryption bundles are equal if they have the same data type, data
+     * use and interaction purpose.
+     *
+     * @param o Object to compare with.
+     * @return true if bundles are equal; false otherwise.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (!super.equals(o))
+            return false;
+        DecryptionBundle bundle = (DecryptionBundle) o;
+        return dataUse == bundle.dataUse
+                && interactionPurpose == bundle.interactionPurpose;
+    }
+
+    /**
+     * This method computes hash code of bundle based on its information.
+     *
+     * @return Hash code of bundle.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getDataType(), dataUse, interactionPurpose);
+    }
 }
@@ -0,0 +1,70 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.model;
+
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+
+/**
+ * This class represents one item of a batch decryption request, that is a
+ * block of encrypted data along with the bundle of information which escrow
+ * agent requires to grant access to it.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class DecryptionRequest {
+    /** The data to decrypt. */
+    private final byte[] encryptedData;
+
+    /** Bundle of information required by escrow agent to grant access. */
+    private final DecryptionBundle authBundle;
+
+    /**
+     * Initializes a decryption request.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param dataType The type of the data to decrypt.
+     * @param dataUse The intended use of the decrypted data.
+     * @param interactionPurpose The purpose of the requested interaction.
+     */
+    public DecryptionRequest(final byte[] encryptedData,
+            final DataType dataType, final DataUse dataUse,
+            final InteractionPurpose interactionPurpose) {
+        this.encryptedData = encryptedData;
+        authBundle = new DecryptionBundle(dataType, dataUse,
+                interactionPurpose);
+    }
+
+    /**
+     * Getter of encryptedData field.
+     *
+     * @return The data to decrypt.
+     */
+    public byte[] getEncryptedData() {
+        return encryptedData;
+    }
+
+    /**
+     * Getter of authBundle field.
+     *
+     * @return Bundle of information required by escrow agent to grant access.
+     */
+    public DecryptionBundle getAuthBundle() {
+        return authBundle;
+    }
+}
@@ -19,6 +19,8 @@ package org.pdguard.api.model;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataType;
 
+import java.util.Objects;
+
 /**
  * This class represents the bundle of information which are required for a
  * PDGuard encryption request.
@@ -68,4 +70,30 @@ public final class EncryptionBundle extends AuthorizationBundle {
     public boolean isUpdate() {
         return update;
     }
+
+    /**
+     * Two encryption bundles are equal if they have the same data type, data
+     * provenance and update flag.
+     *
+     * @param o Object to compare with.
+     * @return true if bundles are equal; false otherwise.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (!super.equals(o))
+            return false;
+        EncryptionBundle bundle = (EncryptionBundle) o;
+        return dataProvenance == bundle.dataProvenance
+                && update == bundle.update;
+    }
+
+    /**
+     * This method computes hash code of bundle based on its information.
+     *
+     * @return Hash code of bundle.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(getDataType(), dataProvenance, update);
+    }
 }
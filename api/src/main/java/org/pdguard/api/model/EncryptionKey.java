@@ -17,6 +17,7 @@
 package org.pdguard.api.model;
 
 import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
@@ -27,12 +28,19 @@ import static org.apache.commons.codec.binary.Hex.decodeHex;
  * This class represents an encryption key used to either encrypt or decrypt
  * a block of data.
  *
+ * A key is received either as a hexadecimal string or, over the binary wire
+ * format, as raw bytes; the hexadecimal string of raw bytes is only built
+ * when it is asked for.
+ *
  * @author Thodoris Sotiropoulos
  */
 public final class EncryptionKey {
     /** Encryption key in an encoded string format. */
     private String encryptionKey;
 
+    /** Bytes of encryption key or null if it was received as a string. */
+    private transient byte[] encoded;
+
     /** Default constructor. */
     public EncryptionKey() { }
 
@@ -45,22 +53,34 @@ public final class EncryptionKey {
         this.encryptionKey = encryptionKey;
     }
 
+    /**
+     * Creates a new Encryption key from its bytes.
+     *
+     * @param encoded Bytes of encryption key.
+     */
+    public EncryptionKey(final byte[] encoded) {
+        this.encoded = encoded;
+    }
+
     /**
      * Restores encryption key by decrypting String content to a sequence of
      * bytes encoded to hexadecimal system.
      *
-     * If string content cannot be decoded, null value is returned.
+     * If string content cannot be decoded, null value is returned. Keys
+     * received as raw bytes are restored without decoding.
      *
      * @return Encryption key.
      */
     public SecretKey loadKey() {
-        byte[] encoded;
+        if (encoded != null)
+            return new SecretKeySpec(encoded, "AES");
+        byte[] bytes;
         try {
-            encoded = decodeHex(encryptionKey.toCharArray());
+            bytes = decodeHex(encryptionKey.toCharArray());
         } catch (DecoderException e) {
             return null;
         }
-        return new SecretKeySpec(encoded, "AES");
+        return new SecretKeySpec(bytes, "AES");
     }
 
     /**
@@ -69,6 +89,8 @@ public final class EncryptionKey {
      * @return Encryption key in an encoded string format.
      */
     public String getEncryptionKey() {
+        if (encryptionKey == null && encoded != null)
+            encryptionKey = new String(Hex.encodeHex(encoded));
         return encryptionKey;
     }
 
@@ -79,5 +101,16 @@ public final class EncryptionKey {
      */
     public void setEncryptionKey(final String encryptionKey) {
         this.encryptionKey = encryptionKey;
+        encoded = null;
+    }
+
+    /**
+     * Setter of encryptionKey field from the bytes of key.
+     *
+     * @param encoded Bytes of encryption key.
+     */
+    public void setEncryptionKeyBytes(final byte[] encoded) {
+        this.encoded = encoded;
+        encryptionKey = null;
     }
 }
@@ -0,0 +1,69 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.model;
+
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+
+/**
+ * This class represents one item of a batch encryption request, that is a
+ * block of cleartext data along with the bundle of information which escrow
+ * agent requires to allow its storage.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class EncryptionRequest {
+    /** The data to encrypt. */
+    private final byte[] cleartextData;
+
+    /** Bundle of information required by escrow agent to grant access. */
+    private final EncryptionBundle authBundle;
+
+    /**
+     * Initializes an encryption request.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param dataType The type of the data to encrypt.
+     * @param dataProvenance The data's provenance; where the data was
+     * obtained from.
+     * @param update True if an existing field is updated; false otherwise.
+     */
+    public EncryptionRequest(final byte[] cleartextData,
+            final DataType dataType, final DataProvenance dataProvenance,
+            final boolean update) {
+        this.cleartextData = cleartextData;
+        authBundle = new EncryptionBundle(dataType, dataProvenance, update);
+    }
+
+    /**
+     * Getter of cleartextData field.
+     *
+     * @return The data to encrypt.
+     */
+    public byte[] getCleartextData() {
+        return cleartextData;
+    }
+
+    /**
+     * Getter of authBundle field.
+     *
+     * @return Bundle of information required by escrow agent to grant access.
+     */
+    public EncryptionBundle getAuthBundle() {
+        return authBundle;
+    }
+}
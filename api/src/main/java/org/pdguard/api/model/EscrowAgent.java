@@ -16,6 +16,8 @@
 
 package org.pdguard.api.model;
 
+import org.pdguard.api.services.EscrowAgentTransport;
+
 /**
  * This class represents a trusted escrow agent by data subject. API will
  * call this escrow agent's services.
@@ -26,6 +28,12 @@ public final class EscrowAgent {
     /** The DNS name of the escrow agent's web service endpoint. */
     private String escrowAgentName;
 
+    /**
+     * Transport which carries requests to the escrow agent; null for the
+     * default transport.
+     */
+    private EscrowAgentTransport transport;
+
     /** URI of the escrow agent's registration web service endpoint. */
     private static final String REGISTRATION_SERVICE = "/register";
 
@@ -38,6 +46,16 @@ public final class EscrowAgent {
     /** URI of the escrow agent's encryption key web service endpoint. */
     private static final String ENCRYPTION_KEY_SERVICE = "/key";
 
+    /** URI of the escrow agent's batch authorization web service endpoint. */
+    private static final String BATCH_AUTHORIZATION_SERVICE =
+            "/authorize_batch";
+
+    /**
+     * URI of the escrow agent's web service endpoint which authorizes a
+     * request and sends back the encryption key in one round trip.
+     */
+    private static final String ONE_SHOT_KEY_SERVICE = "/authorize_key";
+
     /**
      * Initializes escrow agent with its DNS name.
      *
@@ -48,6 +66,23 @@ public final class EscrowAgent {
         this.escrowAgentName = escrowAgentName;
     }
 
+    /**
+     * Initializes escrow agent with its DNS name and the transport which
+     * carries requests to it, e.g. a
+     * {@link org.pdguard.api.services.ReplicaSet} of its instances.
+     *
+     * Requests are still signed for the DNS name of escrow agent.
+     *
+     * @param escrowAgentName The DNS name of the escrow agent's web service
+     * endpoint.
+     * @param transport Transport which carries requests to escrow agent.
+     */
+    public EscrowAgent(final String escrowAgentName,
+            final EscrowAgentTransport transport) {
+        this.escrowAgentName = escrowAgentName;
+        this.transport = transport;
+    }
+
     /**
      * Getter of escrowAgentName field.
      *
@@ -57,6 +92,16 @@ public final class EscrowAgent {
         return escrowAgentName;
     }
 
+    /**
+     * Getter of transport field.
+     *
+     * @return Transport which carries requests to escrow agent or null if
+     * the default transport is used.
+     */
+    public EscrowAgentTransport getTransport() {
+        return transport;
+    }
+
     /**
      * Getter of registrationService field.
      *
@@ -92,4 +137,24 @@ public final class EscrowAgent {
     public static String getEncryptionKeyService() {
         return ENCRYPTION_KEY_SERVICE;
     }
+
+    /**
+     * Getter of BATCH_AUTHORIZATION_SERVICE field.
+     *
+     * @return URI of the escrow agent's batch authorization web service
+     * endpoint.
+     */
+    public static String getBatchAuthorizationService() {
+        return BATCH_AUTHORIZATION_SERVICE;
+    }
+
+    /**
+     * Getter of ONE_SHOT_KEY_SERVICE field.
+     *
+     * @return URI of the escrow agent's web service endpoint which authorizes
+     * a request and sends back the encryption key in one round trip.
+     */
+    public static String getOneShotKeyService() {
+        return ONE_SHOT_KEY_SERVICE;
+    }
 }
@@ -0,0 +1,332 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * This class encrypts and decrypts blocks of data in a versioned,
+ * self-describing format.
+ *
+ * Data are encrypted with AES-GCM. Encrypted data start with a header which
+ * consists of a magic number, a version number, the identifier of the key and
+ * a random IV; the ciphertext follows along with the GCM authentication tag.
+ * The header is authenticated as additional data, so it cannot be altered
+ * without being detected. The identifier of the key is a truncated SHA-256
+ * fingerprint of the key, so decryption with a wrong key fails fast with a
+ * clear error.
+ *
+ * Data encrypted with plain AES (ECB mode) by earlier versions have no
+ * header; they are detected because they do not start with the magic number
+ * and they are still decrypted. The chance that such data start with the
+ * magic number and the version number by accident is 2^-40.
+ *
+ * {@link Cipher} objects are expensive to create, so every thread reuses its
+ * own instances. Likewise, every thread remembers the identifier of the last
+ * key object it used; only a weak reference to the key object is kept,
+ * never a copy of its bytes, so that keys which are zeroized by their owners
+ * do not survive in this class. The IV consists of a random prefix chosen
+ * by every thread and a counter of the encryptions done by the thread, as
+ * NIST SP 800-38D suggests; the prefix is chosen again when the counter
+ * wraps around.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class CipherEngine {
+    /** Magic number which identifies the format. */
+    private static final byte[] MAGIC = {'P', 'D', 'G', 'E'};
+
+    /** Current version of the format. */
+    public static final byte VERSION = 1;
+
+    /** Length (in bytes) of the identifier of a key. */
+    public static final int KEY_ID_LENGTH = 8;
+
+    /** Length (in bytes) of the IV. */
+    private static final int IV_LENGTH = 12;
+
+    /** Length (in bytes) of the random prefix of the IV. */
+    private static final int IV_PREFIX_LENGTH = IV_LENGTH
+            - Integer.SIZE / Byte.SIZE;
+
+    /** Length (in bits) of the authentication tag. */
+    private static final int TAG_BITS = 128;
+
+    /** Length (in bytes) of the authentication tag. */
+    private static final int TAG_LENGTH = TAG_BITS / Byte.SIZE;
+
+    /** Offset of the version number. */
+    private static final int VERSION_OFFSET = MAGIC.length;
+
+    /** Offset of the identifier of the key. */
+    private static final int KEY_ID_OFFSET = VERSION_OFFSET + 1;
+
+    /** Offset of the IV. */
+    private static final int IV_OFFSET = KEY_ID_OFFSET + KEY_ID_LENGTH;
+
+    /** Length (in bytes) of the header. */
+    public static final int HEADER_LENGTH = IV_OFFSET + IV_LENGTH;
+
+    /** Length (in bytes) that the format adds to the cleartext. */
+    public static final int OVERHEAD = HEADER_LENGTH + TAG_LENGTH;
+
+    /** Prefix of the data hashed to compute the identifier of a key. */
+    private static final byte[] KEY_ID_DOMAIN = "pdguard-key-id&".getBytes(
+            StandardCharsets.US_ASCII);
+
+    /** Cryptographic objects of every thread. */
+    private static final ThreadLocal<Engine> ENGINES =
+            new ThreadLocal<Engine>() {
+        @Override
+        protected Engine initialValue() {
+            return new Engine();
+        }
+    };
+
+    /** Private constructor; this class is not meant to be instantiated. */
+    private CipherEngine() {
+    }
+
+    /**
+     * This method encrypts a block of data with the given key.
+     *
+     * @param cleartextData The data to encrypt.
+     * @param key Encryption key.
+     * @return The data encrypted in the current format.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error in the
+     * encryption occurs.
+     */
+    public static byte[] encrypt(final byte[] cleartextData,
+            final SecretKey key) {
+        Engine engine = ENGINES.get();
+        byte[] encrypted = new byte[OVERHEAD + cleartextData.length];
+        System.arraycopy(MAGIC, 0, encrypted, 0, MAGIC.length);
+        encrypted[VERSION_OFFSET] = VERSION;
+        engine.computeKeyId(key, encrypted, KEY_ID_OFFSET);
+        engine.nextIv();
+        System.arraycopy(engine.iv, 0, encrypted, IV_OFFSET, IV_LENGTH);
+        try {
+            Cipher cipher = engine.gcm;
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(
+                    TAG_BITS, engine.iv));
+            cipher.updateAAD(encrypted, 0, HEADER_LENGTH);
+            cipher.doFinal(cleartextData, 0, cleartextData.length, encrypted,
+                    HEADER_LENGTH);
+            return encrypted;
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Data encryption cannot be completed. An"
+                    + " unexpected error occurred.", e);
+        }
+    }
+
+    /**
+     * This method decrypts a block of data with the given key. Both the
+     * current format and plain AES (ECB mode) of earlier versions are
+     * accepted.
+     *
+     * @param encryptedData The data to decrypt.
+     * @param key Encryption key.
+     * @return The data decrypted.
+     *
+     * @throws CryptoException (Runtime) when data were encrypted with another
+     * key or have been tampered with, or when an unexpected error in the
+     * decryption occurs.
+     */
+    public static byte[] decrypt(final byte[] encryptedData,
+            final SecretKey key) {
+        Engine engine = ENGINES.get();
+        try {
+            if (isLegacy(encryptedData)) {
+                engine.ecb.init(Cipher.DECRYPT_MODE, key);
+                return engine.ecb.doFinal(encryptedData);
+            }
+            if (encryptedData.length < OVERHEAD)
+                throw new CryptoException("Encrypted data are malformed.");
+            engine.computeKeyId(key, engine.keyId, 0);
+            if (!regionMatches(encryptedData, KEY_ID_OFFSET, engine.keyId))
+                throw new CryptoException("Data were encrypted with a"
+                        + " different key.");
+            Cipher cipher = engine.gcm;
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(
+                    TAG_BITS, encryptedData, IV_OFFSET, IV_LENGTH));
+            cipher.updateAAD(encryptedData, 0, HEADER_LENGTH);
+            return cipher.doFinal(encryptedData, HEADER_LENGTH,
+                    encryptedData.length - HEADER_LENGTH);
+        } catch (AEADBadTagException e) {
+            throw new CryptoException("Encrypted data have been tampered"
+                    + " with.", e);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Data decryption cannot be completed. An"
+                    + " unexpected error occurred.", e);
+        }
+    }
+
+    /**
+     * This method checks whether a block of encrypted data was produced by
+     * plain AES (ECB mode) of earlier versions, i.e. it has no header.
+     *
+     * @param encryptedData Encrypted data.
+     * @return true if data have no header; false otherwise.
+     */
+    public static boolean isLegacy(final byte[] encryptedData) {
+        return encryptedData.length <= VERSION_OFFSET
+                || !regionMatches(encryptedData, 0, MAGIC)
+                || encryptedData[VERSION_OFFSET] != VERSION;
+    }
+
+    /**
+     * This method computes the identifier of a key as it is stored in the
+     * header of encrypted data.
+     *
+     * @param key Encryption key.
+     * @return Identifier of key.
+     */
+    public static byte[] getKeyId(final SecretKey key) {
+        byte[] keyId = new byte[KEY_ID_LENGTH];
+        ENGINES.get().computeKeyId(key, keyId, 0);
+        return keyId;
+    }
+
+    /**
+     * This method gets the identifier of the key that encrypted a block of
+     * data.
+     *
+     * @param encryptedData Encrypted data.
+     * @return Identifier of key or null if data have no header.
+     */
+    public static byte[] getKeyId(final byte[] encryptedData) {
+        if (isLegacy(encryptedData) || encryptedData.length < HEADER_LENGTH)
+            return null;
+        return Arrays.copyOfRange(encryptedData, KEY_ID_OFFSET, IV_OFFSET);
+    }
+
+    /**
+     * This method checks whether a region of an array is equal to another
+     * array.
+     *
+     * @param data Array whose region is compared.
+     * @param offset Offset of region.
+     * @param expected Array which is compared with region.
+     * @return true if region has the same content as expected array.
+     */
+    private static boolean regionMatches(final byte[] data, final int offset,
+            final byte[] expected) {
+        if (data.length - offset < expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++)
+            if (data[offset + i] != expected[i])
+                return false;
+        return true;
+    }
+
+    /** Cryptographic objects which are reused by a thread. */
+    private static final class Engine {
+        /** AES-GCM cipher. */
+        private final Cipher gcm;
+
+        /** AES cipher in ECB mode used for data of earlier versions. */
+        private final Cipher ecb;
+
+        /** Digest used to compute identifiers of keys. */
+        private final MessageDigest digest;
+
+        /** Source of randomness for prefixes of IVs. */
+        private final SecureRandom random = new SecureRandom();
+
+        /** Last IV; its prefix is random and its suffix is a counter. */
+        private final byte[] iv = new byte[IV_LENGTH];
+
+        /** Number of IVs generated with the current prefix. */
+        private int counter;
+
+        /** Buffer for identifiers of keys. */
+        private final byte[] keyId = new byte[KEY_ID_LENGTH];
+
+        /** Last key object whose identifier was computed. */
+        private WeakReference<SecretKey> lastKey = new WeakReference<>(null);
+
+        /** Identifier of the last key whose identifier was computed. */
+        private final byte[] lastKeyId = new byte[KEY_ID_LENGTH];
+
+        /**
+         * Creates the cryptographic objects of a thread.
+         *
+         * @throws CryptoException (Runtime) when AES-GCM, AES or SHA-256 are
+         * not supported.
+         */
+        Engine() {
+            try {
+                gcm = Cipher.getInstance("AES/GCM/NoPadding");
+                ecb = Cipher.getInstance("AES");
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Cryptographic infrastructure cannot"
+                        + " be initialized.", e);
+            }
+        }
+
+        /**
+         * This method computes the identifier of a key.
+         *
+         * The identifier is computed again unless the key is the same object
+         * as the last one; the encoded bytes of the key are cleared once they
+         * are hashed.
+         *
+         * @param key Encryption key.
+         * @param output Array where identifier is stored.
+         * @param offset Offset of output where identifier is stored.
+         */
+        void computeKeyId(final SecretKey key, final byte[] output,
+                final int offset) {
+            if (key == null || key != lastKey.get()) {
+                byte[] encoded = key == null ? null : key.getEncoded();
+                if (encoded == null)
+                    throw new CryptoException("Key is missing or cannot be"
+                            + " encoded.");
+                digest.update(KEY_ID_DOMAIN);
+                digest.update(encoded);
+                Arrays.fill(encoded, (byte) 0);
+                System.arraycopy(digest.digest(), 0, lastKeyId, 0,
+                        KEY_ID_LENGTH);
+                lastKey = new WeakReference<>(key);
+            }
+            System.arraycopy(lastKeyId, 0, output, offset, KEY_ID_LENGTH);
+        }
+
+        /** This method generates the next IV into iv field. */
+        void nextIv() {
+            if (counter == 0)
+                random.nextBytes(iv);
+            for (int i = IV_PREFIX_LENGTH; i < IV_LENGTH; i++)
+                iv[i] = (byte) (counter >>> (Byte.SIZE
+                        * (IV_LENGTH - 1 - i)));
+            counter++;
+        }
+    }
+}
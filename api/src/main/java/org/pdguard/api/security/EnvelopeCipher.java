@@ -0,0 +1,205 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * This class implements envelope encryption of records.
+ *
+ * Every record is encrypted by {@link CipherEngine} with a random data key
+ * of its own. The data key is wrapped (encrypted) with the key obtained from
+ * escrow agent and it is stored in front of the encrypted record. A record
+ * consists of a magic number, a version number, the length of the wrapped
+ * data key, the wrapped data key and the encrypted data.
+ *
+ * Therefore, a single key from escrow agent unwraps the data keys of any
+ * number of records, and when the key of escrow agent changes only the
+ * wrapped data keys have to be encrypted again; encrypted data are copied
+ * as they are.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class EnvelopeCipher {
+    /** Magic number which identifies the format. */
+    private static final byte[] MAGIC = {'P', 'D', 'G', 'V'};
+
+    /** Current version of the format. */
+    private static final byte VERSION = 1;
+
+    /** Algorithm of data keys. */
+    private static final String KEY_ALGORITHM = "AES";
+
+    /** Length (in bytes) of data keys. */
+    private static final int DATA_KEY_LENGTH = 32;
+
+    /** Offset of the version number. */
+    private static final int VERSION_OFFSET = MAGIC.length;
+
+    /** Offset of the length of the wrapped data key. */
+    private static final int WRAPPED_LENGTH_OFFSET = VERSION_OFFSET + 1;
+
+    /** Offset of the wrapped data key. */
+    private static final int WRAPPED_KEY_OFFSET = WRAPPED_LENGTH_OFFSET + 1;
+
+    /** Mask which selects the lowest byte of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Source of randomness for data keys. */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Private constructor; this class is not meant to be instantiated. */
+    private EnvelopeCipher() {
+    }
+
+    /**
+     * This method encrypts a record with a new data key and wraps the data
+     * key with the given key.
+     *
+     * @param cleartextData The data of record to encrypt.
+     * @param key Key obtained from escrow agent.
+     * @return The record encrypted.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error in the
+     * encryption occurs.
+     */
+    public static byte[] encrypt(final byte[] cleartextData,
+            final SecretKey key) {
+        byte[] dataKeyBytes = new byte[DATA_KEY_LENGTH];
+        RANDOM.nextBytes(dataKeyBytes);
+        try {
+            SecretKey dataKey = new SecretKeySpec(dataKeyBytes, KEY_ALGORITHM);
+            return assemble(CipherEngine.encrypt(dataKeyBytes, key),
+                    CipherEngine.encrypt(cleartextData, dataKey));
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * This method unwraps the data key of a record with the given key and
+     * decrypts the record.
+     *
+     * @param record The record to decrypt.
+     * @param key Key obtained from escrow agent.
+     * @return The data of record decrypted.
+     *
+     * @throws CryptoException (Runtime) when the record is malformed, it was
+     * encrypted with another key or it has been tampered with.
+     */
+    public static byte[] decrypt(final byte[] record, final SecretKey key) {
+        int payloadOffset = getPayloadOffset(record);
+        byte[] dataKeyBytes = CipherEngine.decrypt(Arrays.copyOfRange(record,
+                WRAPPED_KEY_OFFSET, payloadOffset), key);
+        try {
+            return CipherEngine.decrypt(Arrays.copyOfRange(record,
+                    payloadOffset, record.length), new SecretKeySpec(
+                    dataKeyBytes, KEY_ALGORITHM));
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * This method wraps the data key of a record with a new key. The
+     * encrypted data of record are left intact.
+     *
+     * @param record The record whose data key is wrapped again.
+     * @param previousKey Key which currently wraps the data key.
+     * @param key Key which wraps the data key from now on.
+     * @return The record with its data key wrapped by the new key.
+     *
+     * @throws CryptoException (Runtime) when the record is malformed, it was
+     * not encrypted with the previous key or it has been tampered with.
+     */
+    public static byte[] rewrap(final byte[] record,
+            final SecretKey previousKey, final SecretKey key) {
+        int payloadOffset = getPayloadOffset(record);
+        byte[] dataKeyBytes = CipherEngine.decrypt(Arrays.copyOfRange(record,
+                WRAPPED_KEY_OFFSET, payloadOffset), previousKey);
+        try {
+            return assemble(CipherEngine.encrypt(dataKeyBytes, key),
+                    Arrays.copyOfRange(record, payloadOffset, record.length));
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * This method checks whether data are a record of this format.
+     *
+     * @param data Data to check.
+     * @return true if data start with the header of this format.
+     */
+    public static boolean isEnvelope(final byte[] data) {
+        if (data.length < WRAPPED_KEY_OFFSET
+                || data[VERSION_OFFSET] != VERSION)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++)
+            if (data[i] != MAGIC[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * This method builds a record from its wrapped data key and its encrypted
+     * data.
+     *
+     * @param wrappedKey Wrapped data key.
+     * @param payload Encrypted data.
+     * @return The record.
+     */
+    private static byte[] assemble(final byte[] wrappedKey,
+            final byte[] payload) {
+        if (wrappedKey.length > BYTE_MASK)
+            throw new CryptoException("Wrapped data key is too long.");
+        byte[] record = new byte[WRAPPED_KEY_OFFSET + wrappedKey.length
+                + payload.length];
+        System.arraycopy(MAGIC, 0, record, 0, MAGIC.length);
+        record[VERSION_OFFSET] = VERSION;
+        record[WRAPPED_LENGTH_OFFSET] = (byte) wrappedKey.length;
+        System.arraycopy(wrappedKey, 0, record, WRAPPED_KEY_OFFSET,
+                wrappedKey.length);
+        System.arraycopy(payload, 0, record, WRAPPED_KEY_OFFSET
+                + wrappedKey.length, payload.length);
+        return record;
+    }
+
+    /**
+     * This method validates the header of a record and finds where its
+     * encrypted data start.
+     *
+     * @param record The record.
+     * @return Offset of encrypted data.
+     *
+     * @throws CryptoException (Runtime) when the record is malformed.
+     */
+    private static int getPayloadOffset(final byte[] record) {
+        if (!isEnvelope(record))
+            throw new CryptoException("Encrypted record is malformed.");
+        int payloadOffset = WRAPPED_KEY_OFFSET
+                + (record[WRAPPED_LENGTH_OFFSET] & BYTE_MASK);
+        if (payloadOffset > record.length)
+            throw new CryptoException("Encrypted record is malformed.");
+        return payloadOffset;
+    }
+}
@@ -0,0 +1,132 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Socket factory which delegates to the factory of a TLS context and counts
+ * the handshakes completed by the sockets it creates.
+ *
+ * A handshake is considered a resumption when the negotiated session was
+ * created before the socket itself.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+class HandshakeCountingSocketFactory extends SSLSocketFactory {
+    /** Socket factory of TLS context. */
+    private final SSLSocketFactory delegate;
+
+    /** Counter of completed handshakes. */
+    private final AtomicLong handshakes;
+
+    /** Counter of handshakes which resumed a session. */
+    private final AtomicLong resumptions;
+
+    /**
+     * Wraps the specified socket factory.
+     *
+     * @param delegate Socket factory of TLS context.
+     * @param handshakes Counter of completed handshakes.
+     * @param resumptions Counter of handshakes which resumed a session.
+     */
+    HandshakeCountingSocketFactory(final SSLSocketFactory delegate,
+            final AtomicLong handshakes, final AtomicLong resumptions) {
+        this.delegate = delegate;
+        this.handshakes = handshakes;
+        this.resumptions = resumptions;
+    }
+
+    /**
+     * This method registers a listener which counts the handshake of the
+     * specified socket.
+     *
+     * @param socket Socket created by TLS context.
+     * @return The same socket.
+     */
+    private Socket track(final Socket socket) {
+        if (socket instanceof SSLSocket) {
+            final long created = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(
+                    new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(
+                        final HandshakeCompletedEvent event) {
+                    handshakes.incrementAndGet();
+                    if (event.getSession().getCreationTime() < created)
+                        resumptions.incrementAndGet();
+                }
+            });
+        }
+        return socket;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(final Socket s, final String host,
+            final int port, final boolean autoClose) throws IOException {
+        return track(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port)
+            throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port,
+            final InetAddress localHost, final int localPort)
+            throws IOException {
+        return track(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress host, final int port)
+            throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress address, final int port,
+            final InetAddress localAddress, final int localPort)
+            throws IOException {
+        return track(delegate.createSocket(address, port, localAddress,
+                localPort));
+    }
+}
@@ -16,78 +16,48 @@
 
 package org.pdguard.api.security;
 
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.KeyManagementException;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
 import java.util.Properties;
 
 /**
  * This class is responsible for the establishment of an encrypted connection
  * with the escrow agent's services using the TLS 1.2 protocol.
  *
+ * Connections are established through a {@link SecureContext}; by default
+ * the context shared by the whole application, so that key stores are read
+ * once and TLS sessions are resumed across requests.
+ *
  * @author Thodoris Sotiropoulos
  */
 public final class SecureConnection {
-    /**
-     * Keystore with the list of all client certificates. It is used to
-     * establish an encrypted SSL connection.
-     */
-    private KeyStore clientKeyStore;
-
-    /** Keystore to verify if Escrow Agent is trusted. */
-    private KeyStore clientTrustStore;
-
     /** Name of properties file. */
     private static final String PROPERTIES_FILE = "config.properties";
 
-    /** Properties object. */
-    private static final Properties PROPERTIES = loadProperties();
-
-    /** Get path of key store. */
-    private static final String KEYSTORE = PROPERTIES.getProperty("keystore");
-
-    /** Get path of trust store. */
-    private static final String TRUSTSTORE = PROPERTIES.getProperty(
-            "truststore");
-
-    /** Get password of key store. */
-    private static final String KEYSTORE_PASSWORD = PROPERTIES.getProperty(
-            "keystore_pswrd");
-
-    /** Get password of trust store. */
-    private static final String TRUSTSTORE_PASSWORD = PROPERTIES.getProperty(
-            "truststore_pswrd");
-
-    /** Type of key store. */
-    private static final String KEYSTORE_TYPE = "JKS";
+    /** TLS context used to create sockets. */
+    private final SecureContext context;
 
     /**
-     * Configure a secure connection via TLS protocol initializing all required
-     * parts.
+     * Configure a secure connection via TLS protocol using the TLS context
+     * shared by application.
      */
     public SecureConnection() {
-        loadKeyStore();
-        loadTrustStore();
+        this(SecureContext.getInstance());
     }
 
-    /** Loads key store according to the configuration file of application. */
-    public void loadKeyStore() {
-        clientKeyStore = loadKeyStore(KEYSTORE, KEYSTORE_PASSWORD);
-    }
-
-    /** Loads trust store according to the configuration file of application. */
-    public void loadTrustStore() {
-        clientTrustStore = loadKeyStore(TRUSTSTORE, TRUSTSTORE_PASSWORD);
+    /**
+     * Configure a secure connection via TLS protocol using the specified TLS
+     * context.
+     *
+     * @param context TLS context used to create sockets.
+     */
+    public SecureConnection(final SecureContext context) {
+        this.context = context;
     }
 
     /**
@@ -100,26 +70,16 @@ public final class SecureConnection {
      * agent can be established using TLS protocol.
      */
     KeyStore loadKeyStore(final String path, final String password) {
-        KeyStore keyStore;
-        FileInputStream inputStream;
         try {
-            keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
-            inputStream = new FileInputStream(path);
-            try {
-                keyStore.load(inputStream, password.toCharArray());
-            } finally {
-                inputStream.close();
-            }
-        } catch (IOException | NoSuchAlgorithmException
-                | CertificateException | KeyStoreException e) {
+            return SecureContext.loadKeyStore(new File(path), password);
+        } catch (IOException | GeneralSecurityException e) {
             e.printStackTrace();
             return null;
         }
-        return keyStore;
     }
 
     /**
-     * Establish an encrypted SSL connection. Loads client trust store which
+     * Establish an encrypted SSL connection. It uses client trust store which
      * contains list of trusted certificates such as escrow agent certificate,
      * and client key store which contains all required client certificate in
      * order a mutual authentication can be completed.
@@ -130,27 +90,16 @@ public final class SecureConnection {
      * @return Socket specified by Transport Layer Security (TLS) protocol.
      */
     public SSLSocketFactory createSSLSocketConnection() throws IOException {
-        TrustManagerFactory trustStore;
-        KeyManagerFactory keyStore;
-        SSLSocketFactory sslSocket;
-        try {
-            keyStore = KeyManagerFactory.getInstance(
-                    KeyManagerFactory.getDefaultAlgorithm());
-            keyStore.init(clientKeyStore, KEYSTORE_PASSWORD
-                    .toCharArray());
-            trustStore = TrustManagerFactory.getInstance(
-                    TrustManagerFactory.getDefaultAlgorithm());
-            trustStore.init(clientTrustStore);
-            SSLContext ctx = SSLContext.getInstance("TLS");
-            ctx.init(keyStore.getKeyManagers(), trustStore.getTrustManagers(),
-                    null);
-            sslSocket = ctx.getSocketFactory();
-        } catch (NoSuchAlgorithmException | KeyManagementException
-                | KeyStoreException | UnrecoverableKeyException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return sslSocket;
+        return context.getSocketFactory();
+    }
+
+    /**
+     * Getter of context field.
+     *
+     * @return TLS context used to create sockets.
+     */
+    public SecureContext getContext() {
+        return context;
     }
 
     /**
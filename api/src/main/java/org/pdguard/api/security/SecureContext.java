@@ -0,0 +1,381 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class holds the TLS context which is used for every connection with
+ * an escrow agent.
+ *
+ * Key and trust material is read once and a single
+ * <code>SSLSocketFactory</code> is shared by all connections, so that the
+ * TLS sessions established with an escrow agent can be resumed instead of
+ * running a full handshake for every request.
+ *
+ * Key store files are checked periodically for modifications. When one of
+ * them changes, a new context is built and swapped atomically; connections
+ * which are in progress keep using the previous one. If the new context
+ * cannot be built, the previous one is kept, the failure is recorded and the
+ * interval until the next attempt is doubled for every consecutive failure.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class SecureContext {
+    /** Type of key store. */
+    private static final String KEYSTORE_TYPE = "JKS";
+
+    /** Default interval (in milliseconds) between checks of key store files. */
+    private static final long DEFAULT_CHECK_INTERVAL = 1000L;
+
+    /**
+     * Maximum number of doublings of the check interval after consecutive
+     * failed reloads.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    /** Path of key store. */
+    private final String keyStorePath;
+
+    /** Password of key store. */
+    private final String keyStorePassword;
+
+    /** Path of trust store. */
+    private final String trustStorePath;
+
+    /** Password of trust store. */
+    private final String trustStorePassword;
+
+    /** Current TLS context along with the state of files it was built from. */
+    private final AtomicReference<Material> material = new AtomicReference<>();
+
+    /** Interval (in milliseconds) between checks of key store files. */
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    /** Time (in milliseconds) after which key store files are checked again. */
+    private volatile long nextCheck;
+
+    /** Number of TLS handshakes completed. */
+    private final AtomicLong handshakes = new AtomicLong();
+
+    /** Number of TLS handshakes which resumed a previous session. */
+    private final AtomicLong resumptions = new AtomicLong();
+
+    /** Number of times the TLS context was (re)built. */
+    private final AtomicLong reloads = new AtomicLong();
+
+    /** Number of failed attempts to rebuild the TLS context. */
+    private final AtomicLong reloadFailures = new AtomicLong();
+
+    /** Number of consecutive failed attempts to rebuild the TLS context. */
+    private volatile int consecutiveFailures;
+
+    /** Cause of the last failed attempt to rebuild the TLS context. */
+    private volatile IOException lastReloadFailure;
+
+    /**
+     * Creates a TLS context with the specified key and trust stores.
+     *
+     * Key stores are not read until a socket factory is requested.
+     *
+     * @param keyStorePath Path of key store file.
+     * @param keyStorePassword Password of key store file.
+     * @param trustStorePath Path of trust store file.
+     * @param trustStorePassword Password of trust store file.
+     */
+    public SecureContext(final String keyStorePath,
+            final String keyStorePassword, final String trustStorePath,
+            final String trustStorePassword) {
+        this.keyStorePath = keyStorePath;
+        this.keyStorePassword = keyStorePassword;
+        this.trustStorePath = trustStorePath;
+        this.trustStorePassword = trustStorePassword;
+    }
+
+    /**
+     * Lazy holder of the TLS context configured by the properties file of
+     * application.
+     */
+    private static final class Holder {
+        /** TLS context configured by the properties file of application. */
+        private static final SecureContext INSTANCE = fromProperties(
+                SecureConnection.loadProperties());
+
+        /** Hide constructor of holder class. */
+        private Holder() { }
+    }
+
+    /**
+     * Getter of the TLS context shared by all connections of application.
+     *
+     * @return TLS context configured by the properties file of application.
+     */
+    public static SecureContext getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * This method creates a TLS context according to the specified security
+     * properties.
+     *
+     * @param properties Security properties of PDGuard client.
+     * @return TLS context using key and trust stores defined in properties.
+     */
+    public static SecureContext fromProperties(final Properties properties) {
+        return new SecureContext(properties.getProperty("keystore"),
+                properties.getProperty("keystore_pswrd"),
+                properties.getProperty("truststore"),
+                properties.getProperty("truststore_pswrd"));
+    }
+
+    /**
+     * This method returns the socket factory shared by all connections.
+     *
+     * If any key store file was modified since the context was built, the
+     * context is rebuilt first. If the rebuild fails, the previous context is
+     * kept, the failure is available from {@link #getLastReloadFailure()} and
+     * the rebuild is retried after a growing interval.
+     *
+     * @return Socket factory specified by Transport Layer Security (TLS)
+     * protocol.
+     *
+     * @throws IOException is thrown when no TLS context can be built.
+     */
+    public SSLSocketFactory getSocketFactory() throws IOException {
+        Material current = material.get();
+        if (current == null)
+            return reload(null).socketFactory;
+        long now = System.currentTimeMillis();
+        if (now >= nextCheck) {
+            nextCheck = now + checkInterval;
+            if (current.isStale()) {
+                try {
+                    Material loaded = reload(current);
+                    consecutiveFailures = 0;
+                    return loaded.socketFactory;
+                } catch (IOException e) {
+                    reloadFailures.incrementAndGet();
+                    lastReloadFailure = e;
+                    int shift = Math.min(consecutiveFailures++,
+                            MAX_BACKOFF_SHIFT);
+                    nextCheck = now + (checkInterval << shift);
+                }
+            }
+        }
+        return current.socketFactory;
+    }
+
+    /**
+     * This method reads key and trust stores again and replaces the current
+     * TLS context, regardless of whether the files were modified.
+     *
+     * @throws IOException is thrown when key stores cannot be read or a TLS
+     * context cannot be initialized.
+     */
+    public void reload() throws IOException {
+        reload(material.get());
+    }
+
+    /**
+     * This method builds a new TLS context unless another thread has already
+     * replaced the expected one.
+     *
+     * @param expected TLS context which is going to be replaced.
+     * @return The current TLS context.
+     *
+     * @throws IOException is thrown when key stores cannot be read or a TLS
+     * context cannot be initialized.
+     */
+    private synchronized Material reload(final Material expected)
+            throws IOException {
+        Material current = material.get();
+        if (current != expected)
+            return current;
+        Material loaded = load();
+        material.set(loaded);
+        reloads.incrementAndGet();
+        return loaded;
+    }
+
+    /**
+     * This method reads key and trust stores and initializes a TLS context.
+     *
+     * @return A new TLS context with the modification state of files it was
+     * built from.
+     *
+     * @throws IOException is thrown when key stores cannot be read or a TLS
+     * context cannot be initialized.
+     */
+    private Material load() throws IOException {
+        File keyStoreFile = new File(keyStorePath);
+        File trustStoreFile = new File(trustStorePath);
+        long keyStoreModified = keyStoreFile.lastModified();
+        long trustStoreModified = trustStoreFile.lastModified();
+        try {
+            KeyManagerFactory keyManager = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            keyManager.init(loadKeyStore(keyStoreFile, keyStorePassword),
+                    keyStorePassword.toCharArray());
+            TrustManagerFactory trustManager = TrustManagerFactory
+                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManager.init(loadKeyStore(trustStoreFile,
+                    trustStorePassword));
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(keyManager.getKeyManagers(),
+                    trustManager.getTrustManagers(), null);
+            return new Material(new HandshakeCountingSocketFactory(
+                    ctx.getSocketFactory(), handshakes, resumptions),
+                    keyStoreModified, trustStoreModified);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("TLS context cannot be initialized.", e);
+        }
+    }
+
+    /**
+     * Reads and initializes the key store of the specified file.
+     *
+     * @param file Key store file.
+     * @param password Password of key store file.
+     * @return KeyStore object.
+     *
+     * @throws IOException is thrown when key store file cannot be read.
+     * @throws GeneralSecurityException is thrown when key store cannot be
+     * loaded.
+     */
+    static KeyStore loadKeyStore(final File file, final String password)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            keyStore.load(inputStream, password.toCharArray());
+        } finally {
+            inputStream.close();
+        }
+        return keyStore;
+    }
+
+    /**
+     * Setter of checkInterval field.
+     *
+     * @param checkInterval Interval (in milliseconds) between checks of key
+     * store files for modifications.
+     */
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+        consecutiveFailures = 0;
+        nextCheck = 0;
+    }
+
+    /**
+     * Getter of the number of TLS handshakes completed.
+     *
+     * @return Number of TLS handshakes, either full or resumed.
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * Getter of the number of TLS handshakes which resumed a session.
+     *
+     * @return Number of resumed TLS sessions.
+     */
+    public long getResumptionCount() {
+        return resumptions.get();
+    }
+
+    /**
+     * Getter of the number of times the TLS context was built.
+     *
+     * @return Number of loads of key and trust stores.
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * Getter of the number of failed attempts to rebuild the TLS context
+     * after key store files were modified.
+     *
+     * @return Number of failed reloads.
+     */
+    public long getReloadFailureCount() {
+        return reloadFailures.get();
+    }
+
+    /**
+     * Getter of the cause of the last failed attempt to rebuild the TLS
+     * context after key store files were modified.
+     *
+     * @return Cause of last failed reload or null if no reload has failed.
+     */
+    public IOException getLastReloadFailure() {
+        return lastReloadFailure;
+    }
+
+    /**
+     * Immutable TLS context together with the modification time of the files
+     * it was built from.
+     */
+    private final class Material {
+        /** Socket factory of TLS context. */
+        private final SSLSocketFactory socketFactory;
+
+        /** Modification time of key store file. */
+        private final long keyStoreModified;
+
+        /** Modification time of trust store file. */
+        private final long trustStoreModified;
+
+        /**
+         * Creates a new TLS context snapshot.
+         *
+         * @param socketFactory Socket factory of TLS context.
+         * @param keyStoreModified Modification time of key store file.
+         * @param trustStoreModified Modification time of trust store file.
+         */
+        Material(final SSLSocketFactory socketFactory,
+                final long keyStoreModified, final long trustStoreModified) {
+            this.socketFactory = socketFactory;
+            this.keyStoreModified = keyStoreModified;
+            this.trustStoreModified = trustStoreModified;
+        }
+
+        /**
+         * This method checks if any key store file was modified after this
+         * context was built.
+         *
+         * @return true if context must be rebuilt; false otherwise.
+         */
+        boolean isStale() {
+            return new File(keyStorePath).lastModified() != keyStoreModified
+                    || new File(trustStorePath).lastModified()
+                    != trustStoreModified;
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import org.pdguard.api.exceptions.CryptoException;
+import org.pdguard.api.utils.RequestEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class signs requests sent to escrow agent's web services and verifies
+ * the signatures of received requests.
+ *
+ * It produces exactly the same signatures as
+ * {@link org.pdguard.api.model.SignatureBase} along with {@link Signature},
+ * but it avoids most of their allocations: every thread keeps its own
+ * {@link Mac} and a byte buffer into which the signature base string is
+ * percent-encoded directly, whereas signing keys and encoded base URIs are
+ * cached.
+ *
+ * Parameters are percent-encoded like {@link java.net.URLEncoder} does with
+ * UTF-8, except that spaces are encoded as %20.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class SigningEngine {
+    /** Algorithm used for the signing of requests. */
+    public static final String ALGORITHM = "HmacSHA1";
+
+    /** Maximum number of signing keys and base URIs held by caches. */
+    private static final int MAX_CACHED_ENTRIES = 256;
+
+    /** Initial size (in bytes) of the buffer of every thread. */
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    /** Maximum size (in bytes) of a buffer which is kept for reuse. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /** Hexadecimal digits used in percent-escapes. */
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(
+            StandardCharsets.US_ASCII);
+
+    /** Separator of the signature parameter. */
+    private static final byte[] SIGNATURE_PARAMETER = "&signature="
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /** Number of bits of a hexadecimal digit. */
+    private static final int HEX_DIGIT_BITS = 4;
+
+    /** Mask which selects a hexadecimal digit. */
+    private static final int HEX_DIGIT_MASK = 0x0f;
+
+    /** Mask which selects the lowest byte of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Largest code point encoded in one byte by UTF-8. */
+    private static final int MAX_ONE_BYTE = 0x7f;
+
+    /** Largest code point encoded in two bytes by UTF-8. */
+    private static final int MAX_TWO_BYTES = 0x7ff;
+
+    /** Largest code point encoded in three bytes by UTF-8. */
+    private static final int MAX_THREE_BYTES = 0xffff;
+
+    /** Number of payload bits of a continuation byte of UTF-8. */
+    private static final int CONTINUATION_BITS = 6;
+
+    /** Mask which selects the payload bits of a continuation byte. */
+    private static final int CONTINUATION_MASK = 0x3f;
+
+    /** Maximum number of continuation bytes of a character in UTF-8. */
+    private static final int MAX_CONTINUATION_BYTES = 3;
+
+    /** Length (in bytes) of a percent-escape. */
+    private static final int ESCAPE_LENGTH = 3;
+
+    /** Prefix of a continuation byte of UTF-8. */
+    private static final int CONTINUATION_PREFIX = 0x80;
+
+    /** Prefix of the first byte of a two bytes sequence of UTF-8. */
+    private static final int TWO_BYTES_PREFIX = 0xc0;
+
+    /** Prefix of the first byte of a three bytes sequence of UTF-8. */
+    private static final int THREE_BYTES_PREFIX = 0xe0;
+
+    /** Prefix of the first byte of a four bytes sequence of UTF-8. */
+    private static final int FOUR_BYTES_PREFIX = 0xf0;
+
+    /** Signing keys by secret. */
+    private static final ConcurrentMap<String, SecretKeySpec> KEYS =
+            new ConcurrentHashMap<>();
+
+    /** Encoded base URIs by URL. */
+    private static final ConcurrentMap<String, byte[]> BASE_URIS =
+            new ConcurrentHashMap<>();
+
+    /** Signing objects of every thread. */
+    private static final ThreadLocal<Engine> ENGINES =
+            new ThreadLocal<Engine>() {
+        @Override
+        protected Engine initialValue() {
+            return new Engine();
+        }
+    };
+
+    /** Private constructor; this class is not meant to be instantiated. */
+    private SigningEngine() {
+    }
+
+    /**
+     * This method signs a request.
+     *
+     * @param parameters Parameters of request sorted by name.
+     * @param url URL of escrow agent's web service.
+     * @param requestMethod HTTP request method.
+     * @param secret Secret to sign request.
+     * @return Encoded string of the normalized parameters query with the
+     * addition of signature parameter.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error occurs
+     * during the signing of the request.
+     */
+    public static String signRequest(
+            final SortedMap<String, String> parameters, final String url,
+            final String requestMethod, final String secret) {
+        Engine engine = ENGINES.get();
+        try {
+            int parametersOffset = engine.appendSignatureBase(parameters, url,
+                    requestMethod);
+            engine.sign(secret);
+            engine.append(SIGNATURE_PARAMETER);
+            engine.appendEncodedSignature();
+            return new String(engine.buffer, parametersOffset,
+                    engine.length - parametersOffset,
+                    StandardCharsets.US_ASCII);
+        } finally {
+            engine.release();
+        }
+    }
+
+    /**
+     * This method calculates the signature of a request.
+     *
+     * @param parameters Parameters of request sorted by name.
+     * @param url URL of escrow agent's web service.
+     * @param requestMethod HTTP request method.
+     * @param secret Secret to sign request.
+     * @return Signature's value in Base64.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error occurs
+     * during the signing of the request.
+     */
+    public static String getSignature(
+            final SortedMap<String, String> parameters, final String url,
+            final String requestMethod, final String secret) {
+        Engine engine = ENGINES.get();
+        try {
+            engine.appendSignatureBase(parameters, url, requestMethod);
+            engine.sign(secret);
+            return new String(engine.signature, 0, engine.signatureLength,
+                    StandardCharsets.US_ASCII);
+        } finally {
+            engine.release();
+        }
+    }
+
+    /**
+     * This method verifies the signature of a received request. Signatures
+     * are compared in constant time.
+     *
+     * @param parameters Parameters of request sorted by name, apart from
+     * signature.
+     * @param url URL of escrow agent's web service.
+     * @param requestMethod HTTP request method.
+     * @param secret Secret which signed request.
+     * @param signature Signature's value in Base64 sent on request.
+     * @return true if signature is valid; false otherwise.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error occurs
+     * during the signing of the request.
+     */
+    public static boolean verify(final SortedMap<String, String> parameters,
+            final String url, final String requestMethod, final String secret,
+            final String signature) {
+        if (signature == null)
+            return false;
+        Engine engine = ENGINES.get();
+        try {
+            engine.appendSignatureBase(parameters, url, requestMethod);
+            engine.sign(secret);
+            int difference = signature.length() ^ engine.signatureLength;
+            for (int i = 0; i < engine.signatureLength; i++)
+                difference |= (i < signature.length() ? signature.charAt(i)
+                        : 0) ^ engine.signature[i];
+            return difference == 0;
+        } finally {
+            engine.release();
+        }
+    }
+
+    /**
+     * This method calculates the signature of a message.
+     *
+     * @param message Message to sign.
+     * @param secret Secret to sign message.
+     * @return Signature's value in Base64.
+     *
+     * @throws CryptoException (Runtime) when an unexpected error occurs
+     * during the signing of the message.
+     */
+    public static String signMessage(final String message,
+            final String secret) {
+        Engine engine = ENGINES.get();
+        try {
+            engine.appendUtf8(message);
+            engine.sign(secret);
+            return new String(engine.signature, 0, engine.signatureLength,
+                    StandardCharsets.US_ASCII);
+        } finally {
+            engine.release();
+        }
+    }
+
+    /**
+     * This method gets the signing key of a secret from cache.
+     *
+     * @param secret Secret to sign requests.
+     * @return Signing key.
+     */
+    static SecretKeySpec getKey(final String secret) {
+        SecretKeySpec key = KEYS.get(secret);
+        if (key == null) {
+            if (KEYS.size() >= MAX_CACHED_ENTRIES)
+                KEYS.clear();
+            key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8),
+                    ALGORITHM);
+            KEYS.put(secret, key);
+        }
+        return key;
+    }
+
+    /**
+     * This method gets the encoded base URI of a URL from cache.
+     *
+     * @param url URL of escrow agent's web service.
+     * @return Encoded base URI in ASCII.
+     */
+    static byte[] getBaseUri(final String url) {
+        byte[] baseUri = BASE_URIS.get(url);
+        if (baseUri == null) {
+            if (BASE_URIS.size() >= MAX_CACHED_ENTRIES)
+                BASE_URIS.clear();
+            try {
+                baseUri = RequestEncoder.encodeBaseURI(url).getBytes(
+                        StandardCharsets.US_ASCII);
+            } catch (UnsupportedEncodingException e) {
+                throw new CryptoException(e);
+            }
+            BASE_URIS.put(url, baseUri);
+        }
+        return baseUri;
+    }
+
+    /** Signing objects which are reused by a thread. */
+    private static final class Engine {
+        /** HMAC of the thread. */
+        private final Mac mac;
+
+        /** Key with which mac is initialized. */
+        private SecretKeySpec macKey;
+
+        /** Buffer where the signature base string is built. */
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        /** Number of bytes of buffer in use. */
+        private int length;
+
+        /** Raw value of the last signature. */
+        private final byte[] rawSignature;
+
+        /** Base64 value of the last signature. */
+        private final byte[] signature;
+
+        /** Length of the Base64 value of the last signature. */
+        private int signatureLength;
+
+        /**
+         * Creates the signing objects of a thread.
+         *
+         * @throws CryptoException (Runtime) when HMAC-SHA1 is not supported.
+         */
+        Engine() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException(e);
+            }
+            rawSignature = new byte[mac.getMacLength()];
+            signature = new byte[Base64.getEncoder().encode(rawSignature)
+                    .length];
+        }
+
+        /**
+         * This method appends the signature base string of a request to
+         * buffer.
+         *
+         * @param parameters Parameters of request sorted by name.
+         * @param url URL of escrow agent's web service.
+         * @param requestMethod HTTP request method.
+         * @return Offset of the encoded parameters query in buffer.
+         */
+        int appendSignatureBase(final SortedMap<String, String> parameters,
+                final String url, final String requestMethod) {
+            appendUtf8(requestMethod.toUpperCase(Locale.ENGLISH));
+            append('&');
+            append(getBaseUri(url));
+            append('&');
+            int parametersOffset = length;
+            boolean firstEntry = true;
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                if (!firstEntry)
+                    append('&');
+                appendEncoded(entry.getKey());
+                append('=');
+                appendEncoded(entry.getValue());
+                firstEntry = false;
+            }
+            return parametersOffset;
+        }
+
+        /**
+         * This method signs the content of buffer and stores the Base64
+         * value of signature into signature field.
+         *
+         * @param secret Secret to sign content.
+         */
+        void sign(final String secret) {
+            SecretKeySpec key = getKey(secret);
+            try {
+                if (key != macKey) {
+                    macKey = null;
+                    mac.init(key);
+                    macKey = key;
+                }
+                mac.update(buffer, 0, length);
+                mac.doFinal(rawSignature, 0);
+            } catch (GeneralSecurityException e) {
+                macKey = null;
+                throw new CryptoException(e);
+            }
+            signatureLength = Base64.getEncoder().encode(rawSignature,
+                    signature);
+        }
+
+        /**
+         * This method appends the percent-encoded signature to buffer.
+         */
+        void appendEncodedSignature() {
+            for (int i = 0; i < signatureLength; i++)
+                appendEncodedByte(signature[i]);
+        }
+
+        /**
+         * This method percent-encodes a string in UTF-8 and appends it to
+         * buffer.
+         *
+         * @param value String to encode.
+         */
+        void appendEncoded(final String value) {
+            int n = value.length();
+            for (int i = 0; i < n; i++) {
+                char c = value.charAt(i);
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < n
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                } else if (Character.isSurrogate(c)) {
+                    codePoint = '?';
+                }
+                if (codePoint <= MAX_ONE_BYTE) {
+                    appendEncodedByte(codePoint);
+                } else if (codePoint <= MAX_TWO_BYTES) {
+                    appendEscape(TWO_BYTES_PREFIX
+                            | codePoint >> CONTINUATION_BITS);
+                    appendContinuation(codePoint, 0);
+                } else if (codePoint <= MAX_THREE_BYTES) {
+                    appendEscape(THREE_BYTES_PREFIX
+                            | codePoint >> (2 * CONTINUATION_BITS));
+                    appendContinuation(codePoint, 1);
+                    appendContinuation(codePoint, 0);
+                } else {
+                    appendEscape(FOUR_BYTES_PREFIX
+                            | codePoint >> (MAX_CONTINUATION_BYTES
+                            * CONTINUATION_BITS));
+                    appendContinuation(codePoint, 2);
+                    appendContinuation(codePoint, 1);
+                    appendContinuation(codePoint, 0);
+                }
+            }
+        }
+
+        /**
+         * This method appends an ASCII byte to buffer, percent-encoding it
+         * unless it is an unreserved character.
+         *
+         * @param b ASCII byte.
+         */
+        void appendEncodedByte(final int b) {
+            if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+                    || b >= '0' && b <= '9' || b == '.' || b == '-'
+                    || b == '*' || b == '_')
+                append((char) b);
+            else
+                appendEscape(b);
+        }
+
+        /**
+         * This method appends a continuation byte of UTF-8 as a
+         * percent-escape to buffer.
+         *
+         * @param codePoint Code point which is encoded.
+         * @param index Index of the continuation byte counting from the last
+         * one.
+         */
+        void appendContinuation(final int codePoint, final int index) {
+            appendEscape(CONTINUATION_PREFIX | codePoint
+                    >> (index * CONTINUATION_BITS) & CONTINUATION_MASK);
+        }
+
+        /**
+         * This method appends a percent-escape of a byte to buffer.
+         *
+         * @param b Byte to escape.
+         */
+        void appendEscape(final int b) {
+            ensureCapacity(ESCAPE_LENGTH);
+            buffer[length++] = '%';
+            buffer[length++] = HEX_DIGITS[(b & BYTE_MASK) >> HEX_DIGIT_BITS];
+            buffer[length++] = HEX_DIGITS[b & HEX_DIGIT_MASK];
+        }
+
+        /**
+         * This method appends a string in UTF-8 to buffer without encoding
+         * it.
+         *
+         * @param value String to append.
+         */
+        void appendUtf8(final String value) {
+            append(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * This method appends bytes to buffer.
+         *
+         * @param bytes Bytes to append.
+         */
+        void append(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        /**
+         * This method appends an ASCII character to buffer.
+         *
+         * @param c ASCII character.
+         */
+        void append(final char c) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) c;
+        }
+
+        /**
+         * This method makes room in buffer for the given number of bytes.
+         *
+         * @param extra Number of bytes to be appended.
+         */
+        void ensureCapacity(final int extra) {
+            if (length + extra > buffer.length) {
+                byte[] larger = new byte[Math.max(buffer.length * 2,
+                        length + extra)];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+        }
+
+        /** This method empties buffer so that it can be reused. */
+        void release() {
+            length = 0;
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE)
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.security;
+
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * This class encrypts and decrypts streams of data of arbitrary length in
+ * a chunked, authenticated format.
+ *
+ * The stream is split into chunks of fixed size and every chunk is sealed
+ * separately with AES-GCM, so only two buffers of the size of a chunk are
+ * held in memory no matter how long the stream is. The ciphertext starts
+ * with a header which consists of a magic number, a version number, the size
+ * of chunks and a random nonce prefix. Every chunk is preceded by a flag
+ * that marks the final chunk and by the length of its ciphertext.
+ *
+ * The IV of every chunk consists of the nonce prefix followed by the index
+ * of the chunk, and the header along with the flag of the chunk are
+ * authenticated as additional data. Hence, chunks cannot be reordered,
+ * dropped, truncated or moved between streams without being detected.
+ *
+ * The chunk size in the header and the length of a chunk are read before
+ * they can be authenticated. Hence, buffers used for decryption grow only
+ * as data of a chunk arrive, so a forged header cannot make decryption
+ * allocate much more memory than the size of the data it is given.
+ *
+ * Data of a chunk are written to the output stream only after the chunk
+ * has been authenticated. However, if decryption fails, the chunks which
+ * preceded the failing one have already been written.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class StreamCipher {
+    /** Default size (in bytes) of the cleartext of a chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /** Maximum size (in bytes) of the cleartext of a chunk. */
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /** Magic number which identifies the format. */
+    private static final int MAGIC = 0x50444753;
+
+    /** Version of the format. */
+    private static final byte VERSION = 1;
+
+    /** Length (in bytes) of an int. */
+    private static final int INT_LENGTH = Integer.SIZE / Byte.SIZE;
+
+    /** Offset of the version number in the header. */
+    private static final int VERSION_OFFSET = INT_LENGTH;
+
+    /** Offset of the chunk size in the header. */
+    private static final int CHUNK_SIZE_OFFSET = VERSION_OFFSET + 1;
+
+    /** Length (in bytes) of the nonce prefix. */
+    private static final int NONCE_PREFIX_LENGTH = 8;
+
+    /** Length (in bytes) of the header. */
+    private static final int HEADER_LENGTH = CHUNK_SIZE_OFFSET + INT_LENGTH
+            + NONCE_PREFIX_LENGTH;
+
+    /** Length (in bytes) of the IV of a chunk. */
+    private static final int IV_LENGTH = NONCE_PREFIX_LENGTH + INT_LENGTH;
+
+    /** Length (in bits) of the authentication tag of a chunk. */
+    private static final int TAG_BITS = 128;
+
+    /** Length (in bytes) of the authentication tag of a chunk. */
+    private static final int TAG_LENGTH = TAG_BITS / Byte.SIZE;
+
+    /** Flag of every chunk but the final one. */
+    private static final byte INTERMEDIATE_CHUNK = 0;
+
+    /** Flag of the final chunk. */
+    private static final byte FINAL_CHUNK = 1;
+
+    /** Maximum number of chunks of a stream. */
+    private static final long MAX_CHUNKS = 1L << Integer.SIZE;
+
+    /** Mask which selects the lowest byte of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Source of randomness for nonce prefixes. */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Private constructor; this class is not meant to be instantiated. */
+    private StreamCipher() {
+    }
+
+    /**
+     * This method encrypts a stream using chunks of the default size.
+     *
+     * @param in Stream of cleartext data.
+     * @param out Stream where encrypted data are written.
+     * @param key Encryption key.
+     * @return Number of cleartext bytes which were encrypted.
+     *
+     * @throws IOException is thrown when reading or writing fails.
+     * @throws CryptoException (Runtime) when an unexpected error in the
+     * encryption occurs.
+     */
+    public static long encrypt(final InputStream in, final OutputStream out,
+            final SecretKey key) throws IOException {
+        return encrypt(in, out, key, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * This method encrypts a stream. Streams are neither flushed nor closed.
+     *
+     * @param in Stream of cleartext data.
+     * @param out Stream where encrypted data are written.
+     * @param key Encryption key.
+     * @param chunkSize Size (in bytes) of the cleartext of a chunk.
+     * @return Number of cleartext bytes which were encrypted.
+     *
+     * @throws IOException is thrown when reading or writing fails.
+     * @throws CryptoException (Runtime) when an unexpected error in the
+     * encryption occurs.
+     */
+    public static long encrypt(final InputStream in, final OutputStream out,
+            final SecretKey key, final int chunkSize) throws IOException {
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Invalid chunk size");
+        byte[] header = new byte[HEADER_LENGTH];
+        writeInt(header, 0, MAGIC);
+        header[VERSION_OFFSET] = VERSION;
+        writeInt(header, CHUNK_SIZE_OFFSET, chunkSize);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(noncePrefix);
+        System.arraycopy(noncePrefix, 0, header, HEADER_LENGTH
+                - NONCE_PREFIX_LENGTH, NONCE_PREFIX_LENGTH);
+        out.write(header);
+        Cipher cipher = getCipher();
+        byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(noncePrefix, 0, iv, 0, NONCE_PREFIX_LENGTH);
+        byte[] cleartext = new byte[chunkSize];
+        byte[] ciphertext = new byte[chunkSize + TAG_LENGTH];
+        byte[] frame = new byte[1 + INT_LENGTH];
+        long total = 0;
+        long index = 0;
+        int pending = -1;
+        while (true) {
+            int offset = 0;
+            if (pending >= 0) {
+                cleartext[0] = (byte) pending;
+                offset = 1;
+            }
+            int length = offset + readFully(in, cleartext, offset,
+                    chunkSize - offset);
+            pending = length == chunkSize ? in.read() : -1;
+            frame[0] = pending < 0 ? FINAL_CHUNK : INTERMEDIATE_CHUNK;
+            if (index == MAX_CHUNKS)
+                throw new CryptoException("Stream is too long to encrypt.");
+            writeInt(iv, NONCE_PREFIX_LENGTH, (int) index);
+            int sealed;
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(
+                        TAG_BITS, iv));
+                cipher.updateAAD(header);
+                cipher.updateAAD(frame, 0, 1);
+                sealed = cipher.doFinal(cleartext, 0, length, ciphertext, 0);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Data encryption cannot be"
+                        + " completed. An unexpected error occurred.", e);
+            }
+            writeInt(frame, 1, sealed);
+            out.write(frame);
+            out.write(ciphertext, 0, sealed);
+            total += length;
+            index++;
+            if (pending < 0)
+                return total;
+        }
+    }
+
+    /**
+     * This method decrypts a stream which was encrypted by this class.
+     * Streams are neither flushed nor closed.
+     *
+     * @param in Stream of encrypted data.
+     * @param out Stream where cleartext data are written.
+     * @param key Encryption key.
+     * @return Number of cleartext bytes which were decrypted.
+     *
+     * @throws IOException is thrown when reading or writing fails.
+     * @throws CryptoException (Runtime) when encrypted data are malformed,
+     * truncated or tampered with, or when an unexpected error in the
+     * decryption occurs.
+     */
+    public static long decrypt(final InputStream in, final OutputStream out,
+            final SecretKey key) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(in, header, 0, HEADER_LENGTH) < HEADER_LENGTH
+                || readInt(header, 0) != MAGIC
+                || header[VERSION_OFFSET] != VERSION)
+            throw new CryptoException("Encrypted stream is malformed.");
+        int chunkSize = readInt(header, CHUNK_SIZE_OFFSET);
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE)
+            throw new CryptoException("Encrypted stream is malformed.");
+        Cipher cipher = getCipher();
+        byte[] iv = new byte[IV_LENGTH];
+        System.arraycopy(header, HEADER_LENGTH - NONCE_PREFIX_LENGTH, iv, 0,
+                NONCE_PREFIX_LENGTH);
+        int maxLength = chunkSize + TAG_LENGTH;
+        byte[] ciphertext = new byte[Math.min(chunkSize, DEFAULT_CHUNK_SIZE)
+                + TAG_LENGTH];
+        byte[] cleartext = new byte[0];
+        byte[] frame = new byte[1 + INT_LENGTH];
+        long total = 0;
+        long index = 0;
+        while (true) {
+            if (readFully(in, frame, 0, frame.length) < frame.length)
+                throw new CryptoException("Encrypted stream is truncated.");
+            int length = readInt(frame, 1);
+            boolean last = frame[0] == FINAL_CHUNK;
+            if (!last && frame[0] != INTERMEDIATE_CHUNK
+                    || length < TAG_LENGTH || length > maxLength
+                    || !last && length != maxLength
+                    || index == MAX_CHUNKS)
+                throw new CryptoException("Encrypted stream is malformed.");
+            ciphertext = readChunk(in, ciphertext, length);
+            if (cleartext.length < length - TAG_LENGTH)
+                cleartext = new byte[length - TAG_LENGTH];
+            writeInt(iv, NONCE_PREFIX_LENGTH, (int) index);
+            int opened;
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(
+                        TAG_BITS, iv));
+                cipher.updateAAD(header);
+                cipher.updateAAD(frame, 0, 1);
+                opened = cipher.doFinal(ciphertext, 0, length, cleartext, 0);
+            } catch (AEADBadTagException e) {
+                throw new CryptoException("Encrypted stream has been tampered"
+                        + " with.", e);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Data decryption cannot be"
+                        + " completed. An unexpected error occurred.", e);
+            }
+            out.write(cleartext, 0, opened);
+            total += opened;
+            index++;
+            if (last) {
+                if (in.read() != -1)
+                    throw new CryptoException("Encrypted stream has trailing"
+                            + " data.");
+                return total;
+            }
+        }
+    }
+
+    /**
+     * This method creates a cipher for the chunks of a stream.
+     *
+     * @return AES-GCM cipher.
+     *
+     * @throws CryptoException (Runtime) when AES-GCM is not supported.
+     */
+    private static Cipher getCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("AES-GCM is not supported.", e);
+        }
+    }
+
+    /**
+     * This method reads the ciphertext of a chunk.
+     *
+     * Buffer is doubled whenever it fills up until it can hold the whole
+     * chunk, so it is never larger than twice the bytes actually read or
+     * the size of the given buffer.
+     *
+     * @param in Stream to read from.
+     * @param buffer Buffer where bytes are stored, if it is large enough.
+     * @param length Length of the ciphertext of the chunk.
+     * @return Buffer which holds the ciphertext at its start.
+     *
+     * @throws IOException is thrown when reading fails.
+     * @throws CryptoException (Runtime) when stream ends before the chunk.
+     */
+    private static byte[] readChunk(final InputStream in, final byte[] buffer,
+            final int length) throws IOException {
+        byte[] chunk = buffer;
+        int read = 0;
+        while (read < length) {
+            if (read == chunk.length)
+                chunk = Arrays.copyOf(chunk, (int) Math.min(length,
+                        2L * chunk.length));
+            int limit = Math.min(length, chunk.length);
+            read += readFully(in, chunk, read, limit - read);
+            if (read < limit)
+                throw new CryptoException("Encrypted stream is truncated.");
+        }
+        return chunk;
+    }
+
+    /**
+     * This method reads from a stream until the specified number of bytes
+     * has been read or the end of stream has been reached.
+     *
+     * @param in Stream to read from.
+     * @param buffer Buffer where bytes are stored.
+     * @param offset Offset of buffer where the first byte is stored.
+     * @param length Number of bytes to read.
+     * @return Number of bytes actually read.
+     *
+     * @throws IOException is thrown when reading fails.
+     */
+    private static int readFully(final InputStream in, final byte[] buffer,
+            final int offset, final int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buffer, offset + read, length - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * This method stores an int into a buffer in big-endian order.
+     *
+     * @param buffer Buffer where the int is stored.
+     * @param offset Offset of the first byte of the int.
+     * @param value Value to store.
+     */
+    private static void writeInt(final byte[] buffer, final int offset,
+            final int value) {
+        for (int i = 0; i < INT_LENGTH; i++)
+            buffer[offset + i] = (byte) (value >>> (Byte.SIZE
+                    * (INT_LENGTH - 1 - i)));
+    }
+
+    /**
+     * This method loads an int from a buffer in big-endian order.
+     *
+     * @param buffer Buffer where the int is stored.
+     * @param offset Offset of the first byte of the int.
+     * @return Value loaded.
+     */
+    private static int readInt(final byte[] buffer, final int offset) {
+        int value = 0;
+        for (int i = 0; i < INT_LENGTH; i++)
+            value = (value << Byte.SIZE) | (buffer[offset + i] & BYTE_MASK);
+        return value;
+    }
+}
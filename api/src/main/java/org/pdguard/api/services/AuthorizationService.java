@@ -23,10 +23,8 @@ import org.pdguard.api.model.DecryptionBundle;
 import org.pdguard.api.model.EncryptionBundle;
 import org.pdguard.api.model.EscrowAgent;
 import org.pdguard.api.model.RequestToken;
-import org.pdguard.api.model.SignatureBase;
 import org.pdguard.api.security.SecureConnection;
 import org.pdguard.api.utils.PDGuardRequestType;
-import org.pdguard.api.utils.ResponseParser;
 
 import java.io.IOException;
 import java.util.TreeMap;
@@ -93,6 +91,31 @@ public class AuthorizationService extends EscrowAgentService {
     @Override
     public final TreeMap<String, String> getParameters() {
         TreeMap<String, String> parameters = new TreeMap<>();
+        addAuthorizationParameters(parameters, authBundle, requestType);
+        parameters.put("client_id", clientCredentials.getClientId());
+        parameters.put("timestamp", String.valueOf(getTimeStamp()));
+        parameters.put("nonce", getNonce());
+        parameters.put("request_token", requestToken.getRequestToken());
+        return parameters;
+    }
+
+    /**
+     * This method stores the parameters which escrow agent requires to grant
+     * authorization to a map with keys the name of parameters.
+     *
+     * @param parameters Map of request parameters.
+     * @param authBundle Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     *
+     * @throws RuntimeException is thrown when the type of bundle does not
+     * match the type of request.
+     */
+    public static void addAuthorizationParameters(
+            final TreeMap<String, String> parameters,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
         if (requestType.equals(PDGuardRequestType.ENCRYPTION)) {
             if (authBundle instanceof EncryptionBundle) {
                 parameters.put("data_provenance", ((EncryptionBundle)
@@ -110,13 +133,8 @@ public class AuthorizationService extends EscrowAgentService {
             } else
                 throw new RuntimeException();
         }
-        parameters.put("client_id", clientCredentials.getClientId());
-        parameters.put("timestamp", String.valueOf(getTimeStamp()));
-        parameters.put("nonce", getNonce());
-        parameters.put("request_token", requestToken.getRequestToken());
         parameters.put("data_type", authBundle.getDataType().toString());
         parameters.put("request_type", requestType.toString());
-        return parameters;
     }
 
     /**
@@ -144,13 +162,11 @@ public class AuthorizationService extends EscrowAgentService {
         String url = "https://" + super.getEscrowAgent().getEscrowAgentName()
                 + EscrowAgent.getAuthorizationService();
         TreeMap<String, String> parameters = getParameters();
-        SignatureBase signatureBase = new SignatureBase(parameters,
-                url, "POST");
-        String parametersQuery = signRequest(signatureBase,
+        String parametersQuery = signRequest(parameters, url,
                 clientCredentials.getClientSecret()
                         + "&" + requestToken.getTokenSecret());
         String response = callEscrowAgentService(parametersQuery, url);
-        return (RequestToken) ResponseParser.toObject(response,
+        return (RequestToken) parseResponse(response,
                 RequestToken.class);
     }
 }
@@ -0,0 +1,208 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class defines a connection to the batch authorization web service of a
+ * data subject's escrow agent.
+ *
+ * Escrow agent authorizes all items of a batch under a single request token
+ * and sends back the authorization result of every item along with the
+ * encryption key of the items which are allowed. Therefore, the encryption
+ * keys for many blocks of data are obtained in two round trips, the request
+ * token and the batch itself, instead of three round trips per block.
+ *
+ * Parameters of an item are named after the corresponding parameters of
+ * {@link AuthorizationService} with the prefix <code>item_&lt;index&gt;_
+ * </code>, e.g. <code>item_0_data_type</code>.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class BatchAuthorizationService extends EscrowAgentService {
+    /** Name of parameter holding the number of items of batch. */
+    public static final String ITEM_COUNT = "item_count";
+
+    /**
+     * Maximum number of items of a batch; escrow agent rejects larger
+     * batches.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /** Value of result parameter of an allowed item. */
+    public static final String ALLOWED = "ALLOWED";
+
+    /** Client's credentials used by escrow agent to verify request. */
+    private ClientCredentials clientCredentials;
+
+    /** Request token under which all items are authorized. */
+    private RequestToken requestToken;
+
+    /** Bundles of parameters of items of batch. */
+    private List<? extends AuthorizationBundle> authBundles;
+
+    /**
+     * Create a new connection to a data subject's specified escrow agent's
+     * service to authorize a batch of requests.
+     *
+     * @param clientCredentials Credentials of client who is requesting escrow
+     * agent.
+     * @param escrowAgent Trusted escrow agent by data subject.
+     * @param con Connection configuration to establish an encrypted connection
+     * with escrow agent.
+     * @param authBundles Bundles of parameters of items of batch. Encryption
+     * bundles define encryption requests and decryption bundles define
+     * decryption requests.
+     * @param rtoken Request token under which all items are authorized.
+     */
+    public BatchAuthorizationService(final ClientCredentials clientCredentials,
+            final EscrowAgent escrowAgent, final SecureConnection con,
+            final List<? extends AuthorizationBundle> authBundles,
+            final RequestToken rtoken) {
+        super(escrowAgent, con);
+        this.clientCredentials = clientCredentials;
+        this.authBundles = authBundles;
+        requestToken = rtoken;
+    }
+
+    /**
+     * This method gets the name of a parameter of an item of batch.
+     *
+     * @param index Index of item in batch.
+     * @param name Name of parameter.
+     *
+     * @return Name of parameter prefixed with the index of item.
+     */
+    public static String itemParameter(final int index, final String name) {
+        return "item_" + index + "_" + name;
+    }
+
+    /**
+     * This method gets the type of PDGuard request defined by a bundle.
+     *
+     * @param authBundle Bundle of parameters of request.
+     *
+     * @return Encryption if bundle is an encryption bundle; decryption
+     * otherwise.
+     */
+    public static PDGuardRequestType getRequestType(
+            final AuthorizationBundle authBundle) {
+        return authBundle instanceof EncryptionBundle
+                ? PDGuardRequestType.ENCRYPTION
+                : PDGuardRequestType.DECRYPTION;
+    }
+
+    /**
+     * This method stores the base parameters of a request to a map with keys
+     * the name of parameters.
+     *
+     * @return A map of request parameters with keys the name of parameters.
+     */
+    @Override
+    public final TreeMap<String, String> getParameters() {
+        TreeMap<String, String> parameters = new TreeMap<>();
+        parameters.put("client_id", clientCredentials.getClientId());
+        parameters.put("timestamp", String.valueOf(getTimeStamp()));
+        parameters.put("nonce", getNonce());
+        parameters.put("request_token", requestToken.getRequestToken());
+        parameters.put(ITEM_COUNT, String.valueOf(authBundles.size()));
+        for (int i = 0; i < authBundles.size(); i++) {
+            AuthorizationBundle authBundle = authBundles.get(i);
+            if (authBundle instanceof EncryptionBundle) {
+                EncryptionBundle bundle = (EncryptionBundle) authBundle;
+                parameters.put(itemParameter(i, "data_provenance"),
+                        bundle.getDataProvenance().toString());
+                parameters.put(itemParameter(i, "update"),
+                        String.valueOf(bundle.isUpdate()));
+            } else if (authBundle instanceof DecryptionBundle) {
+                DecryptionBundle bundle = (DecryptionBundle) authBundle;
+                parameters.put(itemParameter(i, "data_use"),
+                        bundle.getDataUse().toString());
+                parameters.put(itemParameter(i, "interaction_purpose"),
+                        bundle.getInteractionPurpose().toString());
+            } else
+                throw new RuntimeException();
+            parameters.put(itemParameter(i, "data_type"),
+                    authBundle.getDataType().toString());
+            parameters.put(itemParameter(i, "request_type"),
+                    getRequestType(authBundle).toString());
+        }
+        return parameters;
+    }
+
+    /**
+     * This method calls the batch authorization web service of escrow agent.
+     *
+     * It creates a signature base string from parts of HTTP request and then
+     * it signs it with both the client's secret and request token's secret.
+     *
+     * @return Encryption keys of items in the order of the given bundles. The
+     * key of an item whose access was denied by escrow agent is null.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails.
+     * @throws org.pdguard.api.exceptions.UnverifiedRequestException is thrown
+     * when escrow agent cannot verify request from client.
+     * @throws EscrowAgentErrorResponseException is thrown when there is an
+     * error response by escrow agent or its response does not match the
+     * items of batch.
+     */
+    public List<EncryptionKey> authorizeBatch() throws IOException,
+            EscrowAgentErrorResponseException {
+        clientCredentials.checkNotNull();
+        requestToken.checkNotNull();
+        String url = "https://" + super.getEscrowAgent().getEscrowAgentName()
+                + EscrowAgent.getBatchAuthorizationService();
+        String parametersQuery = signRequest(getParameters(), url,
+                clientCredentials.getClientSecret()
+                        + "&" + requestToken.getTokenSecret());
+        Map<String, Object> response = parseParameters(exchange(
+                parametersQuery, url));
+        if (!String.valueOf(authBundles.size()).equals(
+                response.get(ITEM_COUNT)))
+            throw new EscrowAgentErrorResponseException("Escrow agent"
+                    + " response does not match the items of batch");
+        List<EncryptionKey> keys = new ArrayList<>(authBundles.size());
+        for (int i = 0; i < authBundles.size(); i++) {
+            Object key = response.get(itemParameter(i, "encryption_key"));
+            if (!ALLOWED.equals(response.get(itemParameter(i, "result")))
+                    || key == null)
+                keys.add(null);
+            else if (key instanceof byte[])
+                keys.add(new EncryptionKey((byte[]) key));
+            else
+                keys.add(new EncryptionKey((String) key));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,197 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.exceptions.DeadlineExceededException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class represents the time by which a PDGuard request must complete.
+ *
+ * The budget of a request can be split across its phases (request token,
+ * authorization and encryption key), so that a single stalled phase cannot
+ * consume the time of the phases which follow it. Phases share the
+ * cancellation of the request: when it is cancelled, the exchange in
+ * progress is aborted by closing its connection.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class Deadline {
+    /** Time (as given by System.nanoTime) when the deadline expires. */
+    private final long expiration;
+
+    /** True if the deadline never expires. */
+    private final boolean unbounded;
+
+    /** State of cancellation, shared by a deadline and its phases. */
+    private final Cancellation cancellation;
+
+    /**
+     * Creates a new deadline.
+     *
+     * @param expiration Time when the deadline expires.
+     * @param unbounded True if the deadline never expires.
+     * @param cancellation State of cancellation.
+     */
+    private Deadline(final long expiration, final boolean unbounded,
+            final Cancellation cancellation) {
+        this.expiration = expiration;
+        this.unbounded = unbounded;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * This method creates a deadline which expires after the specified time.
+     *
+     * @param timeout Time to complete request.
+     * @param unit Unit of timeout.
+     * @return A new deadline.
+     */
+    public static Deadline after(final long timeout, final TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), false,
+                new Cancellation());
+    }
+
+    /**
+     * This method creates a deadline which never expires but can still be
+     * cancelled.
+     *
+     * @return A new deadline.
+     */
+    public static Deadline none() {
+        return new Deadline(0, true, new Cancellation());
+    }
+
+    /**
+     * This method creates the deadline of the next phase of a request, which
+     * gets an equal share of the remaining time with the phases after it.
+     *
+     * @param phases Number of phases left, including the next one.
+     * @return Deadline of the next phase.
+     */
+    public Deadline split(final int phases) {
+        if (unbounded || phases <= 1)
+            return this;
+        long share = Math.max(0, expiration - System.nanoTime()) / phases;
+        return new Deadline(System.nanoTime() + share, false, cancellation);
+    }
+
+    /**
+     * This method computes the time left until the deadline.
+     *
+     * @param unit Unit of result.
+     * @return Remaining time (zero if deadline has expired) or
+     * <code>Long.MAX_VALUE</code> if deadline never expires.
+     */
+    public long remaining(final TimeUnit unit) {
+        if (unbounded)
+            return Long.MAX_VALUE;
+        return unit.convert(Math.max(0, expiration - System.nanoTime()),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method checks if the deadline has expired.
+     *
+     * @return true if there is no time left; false otherwise.
+     */
+    public boolean isExpired() {
+        return !unbounded && expiration - System.nanoTime() <= 0;
+    }
+
+    /**
+     * This method checks if the deadline never expires.
+     *
+     * @return true if deadline was created by {@link #none()}.
+     */
+    public boolean isUnbounded() {
+        return unbounded;
+    }
+
+    /**
+     * This method cancels the request and aborts the exchange in progress, if
+     * any.
+     */
+    public void cancel() {
+        cancellation.cancelled = true;
+        Runnable abort = cancellation.abort.getAndSet(null);
+        if (abort != null)
+            abort.run();
+    }
+
+    /**
+     * This method checks if the request has been cancelled.
+     *
+     * @return true if {@link #cancel()} was called on the deadline or on the
+     * request which it is a phase of.
+     */
+    public boolean isCancelled() {
+        return cancellation.cancelled;
+    }
+
+    /**
+     * This method checks that the request may go on.
+     *
+     * @throws IOException is thrown when the request may not go on; either
+     * a {@link DeadlineExceededException} when the deadline has expired or an
+     * {@link InterruptedIOException} when the request has been cancelled.
+     */
+    public void check() throws IOException {
+        if (isCancelled())
+            throw new InterruptedIOException("PDGuard request was cancelled");
+        if (isExpired())
+            throw new DeadlineExceededException("Deadline of PDGuard request"
+                    + " expired");
+    }
+
+    /**
+     * This method registers the action which aborts the exchange in
+     * progress when the request is cancelled.
+     *
+     * @param abort Action which aborts the exchange.
+     */
+    void setAbortAction(final Runnable abort) {
+        cancellation.abort.set(abort);
+        if (cancellation.cancelled && cancellation.abort.compareAndSet(abort,
+                null))
+            abort.run();
+    }
+
+    /**
+     * This method unregisters the action which aborts an exchange once the
+     * exchange is complete.
+     *
+     * @param abort Action registered by {@link #setAbortAction(Runnable)}.
+     */
+    void clearAbortAction(final Runnable abort) {
+        cancellation.abort.compareAndSet(abort, null);
+    }
+
+    /** State of cancellation of a request. */
+    private static final class Cancellation {
+        /** True if request has been cancelled. */
+        private volatile boolean cancelled;
+
+        /** Action which aborts the exchange in progress. */
+        private final AtomicReference<Runnable> abort =
+                new AtomicReference<>();
+    }
+}
@@ -22,9 +22,7 @@ import org.pdguard.api.model.ClientCredentials;
 import org.pdguard.api.model.EncryptionKey;
 import org.pdguard.api.model.EscrowAgent;
 import org.pdguard.api.model.RequestToken;
-import org.pdguard.api.model.SignatureBase;
 import org.pdguard.api.security.SecureConnection;
-import org.pdguard.api.utils.ResponseParser;
 
 import java.io.IOException;
 import java.util.TreeMap;
@@ -113,13 +111,11 @@ public class EncryptionKeyService extends EscrowAgentService {
         String url = "https://" + super.getEscrowAgent().getEscrowAgentName()
                 + EscrowAgent.getEncryptionKeyService();
         TreeMap<String, String> parameters = getParameters();
-        SignatureBase signatureBase = new SignatureBase(parameters,
-                url, "POST");
-        String parametersQuery = signRequest(signatureBase,
+        String parametersQuery = signRequest(parameters, url,
                 clientCredentials.getClientSecret()
                         + "&" + requestToken.getTokenSecret());
-        String response = callEscrowAgentService(parametersQuery, url);
-        return (EncryptionKey) ResponseParser.toObject(response,
+        TransportResponse response = exchange(parametersQuery, url);
+        return (EncryptionKey) parseResponse(response,
                 EncryptionKey.class);
     }
 }
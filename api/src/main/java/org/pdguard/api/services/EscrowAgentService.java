@@ -25,28 +25,29 @@ import org.pdguard.api.model.Client;
 import org.pdguard.api.model.EscrowAgent;
 import org.pdguard.api.model.SignatureBase;
 import org.pdguard.api.security.SecureConnection;
-import org.pdguard.api.security.Signature;
+import org.pdguard.api.security.SigningEngine;
+import org.pdguard.api.utils.BinaryCodec;
+import org.pdguard.api.utils.ResponseParser;
 
-import javax.crypto.spec.SecretKeySpec;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
@@ -84,6 +85,22 @@ public abstract class EscrowAgentService {
      */
     private SecureConnection secureConnection;
 
+    /** Transport which carries requests to escrow agent. */
+    private EscrowAgentTransport transport = PooledTransport
+            .getSharedInstance();
+
+    /**
+     * Time (in nanoseconds) spent to establish connections, including TLS
+     * handshakes, by the calls of this service.
+     */
+    private long handshakeTime;
+
+    /** Time (in nanoseconds) spent to parse responses of escrow agent. */
+    private long parsingTime;
+
+    /** Deadline of the calls of this service; null for none. */
+    private Deadline deadline;
+
     /**
      * Map of a status code with the corresponding escrow agent error response.
      */
@@ -110,6 +127,7 @@ public abstract class EscrowAgentService {
         this.client = client;
         this.escrowAgent = escrowAgent;
         secureConnection = con;
+        useTransportOf(escrowAgent);
     }
 
     /**
@@ -123,6 +141,18 @@ public abstract class EscrowAgentService {
             final SecureConnection connection) {
         this.escrowAgent = escrowAgent;
         secureConnection = connection;
+        useTransportOf(escrowAgent);
+    }
+
+    /**
+     * This method carries the requests of this service with the transport
+     * of escrow agent, if it has one.
+     *
+     * @param agent Trusted escrow agent by data subject.
+     */
+    private void useTransportOf(final EscrowAgent agent) {
+        if (agent != null && agent.getTransport() != null)
+            transport = agent.getTransport();
     }
 
     /**
@@ -143,29 +173,34 @@ public abstract class EscrowAgentService {
     public String callEscrowAgentService(final String parameters,
             final String uri) throws IOException,
             EscrowAgentErrorResponseException {
-        URL url = new URL(uri);
-        HttpsURLConnection connection = (HttpsURLConnection)
-                url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type",
-                "application/x-www-form-urlencoded");
-        setSecureConnection(connection);
-        addParameters(connection, parameters);
-        int responseCode = connection.getResponseCode();
-        String response = getEscrowAgentResponse(responseCode, connection);
-        if (responseCode != HttpURLConnection.HTTP_OK)
-            checkErrorResponse(responseCode, response);
-        closeConnection(connection);
-        return response;
+        return exchange(parameters, uri).getBody();
     }
 
     /**
-     * This method stores the base parameters of a request to a map with keys
-     * the name of parameters.
+     * This method calls a web service of escrow agent and then returns back
+     * its response as it was carried, i.e. either URL encoded or in the
+     * binary wire format.
      *
-     * @return A map of request parameters with keys the name of parameters.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param uri URI for the specified escrow agent service.
+     *
+     * @return Escrow agent's successful response.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails or it was an error response by escrow agent.
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * sends back an error response.
      */
-    public abstract TreeMap<String, String> getParameters();
+    public TransportResponse exchange(final String parameters,
+            final String uri) throws IOException,
+            EscrowAgentErrorResponseException {
+        TransportResponse response = transport.post(uri, parameters,
+                secureConnection, deadline);
+        handshakeTime += response.getHandshakeTime();
+        if (response.getStatusCode() != HttpURLConnection.HTTP_OK)
+            checkErrorResponse(response.getStatusCode(), response.getBody());
+        return response;
+    }
 
     /**
      * This method add request parameters according to the requirements of the
@@ -176,20 +211,17 @@ public abstract class EscrowAgentService {
      *
      * @throws IOException is thrown when the addition of the parameters cannot
      * be completed.
+     *
+     * @deprecated Requests are carried by an {@link EscrowAgentTransport};
+     * use {@link #exchange(String, String)}.
      */
+    @Deprecated
     public final void addParameters(final HttpsURLConnection connection,
             final String parameters) throws IOException {
         connection.setDoOutput(true);
-        OutputStream os = connection.getOutputStream();
-        OutputStreamWriter outputStreamWriter = new OutputStreamWriter(os,
-                "UTF-8");
-        BufferedWriter writer = new BufferedWriter(outputStreamWriter);
-        try {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                connection.getOutputStream(), StandardCharsets.UTF_8))) {
             writer.write(parameters);
-        } finally {
-            writer.close();
-            outputStreamWriter.close();
-            os.close();
         }
     }
 
@@ -206,23 +238,21 @@ public abstract class EscrowAgentService {
      *
      * @throws IOException is thrown when the extraction of the escrow agent's
      * response cannot be completed.
+     *
+     * @deprecated Requests are carried by an {@link EscrowAgentTransport};
+     * use {@link #exchange(String, String)}.
      */
+    @Deprecated
     public final String getEscrowAgentResponse(final int responseCode,
             final HttpsURLConnection connection) throws IOException {
-        InputStream inputStream;
-        if (responseCode == HttpURLConnection.HTTP_OK)
-            inputStream = connection.getInputStream();
-        else
-            inputStream = connection.getErrorStream();
+        InputStream inputStream = responseCode == HttpURLConnection.HTTP_OK
+                ? connection.getInputStream() : connection.getErrorStream();
         StringBuilder response = new StringBuilder();
         String output;
-        BufferedReader br = new BufferedReader(new InputStreamReader(
-                inputStream, Charset.defaultCharset()));
-        try {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                inputStream, Charset.defaultCharset()))) {
             while ((output = br.readLine()) != null)
                 response.append(output);
-        } finally {
-            br.close();
         }
         return response.toString();
     }
@@ -231,7 +261,10 @@ public abstract class EscrowAgentService {
      * Close connection with a service of escrow agent.
      *
      * @param connection Connection with an escrow agent's service to be closed.
+     *
+     * @deprecated Connections are managed by an {@link EscrowAgentTransport}.
      */
+    @Deprecated
     public final void closeConnection(final HttpsURLConnection connection) {
         connection.disconnect();
     }
@@ -240,19 +273,134 @@ public abstract class EscrowAgentService {
      * This method configures connection with SSL in order an encrypted
      * communication between client and escrow agent to be established.
      *
-     * Communication uses TLS protocol v 1.2.
+     * Communication uses the shared TLS context of
+     * {@link SecureConnection}. Unless connection has its own timeouts, the
+     * default timeouts of {@link PooledTransport} are set.
      *
      * @param connection A connection with escrow agent's web service.
      * @throws IOException is thrown when a socket specified by Transport Layer
      * Security (TLS) protocol cannot be created.
+     *
+     * @deprecated Connections are managed by an {@link EscrowAgentTransport}.
      */
+    @Deprecated
     public final void setSecureConnection(final HttpsURLConnection connection)
             throws IOException {
-        SSLSocketFactory sslSocket = secureConnection
-                .createSSLSocketConnection();
-        connection.setSSLSocketFactory(sslSocket);
+        connection.setSSLSocketFactory(secureConnection
+                .createSSLSocketConnection());
+        if (connection.getConnectTimeout() == 0)
+            connection.setConnectTimeout(
+                    PooledTransport.DEFAULT_CONNECT_TIMEOUT);
+        if (connection.getReadTimeout() == 0)
+            connection.setReadTimeout(PooledTransport.DEFAULT_READ_TIMEOUT);
     }
 
+    /**
+     * This method converts a response of escrow agent to an object of the
+     * given class and accounts for the time spent.
+     *
+     * @param response Escrow agent's response in URL encoded format.
+     * @param givenClass Class of object.
+     *
+     * @return Object initialized with the parameters of response.
+     */
+    public final Object parseResponse(final String response,
+            final Class<?> givenClass) {
+        long start = System.nanoTime();
+        try {
+            return ResponseParser.toObject(response, givenClass);
+        } finally {
+            parsingTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * This method converts a response of escrow agent, either URL encoded or
+     * in the binary wire format, to an object of the given class and
+     * accounts for the time spent.
+     *
+     * @param response Escrow agent's response.
+     * @param givenClass Class of object.
+     *
+     * @return Object initialized with the parameters of response.
+     *
+     * @throws IllegalArgumentException is thrown when a binary response is
+     * malformed.
+     */
+    public final Object parseResponse(final TransportResponse response,
+            final Class<?> givenClass) {
+        if (!response.isBinary())
+            return parseResponse(response.getBody(), givenClass);
+        long start = System.nanoTime();
+        try {
+            return ResponseParser.toObject(response.getContent(), givenClass);
+        } finally {
+            parsingTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * This method converts a response of escrow agent, either URL encoded or
+     * in the binary wire format, to a map of its parameters and accounts for
+     * the time spent.
+     *
+     * Values of parameters are strings, except for the encryption keys of a
+     * binary response, which are the raw bytes of keys.
+     *
+     * @param response Escrow agent's response.
+     *
+     * @return A map of response parameters with keys the name of parameters.
+     *
+     * @throws IllegalArgumentException is thrown when a binary response is
+     * malformed.
+     */
+    public final Map<String, Object> parseParameters(
+            final TransportResponse response) {
+        long start = System.nanoTime();
+        try {
+            Map<String, Object> parameters = new HashMap<>();
+            if (!response.isBinary()) {
+                parameters.putAll(ResponseParser.toMap(response.getBody()));
+                return parameters;
+            }
+            for (Map.Entry<String, byte[]> parameter : BinaryCodec.decode(
+                    response.getContent()).entrySet()) {
+                String name = parameter.getKey();
+                parameters.put(name, BinaryCodec.isKeyParameter(name)
+                        ? parameter.getValue() : new String(
+                        parameter.getValue(), StandardCharsets.UTF_8));
+            }
+            return parameters;
+        } finally {
+            parsingTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * This method converts a response of escrow agent to a map of its
+     * parameters and accounts for the time spent.
+     *
+     * @param response Escrow agent's response in URL encoded format.
+     *
+     * @return A map of response parameters with keys the name of parameters.
+     */
+    public final Map<String, String> parseResponse(final String response) {
+        long start = System.nanoTime();
+        try {
+            return ResponseParser.toMap(response);
+        } finally {
+            parsingTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * This method stores the base parameters of a request to a map with keys
+     * the name of parameters.
+     *
+     * @return A map of request parameters with keys the name of parameters.
+     */
+    public abstract TreeMap<String, String> getParameters();
+
     /**
      * This method gets current time stamp.
      *
@@ -294,27 +442,38 @@ public abstract class EscrowAgentService {
      */
     public final String signRequest(final SignatureBase signatureBase,
             final String secret) {
-        SecretKeySpec secretKey = null;
-        try {
-            secretKey = new SecretKeySpec(secret.getBytes("UTF-8"),
-                    "HmacSHA1");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        Signature signature = new Signature(signatureBase
-                .getSignatureBaseString(), secretKey);
-        signature.signMessage();
+        String signature = SigningEngine.signMessage(signatureBase
+                .getSignatureBaseString(), secret);
         try {
             return signatureBase.getEncodedParametersString()
-                    + "&signature=" + URLEncoder.encode(
-                    signature.getSignatureContent(), "UTF-8").replace("+",
-                    "%20");
+                    + "&signature=" + URLEncoder.encode(signature, "UTF-8")
+                    .replace("+", "%20");
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * This method signs a POST request to a web service of escrow agent with
+     * the specified secret.
+     *
+     * The result is the same as signing the corresponding
+     * {@link SignatureBase}, but {@link SigningEngine} builds and signs the
+     * signature base string without intermediate strings.
+     *
+     * @param parameters Parameters of request sorted by name.
+     * @param url URL of escrow agent's web service.
+     * @param secret Secret to sign request.
+     *
+     * @return Parameters query with the addition of signature parameter.
+     */
+    public final String signRequest(
+            final SortedMap<String, String> parameters, final String url,
+            final String secret) {
+        return SigningEngine.signRequest(parameters, url, "POST", secret);
+    }
+
     /**
      * This method throws the corresponding exception according to the escrow
      * agent's error response.
@@ -342,6 +501,63 @@ public abstract class EscrowAgentService {
                     + " Status code:" + responseCode);
     }
 
+    /**
+     * Setter of transport field.
+     *
+     * @param transport Transport which carries requests to escrow agent.
+     */
+    public final void setTransport(final EscrowAgentTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Getter of transport field.
+     *
+     * @return Transport which carries requests to escrow agent.
+     */
+    public final EscrowAgentTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Setter of deadline field.
+     *
+     * @param deadline Deadline of the calls of this service or null if they
+     * are bounded by the timeouts of transport only.
+     */
+    public final void setDeadline(final Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Getter of deadline field.
+     *
+     * @return Deadline of the calls of this service or null.
+     */
+    public final Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Getter of handshakeTime field.
+     *
+     * @return Time (in nanoseconds) spent to establish connections,
+     * including TLS handshakes, by the calls of this service.
+     */
+    public final long getHandshakeTime() {
+        return handshakeTime;
+    }
+
+    /**
+     * Getter of parsingTime field.
+     *
+     * @return Time (in nanoseconds) spent to parse responses of escrow
+     * agent.
+     */
+    public final long getParsingTime() {
+        return parsingTime;
+    }
+
     /**m
      * Getter of client field.
      *
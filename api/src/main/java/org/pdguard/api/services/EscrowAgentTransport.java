@@ -0,0 +1,82 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.security.SecureConnection;
+
+import java.io.IOException;
+
+/**
+ * This interface defines how requests are carried to the web services of an
+ * escrow agent.
+ *
+ * A transport is shared by all escrow agent services, so implementations
+ * must be thread-safe.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public interface EscrowAgentTransport {
+    /**
+     * This method sends a POST request with a URL encoded body to the
+     * specified escrow agent's web service and returns its response.
+     *
+     * Redirections are followed.
+     *
+     * @param uri URI for the specified escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration to establish an encrypted
+     * connection with escrow agent.
+     *
+     * @return Escrow agent's response.
+     *
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails.
+     */
+    TransportResponse post(String uri, String parameters,
+            SecureConnection connection) throws IOException;
+
+    /**
+     * This method sends a POST request with a URL encoded body to the
+     * specified escrow agent's web service within a deadline.
+     *
+     * When the deadline expires or the request is cancelled, the exchange in
+     * progress is aborted.
+     *
+     * @param uri URI for the specified escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration to establish an encrypted
+     * connection with escrow agent.
+     * @param deadline Deadline of request or null if request has no
+     * deadline.
+     *
+     * @return Escrow agent's response.
+     *
+     * @throws org.pdguard.api.exceptions.DeadlineExceededException is thrown
+     * when the deadline expires before the response is read.
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails or the request is cancelled.
+     */
+    TransportResponse post(String uri, String parameters,
+            SecureConnection connection, Deadline deadline)
+            throws IOException;
+
+    /**
+     * This method releases all resources held by transport, e.g. open
+     * connections.
+     */
+    void close();
+}
@@ -0,0 +1,123 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * This class defines a connection to a data subject's escrow agent.
+ *
+ * It is used for the obtainment of an encryption key in a single round trip.
+ * Client sends the authorization bundle in a request signed with its secret
+ * and escrow agent, after it authorizes request, sends back the encryption
+ * key in the same response. No request token is involved.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class OneShotKeyService extends EscrowAgentService {
+    /** Client's credentials used by escrow agent to verify request. */
+    private ClientCredentials clientCredentials;
+
+    /** Bundle of parameters required by escrow agent to grant authorization. */
+    private AuthorizationBundle authBundle;
+
+    /** Type of PDGuard request. Either a encryption or decryption request. */
+    private PDGuardRequestType requestType;
+
+    /**
+     * Create a new connection to a data subject's specified escrow agent's
+     * service to obtain an encryption key in a single round trip.
+     *
+     * @param clientCredentials Credentials of client who is requesting escrow
+     * agent.
+     * @param escrowAgent Trusted escrow agent by data subject.
+     * @param con Connection configuration to establish an encrypted connection
+     * with escrow agent.
+     * @param authBundle  Bundle of parameters required by escrow agent to grant
+     * authorization.
+     * @param requestType Type of PDGuard request. Either a encryption or
+     * decryption request.
+     */
+    public OneShotKeyService(final ClientCredentials clientCredentials,
+            final EscrowAgent escrowAgent, final SecureConnection con,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        super(escrowAgent, con);
+        this.clientCredentials = clientCredentials;
+        this.authBundle = authBundle;
+        this.requestType = requestType;
+    }
+
+    /**
+     * This method stores the base parameters of a request to a map with keys
+     * the name of parameters.
+     *
+     * @return A map of request parameters with keys the name of parameters.
+     */
+    @Override
+    public final TreeMap<String, String> getParameters() {
+        TreeMap<String, String> parameters = new TreeMap<>();
+        AuthorizationService.addAuthorizationParameters(parameters,
+                authBundle, requestType);
+        parameters.put("client_id", clientCredentials.getClientId());
+        parameters.put("timestamp", String.valueOf(getTimeStamp()));
+        parameters.put("nonce", getNonce());
+        return parameters;
+    }
+
+    /**
+     * This method calls the corresponding web service of escrow agent which
+     * authorizes request and sends back the encryption key.
+     *
+     * It creates a signature base string from parts of HTTP request and then
+     * it signs it with the client's secret.
+     *
+     * @return An encryption key to encrypt or decrypt data.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails.
+     * @throws org.pdguard.api.exceptions.UnverifiedRequestException is thrown
+     * when escrow agent cannot verify request from client.
+     * @throws org.pdguard.api.exceptions.AccessDeniedException when the data
+     * subject denies access to the corresponding data.
+     * @throws org.pdguard.api.exceptions.UnretrievableKeyException is thrown
+     * when the requested encryption key cannot be used because it cannot be
+     * retrieved.
+     * @throws EscrowAgentErrorResponseException is thrown when there is an
+     * error response by escrow agent.
+     */
+    public EncryptionKey requestEncryptionKey() throws IOException,
+            EscrowAgentErrorResponseException {
+        clientCredentials.checkNotNull();
+        String url = "https://" + super.getEscrowAgent().getEscrowAgentName()
+                + EscrowAgent.getOneShotKeyService();
+        String parametersQuery = signRequest(getParameters(), url,
+                clientCredentials.getClientSecret() + "&");
+        TransportResponse response = exchange(parametersQuery, url);
+        return (EncryptionKey) parseResponse(response,
+                EncryptionKey.class);
+    }
+}
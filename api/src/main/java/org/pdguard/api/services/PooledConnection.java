@@ -0,0 +1,628 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class represents a persistent HTTP/1.1 connection with an escrow
+ * agent over TLS.
+ *
+ * A connection carries one exchange at a time. After a response has been
+ * read completely, the connection can be used again unless the escrow agent
+ * asked for it to be closed.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+final class PooledConnection {
+    /** Size of buffers used for reading and writing. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Default port of HTTPS. */
+    private static final int HTTPS_PORT = 443;
+
+    /** Radix of chunk sizes. */
+    private static final int HEX = 16;
+
+    /** Status code of interim responses. */
+    private static final int HTTP_CONTINUE = 100;
+
+    /** Status code of responses without a body. */
+    private static final int HTTP_NO_CONTENT = 204;
+
+    /** Status code of responses without a body. */
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /** Underlying TLS socket. */
+    private final Socket socket;
+
+    /** Socket factory of the TLS context which connection was opened with. */
+    private final SSLSocketFactory factory;
+
+    /** Input stream of socket. */
+    private final InputStream in;
+
+    /** Output stream of socket. */
+    private final OutputStream out;
+
+    /** Value of the Host header of requests. */
+    private final String hostHeader;
+
+    /** Time (in milliseconds) when the connection was last released. */
+    private long lastUsed;
+
+    /** Number of exchanges carried by this connection. */
+    private int exchanges;
+
+    /**
+     * True if any byte of the current request has been handed to the
+     * socket.
+     */
+    private boolean requestWritten;
+
+    /**
+     * Time (in nanoseconds) spent to establish the connection, including the
+     * TLS handshake, which has not been reported yet.
+     */
+    private long handshakeTime;
+
+    /**
+     * Wraps an established TLS socket.
+     *
+     * @param socket TLS socket connected to escrow agent.
+     * @param factory Socket factory of TLS context of socket.
+     * @param hostHeader Value of the Host header of requests.
+     *
+     * @throws IOException is thrown when the streams of socket cannot be
+     * obtained.
+     */
+    private PooledConnection(final Socket socket,
+            final SSLSocketFactory factory, final String hostHeader)
+            throws IOException {
+        this.socket = socket;
+        this.factory = factory;
+        this.hostHeader = hostHeader;
+        in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        out = new BufferedOutputStream(new FilterOutputStream(
+                socket.getOutputStream()) {
+            @Override
+            public void write(final int b) throws IOException {
+                requestWritten = true;
+                out.write(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+                    throws IOException {
+                requestWritten = true;
+                out.write(b, off, len);
+            }
+        }, BUFFER_SIZE);
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * This method opens a new TLS connection with the specified host.
+     *
+     * The certificate of escrow agent is verified against its host name.
+     *
+     * @param host Host name of escrow agent.
+     * @param port Port of escrow agent.
+     * @param factory Socket factory of TLS context.
+     * @param connectTimeout Timeout (in milliseconds) for establishing the
+     * connection; zero means no timeout.
+     * @param readTimeout Timeout (in milliseconds) for reading from the
+     * connection; zero means no timeout.
+     * @return A new connection.
+     *
+     * @throws IOException is thrown when a connection cannot be established.
+     */
+    static PooledConnection open(final String host, final int port,
+            final SSLSocketFactory factory, final int connectTimeout,
+            final int readTimeout) throws IOException {
+        long start = System.nanoTime();
+        Socket plain = new Socket();
+        SSLSocket socket;
+        try {
+            plain.connect(new InetSocketAddress(host, port), connectTimeout);
+            plain.setTcpNoDelay(true);
+            socket = (SSLSocket) factory.createSocket(plain, host, port, true);
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+        try {
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            socket.setSSLParameters(parameters);
+            socket.setSoTimeout(readTimeout);
+            socket.startHandshake();
+            String hostHeader = port == HTTPS_PORT ? host : host + ":" + port;
+            PooledConnection connection = new PooledConnection(socket,
+                    factory, hostHeader);
+            connection.handshakeTime = System.nanoTime() - start;
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method sends a request and reads its response completely.
+     *
+     * @param method HTTP request method.
+     * @param target Path and query of requested resource.
+     * @param body Body of request or null if request has no body.
+     * @param contentType Media type of body.
+     * @param accept Media types of response accepted by client or null.
+     * @return Response of escrow agent.
+     *
+     * @throws IOException is thrown when the exchange fails; connection must
+     * not be used again.
+     */
+    Response exchange(final String method, final String target,
+            final byte[] body, final String contentType, final String accept)
+            throws IOException {
+        requestWritten = false;
+        exchanges++;
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(hostHeader).append("\r\n");
+        if (accept != null)
+            head.append("Accept: ").append(accept).append("\r\n");
+        if (body != null)
+            head.append("Content-Type: ").append(contentType).append("\r\n")
+                    .append("Content-Length: ").append(body.length)
+                    .append("\r\n");
+        head.append("Connection: keep-alive\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null)
+            out.write(body);
+        out.flush();
+        return readResponse(method);
+    }
+
+    /**
+     * This method reads status line, headers and body of a response,
+     * skipping interim responses.
+     *
+     * @param method HTTP request method.
+     * @return Response of escrow agent.
+     *
+     * @throws IOException is thrown when response cannot be read or is
+     * malformed.
+     */
+    private Response readResponse(final String method) throws IOException {
+        String statusLine;
+        int statusCode;
+        Map<String, String> headers;
+        do {
+            statusLine = readLine();
+            String[] parts = statusLine.split(" ");
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+                throw new ProtocolException("Invalid status line: "
+                        + statusLine);
+            try {
+                statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid status line: "
+                        + statusLine);
+            }
+            headers = readHeaders();
+        } while (statusCode >= HTTP_CONTINUE
+                && statusCode < HttpURLConnection.HTTP_OK);
+        String connection = headers.get("connection");
+        boolean keepAlive;
+        if (statusLine.startsWith("HTTP/1.0"))
+            keepAlive = connection != null
+                    && connection.toLowerCase(Locale.ENGLISH)
+                    .contains("keep-alive");
+        else
+            keepAlive = connection == null
+                    || !connection.toLowerCase(Locale.ENGLISH)
+                    .contains("close");
+        byte[] body;
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if ("HEAD".equals(method) || statusCode == HTTP_NO_CONTENT
+                || statusCode == HTTP_NOT_MODIFIED)
+            body = new byte[0];
+        else if (transferEncoding != null && transferEncoding
+                .toLowerCase(Locale.ENGLISH).contains("chunked"))
+            body = readChunkedBody();
+        else if (contentLength != null)
+            body = readFully(parseLength(contentLength));
+        else {
+            body = readToEnd();
+            keepAlive = false;
+        }
+        return new Response(statusCode, headers, body, keepAlive);
+    }
+
+    /**
+     * This method reads header fields until the empty line which terminates
+     * them.
+     *
+     * @return Header fields with lower-case names.
+     *
+     * @throws IOException is thrown when headers cannot be read.
+     */
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line = readLine();
+        while (!line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0)
+                throw new ProtocolException("Invalid header: " + line);
+            headers.put(line.substring(0, colon).trim()
+                    .toLowerCase(Locale.ENGLISH),
+                    line.substring(colon + 1).trim());
+            line = readLine();
+        }
+        return headers;
+    }
+
+    /**
+     * This method reads a body which is sent in chunks, including any
+     * trailer fields.
+     *
+     * @return Content of body.
+     *
+     * @throws IOException is thrown when body cannot be read.
+     */
+    private byte[] readChunkedBody() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String line = readLine();
+            int extension = line.indexOf(';');
+            if (extension >= 0)
+                line = line.substring(0, extension);
+            int size;
+            try {
+                size = Integer.parseInt(line.trim(), HEX);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid chunk size: " + line);
+            }
+            if (size == 0)
+                break;
+            body.write(readFully(size));
+            readLine();
+        }
+        readHeaders();
+        return body.toByteArray();
+    }
+
+    /**
+     * This method parses the value of Content-Length header.
+     *
+     * @param value Value of header.
+     * @return Length of body.
+     *
+     * @throws ProtocolException is thrown when value is not a valid length.
+     */
+    private static int parseLength(final String value)
+            throws ProtocolException {
+        try {
+            int length = Integer.parseInt(value);
+            if (length < 0)
+                throw new ProtocolException("Invalid content length: "
+                        + value);
+            return length;
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid content length: " + value);
+        }
+    }
+
+    /**
+     * This method reads the specified number of bytes.
+     *
+     * @param length Number of bytes to read.
+     * @return Bytes read.
+     *
+     * @throws IOException is thrown when stream ends prematurely.
+     */
+    private byte[] readFully(final int length) throws IOException {
+        byte[] content = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(content, offset, length - offset);
+            if (read == -1)
+                throw new EOFException("Unexpected end of response body");
+            offset += read;
+        }
+        return content;
+    }
+
+    /**
+     * This method reads until the escrow agent closes the connection.
+     *
+     * @return Bytes read.
+     *
+     * @throws IOException is thrown when stream cannot be read.
+     */
+    private byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            content.write(buffer, 0, read);
+        return content.toByteArray();
+    }
+
+    /**
+     * This method reads a line terminated by CRLF (or LF).
+     *
+     * @return Line without its terminator.
+     *
+     * @throws IOException is thrown when stream ends before the line.
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1)
+                throw new EOFException("Connection closed by escrow agent");
+            line.append((char) c);
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r')
+            line.setLength(length - 1);
+        return line.toString();
+    }
+
+    /**
+     * This method checks whether the connection has been closed locally.
+     *
+     * @return true if connection is closed; false otherwise.
+     */
+    boolean isClosed() {
+        return socket.isClosed() || socket.isInputShutdown();
+    }
+
+    /**
+     * This method checks whether the escrow agent has dropped the idle
+     * connection.
+     *
+     * It blocks for up to a millisecond, so it is meant for connections which
+     * have been idle long enough to be likely closed by escrow agent.
+     *
+     * @return true if connection can no longer be used; false otherwise.
+     */
+    boolean isStale() {
+        if (isClosed())
+            return true;
+        try {
+            int timeout = socket.getSoTimeout();
+            try {
+                // An idle connection must have nothing to read. Data or EOF
+                // here means that escrow agent has dropped it.
+                socket.setSoTimeout(1);
+                in.mark(1);
+                if (in.read() == -1)
+                    return true;
+                in.reset();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * This method checks if any byte of the current request has been handed
+     * to the socket, so the escrow agent may have received the request.
+     *
+     * @return true if request may have been sent; false otherwise.
+     */
+    boolean isRequestWritten() {
+        return requestWritten;
+    }
+
+    /**
+     * This method checks whether connection has carried a previous exchange.
+     *
+     * @return true if the connection was taken from pool; false otherwise.
+     */
+    boolean isReused() {
+        return exchanges > 1;
+    }
+
+    /**
+     * This method returns the time spent to establish the connection the
+     * first time it is called; afterwards it returns zero.
+     *
+     * @return Time (in nanoseconds) spent to connect and complete the TLS
+     * handshake or zero if it has already been reported.
+     */
+    long takeHandshakeTime() {
+        long time = handshakeTime;
+        handshakeTime = 0;
+        return time;
+    }
+
+    /**
+     * This method sets the timeout of reading from the connection.
+     *
+     * @param timeout Timeout (in milliseconds); zero means no timeout.
+     *
+     * @throws IOException is thrown when the timeout cannot be set.
+     */
+    void setReadTimeout(final int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+    }
+
+    /** This method marks connection as idle from now. */
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Getter of lastUsed field.
+     *
+     * @return Time (in milliseconds) when the connection was last released.
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Getter of factory field.
+     *
+     * @return Socket factory of the TLS context which connection was opened
+     * with.
+     */
+    SSLSocketFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Getter of socket field.
+     *
+     * @return Underlying TLS socket.
+     */
+    Socket getSocket() {
+        return socket;
+    }
+
+    /** This method closes connection, ignoring any errors. */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Connection is discarded anyway.
+            return;
+        }
+    }
+
+    /** Response of escrow agent read from a connection. */
+    static final class Response {
+        /** Status code of response. */
+        private final int statusCode;
+
+        /** Header fields of response with lower-case names. */
+        private final Map<String, String> headers;
+
+        /** Body of response. */
+        private final byte[] body;
+
+        /** True if connection can be used for another exchange. */
+        private final boolean keepAlive;
+
+        /**
+         * Time (in nanoseconds) spent to establish new connections for the
+         * exchange.
+         */
+        private long handshakeTime;
+
+        /**
+         * Creates a new response.
+         *
+         * @param statusCode Status code of response.
+         * @param headers Header fields of response with lower-case names.
+         * @param body Body of response.
+         * @param keepAlive True if connection can be used again.
+         */
+        Response(final int statusCode, final Map<String, String> headers,
+                final byte[] body, final boolean keepAlive) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * Getter of statusCode field.
+         *
+         * @return Status code of response.
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * This method returns the value of the specified header field.
+         *
+         * @param name Lower-case name of header field.
+         * @return Value of header or null if it is missing.
+         */
+        String getHeader(final String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * Getter of body field.
+         *
+         * @return Body of response.
+         */
+        byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Getter of keepAlive field.
+         *
+         * @return true if connection can be used for another exchange.
+         */
+        boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * Setter of handshakeTime field.
+         *
+         * @param handshakeTime Time (in nanoseconds) spent to establish new
+         * connections for the exchange.
+         */
+        void setHandshakeTime(final long handshakeTime) {
+            this.handshakeTime = handshakeTime;
+        }
+
+        /**
+         * Getter of handshakeTime field.
+         *
+         * @return Time (in nanoseconds) spent to establish new connections
+         * for the exchange.
+         */
+        long getHandshakeTime() {
+            return handshakeTime;
+        }
+    }
+}
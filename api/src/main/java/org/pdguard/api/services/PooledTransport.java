@@ -0,0 +1,790 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.utils.BinaryCodec;
+import org.pdguard.api.utils.WireFormat;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a transport which keeps connections with escrow agents open
+ * and reuses them for subsequent requests (HTTP keep-alive).
+ *
+ * Connections are pooled per escrow agent host and port. The number of
+ * connections with a host is capped; a request waits for a connection to
+ * become available when the cap is reached. Connections which stay idle for
+ * longer than the idle timeout are closed by a background thread. When the
+ * TLS context changes, e.g. because key stores were reloaded, the idle
+ * connections opened with the previous context are closed.
+ *
+ * A pooled connection which has been idle for a while is probed before it
+ * is reused, in case escrow agent has dropped it. A request which fails on a
+ * reused connection is sent again over a new connection only if none of it
+ * had been written, since requests of escrow agents are not idempotent.
+ *
+ * Responses are always read completely, including error responses, so that
+ * the connection can be used again.
+ *
+ * Connecting and reading are bounded by timeouts. A request may also be
+ * given a {@link Deadline}; the wait for a connection, the connection
+ * establishment and the exchange are then bounded by the time left, and
+ * the connection is closed as soon as the deadline expires or the request
+ * is cancelled.
+ *
+ * Requests and responses are URL encoded by default. If the transport is
+ * set to the {@link WireFormat#BINARY} format, it asks escrow agents for
+ * binary responses through the <code>Accept</code> header, and it sends
+ * binary requests to the hosts which have answered with a binary response
+ * before; hosts which do not support the binary format keep receiving URL
+ * encoded requests.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class PooledTransport implements EscrowAgentTransport {
+    /** Default maximum number of connections per escrow agent host. */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    /** Default time (in milliseconds) an idle connection is kept open. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000L;
+
+    /** Default time (in milliseconds) to wait for an available connection. */
+    public static final long DEFAULT_LEASE_TIMEOUT = 30000L;
+
+    /** Default time (in milliseconds) to establish a connection. */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** Default time (in milliseconds) to wait for data from escrow agent. */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /** Accepted media types of responses in the binary format. */
+    private static final String BINARY_ACCEPT = BinaryCodec.MEDIA_TYPE
+            + ", " + WireFormat.URL_ENCODED.getMediaType() + ";q=0.5";
+
+    /**
+     * Time (in milliseconds) a connection may stay idle before it is probed
+     * for having been dropped by escrow agent.
+     */
+    private static final long STALE_CHECK_THRESHOLD = 1000L;
+
+    /** Maximum number of redirections followed for a request. */
+    private static final int MAX_REDIRECTS = 5;
+
+    /** Status code of a temporary redirection which keeps method. */
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+
+    /** Status code of a permanent redirection which keeps method. */
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+
+    /** Transport shared by all escrow agent services by default. */
+    private static final PooledTransport SHARED = new PooledTransport();
+
+    /** Maximum number of connections per escrow agent host. */
+    private final int maxConnectionsPerHost;
+
+    /** Time (in milliseconds) an idle connection is kept open. */
+    private final long idleTimeout;
+
+    /** Time (in milliseconds) to wait for an available connection. */
+    private final long leaseTimeout;
+
+    /** Time (in milliseconds) to establish a connection; zero for none. */
+    private final int connectTimeout;
+
+    /** Time (in milliseconds) to wait for data; zero for none. */
+    private final int readTimeout;
+
+    /** Pools of connections per escrow agent host and port. */
+    private final ConcurrentHashMap<Route, HostPool> pools =
+            new ConcurrentHashMap<>();
+
+    /** Background thread which closes idle connections. */
+    private final ScheduledExecutorService evictor;
+
+    /** Format of requests and responses. */
+    private volatile WireFormat wireFormat = WireFormat.URL_ENCODED;
+
+    /**
+     * Hosts (with their ports) which have answered with a binary response.
+     */
+    private final Set<String> binaryHosts = ConcurrentHashMap.newKeySet();
+
+    /** Number of requests served by a pooled connection. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of requests which opened a new connection. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of idle connections closed. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Creates a transport with the default pool configuration. */
+    public PooledTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT,
+                DEFAULT_LEASE_TIMEOUT);
+    }
+
+    /**
+     * Creates a transport with the specified pool configuration.
+     *
+     * @param maxConnectionsPerHost Maximum number of connections per escrow
+     * agent host.
+     * @param idleTimeout Time (in milliseconds) an idle connection is kept
+     * open.
+     * @param leaseTimeout Time (in milliseconds) to wait for an available
+     * connection when the maximum number of connections is reached.
+     */
+    public PooledTransport(final int maxConnectionsPerHost,
+            final long idleTimeout, final long leaseTimeout) {
+        this(maxConnectionsPerHost, idleTimeout, leaseTimeout,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Creates a transport with the specified pool configuration and
+     * timeouts.
+     *
+     * @param maxConnectionsPerHost Maximum number of connections per escrow
+     * agent host.
+     * @param idleTimeout Time (in milliseconds) an idle connection is kept
+     * open.
+     * @param leaseTimeout Time (in milliseconds) to wait for an available
+     * connection when the maximum number of connections is reached.
+     * @param connectTimeout Time (in milliseconds) to establish a connection;
+     * zero means no timeout.
+     * @param readTimeout Time (in milliseconds) to wait for data from escrow
+     * agent; zero means no timeout.
+     */
+    public PooledTransport(final int maxConnectionsPerHost,
+            final long idleTimeout, final long leaseTimeout,
+            final int connectTimeout, final int readTimeout) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException(
+                    "At least one connection per host is required");
+        if (connectTimeout < 0 || readTimeout < 0)
+            throw new IllegalArgumentException("Invalid timeout");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.leaseTimeout = leaseTimeout;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        ScheduledThreadPoolExecutor scheduler =
+                new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "pdguard-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        evictor = scheduler;
+        long period = Math.max(1, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Getter of the transport shared by all escrow agent services by default.
+     *
+     * @return Shared transport.
+     */
+    public static PooledTransport getSharedInstance() {
+        return SHARED;
+    }
+
+    /**
+     * This method sends a POST request with a URL encoded body to the
+     * specified escrow agent's web service and returns its response.
+     *
+     * Redirections 301, 302 and 303 are followed with a GET request, as
+     * browsers and <code>HttpURLConnection</code> do. Line terminators of
+     * URL encoded response body are removed.
+     *
+     * @param uri URI for the specified escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration to establish an encrypted
+     * connection with escrow agent.
+     *
+     * @return Escrow agent's response.
+     *
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails.
+     */
+    @Override
+    public TransportResponse post(final String uri, final String parameters,
+            final SecureConnection connection) throws IOException {
+        return post(uri, parameters, connection, null);
+    }
+
+    /**
+     * This method sends a POST request with a URL encoded body to the
+     * specified escrow agent's web service within a deadline.
+     *
+     * Redirections are followed as in
+     * {@link #post(String, String, SecureConnection)}, within the same
+     * deadline.
+     *
+     * @param uri URI for the specified escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration to establish an encrypted
+     * connection with escrow agent.
+     * @param deadline Deadline of request or null if request is bounded by
+     * the timeouts of transport only.
+     *
+     * @return Escrow agent's response.
+     *
+     * @throws DeadlineExceededException is thrown when the deadline expires
+     * before the response is read.
+     * @throws IOException is thrown when the communication with the escrow
+     * agent fails or the request is cancelled.
+     */
+    @Override
+    public TransportResponse post(final String uri, final String parameters,
+            final SecureConnection connection, final Deadline deadline)
+            throws IOException {
+        SSLSocketFactory factory = connection.createSSLSocketConnection();
+        URL url = new URL(uri);
+        String method = "POST";
+        String accept = wireFormat == WireFormat.BINARY ? BINARY_ACCEPT
+                : null;
+        byte[] body;
+        String contentType;
+        if (accept != null && binaryHosts.contains(url.getAuthority())) {
+            body = BinaryCodec.encode(BinaryCodec.textParameters(
+                    parameters));
+            contentType = BinaryCodec.MEDIA_TYPE;
+        } else {
+            body = parameters.getBytes(StandardCharsets.UTF_8);
+            contentType = WireFormat.URL_ENCODED.getMediaType();
+        }
+        PooledConnection.Response response;
+        long handshakeTime = 0;
+        int redirects = 0;
+        while (true) {
+            response = execute(url, method, body, contentType, accept,
+                    factory, deadline);
+            handshakeTime += response.getHandshakeTime();
+            int statusCode = response.getStatusCode();
+            String location = response.getHeader("location");
+            if (!isRedirect(statusCode) || location == null)
+                break;
+            if (++redirects > MAX_REDIRECTS)
+                throw new ProtocolException("Too many redirections");
+            url = new URL(url, location);
+            if (statusCode != HTTP_TEMPORARY_REDIRECT
+                    && statusCode != HTTP_PERMANENT_REDIRECT) {
+                method = "GET";
+                body = null;
+            }
+        }
+        if (isBinary(response)) {
+            binaryHosts.add(url.getAuthority());
+            return new TransportResponse(response.getStatusCode(),
+                    response.getBody(), handshakeTime);
+        }
+        String content = new String(response.getBody(),
+                Charset.defaultCharset());
+        return new TransportResponse(response.getStatusCode(),
+                content.replace("\r", "").replace("\n", ""), handshakeTime);
+    }
+
+    /**
+     * This method checks whether a response is in the binary wire format.
+     *
+     * @param response Response of escrow agent.
+     * @return true if response is a binary message; false otherwise.
+     */
+    private static boolean isBinary(final PooledConnection.Response response) {
+        String contentType = response.getHeader("content-type");
+        return contentType != null && contentType.trim().toLowerCase(
+                Locale.ENGLISH).startsWith(BinaryCodec.MEDIA_TYPE);
+    }
+
+    /**
+     * This method checks whether status code denotes a redirection.
+     *
+     * @param statusCode Status code of response.
+     * @return true if request must be redirected; false otherwise.
+     */
+    private static boolean isRedirect(final int statusCode) {
+        return statusCode == HttpURLConnection.HTTP_MOVED_PERM
+                || statusCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || statusCode == HttpURLConnection.HTTP_SEE_OTHER
+                || statusCode == HTTP_TEMPORARY_REDIRECT
+                || statusCode == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * This method carries a single exchange over a pooled connection.
+     *
+     * If a pooled connection fails before any byte of the request was
+     * written to it, the request is sent once more over a new connection.
+     *
+     * @param url URL of requested resource.
+     * @param method HTTP request method.
+     * @param body Body of request or null if request has no body.
+     * @param contentType Media type of body.
+     * @param accept Media types of response accepted or null.
+     * @param factory Socket factory of TLS context.
+     * @param deadline Deadline of request or null.
+     * @return Response of escrow agent.
+     *
+     * @throws IOException is thrown when the exchange fails.
+     */
+    private PooledConnection.Response execute(final URL url,
+            final String method, final byte[] body, final String contentType,
+            final String accept, final SSLSocketFactory factory,
+            final Deadline deadline)
+            throws IOException {
+        if (deadline != null)
+            deadline.check();
+        if (!"https".equalsIgnoreCase(url.getProtocol()))
+            throw new ProtocolException("Escrow agent must be accessed over"
+                    + " HTTPS: " + url);
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        HostPool pool = getPool(new Route(url.getHost(), port));
+        pool.acquire(deadline);
+        boolean retried = false;
+        long handshakeTime = 0;
+        try {
+            while (true) {
+                final PooledConnection connection;
+                try {
+                    connection = pool.lease(factory, deadline);
+                } catch (IOException e) {
+                    throw aborted(deadline, e);
+                }
+                handshakeTime += connection.takeHandshakeTime();
+                Runnable abort = new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.close();
+                    }
+                };
+                ScheduledFuture<?> watchdog = watch(deadline, abort);
+                PooledConnection.Response response;
+                try {
+                    connection.setReadTimeout(timeoutOf(readTimeout,
+                            deadline));
+                    response = connection.exchange(method, target, body,
+                            contentType, accept);
+                } catch (IOException e) {
+                    connection.close();
+                    IOException cause = aborted(deadline, e);
+                    if (cause == e && !retried && connection.isReused()
+                            && !connection.isRequestWritten()) {
+                        retried = true;
+                        continue;
+                    }
+                    throw cause;
+                } finally {
+                    unwatch(deadline, abort, watchdog);
+                }
+                if (response.isKeepAlive())
+                    pool.release(connection);
+                else
+                    connection.close();
+                response.setHandshakeTime(handshakeTime);
+                return response;
+            }
+        } finally {
+            pool.releasePermit();
+        }
+    }
+
+    /**
+     * This method arranges for an exchange to be aborted when its deadline
+     * expires or its request is cancelled.
+     *
+     * @param deadline Deadline of request or null.
+     * @param abort Action which aborts the exchange.
+     * @return Task which aborts the exchange once the deadline expires or
+     * null if the exchange has no deadline.
+     */
+    private ScheduledFuture<?> watch(final Deadline deadline,
+            final Runnable abort) {
+        if (deadline == null)
+            return null;
+        deadline.setAbortAction(abort);
+        if (deadline.isUnbounded())
+            return null;
+        return evictor.schedule(abort, deadline.remaining(
+                TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method stops watching an exchange which is complete.
+     *
+     * @param deadline Deadline of request or null.
+     * @param abort Action which aborts the exchange.
+     * @param watchdog Task returned by watch or null.
+     */
+    private static void unwatch(final Deadline deadline, final Runnable abort,
+            final ScheduledFuture<?> watchdog) {
+        if (deadline != null)
+            deadline.clearAbortAction(abort);
+        if (watchdog != null)
+            watchdog.cancel(false);
+    }
+
+    /**
+     * This method computes the timeout of a blocking operation bounded by
+     * both a timeout of transport and the deadline of request.
+     *
+     * @param timeout Timeout (in milliseconds) of transport; zero for none.
+     * @param deadline Deadline of request or null.
+     * @return Timeout (in milliseconds) of operation; zero for none.
+     */
+    private static int timeoutOf(final long timeout, final Deadline deadline) {
+        if (deadline == null || deadline.isUnbounded())
+            return (int) Math.min(timeout, Integer.MAX_VALUE);
+        long nanos = deadline.remaining(TimeUnit.NANOSECONDS);
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos
+                + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+        if (timeout > 0)
+            millis = Math.min(millis, timeout);
+        return (int) Math.min(millis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * This method translates the failure of an operation to the failure of
+     * its request if its deadline has expired or it has been cancelled.
+     *
+     * @param deadline Deadline of request or null.
+     * @param e Exception thrown by operation.
+     * @return Exception to throw; the given exception if neither the
+     * deadline has expired nor the request has been cancelled.
+     */
+    private static IOException aborted(final Deadline deadline,
+            final IOException e) {
+        if (deadline == null)
+            return e;
+        if (deadline.isCancelled()) {
+            InterruptedIOException cancelled = new InterruptedIOException(
+                    "PDGuard request was cancelled");
+            cancelled.initCause(e);
+            return cancelled;
+        }
+        if (deadline.isExpired() && !(e instanceof DeadlineExceededException))
+            return new DeadlineExceededException("Deadline of PDGuard"
+                    + " request expired", e);
+        return e;
+    }
+
+    /**
+     * This method gets the pool of the specified route, creating it if it
+     * does not exist.
+     *
+     * @param route Escrow agent host and port.
+     * @return Pool of connections.
+     */
+    private HostPool getPool(final Route route) {
+        HostPool pool = pools.get(route);
+        if (pool == null) {
+            pool = new HostPool(route);
+            HostPool existing = pools.putIfAbsent(route, pool);
+            if (existing != null)
+                pool = existing;
+        }
+        return pool;
+    }
+
+    /** This method closes connections idle for longer than idle timeout. */
+    public void evictIdleConnections() {
+        long deadline = System.currentTimeMillis() - idleTimeout;
+        for (HostPool pool : pools.values())
+            pool.evictIdleSince(deadline);
+    }
+
+    /**
+     * This method closes all idle connections and stops the background
+     * thread. Transport must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+        for (HostPool pool : pools.values())
+            pool.evictIdleSince(Long.MAX_VALUE);
+    }
+
+    /**
+     * Setter of wireFormat field.
+     *
+     * @param wireFormat Format of requests and responses.
+     */
+    public void setWireFormat(final WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * Getter of wireFormat field.
+     *
+     * @return Format of requests and responses.
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Getter of the number of pool hits.
+     *
+     * @return Number of requests served by a pooled connection.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Getter of the number of pool misses.
+     *
+     * @return Number of requests which opened a new connection.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Getter of the number of evicted connections.
+     *
+     * @return Number of idle connections closed because they expired or were
+     * dropped by the escrow agent.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Getter of the number of idle connections.
+     *
+     * @return Number of connections currently available in pool.
+     */
+    public int getIdleConnectionCount() {
+        int count = 0;
+        for (HostPool pool : pools.values())
+            count += pool.idle.size();
+        return count;
+    }
+
+    /** Escrow agent host and port which connections are bound to. */
+    private static final class Route {
+        /** Host name of escrow agent. */
+        private final String host;
+
+        /** Port of escrow agent. */
+        private final int port;
+
+        /**
+         * Creates a new route.
+         *
+         * @param host Host name of escrow agent.
+         * @param port Port of escrow agent.
+         */
+        Route(final String host, final int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Route))
+                return false;
+            Route route = (Route) o;
+            return port == route.port && host.equalsIgnoreCase(route.host);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            return host.toLowerCase(Locale.ENGLISH).hashCode() * prime + port;
+        }
+    }
+
+    /** Pool of connections with a single escrow agent host. */
+    private final class HostPool {
+        /** Escrow agent host and port of connections. */
+        private final Route route;
+
+        /** Socket factory of the TLS context of new connections. */
+        private volatile SSLSocketFactory factory;
+
+        /** Permits for open connections with host. */
+        private final Semaphore permits = new Semaphore(
+                maxConnectionsPerHost);
+
+        /** Idle connections; the most recently used come first. */
+        private final Deque<PooledConnection> idle =
+                new ConcurrentLinkedDeque<>();
+
+        /**
+         * Creates an empty pool.
+         *
+         * @param route Escrow agent host and port of connections.
+         */
+        HostPool(final Route route) {
+            this.route = route;
+        }
+
+        /**
+         * This method waits until a connection with host may be used.
+         *
+         * @param deadline Deadline of request or null.
+         *
+         * @throws IOException is thrown when no connection becomes available
+         * within lease timeout or the deadline of request.
+         */
+        void acquire(final Deadline deadline) throws IOException {
+            long timeout = timeoutOf(leaseTimeout, deadline);
+            try {
+                if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                    throw aborted(deadline, new IOException("No connection"
+                            + " with " + route.host + " became available"
+                            + " within " + timeout + " ms"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for a connection");
+            }
+        }
+
+        /** This method gives back a permit obtained by acquire. */
+        void releasePermit() {
+            permits.release();
+        }
+
+        /**
+         * This method takes an idle connection or opens a new one.
+         *
+         * If the TLS context has changed, the idle connections of the
+         * previous context are closed first.
+         *
+         * @param tlsFactory Socket factory of the current TLS context.
+         * @param deadline Deadline of request or null.
+         * @return Connection with host.
+         *
+         * @throws IOException is thrown when a new connection cannot be
+         * established.
+         */
+        PooledConnection lease(final SSLSocketFactory tlsFactory,
+                final Deadline deadline) throws IOException {
+            if (factory != tlsFactory) {
+                factory = tlsFactory;
+                drainOtherThan(tlsFactory);
+            }
+            long now = System.currentTimeMillis();
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                long idleTime = now - connection.getLastUsed();
+                if (connection.getFactory() == tlsFactory
+                        && idleTime <= idleTimeout && !connection.isClosed()
+                        && (idleTime < STALE_CHECK_THRESHOLD
+                        || !connection.isStale())) {
+                    hits.incrementAndGet();
+                    return connection;
+                }
+                connection.close();
+                evictions.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return PooledConnection.open(route.host, route.port, tlsFactory,
+                    timeoutOf(connectTimeout, deadline),
+                    timeoutOf(readTimeout, deadline));
+        }
+
+        /**
+         * This method puts a connection back to pool, unless it was opened
+         * with a TLS context which is no longer current.
+         *
+         * @param connection Connection whose response has been read
+         * completely.
+         */
+        void release(final PooledConnection connection) {
+            if (connection.getFactory() != factory) {
+                connection.close();
+                evictions.incrementAndGet();
+                return;
+            }
+            connection.touch();
+            idle.offerFirst(connection);
+        }
+
+        /**
+         * This method closes the idle connections which were opened with a
+         * TLS context other than the specified one.
+         *
+         * @param tlsFactory Socket factory of the current TLS context.
+         */
+        private void drainOtherThan(final SSLSocketFactory tlsFactory) {
+            Iterator<PooledConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (connection.getFactory() != tlsFactory
+                        && idle.removeFirstOccurrence(connection)) {
+                    connection.close();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * This method closes idle connections which were last used before
+         * the specified time.
+         *
+         * @param deadline Time (in milliseconds).
+         */
+        void evictIdleSince(final long deadline) {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (connection.getLastUsed() < deadline
+                        && idle.removeLastOccurrence(connection)) {
+                    connection.close();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+}
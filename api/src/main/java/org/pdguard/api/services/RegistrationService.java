@@ -22,7 +22,6 @@ import org.pdguard.api.model.ClientCredentials;
 import org.pdguard.api.model.EscrowAgent;
 import org.pdguard.api.security.SecureConnection;
 import org.pdguard.api.utils.RequestEncoder;
-import org.pdguard.api.utils.ResponseParser;
 
 import java.io.IOException;
 import java.util.TreeMap;
@@ -96,7 +95,7 @@ public class RegistrationService extends EscrowAgentService {
         TreeMap<String, String> parameters = getParameters();
         String response = callEscrowAgentService(RequestEncoder
                 .normalizeParametersQuery(parameters), url);
-        return (ClientCredentials) ResponseParser.toObject(response,
+        return (ClientCredentials) parseResponse(response,
                 ClientCredentials.class);
     }
 }
@@ -0,0 +1,701 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.metrics.LatencyHistogram;
+import org.pdguard.api.security.SecureConnection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is a transport which spreads the requests for an escrow agent
+ * across several instances (replicas) of it.
+ *
+ * Services keep building URIs from the DNS name of the escrow agent, which
+ * is also the name that requests are signed for. This transport replaces
+ * the host of each URI with the address of a replica and hands the request
+ * to an underlying transport.
+ *
+ * Each request goes to the available replica with the fewest outstanding
+ * requests. A replica which fails a number of requests in a row, either
+ * with an I/O error or with a server error, is taken out of rotation for a
+ * while (circuit breaker). Afterwards a single probe request decides whether
+ * it is put back. If no replica is available, requests go to the least
+ * loaded one anyway.
+ *
+ * Calls of idempotent services, e.g. the request token service, may be
+ * hedged: when a replica has not responded within the 95th percentile of
+ * the latency of the service, the same request is sent to a second replica
+ * and the first successful response wins. The other exchange is aborted.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class ReplicaSet implements EscrowAgentTransport {
+    /**
+     * Default number of consecutive failures after which a replica is taken
+     * out of rotation.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Default time (in milliseconds) a failed replica is kept out of
+     * rotation before it is probed.
+     */
+    public static final long DEFAULT_OPEN_TIMEOUT = 10000L;
+
+    /** Percentile of latency after which a call is hedged. */
+    private static final double HEDGE_PERCENTILE = 95.0;
+
+    /**
+     * Number of samples between two updates of the hedge delay of a service.
+     * No call is hedged before the first update.
+     */
+    private static final int HEDGE_DELAY_REFRESH = 20;
+
+    /**
+     * Number of samples after which the latency of a service is recorded
+     * afresh, so that the hedge delay follows changes of latency.
+     */
+    private static final int HEDGE_WINDOW = 1000;
+
+    /** Replicas of escrow agent. */
+    private final List<Replica> replicas;
+
+    /** Transport which carries requests to replicas. */
+    private final EscrowAgentTransport delegate;
+
+    /** Number of consecutive failures which open the circuit of a replica. */
+    private final int failureThreshold;
+
+    /** Time (in nanoseconds) the circuit of a failed replica stays open. */
+    private final long openTimeout;
+
+    /** Counter which rotates the replica considered first. */
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /** Paths of the services whose calls are hedged. */
+    private volatile Set<String> hedgedServices = Collections.emptySet();
+
+    /** Latency of hedged services keyed by path. */
+    private final ConcurrentHashMap<String, ServiceLatency> latencies =
+            new ConcurrentHashMap<>();
+
+    /** Threads which carry the calls of hedged services. */
+    private final ExecutorService hedgeExecutor;
+
+    /** Number of hedged calls which were sent to a second replica. */
+    private final AtomicLong hedges = new AtomicLong();
+
+    /** Number of hedged calls which were served by the second replica. */
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Creates a replica set with the default circuit breaker configuration
+     * on top of the shared pooled transport.
+     *
+     * @param addresses Addresses (host and optional port) of replicas.
+     */
+    public ReplicaSet(final List<String> addresses) {
+        this(addresses, PooledTransport.getSharedInstance(),
+                DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIMEOUT);
+    }
+
+    /**
+     * Creates a replica set.
+     *
+     * @param addresses Addresses (host and optional port) of replicas.
+     * @param delegate Transport which carries requests to replicas.
+     * @param failureThreshold Number of consecutive failures after which a
+     * replica is taken out of rotation.
+     * @param openTimeout Time (in milliseconds) a failed replica is kept out
+     * of rotation before it is probed.
+     */
+    public ReplicaSet(final List<String> addresses,
+            final EscrowAgentTransport delegate, final int failureThreshold,
+            final long openTimeout) {
+        if (addresses.isEmpty())
+            throw new IllegalArgumentException(
+                    "At least one replica is required");
+        if (failureThreshold < 1 || openTimeout < 0)
+            throw new IllegalArgumentException(
+                    "Invalid circuit breaker configuration");
+        List<Replica> list = new ArrayList<>(addresses.size());
+        for (String address : addresses)
+            list.add(new Replica(address));
+        replicas = Collections.unmodifiableList(list);
+        this.delegate = delegate;
+        this.failureThreshold = failureThreshold;
+        this.openTimeout = TimeUnit.MILLISECONDS.toNanos(openTimeout);
+        hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "pdguard-hedged-request");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * This method sets the services whose calls are hedged. They must be
+     * idempotent, e.g. the request token service.
+     *
+     * @param services Paths of services, such as
+     * {@link org.pdguard.api.model.EscrowAgent#getRequestTokenService()};
+     * none disables hedging.
+     */
+    public void setHedgedServices(final String... services) {
+        hedgedServices = Collections.unmodifiableSet(new HashSet<>(
+                Arrays.asList(services)));
+    }
+
+    @Override
+    public TransportResponse post(final String uri, final String parameters,
+            final SecureConnection connection) throws IOException {
+        return post(uri, parameters, connection, null);
+    }
+
+    @Override
+    public TransportResponse post(final String uri, final String parameters,
+            final SecureConnection connection, final Deadline deadline)
+            throws IOException {
+        String service = pathOf(uri);
+        ServiceLatency latency = null;
+        if (hedgedServices.contains(service))
+            latency = latencyOf(service);
+        Replica primary = select(null);
+        if (latency == null || latency.delay <= 0 || replicas.size() < 2)
+            return send(primary, uri, parameters, connection, deadline,
+                    latency);
+        return hedge(primary, uri, parameters, connection, deadline,
+                latency);
+    }
+
+    /**
+     * This method sends a request to a replica and updates the health of
+     * the replica according to the outcome.
+     *
+     * @param replica Replica to call.
+     * @param uri URI of escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration.
+     * @param deadline Deadline of request or null.
+     * @param latency Latency of service if it is hedged; null otherwise.
+     * @return Response of replica.
+     *
+     * @throws IOException is thrown when the communication with the replica
+     * fails.
+     */
+    private TransportResponse send(final Replica replica, final String uri,
+            final String parameters, final SecureConnection connection,
+            final Deadline deadline, final ServiceLatency latency)
+            throws IOException {
+        replica.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            TransportResponse response = delegate.post(replica.rewrite(uri),
+                    parameters, connection, deadline);
+            if (response.getStatusCode()
+                    >= HttpURLConnection.HTTP_INTERNAL_ERROR)
+                replica.onFailure();
+            else {
+                replica.onSuccess();
+                if (latency != null)
+                    latency.record(System.nanoTime() - start);
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            if (deadline != null && deadline.isCancelled())
+                replica.onAbandon();
+            else
+                replica.onFailure();
+            throw e;
+        } finally {
+            replica.outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * This method sends a request to a replica and, if it does not respond
+     * within the hedge delay of the service, to a second replica as well.
+     *
+     * @param primary Replica called first.
+     * @param uri URI of escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration.
+     * @param deadline Deadline of request or null.
+     * @param latency Latency of service.
+     * @return First successful response or, if none, the outcome of the
+     * request to the primary replica.
+     *
+     * @throws IOException is thrown when the communication with replicas
+     * fails or the request is cancelled.
+     */
+    private TransportResponse hedge(final Replica primary, final String uri,
+            final String parameters, final SecureConnection connection,
+            final Deadline deadline, final ServiceLatency latency)
+            throws IOException {
+        final Deadline first = attemptOf(deadline);
+        final Deadline second = attemptOf(deadline);
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                first.cancel();
+                second.cancel();
+            }
+        };
+        if (deadline != null)
+            deadline.setAbortAction(abort);
+        ExecutorCompletionService<TransportResponse> completion =
+                new ExecutorCompletionService<>(hedgeExecutor);
+        try {
+            Future<TransportResponse> primaryCall = completion.submit(
+                    call(primary, uri, parameters, connection, first,
+                    latency));
+            Future<TransportResponse> backupCall = null;
+            int pending = 1;
+            Future<TransportResponse> done = completion.poll(latency.delay,
+                    TimeUnit.NANOSECONDS);
+            if (done == null) {
+                Replica backup = select(primary);
+                if (backup != null) {
+                    hedges.incrementAndGet();
+                    backupCall = completion.submit(call(backup, uri,
+                            parameters, connection, second, latency));
+                    pending++;
+                }
+            }
+            while (pending > 0) {
+                if (done == null)
+                    done = completion.take();
+                pending--;
+                if (isSuccessful(done)) {
+                    if (done == backupCall)
+                        hedgeWins.incrementAndGet();
+                    return done.get();
+                }
+                done = null;
+            }
+            return outcomeOf(primaryCall, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for escrow agent");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (deadline != null)
+                deadline.clearAbortAction(abort);
+            first.cancel();
+            second.cancel();
+        }
+    }
+
+    /**
+     * This method wraps a request to a replica as a task of the hedge
+     * executor.
+     *
+     * @param replica Replica to call.
+     * @param uri URI of escrow agent service.
+     * @param parameters Parameters of request in an URL encoded format.
+     * @param connection Connection configuration.
+     * @param attempt Deadline of this attempt.
+     * @param latency Latency of service.
+     * @return Task which sends the request.
+     */
+    private Callable<TransportResponse> call(final Replica replica,
+            final String uri, final String parameters,
+            final SecureConnection connection, final Deadline attempt,
+            final ServiceLatency latency) {
+        return new Callable<TransportResponse>() {
+            @Override
+            public TransportResponse call() throws IOException {
+                return send(replica, uri, parameters, connection, attempt,
+                        latency);
+            }
+        };
+    }
+
+    /**
+     * This method checks if a completed call got a successful response.
+     *
+     * @param call Completed call.
+     * @return true if the call got a response with status code 200.
+     *
+     * @throws InterruptedException never, since the call is complete.
+     */
+    private static boolean isSuccessful(final Future<TransportResponse> call)
+            throws InterruptedException {
+        try {
+            return call.get().getStatusCode() == HttpURLConnection.HTTP_OK;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method gets the outcome of a completed call.
+     *
+     * @param call Completed call.
+     * @param deadline Deadline of request or null.
+     * @return Response of call.
+     *
+     * @throws IOException is thrown when the call failed or the request was
+     * cancelled.
+     * @throws InterruptedException never, since the call is complete.
+     */
+    private static TransportResponse outcomeOf(
+            final Future<TransportResponse> call, final Deadline deadline)
+            throws IOException, InterruptedException {
+        if (deadline != null && deadline.isCancelled())
+            throw new InterruptedIOException("PDGuard request was cancelled");
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException)
+                throw (IOException) t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * This method creates the deadline of an attempt of a hedged call. It
+     * expires with the deadline of request but it is cancelled on its own,
+     * so that the slower attempt can be aborted.
+     *
+     * @param deadline Deadline of request or null.
+     * @return Deadline of attempt.
+     */
+    private static Deadline attemptOf(final Deadline deadline) {
+        if (deadline == null || deadline.isUnbounded())
+            return Deadline.none();
+        return Deadline.after(deadline.remaining(TimeUnit.NANOSECONDS),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method selects the available replica with the fewest
+     * outstanding requests.
+     *
+     * @param excluded Replica which must not be selected or null.
+     * @return Selected replica; if no replica is available, the least
+     * loaded one, or null if it is excluded.
+     */
+    private Replica select(final Replica excluded) {
+        int size = replicas.size();
+        int offset = Math.floorMod(rotation.getAndIncrement(), size);
+        while (true) {
+            long now = System.nanoTime();
+            Replica best = null;
+            Replica leastLoaded = null;
+            for (int i = 0; i < size; i++) {
+                Replica replica = replicas.get((offset + i) % size);
+                if (replica == excluded)
+                    continue;
+                int load = replica.outstanding.get();
+                if (leastLoaded == null
+                        || load < leastLoaded.outstanding.get())
+                    leastLoaded = replica;
+                if (replica.isAvailable(now) && (best == null
+                        || load < best.outstanding.get()))
+                    best = replica;
+            }
+            if (best == null)
+                return excluded == null ? leastLoaded : null;
+            if (best.acquire(now))
+                return best;
+        }
+    }
+
+    /**
+     * This method gets the latency of a hedged service, creating it if it
+     * does not exist.
+     *
+     * @param service Path of service.
+     * @return Latency of service.
+     */
+    private ServiceLatency latencyOf(final String service) {
+        ServiceLatency latency = latencies.get(service);
+        if (latency == null) {
+            latency = new ServiceLatency();
+            ServiceLatency existing = latencies.putIfAbsent(service, latency);
+            if (existing != null)
+                latency = existing;
+        }
+        return latency;
+    }
+
+    /**
+     * This method gets the path of a URI, without its query.
+     *
+     * @param uri Absolute URI.
+     * @return Path of URI.
+     */
+    private static String pathOf(final String uri) {
+        int start = uri.indexOf('/', authorityStart(uri));
+        if (start < 0)
+            return "/";
+        int end = uri.indexOf('?', start);
+        return end < 0 ? uri.substring(start) : uri.substring(start, end);
+    }
+
+    /**
+     * This method finds where the authority of a URI starts.
+     *
+     * @param uri Absolute URI.
+     * @return Index of the first character of authority.
+     */
+    private static int authorityStart(final String uri) {
+        int scheme = uri.indexOf("://");
+        return scheme < 0 ? 0 : scheme + "://".length();
+    }
+
+    /**
+     * Getter of the addresses of replicas.
+     *
+     * @return Addresses of replicas in the order they were given.
+     */
+    public List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas)
+            addresses.add(replica.address);
+        return addresses;
+    }
+
+    /**
+     * This method checks if a replica is in rotation.
+     *
+     * @param address Address of replica.
+     * @return true if the circuit of replica is closed or it may be probed.
+     */
+    public boolean isAvailable(final String address) {
+        return replicaOf(address).isAvailable(System.nanoTime());
+    }
+
+    /**
+     * Getter of the number of outstanding requests of a replica.
+     *
+     * @param address Address of replica.
+     * @return Number of requests sent to replica and not completed yet.
+     */
+    public int getOutstandingCount(final String address) {
+        return replicaOf(address).outstanding.get();
+    }
+
+    /**
+     * Getter of the delay after which calls of a service are hedged.
+     *
+     * @param service Path of service.
+     * @return Delay in nanoseconds; zero if calls are not hedged yet.
+     */
+    public long getHedgeDelay(final String service) {
+        ServiceLatency latency = latencies.get(service);
+        return latency == null ? 0 : latency.delay;
+    }
+
+    /**
+     * Getter of the number of hedged calls.
+     *
+     * @return Number of calls which were sent to a second replica.
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * Getter of the number of hedged calls won by the second replica.
+     *
+     * @return Number of calls which were served by the second replica.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * This method finds a replica by its address.
+     *
+     * @param address Address of replica.
+     * @return Replica.
+     */
+    private Replica replicaOf(final String address) {
+        for (Replica replica : replicas)
+            if (replica.address.equals(address))
+                return replica;
+        throw new IllegalArgumentException("Unknown replica: " + address);
+    }
+
+    /**
+     * This method stops the threads of hedged calls. The underlying
+     * transport is not closed, since it may be shared.
+     */
+    @Override
+    public void close() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /** An instance of escrow agent and its health. */
+    private final class Replica {
+        /** Address (host and optional port) of replica. */
+        private final String address;
+
+        /** Number of requests sent to replica and not completed yet. */
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        /** Number of consecutive failed requests. */
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /** True if replica is out of rotation. */
+        private volatile boolean open;
+
+        /** Time (as given by System.nanoTime) when the circuit opened. */
+        private volatile long openedAt;
+
+        /** True if a probe request of an open replica is in flight. */
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        /**
+         * Creates a healthy replica.
+         *
+         * @param address Address (host and optional port) of replica.
+         */
+        Replica(final String address) {
+            this.address = address;
+        }
+
+        /**
+         * This method replaces the authority of a URI with the address of
+         * replica.
+         *
+         * @param uri Absolute URI of escrow agent service.
+         * @return URI of the service of replica.
+         */
+        String rewrite(final String uri) {
+            int start = authorityStart(uri);
+            int end = uri.indexOf('/', start);
+            if (end < 0)
+                end = uri.length();
+            return uri.substring(0, start) + address + uri.substring(end);
+        }
+
+        /**
+         * This method checks if replica may be selected.
+         *
+         * @param now Current time (as given by System.nanoTime).
+         * @return true if the circuit is closed, or it has been open long
+         * enough and no probe is in flight.
+         */
+        boolean isAvailable(final long now) {
+            return !open || now - openedAt >= openTimeout && !probing.get();
+        }
+
+        /**
+         * This method claims replica for a request.
+         *
+         * @param now Current time (as given by System.nanoTime).
+         * @return true if the circuit is closed or the request becomes the
+         * probe of replica; false if another request became the probe.
+         */
+        boolean acquire(final long now) {
+            return !open || now - openedAt >= openTimeout
+                    && probing.compareAndSet(false, true);
+        }
+
+        /** This method closes the circuit after a successful request. */
+        void onSuccess() {
+            failures.set(0);
+            open = false;
+            probing.set(false);
+        }
+
+        /**
+         * This method opens the circuit if the failed request was a probe or
+         * the threshold of consecutive failures is reached.
+         */
+        void onFailure() {
+            if (failures.incrementAndGet() >= failureThreshold
+                    || probing.get()) {
+                openedAt = System.nanoTime();
+                open = true;
+            }
+            probing.set(false);
+        }
+
+        /**
+         * This method releases the probe of replica when a request is
+         * cancelled before its outcome is known.
+         */
+        void onAbandon() {
+            probing.set(false);
+        }
+    }
+
+    /** Latency of the successful calls of a hedged service. */
+    private static final class ServiceLatency {
+        /** Histogram of latency (in nanoseconds) of the current window. */
+        private final AtomicReference<LatencyHistogram> histogram =
+                new AtomicReference<>(new LatencyHistogram());
+
+        /** Number of calls recorded. */
+        private final AtomicLong samples = new AtomicLong();
+
+        /** Delay (in nanoseconds) after which calls are hedged. */
+        private volatile long delay;
+
+        /**
+         * This method records the latency of a successful call.
+         *
+         * @param nanos Latency in nanoseconds.
+         */
+        void record(final long nanos) {
+            LatencyHistogram current = histogram.get();
+            current.record(nanos);
+            long count = samples.incrementAndGet();
+            if (count % HEDGE_DELAY_REFRESH != 0)
+                return;
+            delay = current.snapshot().getValueAtPercentile(
+                    HEDGE_PERCENTILE);
+            if (count % HEDGE_WINDOW == 0)
+                histogram.compareAndSet(current, new LatencyHistogram());
+        }
+    }
+}
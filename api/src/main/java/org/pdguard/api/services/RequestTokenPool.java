@@ -0,0 +1,454 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.security.SecureConnection;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a number of unauthorized request tokens of a client ready
+ * for use.
+ *
+ * Request tokens do not depend on the data requested, so they can be obtained
+ * from escrow agent before they are needed. When the number of available
+ * tokens falls below the low watermark, a background thread refills the pool
+ * up to its capacity. Thus, the PDGuard protocol starts directly with the
+ * authorization of request token.
+ *
+ * Escrow agent accepts a request token for one day after its generation.
+ * Tokens are dropped from the pool before that, once their time to live
+ * expires. If the pool is empty, a token is requested synchronously.
+ *
+ * A failed refill is recorded and postpones the next refill, doubling the
+ * delay on each consecutive failure, so that an unreachable escrow agent is
+ * not asked for tokens in the background on every request.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class RequestTokenPool {
+    /** Default number of available tokens below which pool is refilled. */
+    public static final int DEFAULT_LOW_WATERMARK = 2;
+
+    /** Default maximum number of available tokens. */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Default time to live (in milliseconds) of a token; an hour shorter than
+     * the validity of request tokens.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(23);
+
+    /** Interval (in milliseconds) between checks of expired tokens. */
+    private static final long MAINTENANCE_INTERVAL = TimeUnit.MINUTES
+            .toMillis(1);
+
+    /** Delay (in milliseconds) of refill after the first failed refill. */
+    private static final long REFILL_BACKOFF = 1000L;
+
+    /** Maximum number of times the delay of refill is doubled. */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    /** Number of threads which fetch tokens for all pools. */
+    private static final int PREFETCH_THREADS = 2;
+
+    /** Executor which fetches tokens for all pools. */
+    private static final ScheduledExecutorService PREFETCHER;
+
+    static {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                PREFETCH_THREADS, new ThreadFactory() {
+                    /** Number of created threads. */
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r,
+                                "pdguard-token-prefetch-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.setRemoveOnCancelPolicy(true);
+        PREFETCHER = executor;
+    }
+
+    /** Client's credentials used to obtain request tokens. */
+    private final ClientCredentials clientCredentials;
+
+    /** Trusted escrow agent by data subject. */
+    private final EscrowAgent escrowAgent;
+
+    /** Connection configuration to establish connections with escrow agent. */
+    private final SecureConnection secureConnection;
+
+    /** Number of available tokens below which pool is refilled. */
+    private final int lowWatermark;
+
+    /** Maximum number of available tokens. */
+    private final int capacity;
+
+    /** Time to live (in nanoseconds) of a token. */
+    private final long timeToLive;
+
+    /** Available tokens in the order they were obtained. */
+    private final Queue<PooledToken> tokens = new ConcurrentLinkedQueue<>();
+
+    /** Number of available tokens. */
+    private final AtomicInteger available = new AtomicInteger();
+
+    /** Whether a refill of pool is scheduled or in progress. */
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /** Number of tokens served from pool. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of tokens requested synchronously. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of tokens dropped because they expired. */
+    private final AtomicLong expirations = new AtomicLong();
+
+    /** Number of refills which failed. */
+    private final AtomicLong refillFailures = new AtomicLong();
+
+    /** Number of consecutive refills which failed. */
+    private volatile int consecutiveFailures;
+
+    /** Time (as given by System.nanoTime) before which pool is not refilled. */
+    private volatile long nextRefill = System.nanoTime();
+
+    /** Cause of the last failed refill. */
+    private volatile Exception lastRefillFailure;
+
+    /** Periodic removal of expired tokens. */
+    private final ScheduledFuture<?> maintenance;
+
+    /** Whether pool has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool with the default configuration.
+     *
+     * @param clientCredentials Client's credentials used to obtain request
+     * tokens.
+     * @param escrowAgent Trusted escrow agent by data subject.
+     * @param con Connection configuration to establish connections with
+     * escrow agent.
+     */
+    public RequestTokenPool(final ClientCredentials clientCredentials,
+            final EscrowAgent escrowAgent, final SecureConnection con) {
+        this(clientCredentials, escrowAgent, con, DEFAULT_LOW_WATERMARK,
+                DEFAULT_CAPACITY, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a pool. Pool starts empty; it is filled after the first
+     * request for a token.
+     *
+     * @param clientCredentials Client's credentials used to obtain request
+     * tokens.
+     * @param escrowAgent Trusted escrow agent by data subject.
+     * @param con Connection configuration to establish connections with
+     * escrow agent.
+     * @param lowWatermark Number of available tokens below which pool is
+     * refilled.
+     * @param capacity Maximum number of available tokens.
+     * @param timeToLive Time to live (in milliseconds) of a token.
+     */
+    public RequestTokenPool(final ClientCredentials clientCredentials,
+            final EscrowAgent escrowAgent, final SecureConnection con,
+            final int lowWatermark, final int capacity,
+            final long timeToLive) {
+        if (lowWatermark < 0 || capacity < 1 || lowWatermark > capacity
+                || timeToLive <= 0)
+            throw new IllegalArgumentException("Invalid pool configuration");
+        this.clientCredentials = clientCredentials;
+        this.escrowAgent = escrowAgent;
+        secureConnection = con;
+        this.lowWatermark = lowWatermark;
+        this.capacity = capacity;
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        maintenance = PREFETCHER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpiredTokens();
+            }
+        }, MAINTENANCE_INTERVAL, MAINTENANCE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method takes an unauthorized request token from pool.
+     *
+     * If pool has no fresh token, a token is requested from escrow agent
+     * synchronously. Either way, pool is refilled in the background when it
+     * falls below its low watermark. If the synchronous request fails, the
+     * cause of the last failed refill, if any, is attached to the thrown
+     * exception as suppressed.
+     *
+     * @return Unauthorized request token which has not been used before.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when there is an
+     * error response by escrow agent.
+     */
+    public RequestToken take() throws IOException,
+            EscrowAgentErrorResponseException {
+        return take(null);
+    }
+
+    /**
+     * This method takes an unauthorized request token from pool.
+     *
+     * A token available in pool is returned regardless of the deadline. If
+     * pool has no fresh token, the deadline bounds the synchronous request
+     * to escrow agent.
+     *
+     * @param deadline Deadline of the synchronous request or null.
+     *
+     * @return Unauthorized request token which has not been used before.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails or a <code>DeadlineExceededException</code> when
+     * the deadline expires.
+     * @throws EscrowAgentErrorResponseException is thrown when there is an
+     * error response by escrow agent.
+     */
+    public RequestToken take(final Deadline deadline) throws IOException,
+            EscrowAgentErrorResponseException {
+        long now = System.nanoTime();
+        PooledToken token = tokens.poll();
+        while (token != null) {
+            available.decrementAndGet();
+            if (token.expiration - now > 0)
+                break;
+            expirations.incrementAndGet();
+            token = tokens.poll();
+        }
+        if (available.get() < lowWatermark || token == null)
+            scheduleRefill();
+        if (token != null) {
+            hits.incrementAndGet();
+            return token.requestToken;
+        }
+        misses.incrementAndGet();
+        try {
+            if (deadline != null)
+                deadline.check();
+            return fetchRequestToken(deadline);
+        } catch (IOException | EscrowAgentErrorResponseException e) {
+            Exception refillFailure = lastRefillFailure;
+            if (refillFailure != null && refillFailure != e)
+                e.addSuppressed(refillFailure);
+            throw e;
+        }
+    }
+
+    /**
+     * This method requests a new request token from escrow agent.
+     *
+     * @param deadline Deadline of request or null.
+     *
+     * @return Unauthorized request token.
+     *
+     * @throws IOException is thrown when the communication with the
+     * escrow agent fails.
+     * @throws EscrowAgentErrorResponseException is thrown when there is an
+     * error response by escrow agent.
+     */
+    RequestToken fetchRequestToken(final Deadline deadline)
+            throws IOException, EscrowAgentErrorResponseException {
+        RequestTokenService service = new RequestTokenService(
+                clientCredentials, escrowAgent, secureConnection);
+        service.setDeadline(deadline);
+        return service.getRequestToken();
+    }
+
+    /**
+     * This method schedules a refill of pool unless one is pending or refill
+     * is postponed after a failure.
+     */
+    private void scheduleRefill() {
+        if (closed || System.nanoTime() - nextRefill < 0
+                || !refilling.compareAndSet(false, true))
+            return;
+        PREFETCHER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refill();
+                } finally {
+                    refilling.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * This method requests tokens from escrow agent until pool is full.
+     *
+     * Refill stops at the first failure, which is recorded; it is scheduled
+     * again the next time a token is taken after the delay of refill.
+     */
+    void refill() {
+        while (!closed && available.get() < capacity) {
+            RequestToken token;
+            try {
+                token = fetchRequestToken(null);
+            } catch (IOException | EscrowAgentErrorResponseException e) {
+                refillFailures.incrementAndGet();
+                lastRefillFailure = e;
+                int shift = Math.min(consecutiveFailures++,
+                        MAX_BACKOFF_SHIFT);
+                nextRefill = System.nanoTime() + TimeUnit.MILLISECONDS
+                        .toNanos(REFILL_BACKOFF << shift);
+                return;
+            }
+            consecutiveFailures = 0;
+            tokens.add(new PooledToken(token, System.nanoTime()
+                    + timeToLive));
+            available.incrementAndGet();
+        }
+    }
+
+    /** This method drops expired tokens and refills pool if necessary. */
+    void removeExpiredTokens() {
+        long now = System.nanoTime();
+        Iterator<PooledToken> it = tokens.iterator();
+        while (it.hasNext()) {
+            PooledToken token = it.next();
+            if (token.expiration - now <= 0 && tokens.remove(token)) {
+                available.decrementAndGet();
+                expirations.incrementAndGet();
+            }
+        }
+        if (available.get() < lowWatermark)
+            scheduleRefill();
+    }
+
+    /**
+     * This method stops the background maintenance of pool and discards the
+     * available tokens.
+     */
+    public void close() {
+        closed = true;
+        maintenance.cancel(false);
+        tokens.clear();
+        available.set(0);
+    }
+
+    /**
+     * Getter of the number of available tokens.
+     *
+     * @return Number of tokens ready for use, including expired ones which
+     * have not been dropped yet.
+     */
+    public int size() {
+        return available.get();
+    }
+
+    /**
+     * Getter of the number of pool hits.
+     *
+     * @return Number of tokens served from pool.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Getter of the number of pool misses.
+     *
+     * @return Number of tokens requested synchronously.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Getter of the number of expired tokens.
+     *
+     * @return Number of tokens dropped because they expired before use.
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Getter of the number of failed refills.
+     *
+     * @return Number of refills which failed.
+     */
+    public long getRefillFailureCount() {
+        return refillFailures.get();
+    }
+
+    /**
+     * Getter of the cause of the last failed refill.
+     *
+     * @return Cause of the last failed refill or null if no refill failed.
+     */
+    public Exception getLastRefillFailure() {
+        return lastRefillFailure;
+    }
+
+    /**
+     * Getter of clientCredentials field.
+     *
+     * @return Client's credentials used to obtain request tokens.
+     */
+    public ClientCredentials getClientCredentials() {
+        return clientCredentials;
+    }
+
+    /** Request token held by pool. */
+    private static final class PooledToken {
+        /** Unauthorized request token. */
+        private final RequestToken requestToken;
+
+        /** Time (as given by System.nanoTime) when the token expires. */
+        private final long expiration;
+
+        /**
+         * Creates a new pool entry.
+         *
+         * @param requestToken Unauthorized request token.
+         * @param expiration Time when the token expires.
+         */
+        PooledToken(final RequestToken requestToken, final long expiration) {
+            this.requestToken = requestToken;
+            this.expiration = expiration;
+        }
+    }
+}
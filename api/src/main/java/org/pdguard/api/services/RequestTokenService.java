@@ -20,9 +20,7 @@ import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
 import org.pdguard.api.model.ClientCredentials;
 import org.pdguard.api.model.EscrowAgent;
 import org.pdguard.api.model.RequestToken;
-import org.pdguard.api.model.SignatureBase;
 import org.pdguard.api.security.SecureConnection;
-import org.pdguard.api.utils.ResponseParser;
 
 import java.io.IOException;
 import java.util.TreeMap;
@@ -93,12 +91,10 @@ public class RequestTokenService extends EscrowAgentService {
         String url = "https://" + super.getEscrowAgent().getEscrowAgentName()
                 + EscrowAgent.getRequestTokenService();
         TreeMap<String, String> parameters = getParameters();
-        SignatureBase signatureBase = new SignatureBase(parameters,
-                url, "POST");
-        String parametersQuery = signRequest(signatureBase,
+        String parametersQuery = signRequest(parameters, url,
                 clientCredentials.getClientSecret() + "&");
         String response = callEscrowAgentService(parametersQuery, url);
-        return (RequestToken) ResponseParser.toObject(response,
+        return (RequestToken) parseResponse(response,
                 RequestToken.class);
     }
 }
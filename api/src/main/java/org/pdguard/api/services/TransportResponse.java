@@ -0,0 +1,141 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.services;
+
+import org.pdguard.api.utils.BinaryCodec;
+
+/**
+ * This class represents a response of an escrow agent's web service as it is
+ * returned by a {@link EscrowAgentTransport}.
+ *
+ * A response is either URL encoded text or, if escrow agent answered in the
+ * binary wire format, a binary message of {@link BinaryCodec}. The body of a
+ * binary response is also available as URL encoded text, which is built
+ * when it is first asked for.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class TransportResponse {
+    /** Status code of response. */
+    private final int statusCode;
+
+    /** Body of response in URL encoded format. */
+    private String body;
+
+    /** Body of response in binary format or null if it is URL encoded. */
+    private final byte[] content;
+
+    /**
+     * Time (in nanoseconds) spent to establish new connections, including
+     * TLS handshakes, while carrying the request.
+     */
+    private final long handshakeTime;
+
+    /**
+     * Creates a new response.
+     *
+     * @param statusCode Status code of response.
+     * @param body Body of response.
+     */
+    public TransportResponse(final int statusCode, final String body) {
+        this(statusCode, body, 0);
+    }
+
+    /**
+     * Creates a new response of a request which required new connections.
+     *
+     * @param statusCode Status code of response.
+     * @param body Body of response.
+     * @param handshakeTime Time (in nanoseconds) spent to establish new
+     * connections, including TLS handshakes.
+     */
+    public TransportResponse(final int statusCode, final String body,
+            final long handshakeTime) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.content = null;
+        this.handshakeTime = handshakeTime;
+    }
+
+    /**
+     * Creates a new response in the binary wire format.
+     *
+     * @param statusCode Status code of response.
+     * @param content Binary message of response.
+     * @param handshakeTime Time (in nanoseconds) spent to establish new
+     * connections, including TLS handshakes.
+     */
+    public TransportResponse(final int statusCode, final byte[] content,
+            final long handshakeTime) {
+        this.statusCode = statusCode;
+        this.content = content;
+        this.handshakeTime = handshakeTime;
+    }
+
+    /**
+     * Getter of statusCode field.
+     *
+     * @return Status code of response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Getter of body field.
+     *
+     * @return Body of response in URL encoded format.
+     *
+     * @throws IllegalArgumentException is thrown when response is a
+     * malformed binary message.
+     */
+    public String getBody() {
+        if (body == null && content != null)
+            body = BinaryCodec.toURLEncoded(content);
+        return body;
+    }
+
+    /**
+     * This method checks whether escrow agent answered in the binary wire
+     * format.
+     *
+     * @return true if response is a binary message.
+     */
+    public boolean isBinary() {
+        return content != null;
+    }
+
+    /**
+     * Getter of content field.
+     *
+     * @return Binary message of response or null if response is URL
+     * encoded.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Getter of handshakeTime field.
+     *
+     * @return Time (in nanoseconds) spent to establish new connections,
+     * including TLS handshakes; zero if pooled connections were reused.
+     */
+    public long getHandshakeTime() {
+        return handshakeTime;
+    }
+}
@@ -0,0 +1,265 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.utils;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class converts the parameters of requests and responses to and from
+ * the binary wire format of PDGuard.
+ *
+ * The binary format is an alternative to the URL encoded format which
+ * client and escrow agent may negotiate through the <code>Accept</code> and
+ * <code>Content-Type</code> headers. A message is a version byte followed
+ * by a sequence of parameters. Every parameter is encoded as:
+ *
+ * <ul>
+ * <li>the length of its name (one byte) followed by the US-ASCII bytes of
+ * the name;</li>
+ * <li>the length of its value (an unsigned varint, seven bits per byte,
+ * least significant group first) followed by the bytes of the value.</li>
+ * </ul>
+ *
+ * Values are UTF-8 text, except for encryption keys, i.e. parameters whose
+ * name ends with <code>encryption_key</code>, which are carried as raw bytes
+ * instead of the hexadecimal string of the URL encoded format.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class BinaryCodec {
+    /** Media type of the binary format. */
+    public static final String MEDIA_TYPE = "application/x-pdguard-binary";
+
+    /** Version of the binary format. */
+    private static final byte VERSION = 1;
+
+    /** Suffix of the names of parameters which carry encryption keys. */
+    private static final String KEY_SUFFIX = "encryption_key";
+
+    /** Maximum length of the name of a parameter. */
+    private static final int MAX_NAME_LENGTH = 0xff;
+
+    /** Bits of a value length carried by one byte. */
+    private static final int VARINT_BITS = 7;
+
+    /** Mask of the bits of a value length carried by one byte. */
+    private static final int VARINT_MASK = 0x7f;
+
+    /** Flag of a byte which is followed by more bytes of a value length. */
+    private static final int VARINT_MORE = 0x80;
+
+    /** Maximum number of bits of a value length. */
+    private static final int VARINT_MAX_SHIFT = 28;
+
+    /** Mask of an unsigned byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Hide constructor of utility class. */
+    private BinaryCodec() { }
+
+    /**
+     * This method checks if a parameter carries an encryption key.
+     *
+     * @param name Name of parameter.
+     * @return true if the value of parameter is carried as raw bytes.
+     */
+    public static boolean isKeyParameter(final String name) {
+        return name.endsWith(KEY_SUFFIX);
+    }
+
+    /**
+     * This method encodes parameters to a binary message.
+     *
+     * @param parameters Values of parameters as they are carried, with keys
+     * the names of parameters.
+     * @return Binary message.
+     *
+     * @throws IllegalArgumentException is thrown when the name of a parameter
+     * is empty or too long.
+     */
+    public static byte[] encode(final Map<String, byte[]> parameters) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(VERSION);
+        for (Map.Entry<String, byte[]> parameter : parameters.entrySet()) {
+            byte[] name = parameter.getKey().getBytes(
+                    StandardCharsets.US_ASCII);
+            if (name.length == 0 || name.length > MAX_NAME_LENGTH)
+                throw new IllegalArgumentException("Invalid parameter name: "
+                        + parameter.getKey());
+            out.write(name.length);
+            out.write(name, 0, name.length);
+            byte[] value = parameter.getValue();
+            int length = value.length;
+            while ((length & ~VARINT_MASK) != 0) {
+                out.write(length & VARINT_MASK | VARINT_MORE);
+                length >>>= VARINT_BITS;
+            }
+            out.write(length);
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * This method decodes a binary message to its parameters.
+     *
+     * @param message Binary message.
+     * @return Values of parameters as they are carried, with keys the names
+     * of parameters, in the order of message.
+     *
+     * @throws IllegalArgumentException is thrown when message is malformed.
+     */
+    public static Map<String, byte[]> decode(final byte[] message) {
+        if (message.length == 0 || message[0] != VERSION)
+            throw new IllegalArgumentException(
+                    "Unsupported binary message");
+        Map<String, byte[]> parameters = new LinkedHashMap<>();
+        int position = 1;
+        while (position < message.length) {
+            int nameLength = message[position++] & BYTE_MASK;
+            if (nameLength == 0 || message.length - position < nameLength)
+                throw new IllegalArgumentException("Truncated binary message");
+            String name = new String(message, position, nameLength,
+                    StandardCharsets.US_ASCII);
+            position += nameLength;
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (position >= message.length || shift > VARINT_MAX_SHIFT)
+                    throw new IllegalArgumentException(
+                            "Invalid length in binary message");
+                b = message[position++];
+                length |= (b & VARINT_MASK) << shift;
+                shift += VARINT_BITS;
+            } while ((b & VARINT_MORE) != 0);
+            if (length < 0 || message.length - position < length)
+                throw new IllegalArgumentException("Truncated binary message");
+            byte[] value = new byte[length];
+            System.arraycopy(message, position, value, 0, length);
+            position += length;
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    /**
+     * This method converts a URL encoded message to a binary message, e.g. a
+     * response of escrow agent for a client which accepts the binary format.
+     *
+     * @param urlEncoded URL encoded message.
+     * @return Binary message.
+     *
+     * @throws IllegalArgumentException is thrown when an encryption key is
+     * not a hexadecimal string.
+     */
+    public static byte[] fromURLEncoded(final String urlEncoded) {
+        Map<String, byte[]> parameters = new LinkedHashMap<>();
+        for (Map.Entry<String, String> parameter : ResponseParser.toMap(
+                urlEncoded).entrySet()) {
+            String name = parameter.getKey();
+            String value = parameter.getValue();
+            parameters.put(name, isKeyParameter(name) ? decodeHex(value)
+                    : value.getBytes(StandardCharsets.UTF_8));
+        }
+        return encode(parameters);
+    }
+
+    /**
+     * This method converts a binary message to a URL encoded message.
+     *
+     * @param message Binary message.
+     * @return URL encoded message.
+     *
+     * @throws IllegalArgumentException is thrown when message is malformed.
+     */
+    public static String toURLEncoded(final byte[] message) {
+        StringBuilder urlEncoded = new StringBuilder();
+        for (Map.Entry<String, String> parameter : toParameters(message)
+                .entrySet()) {
+            if (urlEncoded.length() > 0)
+                urlEncoded.append('&');
+            RequestEncoder.appendEncoded(urlEncoded, parameter.getKey());
+            urlEncoded.append('=');
+            RequestEncoder.appendEncoded(urlEncoded, parameter.getValue());
+        }
+        return urlEncoded.toString();
+    }
+
+    /**
+     * This method decodes a binary message to the values which its
+     * parameters would have in the URL encoded format.
+     *
+     * @param message Binary message.
+     * @return Decoded values of parameters with keys the names of parameters,
+     * in the order of message.
+     *
+     * @throws IllegalArgumentException is thrown when message is malformed.
+     */
+    public static Map<String, String> toParameters(final byte[] message) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> parameter : decode(message)
+                .entrySet()) {
+            String name = parameter.getKey();
+            byte[] value = parameter.getValue();
+            parameters.put(name, isKeyParameter(name)
+                    ? new String(Hex.encodeHex(value))
+                    : new String(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * This method converts an URL encoded message to the parameters of a
+     * binary message with text values.
+     *
+     * @param urlEncoded URL encoded message, e.g. a signed request.
+     * @return Values of parameters as they are carried, with keys the names
+     * of parameters.
+     */
+    public static Map<String, byte[]> textParameters(final String urlEncoded) {
+        Map<String, byte[]> parameters = new LinkedHashMap<>();
+        for (Map.Entry<String, String> parameter : ResponseParser.toMap(
+                urlEncoded).entrySet())
+            parameters.put(parameter.getKey(), parameter.getValue().getBytes(
+                    StandardCharsets.UTF_8));
+        return parameters;
+    }
+
+    /**
+     * This method decodes the hexadecimal string of an encryption key.
+     *
+     * @param value Hexadecimal string.
+     * @return Bytes of key.
+     *
+     * @throws IllegalArgumentException is thrown when value is not a
+     * hexadecimal string.
+     */
+    private static byte[] decodeHex(final String value) {
+        try {
+            return Hex.decodeHex(value.toCharArray());
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException("Invalid encryption key", e);
+        }
+    }
+}
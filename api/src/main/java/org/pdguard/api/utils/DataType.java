@@ -315,4 +315,40 @@ public enum DataType implements Subsumption {
     DataType() {
         this.parent = null;
     }
+
+    /**
+     * Return true if the passed object is of the type of this data type.
+     *
+     * Data types are tested with the precomputed index of their hierarchy.
+     *
+     * @param obj An object to test
+     * @return True if both objects are the same data type, or if this data
+     *     type is a subtype of obj.
+     */
+    @Override
+    public boolean is(final Subsumption obj) {
+        if (obj instanceof DataType)
+            return Ancestry.INDEX.is(this, (DataType) obj);
+        return Subsumption.super.is(obj);
+    }
+
+    /**
+     * Getter of the index of the hierarchy of data types.
+     *
+     * @return Precomputed ancestors of every data type.
+     */
+    public static SubsumptionIndex<DataType> getIndex() {
+        return Ancestry.INDEX;
+    }
+
+    /** Holder of the index, which is built when it is first used. */
+    private static final class Ancestry {
+        /** Precomputed ancestors of every data type. */
+        private static final SubsumptionIndex<DataType> INDEX =
+                new SubsumptionIndex<>(DataType.class);
+
+        /** Hides constructor of holder. */
+        private Ancestry() {
+        }
+    }
 }
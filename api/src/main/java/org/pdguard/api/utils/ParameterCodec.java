@@ -0,0 +1,494 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.utils;
+
+import com.google.common.base.CaseFormat;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class converts objects of a class such as Request Token or Client
+ * Credentials to URL encoded parameters and vice versa.
+ *
+ * A codec is built once per class; it finds the fields of the class and its
+ * superclasses and it binds their getters and setters (or the fields
+ * themselves, if they are public) to method handles. Hence, encoding and
+ * decoding do not use reflection. Names of parameters are the names of
+ * fields in lower underscore format (e.g. requestToken is encoded as
+ * request_token). Transient fields are not parameters.
+ *
+ * Objects can also be decoded from the parameters of a binary message (see
+ * {@link BinaryCodec}); a parameter whose field has a setter of its raw
+ * bytes (e.g. setEncryptionKeyBytes for an encryption key) is then given
+ * its bytes.
+ *
+ * Codecs are obtained through {@link #forClass(Class)} which caches them per
+ * class.
+ *
+ * @param <T> Class which is encoded and decoded.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class ParameterCodec<T> {
+    /** Codecs by class. */
+    private static final ClassValue<ParameterCodec<?>> CODECS =
+            new ClassValue<ParameterCodec<?>>() {
+        @Override
+        protected ParameterCodec<?> computeValue(final Class<?> type) {
+            return new ParameterCodec<>(type);
+        }
+    };
+
+    /** Type of adapted getters. */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(
+            Object.class, Object.class);
+
+    /** Type of adapted setters. */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(
+            void.class, Object.class, Object.class);
+
+    /** Type of adapted constructor. */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(
+            Object.class);
+
+    /** Class which is encoded and decoded. */
+    private final Class<T> type;
+
+    /** Properties of class in the order of declaration of fields. */
+    private final List<Property> properties;
+
+    /** Properties of class by name of parameter. */
+    private final Map<String, Property> parameters;
+
+    /** Constructor without arguments or null if class has none. */
+    private final MethodHandle constructor;
+
+    /**
+     * Builds a codec for the given class.
+     *
+     * @param type Class which is encoded and decoded.
+     */
+    @SuppressWarnings("unchecked")
+    private ParameterCodec(final Class<?> type) {
+        this.type = (Class<T>) type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Property> list = new ArrayList<>();
+        Map<String, Property> map = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class;
+                c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())
+                        || Modifier.isTransient(field.getModifiers())
+                        || field.isSynthetic())
+                    continue;
+                Property property = new Property(lookup, type, field);
+                list.add(property);
+                map.put(property.parameterName, property);
+            }
+        }
+        properties = Collections.unmodifiableList(list);
+        parameters = map;
+        MethodHandle handle;
+        try {
+            handle = lookup.findConstructor(type, MethodType.methodType(
+                    void.class)).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            handle = null;
+        }
+        constructor = handle;
+    }
+
+    /**
+     * This method gets the codec of a class.
+     *
+     * @param type Class which is encoded and decoded.
+     * @param <T> Class which is encoded and decoded.
+     * @return Codec of class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ParameterCodec<T> forClass(final Class<T> type) {
+        return (ParameterCodec<T>) CODECS.get(type);
+    }
+
+    /**
+     * This method converts an object to a URL encoded string.
+     *
+     * @param obj Object to turn into a URL encoded string.
+     * @return URL encoded string specified by the given object.
+     *
+     * @throws RuntimeException is thrown when a value cannot be read from the
+     * given object.
+     */
+    public String encode(final Object obj) {
+        StringBuilder response = new StringBuilder();
+        for (Property property : properties) {
+            if (response.length() > 0)
+                response.append('&');
+            response.append(property.parameterName).append('=');
+            RequestEncoder.appendEncoded(response, String.valueOf(
+                    property.get(obj)));
+        }
+        return response.toString();
+    }
+
+    /**
+     * This method converts an object to a map of its parameters, e.g. for the
+     * validation of the signature of a request.
+     *
+     * @param obj Object whose parameters are mapped.
+     * @param excluded Name of parameter which is left out, or null.
+     * @return Map of parameter values with keys the parameter names.
+     *
+     * @throws RuntimeException is thrown when a value cannot be read from the
+     * given object.
+     */
+    public TreeMap<String, String> toMap(final Object obj,
+            final String excluded) {
+        TreeMap<String, String> map = new TreeMap<>();
+        for (Property property : properties)
+            if (!property.parameterName.equals(excluded))
+                map.put(property.parameterName, String.valueOf(
+                        property.get(obj)));
+        return map;
+    }
+
+    /**
+     * This method converts a URL encoded string to an object.
+     *
+     * @param response URL encoded string.
+     * @return Object being represented by the given URL encoded string.
+     *
+     * @throws RuntimeException is thrown when the object cannot be created
+     * or a parameter does not correspond to a field.
+     */
+    public T decode(final String response) {
+        T obj = newInstance();
+        int start = 0;
+        int length = response.length();
+        while (start < length) {
+            int end = response.indexOf('&', start);
+            if (end < 0)
+                end = length;
+            int separator = response.indexOf('=', start);
+            if (separator < 0 || separator > end)
+                throw new RuntimeException("Cannot create object from this"
+                        + " response");
+            Property property = getProperty(response.substring(start,
+                    separator));
+            property.set(obj, decodeValue(response.substring(separator + 1,
+                    end)));
+            start = end + 1;
+        }
+        return obj;
+    }
+
+    /**
+     * This method converts the parameters of a binary message to an object.
+     *
+     * @param response Parameters of binary message as they are carried, with
+     * keys the names of parameters.
+     * @return Object being represented by the given parameters.
+     *
+     * @throws RuntimeException is thrown when the object cannot be created
+     * or a parameter does not correspond to a field.
+     */
+    public T decode(final Map<String, byte[]> response) {
+        T obj = newInstance();
+        for (Map.Entry<String, byte[]> parameter : response.entrySet()) {
+            Property property = getProperty(parameter.getKey());
+            if (property.bytesSetter != null)
+                property.set(obj, parameter.getValue());
+            else
+                property.set(obj, new String(parameter.getValue(),
+                        StandardCharsets.UTF_8));
+        }
+        return obj;
+    }
+
+    /**
+     * This method creates an object of class with its constructor without
+     * arguments.
+     *
+     * @return New object.
+     *
+     * @throws RuntimeException is thrown when the object cannot be created.
+     */
+    private T newInstance() {
+        if (constructor == null)
+            throw new RuntimeException("Cannot create object from this"
+                    + " response");
+        try {
+            return type.cast(constructor.invokeExact());
+        } catch (Throwable e) {
+            throw new RuntimeException("Cannot create object from this"
+                    + " response", e);
+        }
+    }
+
+    /**
+     * This method finds the property which corresponds to a parameter.
+     *
+     * @param name Name of parameter as it was received.
+     * @return Property of parameter.
+     *
+     * @throws RuntimeException is thrown when the parameter does not
+     * correspond to a field.
+     */
+    private Property getProperty(final String name) {
+        Property property = parameters.get(name);
+        if (property == null) {
+            String fieldName = decodeValue(CaseFormat.UPPER_UNDERSCORE.to(
+                    CaseFormat.LOWER_CAMEL, name));
+            for (Property p : properties)
+                if (p.fieldName.equals(fieldName))
+                    return p;
+            throw new RuntimeException("Cannot create object from this"
+                    + " response");
+        }
+        return property;
+    }
+
+    /**
+     * This method decodes a URL encoded value.
+     *
+     * @param value URL encoded value.
+     * @return Decoded value.
+     */
+    private static String decodeValue(final String value) {
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0)
+            return value;
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Getter of the names of parameters.
+     *
+     * @return Names of parameters in the order of declaration of fields.
+     */
+    public List<String> getParameterNames() {
+        List<String> names = new ArrayList<>(properties.size());
+        for (Property property : properties)
+            names.add(property.parameterName);
+        return names;
+    }
+
+    /** A field of class along with its accessors. */
+    private static final class Property {
+        /** Name of field. */
+        private final String fieldName;
+
+        /** Name of parameter. */
+        private final String parameterName;
+
+        /** Type of field. */
+        private final Class<?> fieldType;
+
+        /** Getter of field or null if field cannot be read. */
+        private final MethodHandle getter;
+
+        /** Setter of field or null if field cannot be written. */
+        private final MethodHandle setter;
+
+        /** Setter of the raw bytes of field or null if class has none. */
+        private final MethodHandle bytesSetter;
+
+        /**
+         * Binds a field to its accessors.
+         *
+         * @param lookup Lookup used to find accessors.
+         * @param type Class which is encoded and decoded.
+         * @param field Field of class.
+         */
+        Property(final MethodHandles.Lookup lookup, final Class<?> type,
+                final Field field) {
+            fieldName = field.getName();
+            parameterName = CaseFormat.LOWER_CAMEL.to(
+                    CaseFormat.LOWER_UNDERSCORE, fieldName);
+            fieldType = field.getType();
+            String capitalizedField = fieldName.substring(0, 1).toUpperCase(
+                    Locale.ENGLISH) + fieldName.substring(1);
+            boolean isBoolean = fieldType == boolean.class
+                    || fieldType == Boolean.class;
+            boolean isPublic = Modifier.isPublic(field.getModifiers());
+            getter = findGetter(lookup, type, field, isPublic, (isBoolean
+                    ? "is" : "get") + capitalizedField);
+            setter = findSetter(lookup, type, field, isPublic, "set"
+                    + capitalizedField);
+            bytesSetter = findBytesSetter(lookup, type, "set"
+                    + capitalizedField + "Bytes");
+        }
+
+        /**
+         * This method finds the getter of a field.
+         *
+         * @param lookup Lookup used to find getter.
+         * @param type Class which is encoded and decoded.
+         * @param field Field of class.
+         * @param isPublic True if field is public.
+         * @param name Name of getter method.
+         * @return Getter adapted to (Object) Object type or null.
+         */
+        private static MethodHandle findGetter(
+                final MethodHandles.Lookup lookup, final Class<?> type,
+                final Field field, final boolean isPublic,
+                final String name) {
+            try {
+                if (isPublic)
+                    return lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                Method method = type.getMethod(name);
+                return lookup.unreflect(method).asType(GETTER_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        /**
+         * This method finds the setter of a field.
+         *
+         * @param lookup Lookup used to find setter.
+         * @param type Class which is encoded and decoded.
+         * @param field Field of class.
+         * @param isPublic True if field is public.
+         * @param name Name of setter method.
+         * @return Setter adapted to (Object, Object) void type or null.
+         */
+        private static MethodHandle findSetter(
+                final MethodHandles.Lookup lookup, final Class<?> type,
+                final Field field, final boolean isPublic,
+                final String name) {
+            try {
+                if (isPublic)
+                    return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                Method method = type.getMethod(name, field.getType());
+                return lookup.unreflect(method).asType(SETTER_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        /**
+         * This method finds the setter of the raw bytes of a field.
+         *
+         * @param lookup Lookup used to find setter.
+         * @param type Class which is encoded and decoded.
+         * @param name Name of setter method.
+         * @return Setter adapted to (Object, Object) void type or null.
+         */
+        private static MethodHandle findBytesSetter(
+                final MethodHandles.Lookup lookup, final Class<?> type,
+                final String name) {
+            try {
+                Method method = type.getMethod(name, byte[].class);
+                return lookup.unreflect(method).asType(SETTER_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        /**
+         * This method reads the value of field.
+         *
+         * @param obj Object whose field is read.
+         * @return Value of field.
+         *
+         * @throws RuntimeException is thrown when field cannot be read.
+         */
+        Object get(final Object obj) {
+            if (getter == null)
+                throw new RuntimeException("Unexpected error on response"
+                        + " parsing");
+            try {
+                return (Object) getter.invokeExact(obj);
+            } catch (Throwable e) {
+                throw new RuntimeException("Unexpected error on response"
+                        + " parsing", e);
+            }
+        }
+
+        /**
+         * This method writes the value of field.
+         *
+         * @param obj Object whose field is written.
+         * @param value Decoded value of parameter.
+         *
+         * @throws RuntimeException is thrown when field cannot be written.
+         */
+        void set(final Object obj, final String value) {
+            if (setter == null)
+                throw new RuntimeException("Cannot create object from this"
+                        + " response");
+            try {
+                setter.invokeExact(obj, convert(value));
+            } catch (Throwable e) {
+                throw new RuntimeException("Cannot create object from this"
+                        + " response", e);
+            }
+        }
+
+        /**
+         * This method writes the raw bytes of a parameter to field.
+         *
+         * @param obj Object whose field is written.
+         * @param value Bytes of parameter.
+         *
+         * @throws RuntimeException is thrown when field cannot be written.
+         */
+        void set(final Object obj, final byte[] value) {
+            try {
+                bytesSetter.invokeExact(obj, (Object) value);
+            } catch (Throwable e) {
+                throw new RuntimeException("Cannot create object from this"
+                        + " response", e);
+            }
+        }
+
+        /**
+         * This method converts the value of a parameter to the type of field.
+         *
+         * @param value Decoded value of parameter.
+         * @return Value of field.
+         */
+        private Object convert(final String value) {
+            if (fieldType == boolean.class || fieldType == Boolean.class)
+                return Boolean.valueOf(value);
+            if (fieldType == long.class || fieldType == Long.class)
+                return Long.valueOf(value);
+            if (fieldType == int.class || fieldType == Integer.class)
+                return Integer.valueOf(value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.utils;
+
+/**
+ * This enumeration defines the ways in which a client can obtain an
+ * encryption key from escrow agent.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public enum ProtocolMode {
+    /**
+     * Client obtains a request token, gets it authorized and exchanges it
+     * with an encryption key in three separate round trips.
+     */
+    THREE_STEP,
+
+    /**
+     * Client sends one signed request with the authorization bundle and
+     * escrow agent sends back the encryption key in the same response.
+     */
+    ONE_SHOT
+}
@@ -67,6 +67,35 @@ public final class RequestEncoder {
         return parametersQuery.toString().replace("+", "%20");
     }
 
+    /**
+     * This method URL encodes a value and appends it to a builder. Spaces are
+     * encoded as %20.
+     *
+     * Values which consist of unreserved characters only are appended as
+     * they are without any intermediate string.
+     *
+     * @param builder Builder where encoded value is appended.
+     * @param value Value to encode.
+     */
+    public static void appendEncoded(final StringBuilder builder,
+            final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                    || c >= '0' && c <= '9' || c == '.' || c == '-'
+                    || c == '*' || c == '_')) {
+                try {
+                    builder.append(URLEncoder.encode(value, "UTF-8")
+                            .replace("+", "%20"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+                return;
+            }
+        }
+        builder.append(value);
+    }
+
     /**
      * This method encodes the base URI string.
      *
@@ -23,7 +23,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * This is a utility class that is responsible for the parsing of an escrow
@@ -41,6 +43,9 @@ public final class ResponseParser {
      * This method converts an object such as Request Token object, or Client
      * Credentials object to a url encoded string.
      *
+     * The conversion is done by the {@link ParameterCodec} of the class, which
+     * is built once per class.
+     *
      * @param givenClass Class of given object.
      * @param obj Object to turn into a url encoded string.
      *
@@ -49,31 +54,9 @@ public final class ResponseParser {
      * @throws RuntimeException is thrown when cannot extract URL encoded
      * string from the given object.
      */
-    public static String toURLEncoded(final Class givenClass,
+    public static String toURLEncoded(final Class<?> givenClass,
             final Object obj) {
-        Field[] fields = givenClass.getDeclaredFields();
-        StringBuilder response = new StringBuilder();
-        boolean firstLoop = true;
-        for (Field field: fields) {
-            String parameterPair;
-            try {
-                if (field.isAccessible())
-                    parameterPair = publicField(obj, field);
-                else
-                    parameterPair = nonPublicField(givenClass, obj, field);
-                if (firstLoop) {
-                    firstLoop = false;
-                    response.append(parameterPair);
-                } else
-                    response.append("&").append(parameterPair);
-            } catch (InvocationTargetException | NoSuchMethodException
-                    | IllegalAccessException e) {
-                e.printStackTrace();
-                throw new RuntimeException("Unexpected error on response"
-                        + " parsing");
-            }
-        }
-        return response.toString();
+        return ParameterCodec.forClass(givenClass).encode(obj);
     }
 
     /**
@@ -131,7 +114,7 @@ public final class ResponseParser {
      * have access to the definition of the specified class, field, method or
      * constructor.
      */
-    public static String nonPublicField(final Class givenClass,
+    public static String nonPublicField(final Class<?> givenClass,
             final Object obj, final Field field) throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException {
         String fieldName = null;
@@ -176,11 +159,11 @@ public final class ResponseParser {
      * constructor.
      */
     public static void publicField(final String parameterName,
-            final String parameterValue, final Class givenClass,
+            final String parameterValue, final Class<?> givenClass,
             final Object obj) throws NoSuchFieldException,
             UnsupportedEncodingException, IllegalAccessException {
         Field field = givenClass.getDeclaredField(parameterName);
-        Class fieldType = field.getType();
+        Class<?> fieldType = field.getType();
         if (fieldType.equals(boolean.class))
             field.set(obj, Boolean.valueOf(URLDecoder.decode(parameterValue,
                     "UTF-8")));
@@ -219,14 +202,15 @@ public final class ResponseParser {
      * constructor.
      */
     public static void nonPublicField(final String parameterName,
-            final String parameterValue, final Class givenClass,
+            final String parameterValue, final Class<?> givenClass,
             final Object obj) throws NoSuchFieldException,
             NoSuchMethodException, UnsupportedEncodingException,
             InvocationTargetException, IllegalAccessException {
         String capitalizedField = parameterName.substring(0, 1).toUpperCase(
                 Locale.ENGLISH) + parameterName.substring(1);
         String setter = "set" + capitalizedField;
-        Class fieldType = givenClass.getDeclaredField(parameterName).getType();
+        Class<?> fieldType = givenClass.getDeclaredField(parameterName)
+                .getType();
         if (fieldType == boolean.class)
             givenClass.getMethod(setter, fieldType).invoke(obj,
                     Boolean.valueOf(parameterValue));
@@ -238,6 +222,9 @@ public final class ResponseParser {
      * This method converts a URL encoded string to an object such as Request
      * Token object or Encryption Key object.
      *
+     * The conversion is done by the {@link ParameterCodec} of the class, which
+     * is built once per class.
+     *
      * @param response URL encoded response received from escrow agent.
      * @param givenClass Class of the returned object.
      *
@@ -247,36 +234,60 @@ public final class ResponseParser {
      * given URL encoced string.
      */
     public static Object toObject(final String response,
-            final Class givenClass) {
-        String[] parameterPairs = response.split("&");
-        Object obj;
-        try {
-            obj = givenClass.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            e.printStackTrace();
-            throw new RuntimeException("Cannot create object from this"
-                    + " response");
-        }
-        for (String pair:  parameterPairs) {
+            final Class<?> givenClass) {
+        return ParameterCodec.forClass(givenClass).decode(response);
+    }
+
+    /**
+     * This method converts an escrow agent's response in the binary wire
+     * format (see {@link BinaryCodec}) to an object of the given class.
+     *
+     * @param response Binary response received from escrow agent.
+     * @param givenClass Class of the returned object.
+     *
+     * @return Object being represented by the given binary response.
+     *
+     * @throws RuntimeException is thrown when cannot create object from the
+     * given binary response.
+     * @throws IllegalArgumentException is thrown when response is malformed.
+     */
+    public static Object toObject(final byte[] response,
+            final Class<?> givenClass) {
+        return ParameterCodec.forClass(givenClass).decode(
+                BinaryCodec.decode(response));
+    }
+
+    /**
+     * This method converts a URL encoded string to a map of parameters.
+     *
+     * It is used for responses whose parameters are not known in advance,
+     * e.g. the response of a batch request.
+     *
+     * @param response URL encoded response received from escrow agent.
+     *
+     * @return Map of decoded parameter values with keys the decoded parameter
+     * names, in the order of response.
+     *
+     * @throws RuntimeException is thrown when the given URL encoded string
+     * cannot be decoded.
+     */
+    public static Map<String, String> toMap(final String response) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (String pair: response.split("&")) {
+            if (pair.isEmpty())
+                continue;
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
             try {
-                String fieldName = URLDecoder.decode(CaseFormat.UPPER_UNDERSCORE
-                        .to(CaseFormat.LOWER_CAMEL, pair.split("=")[0]),
-                        "UTF-8");
-                String parameterValue = URLDecoder.decode(pair.split("=")[1],
-                        "UTF-8");
-                if (givenClass.getDeclaredField(fieldName).isAccessible())
-                    publicField(fieldName, parameterValue, givenClass, obj);
-                else
-                    nonPublicField(fieldName, parameterValue, givenClass, obj);
-            } catch (IllegalAccessException | InvocationTargetException
-                    | NoSuchMethodException | UnsupportedEncodingException
-                    | NoSuchFieldException e) {
+                parameters.put(URLDecoder.decode(name, "UTF-8"),
+                        URLDecoder.decode(value, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
                 e.printStackTrace();
-                throw new RuntimeException("Cannot create object from this"
-                        + " response");
+                throw new RuntimeException("Cannot decode this response");
             }
         }
-        return obj;
+        return parameters;
     }
 
     /**
@@ -0,0 +1,141 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a precomputed index of the subsumption relation among the
+ * constants of an enumeration.
+ *
+ * For every constant the index keeps the ordinals of its ancestors, nearest
+ * first, and the transitive closure of the relation as a bit set. Testing
+ * whether a constant is a subtype of another is then a single array read and
+ * walking the ancestors of a constant takes as many array reads as its depth.
+ * Neither of them allocates objects.
+ *
+ * Only parents which belong to the same enumeration are indexed; the chain of
+ * ancestors of a constant stops at the first parent of another type.
+ *
+ * @param <E> Type of enumeration.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class SubsumptionIndex<E extends Enum<E> & Subsumption> {
+    /** Constants of enumeration indexed by ordinal. */
+    private final E[] values;
+
+    /**
+     * Ordinals of the ancestors of every constant, starting with the
+     * constant itself and ending with its root.
+     */
+    private final int[][] ancestors;
+
+    /** Bit sets of the ordinals of the ancestors of every constant. */
+    private final long[][] closure;
+
+    /**
+     * Builds the index of an enumeration.
+     *
+     * @param type Class of enumeration.
+     *
+     * @throws IllegalArgumentException is thrown when the subsumption
+     * relation has cycles.
+     */
+    public SubsumptionIndex(final Class<E> type) {
+        values = type.getEnumConstants();
+        int words = (values.length + Long.SIZE - 1) / Long.SIZE;
+        ancestors = new int[values.length][];
+        closure = new long[values.length][words];
+        for (E value : values) {
+            List<Integer> chain = new ArrayList<>();
+            Subsumption current = value;
+            while (type.isInstance(current)) {
+                int ordinal = type.cast(current).ordinal();
+                if (chain.contains(ordinal))
+                    throw new IllegalArgumentException("Cyclic subsumption of "
+                            + value);
+                chain.add(ordinal);
+                current = current.getParent();
+            }
+            int[] ordinals = new int[chain.size()];
+            long[] bits = closure[value.ordinal()];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = chain.get(i);
+                bits[ordinals[i] / Long.SIZE] |= 1L << ordinals[i];
+            }
+            ancestors[value.ordinal()] = ordinals;
+        }
+    }
+
+    /**
+     * This method tests the subsumption relation.
+     *
+     * @param value Constant to test.
+     * @param ancestor Candidate ancestor.
+     *
+     * @return true if both constants are the same or value is a subtype of
+     * ancestor.
+     */
+    public boolean is(final E value, final E ancestor) {
+        int ordinal = ancestor.ordinal();
+        return (closure[value.ordinal()][ordinal / Long.SIZE]
+                & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * Getter of the depth of a constant.
+     *
+     * @param value Constant.
+     *
+     * @return Number of ancestors of constant; zero for a root.
+     */
+    public int getDepth(final E value) {
+        return ancestors[value.ordinal()].length - 1;
+    }
+
+    /**
+     * This method finds an ancestor of a constant.
+     *
+     * @param value Constant.
+     * @param distance Distance of ancestor; zero is the constant itself, one
+     * its parent and so on.
+     *
+     * @return Ancestor at the given distance or null if constant does not
+     * have that many ancestors.
+     */
+    public E getAncestor(final E value, final int distance) {
+        int ordinal = getAncestorOrdinal(value.ordinal(), distance);
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    /**
+     * This method finds the ordinal of an ancestor of a constant.
+     *
+     * @param ordinal Ordinal of constant.
+     * @param distance Distance of ancestor; zero is the constant itself, one
+     * its parent and so on.
+     *
+     * @return Ordinal of ancestor at the given distance or -1 if constant
+     * does not have that many ancestors.
+     */
+    public int getAncestorOrdinal(final int ordinal, final int distance) {
+        int[] chain = ancestors[ordinal];
+        return distance < chain.length ? chain[distance] : -1;
+    }
+}
@@ -0,0 +1,55 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.api.utils;
+
+/**
+ * This enumeration represents the formats in which parameters of requests
+ * and responses are carried between client and escrow agent.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public enum WireFormat {
+    /** Parameters are carried in URL encoded format. */
+    URL_ENCODED("application/x-www-form-urlencoded"),
+
+    /**
+     * Parameters are carried in the binary format of {@link BinaryCodec},
+     * provided that escrow agent supports it.
+     */
+    BINARY(BinaryCodec.MEDIA_TYPE);
+
+    /** Media type of format. */
+    private final String mediaType;
+
+    /**
+     * Creates a new wire format.
+     *
+     * @param mediaType Media type of format.
+     */
+    WireFormat(final String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * Getter of mediaType field.
+     *
+     * @return Media type of format.
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+}
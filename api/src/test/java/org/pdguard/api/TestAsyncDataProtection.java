@@ -0,0 +1,185 @@
+package org.pdguard.api;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.cache.RequestCoalescer;
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.services.Deadline;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestAsyncDataProtection {
+    private static final long LATENCY = 200;
+
+    private DataProtection dataProtection;
+
+    private ThreadPoolExecutor executor;
+
+    private AsyncDataProtection async;
+
+    private final AtomicReference<Deadline> tokenDeadline =
+            new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        RequestToken token = new RequestToken("token", "secret");
+        dataProtection = spy(new DataProtection("localhost:9443",
+                new ClientCredentials("id", "secret")));
+        doAnswer(invocation -> {
+            tokenDeadline.set((Deadline) invocation.getArguments()[0]);
+            Thread.sleep(LATENCY);
+            return token;
+        }).when(dataProtection).getRequestToken(any());
+        doReturn(token).when(dataProtection).authorizeRequestToken(any(),
+                any(), any(), any());
+        doReturn(key).when(dataProtection).exchangeRequestToken(any(), any(),
+                any(), any());
+        executor = AsyncDataProtection.newBoundedExecutor(8, 16);
+        async = new AsyncDataProtection(dataProtection, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEncryptionAndDecryption() throws Exception {
+        byte[] encrypted = async.encryptData("data".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false).get();
+        byte[] decrypted = async.decryptData(encrypted, DataType.SURNAME,
+                DataUse.ANALYTICS, InteractionPurpose.ADVERT).get();
+        assertEquals("data", new String(decrypted));
+    }
+
+    @Test
+    public void testConcurrentCallsOverlap() throws Exception {
+        byte[] encrypted = async.encryptData("data".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false).get();
+        long start = System.nanoTime();
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            futures.add(async.decryptData(encrypted, DataType.SURNAME,
+                    DataUse.ANALYTICS, InteractionPurpose.ADVERT));
+        for (CompletableFuture<byte[]> future : futures)
+            assertEquals("data", new String(future.get()));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start);
+        assertTrue(elapsed < 3 * LATENCY);
+    }
+
+    @Test
+    public void testDeadlineExpires() throws Exception {
+        CompletableFuture<byte[]> future = async.decryptData(new byte[16],
+                DataType.SURNAME, DataUse.ANALYTICS, InteractionPurpose.ADVERT,
+                20, TimeUnit.MILLISECONDS);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+        Thread.sleep(2 * LATENCY);
+        verify(dataProtection, never()).authorizeRequestToken(any(), any(),
+                any(), any());
+        assertTrue(tokenDeadline.get().isCancelled());
+    }
+
+    @Test
+    public void testDeadlineIsSplitAcrossSteps() throws Exception {
+        async.decryptData(new byte[16], DataType.SURNAME, DataUse.ANALYTICS,
+                InteractionPurpose.ADVERT, 3, TimeUnit.SECONDS);
+        Thread.sleep(LATENCY / 2);
+        long remaining = tokenDeadline.get().remaining(TimeUnit.MILLISECONDS);
+        assertTrue(remaining > 0);
+        assertTrue(remaining <= 1000);
+    }
+
+    @Test
+    public void testAccessDenied() throws Exception {
+        doThrow(new AccessDeniedException("denied")).when(dataProtection)
+                .authorizeRequestToken(any(), any(), any(), any());
+        try {
+            async.decryptData(new byte[16], DataType.SURNAME,
+                    DataUse.ANALYTICS, InteractionPurpose.ADVERT).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AccessDeniedException);
+        }
+    }
+
+    @Test
+    public void testRejectedCallFailsWithoutBlockingCaller() throws Exception {
+        ThreadPoolExecutor small = AsyncDataProtection.newBoundedExecutor(1,
+                1);
+        try {
+            AsyncDataProtection bounded = new AsyncDataProtection(
+                    dataProtection, small);
+            for (int i = 0; i < 2; i++)
+                bounded.decryptData(new byte[16], DataType.SURNAME,
+                        DataUse.ANALYTICS, InteractionPurpose.ADVERT);
+            long start = System.nanoTime();
+            CompletableFuture<byte[]> rejected = bounded.decryptData(
+                    new byte[16], DataType.SURNAME, DataUse.ANALYTICS,
+                    InteractionPurpose.ADVERT);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - start) < LATENCY);
+            assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            small.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentIdenticalCallsAreCoalesced() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        dataProtection.setRequestCoalescer(coalescer);
+        byte[] encrypted = async.encryptData("data".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false).get();
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            futures.add(async.decryptData(encrypted, DataType.SURNAME,
+                    DataUse.ANALYTICS, InteractionPurpose.ADVERT));
+        for (CompletableFuture<byte[]> future : futures)
+            assertEquals("data", new String(future.get()));
+        verify(dataProtection, times(2)).getRequestToken(any());
+        assertEquals(2, coalescer.getExecutionCount());
+        assertEquals(5, coalescer.getDeduplicatedCount());
+    }
+}
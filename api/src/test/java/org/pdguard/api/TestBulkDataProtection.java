@@ -0,0 +1,107 @@
+package org.pdguard.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionRequest;
+import org.pdguard.api.model.EncryptionRequest;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+public class TestBulkDataProtection {
+    private static final int RECORDS = 1000;
+
+    private DataProtection mockCon;
+
+    private final List<Integer> requested = new ArrayList<>();
+
+    @Before
+    public void setUp() throws NoSuchAlgorithmException, IOException,
+            EscrowAgentErrorResponseException {
+        SecretKey secretKey = KeyGenerator.getInstance("AES").generateKey();
+        mockCon = spy(new DataProtection("localhost:9443",
+                new ClientCredentials("id", "secret")));
+        doAnswer(invocation -> {
+            List<?> bundles = (List<?>) invocation.getArguments()[0];
+            requested.add(bundles.size());
+            List<SecretKey> keys = new ArrayList<>();
+            for (Object bundle : bundles)
+                keys.add(((AuthorizationBundle) bundle).getDataType()
+                        == DataType.AIM_ID ? null : secretKey);
+            return keys;
+        }).when(mockCon).getEncryptionKeys(anyObject());
+    }
+
+    private static DataType typeOf(int i) {
+        return i % 3 == 0 ? DataType.AIM_ID : i % 3 == 1 ? DataType.SURNAME
+                : DataType.GIVEN_NAME;
+    }
+
+    @Test
+    public void testOrderIsPreserved() throws IOException,
+            EscrowAgentErrorResponseException {
+        BulkDataProtection bulk = new BulkDataProtection(mockCon,
+                new ForkJoinPool(4), 100);
+        List<byte[]> encrypted = new ArrayList<>();
+        assertEquals(RECORDS, bulk.encryptAll(IntStream.range(0, RECORDS)
+                .mapToObj(i -> new EncryptionRequest(("record" + i).getBytes(),
+                        typeOf(i), DataProvenance.DATA_CONTROLLER, false)),
+                encrypted::add));
+        List<DecryptionRequest> requests = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            if (typeOf(i) == DataType.AIM_ID)
+                assertNull(encrypted.get(i));
+            else
+                requests.add(new DecryptionRequest(encrypted.get(i),
+                        typeOf(i), DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                        InteractionPurpose.ADVERT));
+        }
+        List<byte[]> decrypted = new ArrayList<>();
+        bulk.decryptAll(requests.iterator(), decrypted::add);
+        assertEquals(requests.size(), decrypted.size());
+        int j = 0;
+        for (int i = 0; i < RECORDS; i++)
+            if (typeOf(i) != DataType.AIM_ID)
+                assertArrayEquals(("record" + i).getBytes(), decrypted.get(j++));
+    }
+
+    @Test
+    public void testDistinctKeysAreRequestedOnce() throws IOException,
+            EscrowAgentErrorResponseException {
+        BulkDataProtection bulk = new BulkDataProtection(mockCon,
+                ForkJoinPool.commonPool(), 10);
+        List<byte[]> encrypted = new ArrayList<>();
+        bulk.encryptAll(IntStream.range(0, RECORDS).mapToObj(i ->
+                new EncryptionRequest(new byte[] {(byte) i}, typeOf(i),
+                        DataProvenance.DATA_CONTROLLER, false)),
+                encrypted::add);
+        assertEquals(RECORDS, encrypted.size());
+        assertEquals(1, requested.size());
+        assertEquals(3, (int) requested.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindowSize() {
+        new BulkDataProtection(mockCon, ForkJoinPool.commonPool(), 0);
+    }
+}
@@ -2,25 +2,50 @@ package org.pdguard.api;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.pdguard.api.PDGuardMetrics.Outcome;
+import org.pdguard.api.PDGuardMetrics.Phase;
+import org.pdguard.api.cache.DenialCache;
+import org.pdguard.api.exceptions.AccessDeniedException;
 import org.pdguard.api.exceptions.CryptoException;
 import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
 import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.DecryptionRequest;
+import org.pdguard.api.model.EncryptionRequest;
+import org.pdguard.api.metrics.HistogramMetrics;
+import org.pdguard.api.services.BatchAuthorizationService;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataType;
 import org.pdguard.api.utils.DataUse;
 import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.api.utils.ProtocolMode;
 
 import javax.crypto.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TestDataProtection {
@@ -88,4 +113,153 @@ public class TestDataProtection {
         mockCon.encryptData(cleartextData, DataType.SURNAME,
                 DataProvenance.DATA_CONTROLLER, true);
     }
+
+    @Test
+    public void testBatchEncryptionAndDecryption()
+            throws IOException, EscrowAgentErrorResponseException,
+            NoSuchAlgorithmException {
+        SecretKey secretKey = KeyGenerator.getInstance("AES").generateKey();
+        doReturn(Arrays.asList(secretKey, null)).when(mockCon)
+                .getEncryptionKeys(anyObject());
+        List<byte[]> encrypted = mockCon.encryptAll(Arrays.asList(
+                new EncryptionRequest("first".getBytes(), DataType.SURNAME,
+                        DataProvenance.DATA_CONTROLLER, false),
+                new EncryptionRequest("second".getBytes(), DataType.AIM_ID,
+                        DataProvenance.DATA_CONTROLLER, false)));
+        assertEquals(2, encrypted.size());
+        assertNotNull(encrypted.get(0));
+        assertNull(encrypted.get(1));
+        List<byte[]> decrypted = mockCon.decryptAll(Arrays.asList(
+                new DecryptionRequest(encrypted.get(0), DataType.SURNAME,
+                        DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                        InteractionPurpose.ADVERT),
+                new DecryptionRequest(encrypted.get(0), DataType.AIM_ID,
+                        DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                        InteractionPurpose.ADVERT)));
+        assertEquals("first", decodeBytes(decrypted.get(0)));
+        assertNull(decrypted.get(1));
+    }
+
+    @Test
+    public void testLargeBatchIsSplitAndDeduplicated()
+            throws IOException, EscrowAgentErrorResponseException {
+        SecretKey secretKey = mockCon.getEncryptionKey(null, null);
+        byte[] encrypted = mockCon.encryptData("field".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false);
+        List<Integer> batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<?> batch = (List<?>) invocation.getArguments()[0];
+            batchSizes.add(batch.size());
+            return Collections.nCopies(batch.size(), secretKey);
+        }).when(mockCon).requestEncryptionKeys(anyObject());
+        List<DecryptionRequest> requests = new ArrayList<>();
+        for (int copy = 0; copy < 2; copy++)
+            for (DataType dataType : DataType.values())
+                for (DataUse dataUse : Arrays.asList(DataUse.ANALYTICS,
+                        DataUse.INTRANET))
+                    requests.add(new DecryptionRequest(encrypted, dataType,
+                            dataUse, InteractionPurpose.ADVERT));
+        int unique = requests.size() / 2;
+        assertTrue(unique > BatchAuthorizationService.MAX_BATCH_SIZE);
+        List<byte[]> decrypted = mockCon.decryptAll(requests);
+        assertEquals(requests.size(), decrypted.size());
+        for (byte[] data : decrypted)
+            assertEquals("field", decodeBytes(data));
+        int requested = 0;
+        for (int size : batchSizes) {
+            assertTrue(size <= BatchAuthorizationService.MAX_BATCH_SIZE);
+            requested += size;
+        }
+        assertEquals(unique, requested);
+    }
+
+    @Test
+    public void testStreamEncryptionAndDecryption()
+            throws IOException, EscrowAgentErrorResponseException {
+        byte[] cleartextData = new byte[200000];
+        new SecureRandom().nextBytes(cleartextData);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        assertEquals(cleartextData.length, mockCon.encryptStream(
+                new ByteArrayInputStream(cleartextData), encrypted,
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        assertEquals(cleartextData.length, mockCon.decryptStream(
+                new ByteArrayInputStream(encrypted.toByteArray()), decrypted,
+                DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                InteractionPurpose.ADVERT));
+        assertArrayEquals(cleartextData, decrypted.toByteArray());
+    }
+
+    @Test
+    public void testEnvelopeEncryptionAndRewrap()
+            throws IOException, EscrowAgentErrorResponseException,
+            NoSuchAlgorithmException {
+        SecretKey previousKey = mockCon.getEncryptionKey(null, null);
+        byte[] record = mockCon.encryptEnvelope("record".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false);
+        assertEquals("record", decodeBytes(mockCon.decryptEnvelope(record,
+                DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                InteractionPurpose.ADVERT)));
+        SecretKey rotatedKey = KeyGenerator.getInstance("AES").generateKey();
+        doReturn(rotatedKey).when(mockCon).getEncryptionKey(anyObject(),
+                anyObject());
+        List<byte[]> rewrapped = mockCon.rewrapEnvelopes(
+                Arrays.asList(record, record), previousKey, DataType.SURNAME,
+                DataProvenance.DATA_CONTROLLER);
+        List<byte[]> decrypted = mockCon.decryptEnvelopes(rewrapped,
+                DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                InteractionPurpose.ADVERT);
+        assertEquals(2, decrypted.size());
+        assertEquals("record", decodeBytes(decrypted.get(1)));
+    }
+
+    @Test
+    public void testCryptoLatencyIsRecorded()
+            throws IOException, EscrowAgentErrorResponseException {
+        HistogramMetrics metrics = new HistogramMetrics();
+        mockCon.setMetrics(metrics);
+        byte[] encrypted = mockCon.encryptData("data".getBytes(),
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, false);
+        mockCon.decryptData(encrypted, DataType.SURNAME,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        assertEquals(1, metrics.snapshot(Phase.CRYPTO, Outcome.ALLOWED,
+                "localhost:9443", PDGuardRequestType.DECRYPTION,
+                DataType.SURNAME).getCount());
+        assertEquals(1, metrics.snapshot(Phase.CRYPTO, Outcome.ALLOWED,
+                "localhost:9443", PDGuardRequestType.ENCRYPTION,
+                DataType.SURNAME).getCount());
+    }
+
+    @Test
+    public void testDenialIsCached()
+            throws IOException, EscrowAgentErrorResponseException {
+        DataProtection con = spy(new DataProtection("localhost:9443",
+                new ClientCredentials("id", "secret")));
+        con.setProtocolMode(ProtocolMode.ONE_SHOT);
+        DenialCache denials = new DenialCache(10, 60000);
+        con.setDenialCache(denials);
+        doThrow(new AccessDeniedException("denied")).when(con)
+                .requestOneShotKey(anyObject(), anyObject(), anyObject());
+        DecryptionBundle bundle = new DecryptionBundle(DataType.SURNAME,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        for (int i = 0; i < 3; i++) {
+            try {
+                con.getEncryptionKey(bundle, PDGuardRequestType.DECRYPTION);
+                fail();
+            } catch (AccessDeniedException e) {
+                assertEquals("denied", e.getMessage());
+            }
+        }
+        verify(con, times(1)).requestOneShotKey(anyObject(), anyObject(),
+                anyObject());
+        assertEquals(2, denials.getHitCount());
+        denials.invalidateAll();
+        try {
+            con.getEncryptionKey(bundle, PDGuardRequestType.DECRYPTION);
+            fail();
+        } catch (AccessDeniedException e) {
+            verify(con, times(2)).requestOneShotKey(anyObject(), anyObject(),
+                    anyObject());
+        }
+    }
 }
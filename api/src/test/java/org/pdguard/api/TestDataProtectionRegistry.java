@@ -0,0 +1,99 @@
+package org.pdguard.api;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pdguard.api.model.ClientCredentials;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestDataProtectionRegistry {
+    private static final String HOST = "localhost:9443";
+
+    private final DataProtectionRegistry registry =
+            new DataProtectionRegistry(2, 60000);
+
+    @After
+    public void close() {
+        registry.close();
+    }
+
+    @Test
+    public void testHandleIsReused() {
+        DataProtection first = registry.get(HOST,
+                new ClientCredentials("id", "secret"));
+        DataProtection second = registry.get(HOST,
+                new ClientCredentials("id", "secret"));
+        assertSame(first, second);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testInfrastructureIsSharedPerHost() {
+        DataProtection first = registry.get(HOST,
+                new ClientCredentials("first", "secret"));
+        DataProtection second = registry.get(HOST,
+                new ClientCredentials("second", "secret"));
+        DataProtection other = registry.get("other:9443",
+                new ClientCredentials("first", "secret"));
+        assertNotSame(first, second);
+        assertNotNull(first.getAuthorizationCache());
+        assertSame(first.getAuthorizationCache(),
+                second.getAuthorizationCache());
+        assertSame(first.getRequestCoalescer(),
+                second.getRequestCoalescer());
+        assertNotSame(first.getAuthorizationCache(),
+                other.getAuthorizationCache());
+        assertSame(first.getAuthorizationCache(),
+                registry.getAuthorizationCache(HOST));
+        assertNull(first.getDenialCache());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedHandleIsDropped() {
+        DataProtection first = registry.get(HOST,
+                new ClientCredentials("first", "secret"));
+        registry.get(HOST, new ClientCredentials("second", "secret"));
+        registry.get(HOST, new ClientCredentials("third", "secret"));
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getEvictionCount());
+        assertNotSame(first, registry.get(HOST,
+                new ClientCredentials("first", "secret")));
+    }
+
+    @Test
+    public void testIdleHandlesAreDropped() throws InterruptedException {
+        DataProtectionRegistry shortLived = new DataProtectionRegistry(10, 0);
+        shortLived.get(HOST, new ClientCredentials("first", "secret"));
+        Thread.sleep(1);
+        shortLived.evictIdleSubjects();
+        assertEquals(0, shortLived.size());
+        assertEquals(1, shortLived.getEvictionCount());
+    }
+
+    @Test
+    public void testAsyncHandlesShareExecutor() {
+        AsyncDataProtection first = registry.getAsync(HOST,
+                new ClientCredentials("first", "secret"));
+        assertSame(first, registry.getAsync(HOST,
+                new ClientCredentials("first", "secret")));
+        assertNotNull(registry.getExecutor());
+    }
+
+    @Test
+    public void testDenialCaching() {
+        registry.setDenialCaching(100, 1000);
+        DataProtection handle = registry.get(HOST,
+                new ClientCredentials("id", "secret"));
+        assertSame(registry.getDenialCache(HOST), handle.getDenialCache());
+        assertNotNull(handle.getDenialCache());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new DataProtectionRegistry(0, 1000);
+    }
+}
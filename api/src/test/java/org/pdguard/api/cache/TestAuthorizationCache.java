@@ -0,0 +1,139 @@
+package org.pdguard.api.cache;
+
+import org.junit.Test;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestAuthorizationCache {
+    private static final PDGuardRequestType DECRYPTION =
+            PDGuardRequestType.DECRYPTION;
+
+    private final ClientCredentials credentials = new ClientCredentials("id",
+            "secret");
+
+    private final DecryptionBundle bundle = new DecryptionBundle(
+            DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+            InteractionPurpose.ADVERT);
+
+    /** Key which exposes the array it hands over to the cache. */
+    private static final class TestKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] encoded = new byte[16];
+
+        TestKey(int value) {
+            Arrays.fill(encoded, (byte) value);
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return encoded;
+        }
+    }
+
+    @Test
+    public void testCachedKey() {
+        AuthorizationCache cache = new AuthorizationCache(10, 60000);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        TestKey key = new TestKey(1);
+        cache.put(credentials, bundle, DECRYPTION, key);
+        SecretKey cached = cache.get(credentials, new DecryptionBundle(
+                DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                InteractionPurpose.ADVERT), DECRYPTION);
+        assertNotNull(cached);
+        assertArrayEquals(new TestKey(1).getEncoded(), cached.getEncoded());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testDecisionIsPerBundle() {
+        AuthorizationCache cache = new AuthorizationCache(10, 60000);
+        cache.put(credentials, bundle, DECRYPTION, new TestKey(1));
+        assertNull(cache.get(credentials, new DecryptionBundle(
+                DataType.SURNAME, DataUse.INTERACT_WITH_SUBJECT_OVER_PHONE,
+                InteractionPurpose.ADVERT), DECRYPTION));
+        assertNull(cache.get(credentials, new EncryptionBundle(
+                DataType.SURNAME, DataProvenance.DATA_CONTROLLER, true),
+                PDGuardRequestType.ENCRYPTION));
+        assertNull(cache.get(new ClientCredentials("id", "other"), bundle,
+                DECRYPTION));
+        assertNotNull(cache.get(credentials, bundle, DECRYPTION));
+    }
+
+    @Test
+    public void testExpiredEntriesAreDestroyed() throws InterruptedException {
+        AuthorizationCache cache = new AuthorizationCache(10, 0);
+        TestKey key = new TestKey(1);
+        cache.put(credentials, bundle, DECRYPTION, key);
+        Thread.sleep(1);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        assertArrayEquals(new byte[16], key.getEncoded());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        AuthorizationCache cache = new AuthorizationCache(2, 60000);
+        TestKey surname = new TestKey(1);
+        cache.put(credentials, bundle, DECRYPTION, surname);
+        DecryptionBundle email = new DecryptionBundle(DataType.PERSONAL_EMAIL,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        cache.put(credentials, email, DECRYPTION, new TestKey(2));
+        assertNotNull(cache.get(credentials, bundle, DECRYPTION));
+        DecryptionBundle phone = new DecryptionBundle(DataType.HOME_PHONE,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        cache.put(credentials, phone, DECRYPTION, new TestKey(3));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(credentials, email, DECRYPTION));
+        assertNotNull(cache.get(credentials, bundle, DECRYPTION));
+        assertArrayEquals(new TestKey(1).getEncoded(), surname.getEncoded());
+    }
+
+    @Test
+    public void testInvalidate() {
+        AuthorizationCache cache = new AuthorizationCache(10, 60000);
+        TestKey key = new TestKey(1);
+        cache.put(credentials, bundle, DECRYPTION, key);
+        cache.invalidate(credentials, bundle, DECRYPTION);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        cache.put(credentials, bundle, DECRYPTION, key);
+        cache.invalidate(credentials, DataType.SURNAME);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        assertArrayEquals(new byte[16], key.getEncoded());
+        TestKey other = new TestKey(2);
+        cache.put(credentials, bundle, DECRYPTION, other);
+        cache.invalidate(credentials);
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[16], other.getEncoded());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new AuthorizationCache(0, 1000);
+    }
+}
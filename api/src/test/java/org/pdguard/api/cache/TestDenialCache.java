@@ -0,0 +1,77 @@
+package org.pdguard.api.cache;
+
+import org.junit.Test;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestDenialCache {
+    private static final PDGuardRequestType DECRYPTION =
+            PDGuardRequestType.DECRYPTION;
+
+    private final ClientCredentials credentials = new ClientCredentials("id",
+            "secret");
+
+    private final DecryptionBundle bundle = new DecryptionBundle(
+            DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+            InteractionPurpose.ADVERT);
+
+    @Test
+    public void testCachedDenial() {
+        DenialCache cache = new DenialCache(10, 60000);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        cache.put(credentials, bundle, DECRYPTION, "denied");
+        assertEquals("denied", cache.get(credentials, bundle, DECRYPTION));
+        assertNull(cache.get(credentials, new DecryptionBundle(
+                DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+                InteractionPurpose.INFORMATIVE), DECRYPTION));
+        assertNull(cache.get(new ClientCredentials("other", "secret"), bundle,
+                DECRYPTION));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiredDenial() {
+        DenialCache cache = new DenialCache(10, 0);
+        cache.put(credentials, bundle, DECRYPTION, "denied");
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDenialIsEvicted() {
+        DenialCache cache = new DenialCache(1, 60000);
+        DecryptionBundle other = new DecryptionBundle(DataType.AIM_ID,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        cache.put(credentials, bundle, DECRYPTION, "denied");
+        cache.put(credentials, other, DECRYPTION, "denied");
+        assertEquals(1, cache.size());
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+    }
+
+    @Test
+    public void testFlushDenials() {
+        DenialCache cache = new DenialCache(10, 60000);
+        DecryptionBundle other = new DecryptionBundle(DataType.AIM_ID,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, InteractionPurpose.ADVERT);
+        cache.put(credentials, bundle, DECRYPTION, "denied");
+        cache.put(credentials, other, DECRYPTION, "denied");
+        cache.invalidate(credentials, DataType.SURNAME);
+        assertNull(cache.get(credentials, bundle, DECRYPTION));
+        assertEquals("denied", cache.get(credentials, other, DECRYPTION));
+        cache.invalidate(credentials);
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new DenialCache(10, -1);
+    }
+}
@@ -0,0 +1,139 @@
+package org.pdguard.api.cache;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TestRequestCoalescer {
+    private static final PDGuardRequestType DECRYPTION =
+            PDGuardRequestType.DECRYPTION;
+
+    private final ClientCredentials credentials = new ClientCredentials("id",
+            "secret");
+
+    private final DecryptionBundle bundle = new DecryptionBundle(
+            DataType.SURNAME, DataUse.COMPOSE_EMAIL_TO_SUBJECT,
+            InteractionPurpose.ADVERT);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits callers which wait in the request until all of them have
+     * called the coalescer.
+     */
+    private List<Future<SecretKey>> submit(int callers,
+            RequestCoalescer.KeyRequest request) throws Exception {
+        CountDownLatch started = new CountDownLatch(callers);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<SecretKey>> futures = new ArrayList<>();
+        for (int i = 0; i < callers; i++)
+            futures.add(executor.submit(() -> {
+                started.countDown();
+                return coalescer.execute(credentials, bundle, DECRYPTION,
+                        () -> {
+                            Uninterruptibles.awaitUninterruptibly(release);
+                            return request.execute();
+                        });
+            }));
+        started.await();
+        while (coalescer.getExecutionCount() + coalescer
+                .getDeduplicatedCount() < callers)
+            Thread.sleep(1);
+        release.countDown();
+        return futures;
+    }
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        SecretKey key = new SecretKeySpec(new byte[16], "AES");
+        List<Future<SecretKey>> futures = submit(8, () -> {
+            calls.incrementAndGet();
+            return key;
+        });
+        for (Future<SecretKey> future : futures)
+            assertSame(key, future.get());
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getExecutionCount());
+        assertEquals(7, coalescer.getDeduplicatedCount());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testConcurrentCallsShareException() throws Exception {
+        AccessDeniedException denied = new AccessDeniedException("denied");
+        List<Future<SecretKey>> futures = submit(4, () -> {
+            throw denied;
+        });
+        for (Future<SecretKey> future : futures) {
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(denied, e.getCause());
+            }
+        }
+        assertEquals(3, coalescer.getDeduplicatedCount());
+    }
+
+    @Test
+    public void testSequentialCallsAreNotCoalesced() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 3; i++)
+            coalescer.execute(credentials, bundle, DECRYPTION, () -> {
+                calls.incrementAndGet();
+                return null;
+            });
+        assertEquals(3, calls.get());
+        assertEquals(0, coalescer.getDeduplicatedCount());
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<SecretKey> first = executor.submit(() -> coalescer.execute(
+                credentials, bundle, DECRYPTION, () -> {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                    return null;
+                }));
+        while (coalescer.getInFlightCount() == 0)
+            Thread.sleep(1);
+        coalescer.execute(credentials, bundle, PDGuardRequestType.ENCRYPTION,
+                () -> null);
+        coalescer.execute(new ClientCredentials("other", "secret"), bundle,
+                DECRYPTION, () -> null);
+        release.countDown();
+        first.get();
+        assertEquals(3, coalescer.getExecutionCount());
+        assertEquals(0, coalescer.getDeduplicatedCount());
+    }
+}
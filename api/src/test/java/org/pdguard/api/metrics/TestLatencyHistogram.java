@@ -0,0 +1,99 @@
+package org.pdguard.api.metrics;
+
+import org.junit.Test;
+import org.pdguard.api.PDGuardMetrics.Outcome;
+import org.pdguard.api.PDGuardMetrics.Phase;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram {
+    @Test
+    public void testBucketsCoverAllValues() {
+        int previous = -1;
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 65, 1000,
+                1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= previous);
+            assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+            assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+            previous = index;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueOf(
+                LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i * 1000);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMin());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500500.0, snapshot.getMean(), 0.1);
+        assertEquals(500000, snapshot.getValueAtPercentile(50), 500000 * 0.04);
+        assertEquals(990000, snapshot.getValueAtPercentile(99), 990000 * 0.04);
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+        assertTrue(snapshot.toString().startsWith("count=1000 "));
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    histogram.record(i);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(9999, snapshot.getMax());
+    }
+
+    @Test
+    public void testMetricsPerSeries() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        metrics.record(Phase.AUTHORIZATION, Outcome.ALLOWED, "agent",
+                PDGuardRequestType.DECRYPTION, DataType.SURNAME, 100);
+        metrics.record(Phase.AUTHORIZATION, Outcome.ALLOWED, "agent",
+                PDGuardRequestType.DECRYPTION, DataType.SURNAME, 200);
+        metrics.record(Phase.AUTHORIZATION, Outcome.DENIED, "agent",
+                PDGuardRequestType.DECRYPTION, DataType.SURNAME, 50);
+        metrics.record(Phase.REQUEST_TOKEN, Outcome.ALLOWED, "agent",
+                null, null, 10);
+        Map<HistogramMetrics.Series, HistogramSnapshot> snapshots =
+                metrics.snapshot();
+        assertEquals(3, snapshots.size());
+        assertEquals(2, metrics.snapshot(Phase.AUTHORIZATION,
+                Outcome.ALLOWED, "agent", PDGuardRequestType.DECRYPTION,
+                DataType.SURNAME).getCount());
+        assertNull(metrics.snapshot(Phase.CRYPTO, Outcome.ALLOWED, "agent",
+                PDGuardRequestType.DECRYPTION, DataType.SURNAME));
+        assertEquals(3, metrics.export().split("\n").length);
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+    }
+}
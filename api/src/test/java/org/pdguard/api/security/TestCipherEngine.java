@@ -0,0 +1,94 @@
+package org.pdguard.api.security;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCipherEngine {
+    private SecretKey key;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        key = KeyGenerator.getInstance("AES").generateKey();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (String data : new String[] {"", "a", "surname",
+                "a somewhat longer field which spans many AES blocks"}) {
+            byte[] encrypted = CipherEngine.encrypt(data.getBytes(), key);
+            assertEquals(data.length() + CipherEngine.OVERHEAD,
+                    encrypted.length);
+            assertFalse(CipherEngine.isLegacy(encrypted));
+            assertEquals(data, new String(CipherEngine.decrypt(encrypted,
+                    key)));
+        }
+    }
+
+    @Test
+    public void testHeader() {
+        byte[] encrypted = CipherEngine.encrypt("data".getBytes(), key);
+        assertEquals(CipherEngine.VERSION, encrypted[4]);
+        assertArrayEquals(CipherEngine.getKeyId(key),
+                CipherEngine.getKeyId(encrypted));
+        assertFalse(Arrays.equals(encrypted, CipherEngine.encrypt(
+                "data".getBytes(), key)));
+    }
+
+    @Test
+    public void testKeyIdFollowsKey() throws GeneralSecurityException {
+        SecretKey other = KeyGenerator.getInstance("AES").generateKey();
+        byte[] keyId = CipherEngine.getKeyId(key);
+        byte[] otherId = CipherEngine.getKeyId(other);
+        assertFalse(Arrays.equals(keyId, otherId));
+        assertArrayEquals(keyId, CipherEngine.getKeyId(key));
+        assertArrayEquals(keyId, CipherEngine.getKeyId(new SecretKeySpec(
+                key.getEncoded(), "AES")));
+        assertArrayEquals(otherId, CipherEngine.getKeyId(other));
+    }
+
+    @Test
+    public void testLegacyData() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        byte[] encrypted = cipher.doFinal("legacy".getBytes());
+        assertTrue(CipherEngine.isLegacy(encrypted));
+        assertNull(CipherEngine.getKeyId(encrypted));
+        assertEquals("legacy", new String(CipherEngine.decrypt(encrypted,
+                key)));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testTamperedData() {
+        byte[] encrypted = CipherEngine.encrypt("data".getBytes(), key);
+        encrypted[encrypted.length - 1] ^= 1;
+        CipherEngine.decrypt(encrypted, key);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testTamperedHeader() {
+        byte[] encrypted = CipherEngine.encrypt("data".getBytes(), key);
+        encrypted[CipherEngine.HEADER_LENGTH - 1] ^= 1;
+        CipherEngine.decrypt(encrypted, key);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testWrongKey() throws GeneralSecurityException {
+        byte[] encrypted = CipherEngine.encrypt("data".getBytes(), key);
+        CipherEngine.decrypt(encrypted, KeyGenerator.getInstance("AES")
+                .generateKey());
+    }
+}
@@ -0,0 +1,72 @@
+package org.pdguard.api.security;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestEnvelopeCipher {
+    private SecretKey key;
+
+    private SecretKey newKey;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        key = keyGen.generateKey();
+        newKey = keyGen.generateKey();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] record = EnvelopeCipher.encrypt("record".getBytes(), key);
+        assertTrue(EnvelopeCipher.isEnvelope(record));
+        assertFalse(EnvelopeCipher.isEnvelope(CipherEngine.encrypt(
+                "record".getBytes(), key)));
+        assertEquals("record", new String(EnvelopeCipher.decrypt(record,
+                key)));
+    }
+
+    @Test
+    public void testRewrapKeepsPayload() {
+        byte[] data = new byte[1000];
+        byte[] record = EnvelopeCipher.encrypt(data, key);
+        byte[] rewrapped = EnvelopeCipher.rewrap(record, key, newKey);
+        assertEquals(record.length, rewrapped.length);
+        int payload = 1000 + CipherEngine.OVERHEAD;
+        assertArrayEquals(Arrays.copyOfRange(record, record.length - payload,
+                record.length), Arrays.copyOfRange(rewrapped,
+                rewrapped.length - payload, rewrapped.length));
+        assertArrayEquals(data, EnvelopeCipher.decrypt(rewrapped, newKey));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testRewrappedRecordRejectsPreviousKey() {
+        byte[] record = EnvelopeCipher.encrypt("record".getBytes(), key);
+        EnvelopeCipher.decrypt(EnvelopeCipher.rewrap(record, key, newKey),
+                key);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testSwappedDataKeys() {
+        byte[] first = EnvelopeCipher.encrypt("first".getBytes(), key);
+        byte[] second = EnvelopeCipher.encrypt("other".getBytes(), key);
+        int wrapped = first[5] + 6;
+        System.arraycopy(second, 0, first, 0, wrapped);
+        EnvelopeCipher.decrypt(first, key);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testMalformedRecord() {
+        EnvelopeCipher.decrypt("PDGV".getBytes(), key);
+    }
+}
@@ -0,0 +1,109 @@
+package org.pdguard.api.security;
+
+import org.junit.Test;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class TestSecureContext {
+    private static final String KEYSTORE = "../certs/app.keystore";
+
+    private static final String TRUSTSTORE = "../certs/app.trustore";
+
+    private static final String PASSWORD = "clientpassword";
+
+    @Test
+    public void testSocketFactoryIsShared() throws IOException {
+        SecureContext context = new SecureContext(KEYSTORE, PASSWORD,
+                TRUSTSTORE, PASSWORD);
+        SSLSocketFactory factory = context.getSocketFactory();
+        assertSame(factory, context.getSocketFactory());
+        assertSame(factory, new SecureConnection(context)
+                .createSSLSocketConnection());
+        assertEquals(1, context.getReloadCount());
+    }
+
+    @Test
+    public void testSharedInstance() {
+        assertSame(SecureContext.getInstance(), SecureContext.getInstance());
+        assertSame(SecureContext.getInstance(), new SecureConnection()
+                .getContext());
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        SecureContext context = new SecureContext(KEYSTORE, PASSWORD,
+                TRUSTSTORE, PASSWORD);
+        SSLSocketFactory factory = context.getSocketFactory();
+        context.reload();
+        assertNotSame(factory, context.getSocketFactory());
+        assertEquals(2, context.getReloadCount());
+    }
+
+    @Test
+    public void testReloadOnModification() throws IOException {
+        File keyStore = File.createTempFile("keystore", ".jks");
+        keyStore.deleteOnExit();
+        Files.copy(new File(KEYSTORE).toPath(), keyStore.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        SecureContext context = new SecureContext(keyStore.getPath(),
+                PASSWORD, TRUSTSTORE, PASSWORD);
+        context.setCheckInterval(0);
+        SSLSocketFactory factory = context.getSocketFactory();
+        assertSame(factory, context.getSocketFactory());
+        keyStore.setLastModified(keyStore.lastModified() - 10000);
+        SSLSocketFactory reloaded = context.getSocketFactory();
+        assertNotSame(factory, reloaded);
+        assertSame(reloaded, context.getSocketFactory());
+    }
+
+    @Test
+    public void testFailedReloadKeepsContext() throws IOException {
+        File keyStore = File.createTempFile("keystore", ".jks");
+        keyStore.deleteOnExit();
+        Files.copy(new File(KEYSTORE).toPath(), keyStore.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        SecureContext context = new SecureContext(keyStore.getPath(),
+                PASSWORD, TRUSTSTORE, PASSWORD);
+        context.setCheckInterval(0);
+        SSLSocketFactory factory = context.getSocketFactory();
+        Files.copy(new File("../certs/invalid_keystore").toPath(),
+                keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        keyStore.setLastModified(keyStore.lastModified() - 10000);
+        assertSame(factory, context.getSocketFactory());
+        assertEquals(1, context.getReloadFailureCount());
+        assertNotNull(context.getLastReloadFailure());
+    }
+
+    @Test
+    public void testFailedReloadBacksOff() throws IOException {
+        File keyStore = File.createTempFile("keystore", ".jks");
+        keyStore.deleteOnExit();
+        Files.copy(new File(KEYSTORE).toPath(), keyStore.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        SecureContext context = new SecureContext(keyStore.getPath(),
+                PASSWORD, TRUSTSTORE, PASSWORD);
+        SSLSocketFactory factory = context.getSocketFactory();
+        Files.copy(new File("../certs/invalid_keystore").toPath(),
+                keyStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        keyStore.setLastModified(keyStore.lastModified() - 10000);
+        context.setCheckInterval(60000);
+        for (int i = 0; i < 10; i++)
+            assertSame(factory, context.getSocketFactory());
+        assertEquals(1, context.getReloadFailureCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidKeyStore() throws IOException {
+        new SecureContext("../certs/invalid_keystore", PASSWORD, TRUSTSTORE,
+                PASSWORD).getSocketFactory();
+    }
+}
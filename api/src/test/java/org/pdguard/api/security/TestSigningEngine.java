@@ -0,0 +1,115 @@
+package org.pdguard.api.security;
+
+import org.junit.Test;
+import org.pdguard.api.model.SignatureBase;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSigningEngine {
+    private static final String URL = "https://localhost:9443/authorize";
+
+    private TreeMap<String, String> getParameters(String value) {
+        TreeMap<String, String> parameters = new TreeMap<>();
+        parameters.put("client_id", "a b+c~d/e*f.g-h_i");
+        parameters.put("nonce", value);
+        parameters.put("timestamp", "1444444444444");
+        parameters.put("data_type", "SURNAME");
+        return parameters;
+    }
+
+    private String oldSignature(TreeMap<String, String> parameters,
+            String secret) throws UnsupportedEncodingException {
+        SignatureBase signatureBase = new SignatureBase(parameters, URL,
+                "POST");
+        Signature signature = new Signature(signatureBase
+                .getSignatureBaseString(), new SecretKeySpec(
+                secret.getBytes("UTF-8"), "HmacSHA1"));
+        signature.signMessage();
+        return signature.getSignatureContent();
+    }
+
+    private String oldSignedQuery(TreeMap<String, String> parameters,
+            String secret) throws UnsupportedEncodingException {
+        return new SignatureBase(parameters, URL, "POST")
+                .getEncodedParametersString() + "&signature="
+                + URLEncoder.encode(oldSignature(parameters, secret), "UTF-8")
+                .replace("+", "%20");
+    }
+
+    @Test
+    public void testSameSignaturesAsSignatureBase()
+            throws UnsupportedEncodingException {
+        String[] values = {"", "plain", "space and+plus", "éΔ中",
+                "😀 emoji", "lone \ud83d surrogate", "\udc00",
+                "end\ud83d", "%&=?#"};
+        for (String value : values) {
+            TreeMap<String, String> parameters = getParameters(value);
+            assertEquals(oldSignedQuery(parameters, "secret&"),
+                    SigningEngine.signRequest(parameters, URL, "post",
+                            "secret&"));
+            assertEquals(oldSignature(parameters, "secret&token"),
+                    SigningEngine.getSignature(parameters, URL, "POST",
+                            "secret&token"));
+        }
+    }
+
+    @Test
+    public void testSameSignaturesForRandomNonces()
+            throws UnsupportedEncodingException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] nonce = new byte[16];
+            random.nextBytes(nonce);
+            TreeMap<String, String> parameters = getParameters(new String(
+                    nonce, "UTF-8"));
+            String secret = "secret" + i % 3;
+            assertEquals(oldSignedQuery(parameters, secret),
+                    SigningEngine.signRequest(parameters, URL, "POST",
+                            secret));
+        }
+    }
+
+    @Test
+    public void testLargeRequest() throws UnsupportedEncodingException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            value.append("é ");
+        TreeMap<String, String> parameters = getParameters(value.toString());
+        assertEquals(oldSignedQuery(parameters, "secret"),
+                SigningEngine.signRequest(parameters, URL, "POST", "secret"));
+        parameters = getParameters("small");
+        assertEquals(oldSignedQuery(parameters, "secret"),
+                SigningEngine.signRequest(parameters, URL, "POST", "secret"));
+    }
+
+    @Test
+    public void testVerify() throws UnsupportedEncodingException {
+        TreeMap<String, String> parameters = getParameters("nonce");
+        String signature = oldSignature(parameters, "secret");
+        assertTrue(SigningEngine.verify(parameters, URL, "POST", "secret",
+                signature));
+        assertFalse(SigningEngine.verify(parameters, URL, "POST", "other",
+                signature));
+        assertFalse(SigningEngine.verify(parameters, URL, "POST", "secret",
+                signature.substring(1)));
+        assertFalse(SigningEngine.verify(parameters, URL, "POST", "secret",
+                null));
+    }
+
+    @Test
+    public void testSignMessage() throws UnsupportedEncodingException {
+        Signature signature = new Signature("message", new SecretKeySpec(
+                "key".getBytes("UTF-8"), "HmacSHA1"));
+        signature.signMessage();
+        assertEquals(signature.getSignatureContent(),
+                SigningEngine.signMessage("message", "key"));
+    }
+}
@@ -0,0 +1,118 @@
+package org.pdguard.api.security;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.CryptoException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestStreamCipher {
+    private static final int CHUNK_SIZE = 1024;
+
+    private SecretKey key;
+
+    @Before
+    public void setUp() throws NoSuchAlgorithmException {
+        key = KeyGenerator.getInstance("AES").generateKey();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, StreamCipher.encrypt(
+                new ByteArrayInputStream(data), out, key, CHUNK_SIZE));
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamCipher.decrypt(new ByteArrayInputStream(data), out, key);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (int length : new int[] {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE,
+                CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 10 * CHUNK_SIZE + 17}) {
+            byte[] data = randomBytes(length);
+            assertArrayEquals(data, decrypt(encrypt(data)));
+        }
+    }
+
+    @Test
+    public void testCiphertextIsRandomized() throws IOException {
+        byte[] data = randomBytes(CHUNK_SIZE);
+        assertEquals(false, Arrays.equals(encrypt(data), encrypt(data)));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testTamperedChunk() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(3 * CHUNK_SIZE));
+        encrypted[encrypted.length / 2] ^= 1;
+        decrypt(encrypted);
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testTruncatedStream() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(3 * CHUNK_SIZE));
+        decrypt(Arrays.copyOf(encrypted, encrypted.length - 1));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testDroppedFinalChunk() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(2 * CHUNK_SIZE + 1));
+        // Final chunk consists of its flag, its length and 1 + 16 bytes.
+        decrypt(Arrays.copyOf(encrypted, encrypted.length - 22));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testTrailingData() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(CHUNK_SIZE));
+        decrypt(Arrays.copyOf(encrypted, encrypted.length + 1));
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testWrongKey() throws IOException, NoSuchAlgorithmException {
+        byte[] encrypted = encrypt(randomBytes(CHUNK_SIZE));
+        key = KeyGenerator.getInstance("AES").generateKey();
+        decrypt(encrypted);
+    }
+
+    @Test
+    public void testForgedChunkSize() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(3 * CHUNK_SIZE));
+        // Chunk size follows magic and version; first frame follows the
+        // 17-byte header.
+        ByteBuffer.wrap(encrypted).putInt(5, StreamCipher.MAX_CHUNK_SIZE)
+                .put(17, (byte) 0).putInt(18, StreamCipher.MAX_CHUNK_SIZE
+                        + 16);
+        try {
+            decrypt(encrypted);
+            fail();
+        } catch (CryptoException e) {
+            assertEquals("Encrypted stream is truncated.", e.getMessage());
+        }
+    }
+
+    @Test(expected = CryptoException.class)
+    public void testMalformedHeader() throws IOException {
+        decrypt("not an encrypted stream".getBytes());
+    }
+}
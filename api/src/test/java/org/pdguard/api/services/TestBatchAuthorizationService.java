@@ -0,0 +1,88 @@
+package org.pdguard.api.services;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+public class TestBatchAuthorizationService {
+    private BatchAuthorizationService service;
+
+    @Before
+    public void setUp() {
+        RequestToken requestToken = new RequestToken("token", "secret");
+        List<AuthorizationBundle> bundles = Arrays.asList(
+                new DecryptionBundle(DataType.AIM_ID, DataUse.ANALYTICS,
+                        InteractionPurpose.ADVERT),
+                new EncryptionBundle(DataType.SURNAME,
+                        DataProvenance.DATA_CONTROLLER, true));
+        service = new BatchAuthorizationService(
+                new ClientCredentials("client id", "client secret"),
+                new EscrowAgent("localhost:9443"), new SecureConnection(),
+                bundles, requestToken);
+    }
+
+    @Test
+    public void testGetParameters() {
+        TreeMap<String, String> parameters = service.getParameters();
+        Assert.assertEquals("2", parameters.get("item_count"));
+        Assert.assertEquals("token", parameters.get("request_token"));
+        Assert.assertEquals("AIM_ID", parameters.get("item_0_data_type"));
+        Assert.assertEquals("DECRYPTION", parameters.get("item_0_request_type"));
+        Assert.assertEquals("ANALYTICS", parameters.get("item_0_data_use"));
+        Assert.assertEquals("ADVERT",
+                parameters.get("item_0_interaction_purpose"));
+        Assert.assertEquals("SURNAME", parameters.get("item_1_data_type"));
+        Assert.assertEquals("ENCRYPTION", parameters.get("item_1_request_type"));
+        Assert.assertEquals("DATA_CONTROLLER",
+                parameters.get("item_1_data_provenance"));
+        Assert.assertEquals("true", parameters.get("item_1_update"));
+        Assert.assertEquals(13, parameters.size());
+    }
+
+    @Test
+    public void testAuthorizeBatch() throws IOException,
+            EscrowAgentErrorResponseException {
+        BatchAuthorizationService mockService = Mockito.spy(service);
+        Mockito.doReturn(new TransportResponse(200, "item_count=2"
+                + "&item_0_result=DENIED_BY_DATA_SUBJECT"
+                + "&item_1_result=ALLOWED&item_1_encryption_key=0a0b"))
+                .when((EscrowAgentService) mockService)
+                .exchange(Mockito.anyString(), Mockito.anyString());
+        List<EncryptionKey> keys = mockService.authorizeBatch();
+        Assert.assertEquals(2, keys.size());
+        Assert.assertNull(keys.get(0));
+        Assert.assertEquals("0a0b", keys.get(1).getEncryptionKey());
+        Mockito.verify((EscrowAgentService) mockService, Mockito.times(1))
+                .exchange(Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test(expected = EscrowAgentErrorResponseException.class)
+    public void testAuthorizeBatchItemCountMismatch() throws IOException,
+            EscrowAgentErrorResponseException {
+        BatchAuthorizationService mockService = Mockito.spy(service);
+        Mockito.doReturn(new TransportResponse(200,
+                "item_count=1&item_0_result=ALLOWED"))
+                .when((EscrowAgentService) mockService)
+                .exchange(Mockito.anyString(), Mockito.anyString());
+        mockService.authorizeBatch();
+    }
+}
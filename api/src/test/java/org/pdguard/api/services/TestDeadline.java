@@ -0,0 +1,51 @@
+package org.pdguard.api.services;
+
+import org.junit.Test;
+import org.pdguard.api.exceptions.DeadlineExceededException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDeadline {
+    @Test
+    public void testSplitSharesRemainingTime() {
+        Deadline deadline = Deadline.after(3, TimeUnit.SECONDS);
+        long phase = deadline.split(3).remaining(TimeUnit.MILLISECONDS);
+        assertTrue(phase > 900 && phase <= 1000);
+        assertSame(deadline, deadline.split(1));
+    }
+
+    @Test
+    public void testUnboundedDeadline() throws IOException {
+        Deadline deadline = Deadline.none();
+        assertSame(deadline, deadline.split(3));
+        assertEquals(Long.MAX_VALUE, deadline.remaining(TimeUnit.SECONDS));
+        assertFalse(deadline.isExpired());
+        deadline.check();
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testCheckExpiredDeadline() throws IOException {
+        Deadline.after(0, TimeUnit.SECONDS).check();
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void testCancellationIsSharedByPhases() throws IOException {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        Deadline phase = deadline.split(2);
+        AtomicInteger aborts = new AtomicInteger();
+        Runnable abort = aborts::incrementAndGet;
+        phase.setAbortAction(abort);
+        deadline.cancel();
+        assertEquals(1, aborts.get());
+        assertTrue(phase.isCancelled());
+        phase.check();
+    }
+}
@@ -111,12 +111,12 @@ public class TestEncryptionKeyService {
             throws IOException, EscrowAgentErrorResponseException {
         EncryptionKeyService mockService = Mockito.spy(new EncryptionKeyService(
                 client, escrowAgent, secure, requestToken));
-        Mockito.doReturn("encryption_key=key")
+        Mockito.doReturn(new TransportResponse(200, "encryption_key=key"))
                 .when((EscrowAgentService) mockService)
-                .callEscrowAgentService(Mockito.anyString(), Mockito.anyString());
+                .exchange(Mockito.anyString(), Mockito.anyString());
         EncryptionKey key = mockService.requestEncryptionKey();
         Assert.assertEquals(key.getEncryptionKey(), "key");
         Mockito.verify((EscrowAgentService) mockService, Mockito.times(1))
-                .callEscrowAgentService(Mockito.anyString(), Mockito.anyString());
+                .exchange(Mockito.anyString(), Mockito.anyString());
     }
 }
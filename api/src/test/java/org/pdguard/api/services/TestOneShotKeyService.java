@@ -0,0 +1,72 @@
+package org.pdguard.api.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.utils.BinaryCodec;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+public class TestOneShotKeyService {
+    private final OneShotKeyService service = new OneShotKeyService(
+            new ClientCredentials("client id", "client secret"),
+            new EscrowAgent("localhost:9443"), new SecureConnection(),
+            new DecryptionBundle(DataType.AIM_ID, DataUse.ANALYTICS,
+                    InteractionPurpose.ADVERT), PDGuardRequestType.DECRYPTION);
+
+    @Test
+    public void testGetParameters() {
+        TreeMap<String, String> parameters = service.getParameters();
+        Assert.assertEquals("client id", parameters.get("client_id"));
+        Assert.assertEquals("AIM_ID", parameters.get("data_type"));
+        Assert.assertEquals("DECRYPTION", parameters.get("request_type"));
+        Assert.assertEquals("ANALYTICS", parameters.get("data_use"));
+        Assert.assertEquals("ADVERT", parameters.get("interaction_purpose"));
+        Assert.assertNull(parameters.get("request_token"));
+        Assert.assertEquals(7, parameters.size());
+    }
+
+    @Test
+    public void testRequestEncryptionKey() throws IOException,
+            EscrowAgentErrorResponseException {
+        OneShotKeyService mockService = Mockito.spy(service);
+        Mockito.doReturn(new TransportResponse(200, "encryption_key=0a0b"))
+                .when((EscrowAgentService) mockService)
+                .exchange(Mockito.anyString(),
+                        Mockito.eq("https://localhost:9443/authorize_key"));
+        EncryptionKey key = mockService.requestEncryptionKey();
+        Assert.assertEquals("0a0b", key.getEncryptionKey());
+    }
+
+    @Test
+    public void testRequestEncryptionKeyInBinaryFormat() throws IOException,
+            EscrowAgentErrorResponseException {
+        OneShotKeyService mockService = Mockito.spy(service);
+        byte[] response = BinaryCodec.fromURLEncoded("encryption_key=0a0b");
+        Mockito.doReturn(new TransportResponse(200, response, 0))
+                .when((EscrowAgentService) mockService)
+                .exchange(Mockito.anyString(), Mockito.anyString());
+        EncryptionKey key = mockService.requestEncryptionKey();
+        Assert.assertArrayEquals(new byte[] {10, 11},
+                key.loadKey().getEncoded());
+        Assert.assertEquals("0a0b", key.getEncryptionKey());
+    }
+
+    @Test(expected = AccessDeniedException.class)
+    public void testAccessDenied() throws IOException,
+            EscrowAgentErrorResponseException {
+        service.checkErrorResponse(401, "authorization_error=denied");
+    }
+}
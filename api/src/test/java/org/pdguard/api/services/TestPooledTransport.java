@@ -0,0 +1,323 @@
+package org.pdguard.api.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.security.SecureConnection;
+import org.pdguard.api.security.SecureContext;
+import org.pdguard.api.utils.BinaryCodec;
+import org.pdguard.api.utils.WireFormat;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestPooledTransport {
+    private static final String PASSWORD = "clientpassword";
+
+    private static final long STALL = 2000;
+
+    private SSLServerSocket server;
+
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    private PooledTransport transport;
+
+    private SecureConnection connection;
+
+    private String baseUri;
+
+    @Before
+    public void startServer() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(
+                "../eagent/certs/agent.keystore")) {
+            keyStore.load(in, "serverpassword".toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "serverpassword".toCharArray());
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        server = (SSLServerSocket) ctx.getServerSocketFactory().createServerSocket(
+                0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    accepted.incrementAndGet();
+                    new Thread(() -> serve(socket)).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        baseUri = "https://localhost:" + server.getLocalPort();
+        transport = new PooledTransport(2, 60000, 1000);
+        connection = new SecureConnection(new SecureContext(
+                "../certs/app.keystore", PASSWORD, "../certs/app.trustore",
+                PASSWORD));
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        transport.close();
+        server.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                int length = 0;
+                boolean acceptsBinary = false;
+                String contentType = "";
+                String line;
+                while (!(line = in.readLine()).isEmpty()) {
+                    String header = line.toLowerCase();
+                    if (header.startsWith("content-length:"))
+                        length = Integer.parseInt(line.substring(15).trim());
+                    else if (header.startsWith("accept:"))
+                        acceptsBinary = header.contains(BinaryCodec.MEDIA_TYPE);
+                    else if (header.startsWith("content-type:"))
+                        contentType = line.substring(13).trim();
+                }
+                char[] body = new char[length];
+                int read = 0;
+                while (read < length)
+                    read += in.read(body, read, length - read);
+                String path = requestLine.split(" ")[1];
+                String response;
+                if (path.equals("/negotiate") && acceptsBinary) {
+                    byte[] binary = BinaryCodec.fromURLEncoded("encryption_key="
+                            + "0a0b&request_type=" + contentType);
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: "
+                            + BinaryCodec.MEDIA_TYPE + "\r\nContent-Length: "
+                            + binary.length + "\r\n\r\n").getBytes(
+                            StandardCharsets.ISO_8859_1));
+                    out.write(binary);
+                    out.flush();
+                    continue;
+                }
+                if (path.equals("/drop"))
+                    break;
+                if (path.equals("/stall"))
+                    Thread.sleep(STALL);
+                if (path.equals("/redirect"))
+                    response = "HTTP/1.1 303 See Other\r\nLocation: /target"
+                            + "\r\nContent-Length: 0\r\n\r\n";
+                else if (path.equals("/target"))
+                    response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked"
+                            + "\r\n\r\n5\r\nmoved\r\n0\r\n\r\n";
+                else if (path.equals("/error"))
+                    response = "HTTP/1.1 401 Unauthorized\r\nContent-Length: "
+                            + "26\r\n\r\nerror=authentication_error";
+                else if (path.equals("/close"))
+                    response = "HTTP/1.1 200 OK\r\nConnection: close\r\n"
+                            + "Content-Length: 2\r\n\r\nok";
+                else
+                    response = "HTTP/1.1 200 OK\r\nContent-Length: "
+                            + (length + 5) + "\r\n\r\necho=" + new String(body);
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                if (path.equals("/close") || path.equals("/silentclose"))
+                    break;
+            }
+            socket.close();
+        } catch (IOException | InterruptedException e) {
+            // Client went away.
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            TransportResponse response = transport.post(baseUri + "/token",
+                    "nonce=" + i, connection);
+            assertEquals(200, response.getStatusCode());
+            assertEquals("echo=nonce=" + i, response.getBody());
+        }
+        assertEquals(1, accepted.get());
+        assertEquals(1, transport.getMissCount());
+        assertEquals(4, transport.getHitCount());
+        assertEquals(1, transport.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testHandshakeTimeOfNewConnections() throws IOException {
+        TransportResponse first = transport.post(baseUri + "/token", "a=b",
+                connection);
+        TransportResponse second = transport.post(baseUri + "/token", "a=b",
+                connection);
+        assertTrue(first.getHandshakeTime() > 0);
+        assertEquals(0, second.getHandshakeTime());
+    }
+
+    @Test
+    public void testErrorResponseKeepsConnection() throws IOException {
+        TransportResponse response = transport.post(baseUri + "/error",
+                "a=b", connection);
+        assertEquals(401, response.getStatusCode());
+        assertEquals("error=authentication_error", response.getBody());
+        transport.post(baseUri + "/token", "a=b", connection);
+        assertEquals(1, accepted.get());
+    }
+
+    @Test
+    public void testRedirectIsFollowed() throws IOException {
+        TransportResponse response = transport.post(baseUri + "/redirect",
+                "a=b", connection);
+        assertEquals(200, response.getStatusCode());
+        assertEquals("moved", response.getBody());
+        assertEquals(1, accepted.get());
+    }
+
+    @Test
+    public void testConnectionClose() throws IOException {
+        transport.post(baseUri + "/close", "a=b", connection);
+        assertEquals(0, transport.getIdleConnectionCount());
+        transport.post(baseUri + "/token", "a=b", connection);
+        assertEquals(2, accepted.get());
+        assertEquals(2, transport.getMissCount());
+    }
+
+    @Test
+    public void testWrittenRequestIsNotRetried() throws IOException {
+        transport.post(baseUri + "/token", "a=b", connection);
+        try {
+            transport.post(baseUri + "/drop", "a=b", connection);
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, accepted.get());
+        }
+    }
+
+    @Test
+    public void testDroppedIdleConnectionIsProbed() throws Exception {
+        transport.post(baseUri + "/silentclose", "a=b", connection);
+        Thread.sleep(1100);
+        TransportResponse response = transport.post(baseUri + "/token",
+                "a=b", connection);
+        assertEquals(200, response.getStatusCode());
+        assertEquals(2, accepted.get());
+        assertEquals(1, transport.getEvictionCount());
+    }
+
+    @Test
+    public void testPoolIsDrainedWhenContextChanges() throws IOException {
+        transport.post(baseUri + "/token", "a=b", connection);
+        SecureConnection reloaded = new SecureConnection(new SecureContext(
+                "../certs/app.keystore", PASSWORD, "../certs/app.trustore",
+                PASSWORD));
+        transport.post(baseUri + "/token", "a=b", reloaded);
+        assertEquals(2, accepted.get());
+        assertEquals(1, transport.getEvictionCount());
+        assertEquals(1, transport.getIdleConnectionCount());
+        transport.post(baseUri + "/token", "a=b", connection);
+        assertEquals(3, accepted.get());
+        assertEquals(1, transport.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testEvictIdleConnections() throws Exception {
+        PooledTransport shortLived = new PooledTransport(2, 0, 1000);
+        try {
+            shortLived.post(baseUri + "/token", "a=b", connection);
+            Thread.sleep(10);
+            shortLived.evictIdleConnections();
+            assertEquals(0, shortLived.getIdleConnectionCount());
+            assertEquals(1, shortLived.getEvictionCount());
+        } finally {
+            shortLived.close();
+        }
+    }
+
+    @Test
+    public void testDeadlineAbortsStalledExchange() throws IOException {
+        long start = System.nanoTime();
+        try {
+            transport.post(baseUri + "/stall", "a=b", connection,
+                    Deadline.after(300, TimeUnit.MILLISECONDS));
+            fail();
+        } catch (DeadlineExceededException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - start);
+            assertTrue(elapsed < STALL);
+        }
+        assertEquals(0, transport.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testCancelAbortsExchange() throws Exception {
+        Deadline deadline = Deadline.none();
+        ScheduledExecutorService canceller =
+                Executors.newSingleThreadScheduledExecutor();
+        canceller.schedule(deadline::cancel, 300, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            transport.post(baseUri + "/stall", "a=b", connection, deadline);
+            fail();
+        } catch (InterruptedIOException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - start);
+            assertTrue(elapsed < STALL);
+        } finally {
+            canceller.shutdown();
+        }
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testExpiredDeadlineIsNotSent() throws IOException {
+        transport.post(baseUri + "/token", "a=b", connection,
+                Deadline.after(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBinaryFormatIsNegotiated() throws IOException {
+        TransportResponse response = transport.post(baseUri + "/negotiate",
+                "a=b", connection);
+        assertFalse(response.isBinary());
+        transport.setWireFormat(WireFormat.BINARY);
+        response = transport.post(baseUri + "/negotiate", "a=b", connection);
+        assertTrue(response.isBinary());
+        assertArrayEquals(new byte[] {10, 11}, BinaryCodec.decode(
+                response.getContent()).get("encryption_key"));
+        assertEquals("encryption_key=0a0b&request_type="
+                + "application%2Fx-www-form-urlencoded", response.getBody());
+        response = transport.post(baseUri + "/negotiate", "a=b", connection);
+        assertEquals(BinaryCodec.MEDIA_TYPE, BinaryCodec.toParameters(
+                response.getContent()).get("request_type"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPoolSize() {
+        new PooledTransport(0, 1000, 1000);
+    }
+}
@@ -0,0 +1,191 @@
+package org.pdguard.api.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.security.SecureConnection;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReplicaSet {
+    private static final String URI = "https://eagent:9443/token";
+
+    private final FakeTransport delegate = new FakeTransport();
+
+    private ReplicaSet replicaSet;
+
+    @Before
+    public void setUp() {
+        replicaSet = new ReplicaSet(Arrays.asList("a:1", "b:2"), delegate, 2,
+                100);
+    }
+
+    @After
+    public void tearDown() {
+        replicaSet.close();
+    }
+
+    @Test
+    public void testHostIsReplacedWithReplica() throws IOException {
+        replicaSet.post(URI + "?x=1", "a=b", null);
+        String uri = delegate.uris.get(0);
+        assertTrue(uri.equals("https://a:1/token?x=1")
+                || uri.equals("https://b:2/token?x=1"));
+    }
+
+    @Test
+    public void testLeastOutstandingReplicaIsSelected() throws Exception {
+        delegate.latency.put("a:1", 500L);
+        Thread slow = new Thread(() -> {
+            try {
+                replicaSet.post(URI, "a=b", null);
+            } catch (IOException e) {
+                // Checked by the assertions below.
+            }
+        });
+        slow.start();
+        while (replicaSet.getOutstandingCount("a:1") == 0)
+            Thread.sleep(5);
+        for (int i = 0; i < 3; i++)
+            replicaSet.post(URI, "a=b", null);
+        slow.join();
+        assertEquals(1, delegate.count("a:1"));
+        assertEquals(3, delegate.count("b:2"));
+    }
+
+    @Test
+    public void testFailingReplicaIsTakenOutOfRotation() throws Exception {
+        delegate.down.put("a:1", true);
+        for (int i = 0; i < 6; i++) {
+            try {
+                replicaSet.post(URI, "a=b", null);
+            } catch (IOException e) {
+                // Replica a is down.
+            }
+        }
+        assertFalse(replicaSet.isAvailable("a:1"));
+        delegate.uris.clear();
+        for (int i = 0; i < 4; i++)
+            assertEquals(200, replicaSet.post(URI, "a=b", null)
+                    .getStatusCode());
+        assertEquals(0, delegate.count("a:1"));
+        delegate.down.put("a:1", false);
+        Thread.sleep(150);
+        assertTrue(replicaSet.isAvailable("a:1"));
+        for (int i = 0; i < 4; i++)
+            replicaSet.post(URI, "a=b", null);
+        assertTrue(delegate.count("a:1") > 0);
+        assertTrue(replicaSet.isAvailable("a:1"));
+    }
+
+    @Test
+    public void testServerErrorsCountAsFailures() throws IOException {
+        delegate.status.put("a:1", 503);
+        for (int i = 0; i < 6; i++)
+            replicaSet.post(URI, "a=b", null);
+        assertFalse(replicaSet.isAvailable("a:1"));
+        assertTrue(replicaSet.isAvailable("b:2"));
+    }
+
+    @Test
+    public void testClientErrorsDoNotCountAsFailures() throws IOException {
+        delegate.status.put("a:1", 401);
+        for (int i = 0; i < 6; i++)
+            replicaSet.post(URI, "a=b", null);
+        assertTrue(replicaSet.isAvailable("a:1"));
+    }
+
+    @Test
+    public void testSlowCallIsHedged() throws IOException {
+        replicaSet.setHedgedServices("/token");
+        for (int i = 0; i < 20; i++)
+            replicaSet.post(URI, "a=b", null);
+        assertTrue(replicaSet.getHedgeDelay("/token") > 0);
+        delegate.latency.put("a:1", 2000L);
+        long start = System.nanoTime();
+        TransportResponse response = replicaSet.post(URI, "a=b", null);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                - start);
+        assertEquals("replica=b:2", response.getBody());
+        assertTrue(elapsed < 1000);
+        assertEquals(1, replicaSet.getHedgeCount());
+        assertEquals(1, replicaSet.getHedgeWinCount());
+    }
+
+    @Test
+    public void testCallsOfOtherServicesAreNotHedged() throws IOException {
+        replicaSet.setHedgedServices("/token");
+        for (int i = 0; i < 40; i++)
+            replicaSet.post("https://eagent:9443/authorize", "a=b", null);
+        assertEquals(0, replicaSet.getHedgeDelay("/authorize"));
+        assertEquals(0, replicaSet.getHedgeCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoReplicas() {
+        new ReplicaSet(Arrays.asList());
+    }
+
+    private static final class FakeTransport implements EscrowAgentTransport {
+        private final List<String> uris = new CopyOnWriteArrayList<>();
+
+        private final Map<String, Long> latency = new ConcurrentHashMap<>();
+
+        private final Map<String, Boolean> down = new ConcurrentHashMap<>();
+
+        private final Map<String, Integer> status = new ConcurrentHashMap<>();
+
+        @Override
+        public TransportResponse post(String uri, String parameters,
+                SecureConnection connection) throws IOException {
+            return post(uri, parameters, connection, null);
+        }
+
+        @Override
+        public TransportResponse post(String uri, String parameters,
+                SecureConnection connection, Deadline deadline)
+                throws IOException {
+            uris.add(uri);
+            String replica = uri.substring(8, uri.indexOf('/', 8));
+            if (down.getOrDefault(replica, false))
+                throw new IOException("Connection refused");
+            long sleep = latency.getOrDefault(replica, 0L);
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                    sleep);
+            while (System.nanoTime() < end) {
+                if (deadline != null)
+                    deadline.check();
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new TransportResponse(status.getOrDefault(replica, 200),
+                    "replica=" + replica);
+        }
+
+        int count(String replica) {
+            int count = 0;
+            for (String uri : uris)
+                if (uri.contains(replica))
+                    count++;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.pdguard.api.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.exceptions.DeadlineExceededException;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.model.RequestToken;
+import org.pdguard.api.security.SecureConnection;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class TestRequestTokenPool {
+    private final AtomicInteger fetched = new AtomicInteger();
+
+    private RequestTokenPool pool;
+
+    private RequestTokenPool createPool(final long timeToLive)
+            throws Exception {
+        RequestTokenPool tokenPool = spy(new RequestTokenPool(
+                new ClientCredentials("id", "secret"),
+                new EscrowAgent("localhost:9443"), new SecureConnection(), 2,
+                4, timeToLive));
+        doAnswer(invocation -> new RequestToken("token"
+                + fetched.incrementAndGet(), "secret"))
+                .when(tokenPool).fetchRequestToken(any());
+        return tokenPool;
+    }
+
+    private void awaitSize(final int size) throws InterruptedException {
+        for (int i = 0; i < 200 && pool.size() != size; i++)
+            Thread.sleep(5);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        pool = createPool(60000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testFirstTakeFillsPool() throws Exception {
+        RequestToken first = pool.take();
+        assertEquals(1, pool.getMissCount());
+        awaitSize(4);
+        assertEquals(4, pool.size());
+        RequestToken token = pool.take();
+        assertNotEquals(first.getRequestToken(), token.getRequestToken());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void testRefillBelowWatermark() throws Exception {
+        pool.refill();
+        assertEquals(4, pool.size());
+        pool.take();
+        pool.take();
+        assertEquals(4, fetched.get());
+        pool.take();
+        awaitSize(4);
+        assertEquals(4, pool.size());
+        assertEquals(7, fetched.get());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void testExpiredTokensAreDropped() throws Exception {
+        pool.close();
+        pool = createPool(1);
+        pool.refill();
+        Thread.sleep(5);
+        pool.removeExpiredTokens();
+        assertTrue(pool.getExpirationCount() >= 4);
+        RequestToken token = pool.take();
+        assertTrue(Integer.parseInt(token.getRequestToken().substring(5))
+                > 4);
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailureFallsBackToSynchronousRequest() throws Exception {
+        doAnswer(invocation -> {
+            throw new IOException("unreachable");
+        }).when(pool).fetchRequestToken(any());
+        pool.take();
+    }
+
+    @Test
+    public void testFailedRefillIsRecordedAndBacksOff() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        IOException failure = new IOException("unreachable");
+        doAnswer(invocation -> {
+            attempts.incrementAndGet();
+            throw failure;
+        }).when(pool).fetchRequestToken(any());
+        pool.refill();
+        assertEquals(1, pool.getRefillFailureCount());
+        assertSame(failure, pool.getLastRefillFailure());
+        for (int i = 0; i < 10; i++) {
+            try {
+                pool.take();
+                fail();
+            } catch (IOException e) {
+                assertSame(failure, e);
+            }
+        }
+        Thread.sleep(50);
+        assertEquals(11, attempts.get());
+        assertEquals(1, pool.getRefillFailureCount());
+    }
+
+    @Test
+    public void testRefillFailureIsAttachedToSynchronousFailure()
+            throws Exception {
+        IOException refillFailure = new IOException("refill");
+        doAnswer(invocation -> {
+            throw refillFailure;
+        }).when(pool).fetchRequestToken(any());
+        pool.refill();
+        doAnswer(invocation -> {
+            throw new IOException("unreachable");
+        }).when(pool).fetchRequestToken(any());
+        try {
+            pool.take();
+            fail();
+        } catch (IOException e) {
+            assertSame(refillFailure, e.getSuppressed()[0]);
+        }
+    }
+
+    @Test
+    public void testDeadlineBoundsSynchronousRequest() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.NANOSECONDS);
+        Thread.sleep(1);
+        try {
+            pool.take(deadline);
+            fail();
+        } catch (DeadlineExceededException e) {
+            assertEquals(1, pool.getMissCount());
+        }
+        verify(pool, never()).fetchRequestToken(deadline);
+        pool.refill();
+        assertEquals("token", pool.take(deadline).getRequestToken()
+                .substring(0, 5));
+    }
+
+    @Test
+    public void testDeadlineIsPassedToSynchronousRequest() throws Exception {
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        pool.take(deadline);
+        verify(pool).fetchRequestToken(deadline);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new RequestTokenPool(new ClientCredentials("id", "secret"),
+                new EscrowAgent("localhost:9443"), new SecureConnection(), 5,
+                4, 1000);
+    }
+}
@@ -0,0 +1,66 @@
+package org.pdguard.api.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.RequestToken;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TestBinaryCodec {
+    @Test
+    public void testRoundTrip() {
+        Map<String, byte[]> parameters = new LinkedHashMap<>();
+        parameters.put("request_token", "token".getBytes(
+                StandardCharsets.UTF_8));
+        parameters.put("empty", new byte[0]);
+        parameters.put("long", new byte[300]);
+        Map<String, byte[]> decoded = BinaryCodec.decode(
+                BinaryCodec.encode(parameters));
+        Assert.assertEquals(parameters.keySet(), decoded.keySet());
+        for (String name : parameters.keySet())
+            Assert.assertArrayEquals(parameters.get(name), decoded.get(name));
+    }
+
+    @Test
+    public void testKeyIsCarriedAsRawBytes() {
+        byte[] message = BinaryCodec.fromURLEncoded(
+                "encryption_key=00ff10ab&tag=a%20b");
+        Map<String, byte[]> decoded = BinaryCodec.decode(message);
+        Assert.assertArrayEquals(new byte[] {0, -1, 16, -85},
+                decoded.get("encryption_key"));
+        Assert.assertEquals("a b", new String(decoded.get("tag"),
+                StandardCharsets.UTF_8));
+        Assert.assertEquals("encryption_key=00ff10ab&tag=a%20b",
+                BinaryCodec.toURLEncoded(message));
+    }
+
+    @Test
+    public void testToObject() {
+        EncryptionKey key = (EncryptionKey) ResponseParser.toObject(
+                BinaryCodec.fromURLEncoded("encryption_key=0a0b"),
+                EncryptionKey.class);
+        Assert.assertArrayEquals(new byte[] {10, 11},
+                key.loadKey().getEncoded());
+        RequestToken token = (RequestToken) ResponseParser.toObject(
+                BinaryCodec.fromURLEncoded("request_token=token"
+                        + "&token_secret=secret&authorized=true"),
+                RequestToken.class);
+        Assert.assertEquals("token", token.getRequestToken());
+        Assert.assertTrue(token.isAuthorized());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedMessage() {
+        byte[] message = BinaryCodec.fromURLEncoded("nonce=abcdef");
+        BinaryCodec.decode(Arrays.copyOf(message, message.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVersion() {
+        BinaryCodec.decode(new byte[] {2});
+    }
+}
@@ -0,0 +1,100 @@
+package org.pdguard.api.utils;
+
+import org.junit.Test;
+import org.pdguard.api.model.ClientCredentials;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.RequestToken;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestParameterCodec {
+    public static class Base {
+        private String clientId;
+
+        private static final String IGNORED = "ignored";
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public void setClientId(String clientId) {
+            this.clientId = clientId;
+        }
+    }
+
+    public static class Derived extends Base {
+        private Long timestamp;
+
+        public boolean enabled;
+
+        public Long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(Long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    @Test
+    public void testCodecIsCached() {
+        assertSame(ParameterCodec.forClass(RequestToken.class),
+                ParameterCodec.forClass(RequestToken.class));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ParameterCodec<RequestToken> codec = ParameterCodec.forClass(
+                RequestToken.class);
+        RequestToken token = new RequestToken("a b/+é", "Secret");
+        token.setAuthorized(true);
+        String encoded = codec.encode(token);
+        assertEquals("request_token=a%20b%2F%2B%C3%A9&token_secret=Secret"
+                + "&authorized=true", encoded);
+        RequestToken decoded = codec.decode(encoded);
+        assertEquals("a b/+é", decoded.getRequestToken());
+        assertEquals("Secret", decoded.getTokenSecret());
+        assertTrue(decoded.isAuthorized());
+    }
+
+    @Test
+    public void testLegacyParameterNames() {
+        EncryptionKey key = ParameterCodec.forClass(EncryptionKey.class)
+                .decode("ENCRYPTION_KEY=abc");
+        assertEquals("abc", key.getEncryptionKey());
+        ClientCredentials credentials = ParameterCodec.forClass(
+                ClientCredentials.class).decode("client_secret=s&client_id=");
+        assertEquals("", credentials.getClientId());
+        assertEquals("s", credentials.getClientSecret());
+    }
+
+    @Test
+    public void testInheritedAndPublicFields() {
+        ParameterCodec<Derived> codec = ParameterCodec.forClass(
+                Derived.class);
+        assertEquals(Arrays.asList("timestamp", "enabled", "client_id"),
+                codec.getParameterNames());
+        Derived derived = codec.decode("client_id=id&timestamp=42"
+                + "&enabled=true");
+        assertEquals("id", derived.getClientId());
+        assertEquals(Long.valueOf(42), derived.getTimestamp());
+        assertTrue(derived.enabled);
+        TreeMap<String, String> map = codec.toMap(derived, "enabled");
+        assertEquals("{client_id=id, timestamp=42}", map.toString());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownParameter() {
+        ParameterCodec.forClass(EncryptionKey.class).decode("unknown=value");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMalformedResponse() {
+        ParameterCodec.forClass(EncryptionKey.class).decode("encryption_key");
+    }
+}
@@ -0,0 +1,46 @@
+package org.pdguard.api.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSubsumptionIndex {
+    private final SubsumptionIndex<DataType> index = DataType.getIndex();
+
+    private static boolean walk(Subsumption value, Subsumption ancestor) {
+        for (Subsumption s = value; s != null; s = s.getParent())
+            if (s == ancestor)
+                return true;
+        return false;
+    }
+
+    @Test
+    public void testIndexAgreesWithParents() {
+        for (DataType value : DataType.values())
+            for (DataType ancestor : DataType.values())
+                Assert.assertEquals(walk(value, ancestor),
+                        index.is(value, ancestor));
+    }
+
+    @Test
+    public void testAncestorsNearestFirst() {
+        Assert.assertEquals(2, index.getDepth(DataType.SURNAME));
+        Assert.assertEquals(DataType.SURNAME,
+                index.getAncestor(DataType.SURNAME, 0));
+        Assert.assertEquals(DataType.IDENTITY,
+                index.getAncestor(DataType.SURNAME, 1));
+        Assert.assertEquals(DataType.PERSONAL,
+                index.getAncestor(DataType.SURNAME, 2));
+        Assert.assertNull(index.getAncestor(DataType.SURNAME, 3));
+        Assert.assertEquals(0, index.getDepth(DataType.PERSONAL));
+    }
+
+    @Test
+    public void testAncestorsOfOtherTypeAreNotIndexed() {
+        SubsumptionIndex<TestSubsumption.Tetrapod> tetrapods =
+                new SubsumptionIndex<>(TestSubsumption.Tetrapod.class);
+        Assert.assertEquals(0, tetrapods.getDepth(
+                TestSubsumption.Tetrapod.WOLF));
+        Assert.assertTrue(TestSubsumption.Tetrapod.WOLF.is(
+                TestSubsumption.TetrapodType.MAMMAL));
+    }
+}
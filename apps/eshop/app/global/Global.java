@@ -2,13 +2,21 @@ package global;
 
 import play.Application;
 import models.Product;
+import org.pdguard.api.DataProtectionRegistry;
+import play.Configuration;
 import play.GlobalSettings;
 import play.Logger;
 import play.Play;
+import security.CryptographyController;
 
 public class Global extends GlobalSettings {
     @Override
     public void onStart(Application app) {
+        Configuration conf = app.configuration();
+        CryptographyController.getRegistry().setKeyCaching(
+                conf.getInt("pdguard.keyCache.maxEntries", 0),
+                conf.getMilliseconds("pdguard.keyCache.timeToLive",
+                        DataProtectionRegistry.DEFAULT_CACHE_TIME_TO_LIVE));
         if (Play.application().configuration().getBoolean("startAkkaActor")) {
             if (Product.getFinder().all().size() == 0) {
                 Logger.info("Application has started");
@@ -18,6 +18,7 @@ package security;
 
 import org.pdguard.api.exceptions.AccessDeniedException;
 import org.pdguard.api.DataProtection;
+import org.pdguard.api.DataProtectionRegistry;
 import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
 import org.pdguard.api.utils.DataUse;
 import org.pdguard.api.utils.DataProvenance;
@@ -33,9 +34,26 @@ import java.io.IOException;
  * for the encryption and decryption of personal data which belongs to a
  * specific data subject.
  *
+ * Controllers are created per request, but the <code>DataProtection</code>
+ * objects they use are handed out by a registry shared by the application,
+ * so that connections, TLS context and caches of encryption keys are shared
+ * among all customers of an escrow agent.
+ *
+ * Encryption keys are not cached unless the application configures caching
+ * of the registry on start.
+ *
  * @author Thodoris Sotiropoulos, Thodoris Mavrikis
  */
 public class CryptographyController {
+    /** Registry of the DataProtection objects of customers. */
+    private static final DataProtectionRegistry REGISTRY =
+            new DataProtectionRegistry();
+
+    static {
+        REGISTRY.setKeyCaching(0,
+                DataProtectionRegistry.DEFAULT_CACHE_TIME_TO_LIVE);
+    }
+
     /**
      * The EscrowAgentConnection which is responsible for the encryption and
      * decryption of data.
@@ -52,7 +70,16 @@ public class CryptographyController {
      */
     public CryptographyController(final String eagent,
             final ClientCredentials clientCredentials) {
-        dataProtection = new DataProtection(eagent, clientCredentials);
+        dataProtection = REGISTRY.get(eagent, clientCredentials);
+    }
+
+    /**
+     * Getter of REGISTRY field.
+     *
+     * @return Registry of the DataProtection objects of customers.
+     */
+    public static DataProtectionRegistry getRegistry() {
+        return REGISTRY;
     }
 
     /**
@@ -0,0 +1,254 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.auth;
+
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.SubsumptionIndex;
+import org.pdguard.eagent.models.AllowableAction;
+import org.pdguard.eagent.models.AllowableProvenance;
+import org.pdguard.eagent.models.AuthorizationRule;
+
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * This class is the compiled form of the authorization rules which a data
+ * subject has defined for a data controller.
+ *
+ * For every type of data, the allowable uses and the allowable provenances are
+ * kept as bitmasks of the ordinals of {@link DataUse} and
+ * {@link DataProvenance}. The validity period of every allowable use or
+ * provenance is kept in an array which holds the start and the end of each
+ * period in the order of the bits of the mask.
+ *
+ * Types of data inherit the rules of their ancestors. When a type has no rule
+ * of its own, the rule of its nearest ancestor applies; a rule which does not
+ * permit anything, as created by default when data are first stored, is
+ * transparent, whereas a rule which locks data is not. Inheritance is
+ * resolved through {@link DataType#getIndex()} when the policy is compiled,
+ * so a decision reads a single mask.
+ *
+ * A compiled policy is immutable, so it can be shared by concurrent requests.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+final class CompiledPolicy {
+    /** Number of bits of a mask. */
+    private static final int MASK_BITS = Long.SIZE;
+
+    static {
+        if (DataUse.values().length > MASK_BITS
+                || DataProvenance.values().length > MASK_BITS)
+            throw new IllegalStateException("Too many values for a bitmask");
+    }
+
+    /** Empty validity periods of a type of data whose rule locks data. */
+    private static final long[] LOCKED = new long[0];
+
+    /** Masks of allowable uses indexed by the ordinal of type of data. */
+    private final long[] useMasks = new long[DataType.values().length];
+
+    /** Validity periods of allowable uses indexed by type of data. */
+    private final long[][] useWindows = new long[DataType.values().length][];
+
+    /** Masks of allowable provenances indexed by type of data. */
+    private final long[] provenanceMasks = new long[DataType.values()
+            .length];
+
+    /** Validity periods of allowable provenances indexed by type of data. */
+    private final long[][] provenanceWindows =
+            new long[DataType.values().length][];
+
+    /**
+     * Compiles a set of authorization rules.
+     *
+     * @param rules Authorization rules which a data subject has defined for
+     * a data controller, along with their allowable actions and provenances.
+     */
+    CompiledPolicy(final Collection<AuthorizationRule> rules) {
+        for (AuthorizationRule rule : rules) {
+            int type = rule.getDataType().ordinal();
+            long mask = 0;
+            boolean locked = false;
+            for (AllowableAction action : rule.getAllowableActions())
+                if (action.getDataUse() != null)
+                    mask |= 1L << action.getDataUse().ordinal();
+                else
+                    locked |= action.isLock();
+            long[] windows = new long[2 * Long.bitCount(mask)];
+            for (AllowableAction action : rule.getAllowableActions())
+                if (action.getDataUse() != null)
+                    setWindow(windows, mask, action.getDataUse().ordinal(),
+                            action.getValidFrom(), action.getValidTo());
+            useMasks[type] = mask;
+            useWindows[type] = own(mask, locked, windows);
+            mask = 0;
+            locked = false;
+            for (AllowableProvenance provenance
+                    : rule.getAllowableProvenances())
+                if (provenance.getDataProvenance() != null)
+                    mask |= 1L << provenance.getDataProvenance().ordinal();
+                else
+                    locked |= provenance.isLock();
+            windows = new long[2 * Long.bitCount(mask)];
+            for (AllowableProvenance provenance
+                    : rule.getAllowableProvenances())
+                if (provenance.getDataProvenance() != null)
+                    setWindow(windows, mask, provenance.getDataProvenance()
+                            .ordinal(), provenance.getValidFrom(),
+                            provenance.getValidTo());
+            provenanceMasks[type] = mask;
+            provenanceWindows[type] = own(mask, locked, windows);
+        }
+        inherit(useMasks, useWindows);
+        inherit(provenanceMasks, provenanceWindows);
+    }
+
+    /**
+     * This method decides whether the rule of a type of data applies to the
+     * type itself or it is inherited from its ancestors.
+     *
+     * @param mask Mask of the rule.
+     * @param locked true if the rule locks data.
+     * @param windows Validity periods of the rule.
+     * @return Validity periods of the rule, {@link #LOCKED} if the rule
+     * locks data, or null if the rule is inherited.
+     */
+    private static long[] own(final long mask, final boolean locked,
+            final long[] windows) {
+        if (mask != 0)
+            return windows;
+        return locked ? LOCKED : null;
+    }
+
+    /**
+     * This method gives every type of data without a rule of its own the
+     * rule of its nearest ancestor which has one.
+     *
+     * Types are visited from the roots to the leaves, so the rule of an
+     * ancestor is resolved before the rules of its descendants.
+     *
+     * @param masks Masks indexed by type of data.
+     * @param windows Validity periods indexed by type of data; null for
+     * types without a rule of their own.
+     */
+    private static void inherit(final long[] masks, final long[][] windows) {
+        SubsumptionIndex<DataType> index = DataType.getIndex();
+        int[] order = new int[masks.length];
+        int maxDepth = 0;
+        for (DataType dataType : DataType.values())
+            maxDepth = Math.max(maxDepth, index.getDepth(dataType));
+        int position = 0;
+        for (int depth = 0; depth <= maxDepth; depth++)
+            for (DataType dataType : DataType.values())
+                if (index.getDepth(dataType) == depth)
+                    order[position++] = dataType.ordinal();
+        for (int type : order) {
+            if (windows[type] != null)
+                continue;
+            int parent = index.getAncestorOrdinal(type, 1);
+            if (parent >= 0) {
+                masks[type] = masks[parent];
+                windows[type] = windows[parent];
+            }
+        }
+    }
+
+    /**
+     * This method stores the validity period of an allowable use or
+     * provenance.
+     *
+     * @param windows Validity periods of the type of data.
+     * @param mask Mask of the type of data.
+     * @param bit Ordinal of allowable use or provenance.
+     * @param validFrom Date when validity period starts.
+     * @param validTo Date when validity period ends.
+     */
+    private static void setWindow(final long[] windows, final long mask,
+            final int bit, final Date validFrom, final Date validTo) {
+        int index = 2 * rank(mask, bit);
+        windows[index] = validFrom == null ? Long.MIN_VALUE
+                : validFrom.getTime();
+        windows[index + 1] = validTo == null ? Long.MAX_VALUE
+                : validTo.getTime();
+    }
+
+    /**
+     * This method finds the position of a bit among the set bits of a mask.
+     *
+     * @param mask Mask.
+     * @param bit Bit which is set.
+     * @return Number of set bits of mask which are lower than the given one.
+     */
+    private static int rank(final long mask, final int bit) {
+        return Long.bitCount(mask & ((1L << bit) - 1));
+    }
+
+    /**
+     * This method checks whether a bit of a mask is set and its validity
+     * period has not passed.
+     *
+     * Validity is judged as {@link org.pdguard.eagent.common.PeriodValidity}
+     * does: a period is valid on its first moment and before its end.
+     *
+     * @param mask Mask of the type of data.
+     * @param windows Validity periods of the type of data.
+     * @param bit Ordinal of use or provenance.
+     * @param now Current time (in milliseconds since epoch).
+     * @return true if bit is set and valid.
+     */
+    private static boolean isAllowed(final long mask, final long[] windows,
+            final int bit, final long now) {
+        if ((mask & (1L << bit)) == 0)
+            return false;
+        int index = 2 * rank(mask, bit);
+        return now == windows[index] || now < windows[index + 1];
+    }
+
+    /**
+     * This method decides whether data can be used in a specific way.
+     *
+     * @param dataType Type of data.
+     * @param dataUse Intended use of the decrypted data.
+     * @param now Current time (in milliseconds since epoch).
+     * @return true if data subject allows this use of data.
+     */
+    boolean isAllowed(final DataType dataType, final DataUse dataUse,
+            final long now) {
+        int type = dataType.ordinal();
+        return dataUse != null && isAllowed(useMasks[type], useWindows[type],
+                dataUse.ordinal(), now);
+    }
+
+    /**
+     * This method decides whether data obtained from a specific source can
+     * be stored.
+     *
+     * @param dataType Type of data.
+     * @param dataProvenance Source where data were obtained from.
+     * @param now Current time (in milliseconds since epoch).
+     * @return true if data subject allows this provenance of data.
+     */
+    boolean isAllowed(final DataType dataType,
+            final DataProvenance dataProvenance, final long now) {
+        int type = dataType.ordinal();
+        return dataProvenance != null && isAllowed(provenanceMasks[type],
+                provenanceWindows[type], dataProvenance.ordinal(), now);
+    }
+}
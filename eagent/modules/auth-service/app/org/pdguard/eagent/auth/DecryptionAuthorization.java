@@ -18,7 +18,6 @@ package org.pdguard.eagent.auth;
 
 import org.pdguard.api.model.DecryptionBundle;
 import org.pdguard.eagent.logs.AuthorizationResult;
-import org.pdguard.eagent.models.AllowableAction;
 
 /**
  * This class implements the authorization processing of a decryption PDGuard
@@ -60,10 +59,13 @@ public class DecryptionAuthorization implements AuthorizationApi {
     /**
      * This method processes the authorization of a decryption PDGuard request
      * based on the predefined guidelines of data subject.
+     *
+     * Guidelines are looked up in the compiled policy of data subject and
+     * data controller.
      */
     @Override
     public AuthorizationResult processAuthorization() {
-        boolean isAuthorized = AllowableAction.isAuthorized(dataSubjectId,
+        boolean isAuthorized = PolicyEngine.isAuthorized(dataSubjectId,
                 dataControllerId, authBundle.getDataType(),
                 authBundle.getDataUse());
         authResult = isAuthorized ? AuthorizationResult.ALLOWED :
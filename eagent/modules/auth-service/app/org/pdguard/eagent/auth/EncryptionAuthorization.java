@@ -18,7 +18,6 @@ package org.pdguard.eagent.auth;
 
 import org.pdguard.api.model.EncryptionBundle;
 import org.pdguard.eagent.logs.AuthorizationResult;
-import org.pdguard.eagent.models.AllowableProvenance;
 import org.pdguard.eagent.models.DataController;
 import org.pdguard.eagent.models.DataSubject;
 
@@ -49,13 +48,14 @@ public class EncryptionAuthorization extends EncryptionRequest {
      *
      * For the very first time the current escrow agent allows the
      * storage of data. However, they are locked until data subject
-     * define his own guidelines.
+     * define his own guidelines. Guidelines are looked up in the compiled
+     * policy of data subject and data controller.
      */
     @Override
     public AuthorizationResult processAuthorization() {
         boolean isAuthorized = true;
         if (authBundle.isUpdate())
-            isAuthorized = AllowableProvenance.isAuthorized(dataSubject.getId(),
+            isAuthorized = PolicyEngine.isAuthorized(dataSubject.getId(),
                     dataController.getId(), authBundle.getDataType(),
                     authBundle.getDataProvenance());
         else
@@ -0,0 +1,271 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.auth;
+
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.eagent.common.AuthRuleEvents;
+import org.pdguard.eagent.common.AuthRuleListener;
+import org.pdguard.eagent.models.AuthorizationRule;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * This class decides on the authorization of decryption and encryption
+ * requests by using the compiled authorization rules of data subjects.
+ *
+ * The rules which a data subject has defined for a data controller are loaded
+ * from the database and compiled into a {@link CompiledPolicy} when they are
+ * first needed. Later decisions for the same data subject and data controller
+ * do not touch the database. A compiled policy is discarded when any of its
+ * rules changes, e.g. when data subject edits them through the web interface,
+ * and it is compiled again on the next request.
+ *
+ * At most a fixed number of policies is kept; the least recently used ones
+ * are discarded first.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class PolicyEngine implements AuthRuleListener {
+    /** Default maximum number of compiled policies kept in memory. */
+    public static final int DEFAULT_MAX_POLICIES = 10000;
+
+    /** Initial capacity of map of policies. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of map of policies. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Policy engine of escrow agent. */
+    private static final PolicyEngine INSTANCE = new PolicyEngine(
+            DEFAULT_MAX_POLICIES, new BiFunction<String, String,
+            Collection<AuthorizationRule>>() {
+                @Override
+                public Collection<AuthorizationRule> apply(
+                        final String dataSubjectId,
+                        final String dataControllerId) {
+                    return AuthorizationRule.findRules(dataSubjectId,
+                            dataControllerId);
+                }
+            });
+
+    static {
+        AuthRuleEvents.addListener(INSTANCE);
+    }
+
+    /** Loader of the rules of a data subject and a data controller. */
+    private final BiFunction<String, String, Collection<AuthorizationRule>>
+            loader;
+
+    /** Compiled policies in least recently used order. */
+    private final Map<PolicyId, CompiledPolicy> policies;
+
+    /**
+     * Number of changes of rules; a policy compiled while rules changed is
+     * not kept.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Number of policies compiled. */
+    private final AtomicLong compilations = new AtomicLong();
+
+    /**
+     * Creates a new policy engine.
+     *
+     * @param maxPolicies Maximum number of compiled policies kept in memory.
+     * @param loader Loader of the rules of a data subject and a data
+     * controller.
+     */
+    PolicyEngine(final int maxPolicies, final BiFunction<String, String,
+            Collection<AuthorizationRule>> loader) {
+        if (maxPolicies < 1)
+            throw new IllegalArgumentException("Invalid number of policies");
+        this.loader = loader;
+        policies = new LinkedHashMap<PolicyId, CompiledPolicy>(
+                INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<PolicyId, CompiledPolicy> eldest) {
+                return size() > maxPolicies;
+            }
+        };
+    }
+
+    /**
+     * Getter of the policy engine of escrow agent.
+     *
+     * @return Policy engine which is notified of all changes of rules.
+     */
+    public static PolicyEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks if a data controller is allowed to use data of a data subject
+     * in the way it defines.
+     *
+     * @param dataSubjectId Id of data subject.
+     * @param dataControllerId Id of data controller.
+     * @param dataType Type of data.
+     * @param dataUse The intended use of the decrypted data.
+     *
+     * @return True if data subject allows this use of data, false otherwise.
+     */
+    public static boolean isAuthorized(final String dataSubjectId,
+            final String dataControllerId, final DataType dataType,
+            final DataUse dataUse) {
+        return INSTANCE.getPolicy(dataSubjectId, dataControllerId).isAllowed(
+                dataType, dataUse, System.currentTimeMillis());
+    }
+
+    /**
+     * Checks if a data controller is allowed to store data of a data subject
+     * which were obtained from a specific source.
+     *
+     * @param dataSubjectId Id of data subject.
+     * @param dataControllerId Id of data controller.
+     * @param dataType Type of data.
+     * @param dataProvenance Source where data were obtained from.
+     *
+     * @return True if data subject allows this provenance of data, false
+     * otherwise.
+     */
+    public static boolean isAuthorized(final String dataSubjectId,
+            final String dataControllerId, final DataType dataType,
+            final DataProvenance dataProvenance) {
+        return INSTANCE.getPolicy(dataSubjectId, dataControllerId).isAllowed(
+                dataType, dataProvenance, System.currentTimeMillis());
+    }
+
+    /**
+     * This method gets the compiled policy of a data subject and a data
+     * controller, compiling it if it is not kept in memory.
+     *
+     * @param dataSubjectId Id of data subject.
+     * @param dataControllerId Id of data controller.
+     * @return Compiled policy.
+     */
+    CompiledPolicy getPolicy(final String dataSubjectId,
+            final String dataControllerId) {
+        PolicyId policyId = new PolicyId(dataSubjectId, dataControllerId);
+        CompiledPolicy policy;
+        synchronized (policies) {
+            policy = policies.get(policyId);
+        }
+        if (policy != null)
+            return policy;
+        long current = generation.get();
+        policy = new CompiledPolicy(loader.apply(dataSubjectId,
+                dataControllerId));
+        compilations.incrementAndGet();
+        synchronized (policies) {
+            if (generation.get() == current)
+                policies.put(policyId, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * This method discards the compiled policy of a data subject and a data
+     * controller.
+     *
+     * @param dataSubjectId Id of data subject.
+     * @param dataControllerId Id of data controller.
+     */
+    @Override
+    public void ruleChanged(final String dataSubjectId,
+            final String dataControllerId) {
+        synchronized (policies) {
+            generation.incrementAndGet();
+            policies.remove(new PolicyId(dataSubjectId, dataControllerId));
+        }
+    }
+
+    /** This method discards all compiled policies. */
+    public void invalidateAll() {
+        synchronized (policies) {
+            generation.incrementAndGet();
+            policies.clear();
+        }
+    }
+
+    /**
+     * Getter of the number of compiled policies kept in memory.
+     *
+     * @return Number of compiled policies.
+     */
+    public int size() {
+        synchronized (policies) {
+            return policies.size();
+        }
+    }
+
+    /**
+     * Getter of the number of compilations.
+     *
+     * @return Number of times that rules were loaded from database and
+     * compiled.
+     */
+    public long getCompilationCount() {
+        return compilations.get();
+    }
+
+    /** Identifier of the policy of a data subject and a data controller. */
+    private static final class PolicyId {
+        /** Id of data subject. */
+        private final String dataSubjectId;
+
+        /** Id of data controller. */
+        private final String dataControllerId;
+
+        /**
+         * Creates a new identifier.
+         *
+         * @param dataSubjectId Id of data subject.
+         * @param dataControllerId Id of data controller.
+         */
+        PolicyId(final String dataSubjectId, final String dataControllerId) {
+            this.dataSubjectId = dataSubjectId;
+            this.dataControllerId = dataControllerId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof PolicyId))
+                return false;
+            PolicyId policyId = (PolicyId) o;
+            return Objects.equals(dataSubjectId, policyId.dataSubjectId)
+                    && Objects.equals(dataControllerId,
+                    policyId.dataControllerId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dataSubjectId, dataControllerId);
+        }
+    }
+}
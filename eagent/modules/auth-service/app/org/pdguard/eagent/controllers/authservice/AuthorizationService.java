@@ -50,10 +50,6 @@ import java.util.HashMap;
  * @author Thodoris Sotiropoulos
  */
 public class AuthorizationService extends Controller {
-    /** Content type of response. */
-    private static final String CONT_TYPE = "application/x-www-form-urlencoded;"
-            + " charset=utf-8";
-
     /**
      * Gets request from a data controller and then checks if he has the
      * authorization to access encrypted data. If yes, then authorizes given
@@ -73,9 +69,9 @@ public class AuthorizationService extends Controller {
             final String clientId, final String requestToken) {
         Client client = Client.authenticate(clientId);
         if (client == null)
-            return unauthorized(ResponseParser.encodeParameter(
-                    "authentication_error", "Unauthenticated client"))
-                    .as(CONT_TYPE);
+            return PDGuardService.respond(UNAUTHORIZED,
+                    ResponseParser.encodeParameter("authentication_error",
+                    "Unauthenticated client"));
         AuthorizationApi authApi = new DecryptionAuthorization(
                 new DecryptionBundle(DataType.valueOf(dataType),
                         DataUse.valueOf(dataUse),
@@ -105,9 +101,9 @@ public class AuthorizationService extends Controller {
             final String clientId, final String requestToken) {
         Client client = Client.authenticate(clientId);
         if (client == null)
-            return unauthorized(ResponseParser.encodeParameter(
-                    "authentication_error", "Unauthenticated client"))
-                    .as(CONT_TYPE);
+            return PDGuardService.respond(UNAUTHORIZED,
+                    ResponseParser.encodeParameter("authentication_error",
+                    "Unauthenticated client"));
         AuthorizationApi authApi = new DefaultDecryptionAuthorization(
                 new DecryptionBundle(DataType.valueOf(dataType),
                         DataUse.valueOf(dataUse),
@@ -136,9 +132,9 @@ public class AuthorizationService extends Controller {
             final String clientId, final String requestToken) {
         Client client = Client.authenticate(clientId);
         if (client == null)
-            return unauthorized(ResponseParser.encodeParameter(
-                    "authentication_error", "Unauthenticated client"))
-                    .as(CONT_TYPE);
+            return PDGuardService.respond(UNAUTHORIZED,
+                    ResponseParser.encodeParameter("authentication_error",
+                    "Unauthenticated client"));
         AuthorizationApi authApi = new EncryptionAuthorization(
                 new EncryptionBundle(DataType.valueOf(dataType),
                         DataProvenance.valueOf(dataProvenance),
@@ -171,9 +167,9 @@ public class AuthorizationService extends Controller {
             final String clientId, final String requestToken) {
         Client client = Client.authenticate(clientId);
         if (client == null)
-            return unauthorized(ResponseParser.encodeParameter(
-                    "authentication_error", "Unauthenticated client"))
-                    .as(CONT_TYPE);
+            return PDGuardService.respond(UNAUTHORIZED,
+                    ResponseParser.encodeParameter("authentication_error",
+                    "Unauthenticated client"));
         AuthorizationApi authApi = new DefaultEncryptionAuthorization(
                 new EncryptionBundle(DataType.valueOf(dataType),
                         DataProvenance.valueOf(dataProvenance),
@@ -187,7 +183,7 @@ public class AuthorizationService extends Controller {
         PDGuardRequestProcessor processor = new PDGuardRequestProcessor(
                 pdGuardRequest);
         processor.processRequest();
-        return status(processor.getStatusCode(), processor.getResponse())
-                .as(CONT_TYPE);
+        return PDGuardService.respond(processor.getStatusCode(),
+                processor.getResponse());
     }
 }
@@ -19,6 +19,7 @@ package org.pdguard.eagent.controllers.authservice;
 import org.pdguard.api.model.AuthorizationBundle;
 import org.pdguard.api.model.DecryptionBundle;
 import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.utils.BinaryCodec;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataUse;
 import org.pdguard.api.utils.DataType;
@@ -27,6 +28,8 @@ import org.pdguard.api.utils.PDGuardRequestType;
 import org.pdguard.api.utils.ResponseParser;
 import org.pdguard.eagent.forms.ParametersBundle;
 import org.pdguard.eagent.forms.ParametersBundleReq;
+import org.pdguard.eagent.requests.BatchAuthorization;
+import org.pdguard.eagent.requests.OneShotKeyAcquisition;
 import org.pdguard.eagent.requests.PDGuardRequest;
 import org.pdguard.eagent.requests.PDGuardRequestProcessor;
 import org.pdguard.eagent.requests.RequestTokenExchange;
@@ -35,11 +38,19 @@ import org.pdguard.eagent.requests.RequestTokenValidation;
 import play.data.DynamicForm;
 import play.data.Form;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+import static org.pdguard.api.services.BatchAuthorizationService.ITEM_COUNT;
+import static org.pdguard.api.services.BatchAuthorizationService.MAX_BATCH_SIZE;
+import static org.pdguard.api.services.BatchAuthorizationService.itemParameter;
+
 /**
  * This class extends {@link play.mvc.Controller} class and contains public
  * static methods which represent an action.
@@ -49,6 +60,12 @@ import java.util.Map;
  * This contains request handler methods for the escrow agent's PDGuard
  * services.
  *
+ * Requests and responses are URL encoded, unless the client negotiates the
+ * binary wire format of {@link BinaryCodec}: a request whose content type is
+ * the binary media type is decoded to the same parameters, and a client
+ * whose <code>Accept</code> header names the binary media type receives
+ * binary responses, where encryption keys are carried as raw bytes.
+ *
  * @author Thodoris Sotiropoulos
  */
 public class PDGuardService extends Controller {
@@ -62,6 +79,49 @@ public class PDGuardService extends Controller {
      */
     private static final HashMap<String, DataType> DATA_TYPES = new HashMap<>();
 
+    /**
+     * This method binds the parameters of current request, either URL encoded
+     * or in the binary wire format.
+     *
+     * A malformed binary request is bound to no parameters, so that it is
+     * rejected as a request with missing parameters.
+     *
+     * @return Parameters of request.
+     */
+    static DynamicForm bindRequest() {
+        String contentType = request().getHeader(CONTENT_TYPE);
+        if (contentType == null || !contentType.trim().toLowerCase(
+                Locale.ENGLISH).startsWith(BinaryCodec.MEDIA_TYPE))
+            return Form.form().bindFromRequest();
+        Http.RawBuffer body = request().body().asRaw();
+        byte[] content = body == null ? null : body.asBytes();
+        Map<String, String> parameters;
+        try {
+            parameters = content == null ? new HashMap<String, String>()
+                    : BinaryCodec.toParameters(content);
+        } catch (IllegalArgumentException e) {
+            parameters = new HashMap<>();
+        }
+        return Form.form().bind(parameters);
+    }
+
+    /**
+     * This method creates a response in the format accepted by client.
+     *
+     * @param statusCode Status code of response.
+     * @param response Parameters of response in URL encoded format.
+     *
+     * @return Response URL encoded or, if client accepts it, in the binary
+     * wire format.
+     */
+    static Result respond(final int statusCode, final String response) {
+        String accept = request().getHeader(ACCEPT);
+        if (accept != null && accept.contains(BinaryCodec.MEDIA_TYPE))
+            return status(statusCode, BinaryCodec.fromURLEncoded(response))
+                    .as(BinaryCodec.MEDIA_TYPE);
+        return status(statusCode, response).as(CONT_TYPE);
+    }
+
     /**
      * This method gets a request for the generation of an unauthorized
      * request token.
@@ -74,7 +134,7 @@ public class PDGuardService extends Controller {
      * credentials to the client.
      */
     public static Result requestToken() {
-        DynamicForm df = play.data.Form.form().bindFromRequest();
+        DynamicForm df = bindRequest();
         Map<String, String> parameters = new HashMap<>();
         parameters.put("clientId", df.get("client_id"));
         parameters.put("signature", df.get("signature"));
@@ -83,13 +143,12 @@ public class PDGuardService extends Controller {
         Form<ParametersBundle> form = Form.form(ParametersBundle
                 .class).bind(parameters);
         if (form.hasErrors())
-            return badRequest(ResponseParser.encodeParameter("error",
-                    "Missing parameter")).as(CONT_TYPE);
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
         PDGuardRequest request = new RequestTokenGeneration(form.get());
         PDGuardRequestProcessor processor = new PDGuardRequestProcessor(request);
         processor.processRequest();
-        return status(processor.getStatusCode(), processor.getResponse())
-                .as(CONT_TYPE);
+        return respond(processor.getStatusCode(), processor.getResponse());
     }
 
     /**
@@ -103,7 +162,7 @@ public class PDGuardService extends Controller {
      * credentials to the client.
      */
     public static Result authorizeRequestToken() {
-        DynamicForm df = play.data.Form.form().bindFromRequest();
+        DynamicForm df = bindRequest();
         Map<String, String> parameters = new HashMap<>();
         parameters.put("clientId", df.get("client_id"));
         parameters.put("signature", df.get("signature"));
@@ -113,11 +172,11 @@ public class PDGuardService extends Controller {
         Form<ParametersBundleReq> form = Form.form(ParametersBundleReq
                 .class).bind(parameters);
         if (form.hasErrors())
-            return badRequest(ResponseParser.encodeParameter("error",
-                    "Missing parameter")).as(CONT_TYPE);
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
         if (df.get("request_type") == null)
-            return badRequest(ResponseParser.encodeParameter("error",
-                    "Missing parameter")).as(CONT_TYPE);
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
         PDGuardRequestType requestType = PDGuardRequestType.valueOf(
                 df.get("request_type"));
         AuthorizationBundle authBundle;
@@ -125,8 +184,8 @@ public class PDGuardService extends Controller {
             authBundle = getAuthorizationBundle(df,
                 requestType);
         } catch (IllegalArgumentException e) {
-            return badRequest(ResponseParser.encodeParameter("error",
-                    e.getMessage())).as(CONT_TYPE);
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    e.getMessage()));
         }
         PDGuardRequest pdGuardRequest = new RequestTokenValidation(
                 form.get(), authBundle, requestType);
@@ -134,8 +193,7 @@ public class PDGuardService extends Controller {
                 pdGuardRequest);
         processor.processRequest();
         if (processor.getStatusCode() != OK)
-            return status(processor.getStatusCode(), processor.getResponse())
-                    .as(CONT_TYPE);
+            return respond(processor.getStatusCode(), processor.getResponse());
         DATA_TYPES.put(df.get("request_token"), authBundle.getDataType());
         return redirectAuthorizationServices(df, requestType);
 
@@ -155,21 +213,38 @@ public class PDGuardService extends Controller {
      */
     public static AuthorizationBundle getAuthorizationBundle(
             final DynamicForm form, final PDGuardRequestType requestType) {
-        String dataType = form.get("data_type");
+        return getAuthorizationBundle(form, requestType, "");
+    }
+
+    /**
+     * This method initializes the authorization bundle from parameters whose
+     * names start with the given prefix, e.g. the parameters of an item of a
+     * batch request.
+     *
+     * @param form Parameters of request.
+     * @param requestType Type of request; Encryption or Decryption.
+     * @param prefix Prefix of the names of parameters.
+     *
+     * @return Bundle of parameters.
+     */
+    static AuthorizationBundle getAuthorizationBundle(final DynamicForm form,
+            final PDGuardRequestType requestType, final String prefix) {
+        String dataType = form.get(prefix + "data_type");
         if (dataType == null)
             throw new IllegalArgumentException("Missing parameter");
         AuthorizationBundle authBundle;
         if (requestType.equals(PDGuardRequestType.ENCRYPTION)) {
-            String dataProvenance = form.get("data_provenance");
-            String update = form.get("update");
+            String dataProvenance = form.get(prefix + "data_provenance");
+            String update = form.get(prefix + "update");
             if (dataProvenance == null || update == null)
                 throw new IllegalArgumentException("Missing parameter");
             authBundle = new EncryptionBundle(DataType.valueOf(dataType),
                     DataProvenance.valueOf(dataProvenance),
                     Boolean.valueOf(update));
         } else {
-            String dataUse = form.get("data_use");
-            String interactionPurpose = form.get("interaction_purpose");
+            String dataUse = form.get(prefix + "data_use");
+            String interactionPurpose = form.get(prefix
+                    + "interaction_purpose");
             if (dataUse == null || interactionPurpose == null)
                 throw new IllegalArgumentException("Missing parameter");
             authBundle = new DecryptionBundle(DataType.valueOf(dataType),
@@ -179,6 +254,97 @@ public class PDGuardService extends Controller {
         return authBundle;
     }
 
+    /**
+     * This method gets a request for an encryption key which is authorized
+     * and answered in a single round trip, without a request token.
+     *
+     * Before escrow agent sends back encryption key, it verifies request and
+     * authorizes it. If verification of request fails, then returns
+     * UNAUTHORIZED (401) status code with the corresponding error response
+     * in URL encoded format.
+     *
+     * If authorization is granted, then it returns encryption key's content.
+     */
+    public static Result oneShotKey() {
+        DynamicForm df = bindRequest();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("clientId", df.get("client_id"));
+        parameters.put("signature", df.get("signature"));
+        parameters.put("nonce", df.get("nonce"));
+        parameters.put("timestamp", df.get("timestamp"));
+        Form<ParametersBundle> form = Form.form(ParametersBundle
+                .class).bind(parameters);
+        if (form.hasErrors() || df.get("request_type") == null)
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
+        PDGuardRequestType requestType;
+        AuthorizationBundle authBundle;
+        try {
+            requestType = PDGuardRequestType.valueOf(df.get("request_type"));
+            authBundle = getAuthorizationBundle(df, requestType);
+        } catch (IllegalArgumentException e) {
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    e.getMessage()));
+        }
+        PDGuardRequest pdGuardRequest = new OneShotKeyAcquisition(form.get(),
+                authBundle, requestType);
+        PDGuardRequestProcessor processor = new PDGuardRequestProcessor(
+                pdGuardRequest);
+        processor.processRequest();
+        return respond(processor.getStatusCode(), processor.getResponse());
+    }
+
+    /**
+     * This method gets a request for the authorization of a batch of
+     * requests under a single request token.
+     *
+     * Before escrow agent authorizes the items of batch, it verifies request.
+     * If verification of request fails, then returns UNAUTHORIZED (401) status
+     * code with the corresponding error response in URL encoded format.
+     *
+     * If verification of request is successful, then it returns the
+     * authorization result of every item and the encryption keys of the
+     * allowed items. Unlike the authorization of a single request, denial of
+     * an item does not fail the whole request.
+     */
+    public static Result authorizeBatch() {
+        DynamicForm df = bindRequest();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("clientId", df.get("client_id"));
+        parameters.put("signature", df.get("signature"));
+        parameters.put("nonce", df.get("nonce"));
+        parameters.put("timestamp", df.get("timestamp"));
+        parameters.put("requestToken", df.get("request_token"));
+        Form<ParametersBundleReq> form = Form.form(ParametersBundleReq
+                .class).bind(parameters);
+        if (form.hasErrors() || df.get(ITEM_COUNT) == null)
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
+        List<AuthorizationBundle> authBundles = new ArrayList<>();
+        try {
+            int itemCount = Integer.parseInt(df.get(ITEM_COUNT));
+            if (itemCount < 1 || itemCount > MAX_BATCH_SIZE)
+                throw new IllegalArgumentException("Invalid number of items");
+            for (int i = 0; i < itemCount; i++) {
+                String requestType = df.get(itemParameter(i, "request_type"));
+                if (requestType == null)
+                    throw new IllegalArgumentException("Missing parameter");
+                authBundles.add(getAuthorizationBundle(df,
+                        PDGuardRequestType.valueOf(requestType),
+                        itemParameter(i, "")));
+            }
+        } catch (IllegalArgumentException e) {
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    e.getMessage()));
+        }
+        PDGuardRequest pdGuardRequest = new BatchAuthorization(form.get(),
+                authBundles);
+        PDGuardRequestProcessor processor = new PDGuardRequestProcessor(
+                pdGuardRequest);
+        processor.processRequest();
+        return respond(processor.getStatusCode(), processor.getResponse());
+    }
+
     /**
      * This method redirects to the corresponding authorization service of
      * escrow agent to authorize the given request token.
@@ -214,7 +380,7 @@ public class PDGuardService extends Controller {
      * key's content.
      */
     public static Result requestTokenExchange() {
-        DynamicForm df = play.data.Form.form().bindFromRequest();
+        DynamicForm df = bindRequest();
         Map<String, String> parameters = new HashMap<>();
         parameters.put("clientId", df.get("client_id"));
         parameters.put("signature", df.get("signature"));
@@ -225,8 +391,8 @@ public class PDGuardService extends Controller {
                 .class).bind(parameters);
         DataType dataType = DATA_TYPES.get(df.get("request_token"));
         if (form.hasErrors() || dataType == null)
-            return badRequest(ResponseParser.encodeParameter("error",
-                    "Missing parameter")).as(CONT_TYPE);
+            return respond(BAD_REQUEST, ResponseParser.encodeParameter("error",
+                    "Missing parameter"));
         PDGuardRequest pdGuardRequest = new RequestTokenExchange(form.get(),
                 dataType);
         PDGuardRequestProcessor processor = new PDGuardRequestProcessor(
@@ -235,8 +401,7 @@ public class PDGuardService extends Controller {
         int statusCode = processor.getStatusCode();
         if (statusCode == OK)
             DATA_TYPES.remove(df.get("request_token"));
-        return status(statusCode, processor.getResponse()).
-                as(CONT_TYPE);
+        return respond(statusCode, processor.getResponse());
     }
 
     /**
@@ -0,0 +1,299 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.requests;
+
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.exceptions.UnretrievableKeyException;
+import org.pdguard.api.exceptions.UnverifiedRequestException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.api.utils.ResponseParser;
+import org.pdguard.eagent.auth.AuthorizationApi;
+import org.pdguard.eagent.auth.AuthorizationLogApiImpl;
+import org.pdguard.eagent.auth.DecryptionAuthorization;
+import org.pdguard.eagent.auth.EncryptionAuthorization;
+import org.pdguard.eagent.forms.ParametersBundleReq;
+import org.pdguard.eagent.logs.AuthorizationResult;
+import org.pdguard.eagent.models.Client;
+import org.pdguard.eagent.models.ReqToken;
+import org.pdguard.eagent.utils.EscrowAgentInfo;
+import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.RequestTokenValidator;
+import org.pdguard.eagent.validation.RequestValidator;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.apache.commons.codec.binary.Hex.encodeHex;
+import static org.pdguard.api.services.BatchAuthorizationService.ITEM_COUNT;
+import static org.pdguard.api.services.BatchAuthorizationService.getRequestType;
+import static org.pdguard.api.services.BatchAuthorizationService.itemParameter;
+
+/**
+ * This class is responsible for the authorization of a batch of PDGuard
+ * requests under a single request token.
+ *
+ * Every item of the batch is authorized separately according to the
+ * authorization rules of data subject and its outcome is logged as if it was
+ * a separate request. Escrow agent sends back the authorization result of
+ * every item and the encryption key of the items which are allowed. Request
+ * token is revoked afterwards, so it cannot be used again.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class BatchAuthorization implements PDGuardRequest,
+        RequestTokenValidator {
+    /**
+     * Bundle of parameters associated with the authentication of batch
+     * request.
+     */
+    private ParametersBundleReq params;
+
+    /** Bundles of parameters of items of batch. */
+    private List<AuthorizationBundle> authBundles;
+
+    /** Client who's requesting authorization. */
+    private Client client;
+
+    /** Request token under which items of batch are authorized. */
+    private ReqToken reqToken;
+
+    /**
+     * Initializes a PDGuard request for the authorization of a batch of
+     * requests.
+     *
+     * @param params Bundle of parameters associated with the authentication
+     * of batch request.
+     * @param authBundles Bundles of parameters of items of batch. Encryption
+     * bundles define encryption requests and decryption bundles define
+     * decryption requests.
+     */
+    public BatchAuthorization(final ParametersBundleReq params,
+            final List<AuthorizationBundle> authBundles) {
+        this.params = params;
+        this.authBundles = authBundles;
+    }
+
+    /**
+     * Creates a new request validator based on the given bundle of request
+     * parameters.
+     *
+     * @return Request validator.
+     */
+    RequestValidator initValidator() {
+        return new RequestValidator(params);
+    }
+
+    /**
+     * This method adds the parameters of items of batch to the parameters
+     * associated with the authentication processing of request.
+     *
+     * @param parameters Map which stores parameters associated with the
+     * authentication processing.
+     * @return Map with all parameters of request.
+     */
+    TreeMap<String, String> addAuthorizationParameters(
+            final TreeMap<String, String> parameters) {
+        parameters.put(ITEM_COUNT, String.valueOf(authBundles.size()));
+        for (int i = 0; i < authBundles.size(); i++) {
+            AuthorizationBundle authBundle = authBundles.get(i);
+            PDGuardRequestType requestType = getRequestType(authBundle);
+            parameters.put(itemParameter(i, "data_type"),
+                    authBundle.getDataType().toString());
+            parameters.put(itemParameter(i, "request_type"),
+                    requestType.toString());
+            if (requestType.equals(PDGuardRequestType.ENCRYPTION)) {
+                parameters.put(itemParameter(i, "data_provenance"),
+                        ((EncryptionBundle) authBundle).getDataProvenance()
+                                .toString());
+                parameters.put(itemParameter(i, "update"), String.valueOf((
+                        (EncryptionBundle) authBundle).isUpdate()));
+            } else {
+                parameters.put(itemParameter(i, "data_use"),
+                        ((DecryptionBundle) authBundle).getDataUse()
+                                .toString());
+                parameters.put(itemParameter(i, "interaction_purpose"),
+                        ((DecryptionBundle) authBundle)
+                                .getInteractionPurpose().toString());
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * This method validates a batch authorization request.
+     *
+     * Verification of request is associated with the signature verification
+     * by recalculating signature using the corresponding secret of client and
+     * request token using HMAC-SHA1 algorithm. Signature covers the parameters
+     * of all items of batch. Also, it verifies timestamp and nonce.
+     *
+     * @throws UnverifiedRequestException is thrown when request cannot be
+     * verified.
+     */
+    void validateBatchRequest() throws UnverifiedRequestException {
+        RequestValidator validator = initValidator();
+        client = validator.validateClient();
+        reqToken = ReqToken.authenticate(params.getRequestToken(),
+                client.getId());
+        validateRequestToken(reqToken);
+        String clientSecret = String.valueOf(encodeHex(client.getSecret()));
+        String tokenSecret = String.valueOf(encodeHex(reqToken
+                .getSecret()));
+        validator.setParameters(addAuthorizationParameters(validator
+                .getParameters()));
+        String signatureKey = clientSecret + "&" + tokenSecret;
+        validator.validateRequest(EscrowAgentInfo.getUrl()
+                + EscrowAgent.getBatchAuthorizationService(), signatureKey);
+    }
+
+    /**
+     * This method creates the API responsible for the authorization
+     * processing of an item of batch.
+     *
+     * @param authBundle Bundle of parameters of item.
+     * @return API responsible for the authorization processing.
+     */
+    AuthorizationApi initAuthorizationApi(
+            final AuthorizationBundle authBundle) {
+        if (getRequestType(authBundle).equals(PDGuardRequestType.ENCRYPTION))
+            return new EncryptionAuthorization((EncryptionBundle) authBundle,
+                    client.getDataSubject(), client.getDataController());
+        else
+            return new DecryptionAuthorization((DecryptionBundle) authBundle,
+                    client.getDataSubject().getId(),
+                    client.getDataController().getId());
+    }
+
+    /**
+     * This method authorizes every item of batch and gets the encryption
+     * keys of the allowed items.
+     *
+     * Every authorization is logged separately. Encryption key of a data type
+     * is requested once, regardless of the number of items of that type.
+     *
+     * @return Authorization results and encryption keys of items in a URL
+     * encoded format.
+     *
+     * @throws UnretrievableKeyException is thrown when encryption key cannot
+     * be retrieved or cannot be used.
+     */
+    public String authorizeBatch() throws UnretrievableKeyException {
+        Map<DataType, EncryptionKey> keys = new EnumMap<>(DataType.class);
+        StringBuilder response = new StringBuilder(ResponseParser
+                .encodeParameter(ITEM_COUNT, String.valueOf(authBundles
+                        .size())));
+        try {
+            for (int i = 0; i < authBundles.size(); i++) {
+                AuthorizationBundle authBundle = authBundles.get(i);
+                AuthorizationApi authApi = initAuthorizationApi(authBundle);
+                AuthorizationResult authResult = authApi
+                        .processAuthorization();
+                authApi.addAuthorizationLog(new AuthorizationLogApiImpl(
+                        client));
+                response.append("&").append(ResponseParser.encodeParameter(
+                        itemParameter(i, "result"), authResult.toString()));
+                if (!authResult.equals(AuthorizationResult.ALLOWED))
+                    continue;
+                EncryptionKey key = keys.get(authBundle.getDataType());
+                if (key == null) {
+                    key = KeyManager.requestEncryptionKey(
+                            client.getDataSubject().getId(),
+                            client.getDataController().getId(),
+                            authBundle.getDataType());
+                    keys.put(authBundle.getDataType(), key);
+                }
+                response.append("&").append(ResponseParser.encodeParameter(
+                        itemParameter(i, "encryption_key"),
+                        key.getEncryptionKey()));
+            }
+        } finally {
+            reqToken.revokeRequestToken(true);
+        }
+        return response.toString();
+    }
+
+    /**
+     * This method validates batch authorization request.
+     *
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * cannot validate request.
+     */
+    @Override
+    public void validate() throws EscrowAgentErrorResponseException {
+        validateBatchRequest();
+    }
+
+    /**
+     * This method processes batch authorization request.
+     *
+     * @return Authorization results and encryption keys of items in a URL
+     * encoded format.
+     *
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * cannot process request.
+     */
+    @Override
+    public String process() throws EscrowAgentErrorResponseException {
+        return authorizeBatch();
+    }
+
+    /**
+     * Getter of params field.
+     *
+     * @return Bundle of parameters associated with the authentication of
+     * batch request.
+     */
+    public ParametersBundleReq getParams() {
+        return params;
+    }
+
+    /**
+     * Getter of authBundles field.
+     *
+     * @return Bundles of parameters of items of batch.
+     */
+    public List<AuthorizationBundle> getAuthBundles() {
+        return authBundles;
+    }
+
+    /**
+     * Setter of client field.
+     *
+     * @param client Client who's requesting authorization.
+     */
+    public void setClient(final Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Setter of reqToken field.
+     *
+     * @param reqToken Request token under which items of batch are
+     * authorized.
+     */
+    public void setReqToken(final ReqToken reqToken) {
+        this.reqToken = reqToken;
+    }
+}
@@ -0,0 +1,230 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.requests;
+
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.exceptions.EscrowAgentErrorResponseException;
+import org.pdguard.api.exceptions.UnretrievableKeyException;
+import org.pdguard.api.exceptions.UnverifiedRequestException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.api.utils.ResponseParser;
+import org.pdguard.eagent.auth.AuthorizationApi;
+import org.pdguard.eagent.auth.AuthorizationLogApiImpl;
+import org.pdguard.eagent.auth.DecryptionAuthorization;
+import org.pdguard.eagent.auth.EncryptionAuthorization;
+import org.pdguard.eagent.forms.ParametersBundle;
+import org.pdguard.eagent.logs.AuthorizationResult;
+import org.pdguard.eagent.models.Client;
+import org.pdguard.eagent.utils.EscrowAgentInfo;
+import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.RequestValidator;
+import play.i18n.Messages;
+
+import java.util.TreeMap;
+
+import static org.apache.commons.codec.binary.Hex.encodeHex;
+
+/**
+ * This class is responsible for a PDGuard request which obtains an encryption
+ * key in a single round trip.
+ *
+ * Request is signed with the secret of client and it carries the bundle of
+ * parameters required for the authorization processing. Escrow agent verifies
+ * request, authorizes it according to the authorization rules of data subject,
+ * logs the outcome and sends back the encryption key in the same response.
+ * No request token is involved.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class OneShotKeyAcquisition implements PDGuardRequest {
+    /** Bundle of parameters associated with the authentication of request. */
+    private ParametersBundle params;
+
+    /**
+     * Bundle of parameters associated with the authorization processing of
+     * escrow agent.
+     */
+    private AuthorizationBundle authBundle;
+
+    /** Type of request. Request for decrypting or encrypting data. */
+    private PDGuardRequestType requestType;
+
+    /** Client who's requesting encryption key. */
+    private Client client;
+
+    /**
+     * Initializes a PDGuard request for the obtainment of an encryption key in
+     * a single round trip.
+     *
+     * @param params Bundle of parameters associated with the authentication of
+     * request.
+     * @param authBundle Bundle of parameters associated with the authorization
+     * processing of escrow agent.
+     * @param requestType Type of request. Request for decrypting or encrypting
+     * data.
+     */
+    public OneShotKeyAcquisition(final ParametersBundle params,
+            final AuthorizationBundle authBundle,
+            final PDGuardRequestType requestType) {
+        this.params = params;
+        this.authBundle = authBundle;
+        this.requestType = requestType;
+    }
+
+    /**
+     * Creates a new request validator based on the given bundle of request
+     * parameters.
+     *
+     * @return Request validator.
+     */
+    RequestValidator initValidator() {
+        return new RequestValidator(params);
+    }
+
+    /**
+     * This method adds additional bundle of parameters required for the
+     * authorization processing of escrow agent.
+     *
+     * @param parameters Map which stores parameters associated with the
+     * authentication processing.
+     * @return Map with all parameters of request.
+     */
+    TreeMap<String, String> addAuthorizationParameters(
+            final TreeMap<String, String> parameters) {
+        parameters.put("data_type", authBundle.getDataType().toString());
+        parameters.put("request_type", requestType.toString());
+        if (requestType.equals(PDGuardRequestType.ENCRYPTION)) {
+            parameters.put("data_provenance", ((EncryptionBundle)
+                    authBundle).getDataProvenance().toString());
+            parameters.put("update", String.valueOf(((EncryptionBundle)
+                    authBundle).isUpdate()));
+        } else {
+            parameters.put("data_use", ((DecryptionBundle) authBundle)
+                    .getDataUse().toString());
+            parameters.put("interaction_purpose", ((DecryptionBundle)
+                    authBundle).getInteractionPurpose().toString());
+        }
+        return parameters;
+    }
+
+    /**
+     * This method validates request.
+     *
+     * Verification of request is associated with the signature verification
+     * by recalculating signature using the corresponding secret of client
+     * using HMAC-SHA1 algorithm. Signature covers the authorization
+     * parameters. Also, it verifies timestamp and nonce.
+     *
+     * @throws UnverifiedRequestException is thrown when request cannot be
+     * verified.
+     */
+    void validateRequest() throws UnverifiedRequestException {
+        RequestValidator validator = initValidator();
+        client = validator.validateClient();
+        String secret = String.valueOf(encodeHex(client.getSecret()));
+        validator.setParameters(addAuthorizationParameters(validator
+                .getParameters()));
+        validator.validateRequest(EscrowAgentInfo.getUrl()
+                + EscrowAgent.getOneShotKeyService(), secret + "&");
+    }
+
+    /**
+     * This method creates the API responsible for the authorization
+     * processing of request.
+     *
+     * @return API responsible for the authorization processing.
+     */
+    AuthorizationApi initAuthorizationApi() {
+        if (requestType.equals(PDGuardRequestType.ENCRYPTION))
+            return new EncryptionAuthorization((EncryptionBundle) authBundle,
+                    client.getDataSubject(), client.getDataController());
+        else
+            return new DecryptionAuthorization((DecryptionBundle) authBundle,
+                    client.getDataSubject().getId(),
+                    client.getDataController().getId());
+    }
+
+    /**
+     * This method authorizes request and gets the encryption key.
+     *
+     * @return Encryption key.
+     *
+     * @throws AccessDeniedException is thrown when escrow agent cannot grant
+     * authorization.
+     * @throws UnretrievableKeyException is thrown when encryption key cannot
+     * be retrieved or cannot be used.
+     */
+    public EncryptionKey acquireEncryptionKey() throws AccessDeniedException,
+            UnretrievableKeyException {
+        AuthorizationApi authApi = initAuthorizationApi();
+        AuthorizationResult authResult = authApi.processAuthorization();
+        authApi.addAuthorizationLog(new AuthorizationLogApiImpl(client));
+        if (!authResult.equals(AuthorizationResult.ALLOWED))
+            throw new AccessDeniedException(Messages.get("auth.access_denied"));
+        return KeyManager.requestEncryptionKey(client.getDataSubject().getId(),
+                client.getDataController().getId(), authBundle.getDataType());
+    }
+
+    /**
+     * This method validates request.
+     *
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * cannot validate request.
+     */
+    @Override
+    public void validate() throws EscrowAgentErrorResponseException {
+        validateRequest();
+    }
+
+    /**
+     * This method processes request.
+     *
+     * @return Encryption key in a URL encoded format.
+     *
+     * @throws EscrowAgentErrorResponseException is thrown when escrow agent
+     * cannot grant authorization or retrieve encryption key.
+     */
+    @Override
+    public String process() throws EscrowAgentErrorResponseException {
+        return ResponseParser.toURLEncoded(EncryptionKey.class,
+                acquireEncryptionKey());
+    }
+
+    /**
+     * Getter of params field.
+     *
+     * @return Bundle of parameters associated with the authentication of
+     * request.
+     */
+    public ParametersBundle getParams() {
+        return params;
+    }
+
+    /**
+     * Setter of client field.
+     *
+     * @param client Client who's requesting encryption key.
+     */
+    public void setClient(final Client client) {
+        this.client = client;
+    }
+}
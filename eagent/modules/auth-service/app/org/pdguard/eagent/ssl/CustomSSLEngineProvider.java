@@ -9,6 +9,7 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 
@@ -20,12 +21,14 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
 
 /**
  * This class configures SSL certificates on this current application.
@@ -37,9 +40,30 @@ import java.security.cert.CertificateException;
  * authentication is required between client and server according to the TLS
  * (Transport Layer Security) protocol.
  *
+ * The SSL context is built once and is shared by all connections, so the key
+ * stores are not read for every connection and clients may resume their
+ * sessions from a single session cache. Its size and timeout are configured
+ * by the <code>play.ssl.sessionCacheSize</code> and
+ * <code>play.ssl.sessionTimeout</code> (in seconds) system properties. The key
+ * stores are checked for changes every <code>play.ssl.reloadInterval</code>
+ * milliseconds; a changed key store replaces the SSL context, whereas a key
+ * store which cannot be loaded is reported and the current context is kept.
+ *
  * @author Thodoris Sotiropoulos
  */
 public final class CustomSSLEngineProvider implements SSLEngineProvider {
+    /** Default maximum number of sessions held by the session cache. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 10000;
+
+    /** Default time (in seconds) after which cached sessions expire. */
+    public static final int DEFAULT_SESSION_TIMEOUT = 86400;
+
+    /** Default time (in milliseconds) between checks of key stores. */
+    public static final long DEFAULT_RELOAD_INTERVAL = 5000;
+
+    /** Statistics of the TLS connections accepted by escrow agent. */
+    private static final SSLMetrics METRICS = new SSLMetrics();
+
     /**
      * Provides information about a Play Application running inside a Play
      * server.
@@ -55,6 +79,27 @@ public final class CustomSSLEngineProvider implements SSLEngineProvider {
     /** Path to password for escrow agent's keystore file. */
     private static final String PSWRD = "/../../certs/pswrd";
 
+    /** Maximum number of sessions held by the session cache. */
+    private final int sessionCacheSize = Integer.getInteger(
+            "play.ssl.sessionCacheSize", DEFAULT_SESSION_CACHE_SIZE);
+
+    /** Time (in seconds) after which cached sessions expire. */
+    private final int sessionTimeout = Integer.getInteger(
+            "play.ssl.sessionTimeout", DEFAULT_SESSION_TIMEOUT);
+
+    /** Time (in milliseconds) between checks of key stores. */
+    private final long reloadInterval = Long.getLong(
+            "play.ssl.reloadInterval", DEFAULT_RELOAD_INTERVAL);
+
+    /** SSL context shared by all connections. */
+    private volatile SSLContext sharedContext;
+
+    /** Modification stamp of key stores when context was built. */
+    private long storeStamp;
+
+    /** Time (in milliseconds) when key stores are checked next. */
+    private volatile long nextCheck;
+
     /**
      * Initializes context which play application is running.
      *
@@ -187,25 +232,110 @@ public final class CustomSSLEngineProvider implements SSLEngineProvider {
         return sslContext;
     }
 
+    /**
+     * Gets the SSL context shared by all connections.
+     *
+     * The context is built when it is first asked for. After that, it is
+     * built again only if the key stores or their password have changed.
+     *
+     * @return SSL context with the configured session cache.
+     */
+    public SSLContext getSSLContext() {
+        SSLContext context = sharedContext;
+        long now = System.currentTimeMillis();
+        if (context != null && now < nextCheck)
+            return context;
+        synchronized (this) {
+            context = sharedContext;
+            if (context != null && now < nextCheck)
+                return context;
+            nextCheck = now + reloadInterval;
+            long stamp = readStoreStamp();
+            if (context != null && stamp == storeStamp)
+                return context;
+            SSLContext fresh;
+            try {
+                fresh = createSSLContext();
+            } catch (RuntimeException e) {
+                fresh = null;
+            }
+            if (fresh == null) {
+                play.Logger.warn("Key store of escrow agent cannot be loaded");
+                return context;
+            }
+            configureSessionContext(fresh.getServerSessionContext());
+            if (context != null)
+                METRICS.recordReload();
+            storeStamp = stamp;
+            sharedContext = fresh;
+            return fresh;
+        }
+    }
+
+    /**
+     * Configures the session cache of an SSL context.
+     *
+     * @param sessionContext Server session context of SSL context.
+     */
+    private void configureSessionContext(
+            final SSLSessionContext sessionContext) {
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeout);
+    }
+
+    /**
+     * This method computes a stamp of the last modification of key stores
+     * and of their password.
+     *
+     * @return A value which changes when any of the files is modified, or
+     * the current stamp if files cannot be accessed.
+     */
+    private long readStoreStamp() {
+        String[] files = {KEYSTORE, TRUST_STORE, PSWRD};
+        long[] attributes = new long[2 * files.length];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                Path path = Paths.get(Play.application().path() + files[i]);
+                FileTime modified = Files.getLastModifiedTime(path);
+                attributes[2 * i] = modified.toMillis();
+                attributes[2 * i + 1] = Files.size(path);
+            }
+        } catch (IOException e) {
+            return storeStamp;
+        }
+        return Arrays.hashCode(attributes);
+    }
+
+    /**
+     * Getter of the statistics of TLS connections.
+     *
+     * @return Statistics of the TLS connections accepted by escrow agent.
+     */
+    public static SSLMetrics getMetrics() {
+        return METRICS;
+    }
+
     /**
      * Changes SSL Engine to the custom implementation.
      *
-     * Reads the key stores and trust stores of the escrow agent in order to
-     * be used during the mutual authentication between escrow agent and the
-     * entity requesting it using TLS cryptographic protocol.
+     * Uses the shared SSL context, which holds the key stores and trust
+     * stores of the escrow agent in order to be used during the mutual
+     * authentication between escrow agent and the entity requesting it using
+     * TLS cryptographic protocol.
      *
      * @return Custom SSL Engine to be used on this current Play Application.
      */
     @Override
     public SSLEngine createSSLEngine() {
         SSLEngine sslEngine;
-        SSLContext sslContext = createSSLContext();
+        SSLContext sslContext = getSSLContext();
         SSLParameters sslParameters = sslContext.getDefaultSSLParameters();
         sslParameters.setUseCipherSuitesOrder(true);
         String needClientAuth = System.getProperty("play.ssl.needClientAuth");
         sslParameters.setNeedClientAuth(Boolean.parseBoolean(needClientAuth));
         sslEngine = sslContext.createSSLEngine();
         sslEngine.setSSLParameters(sslParameters);
-        return sslEngine;
+        METRICS.recordEngineCreation();
+        return new MeteredSSLEngine(sslEngine, METRICS);
     }
 }
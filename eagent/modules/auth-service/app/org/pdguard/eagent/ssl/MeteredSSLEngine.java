@@ -0,0 +1,234 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.ssl;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is an SSL engine which reports its handshakes to
+ * {@link SSLMetrics}.
+ *
+ * All operations are delegated to the engine created by the SSL context of
+ * escrow agent. A handshake is considered resumed when the negotiated session
+ * was created before the engine, i.e. it was found in the session cache.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+final class MeteredSSLEngine extends SSLEngine {
+    /** Engine which carries out all operations. */
+    private final SSLEngine engine;
+
+    /** Metrics which handshakes are reported to. */
+    private final SSLMetrics metrics;
+
+    /** Time (in milliseconds since epoch) when engine was created. */
+    private final long creationTime = System.currentTimeMillis();
+
+    /** true if a handshake is in progress. */
+    private boolean handshaking;
+
+    /** Time (as given by System.nanoTime) when handshake started. */
+    private long handshakeStart;
+
+    /**
+     * Creates a new engine.
+     *
+     * @param engine Engine which carries out all operations.
+     * @param metrics Metrics which handshakes are reported to.
+     */
+    MeteredSSLEngine(final SSLEngine engine, final SSLMetrics metrics) {
+        super(engine.getPeerHost(), engine.getPeerPort());
+        this.engine = engine;
+        this.metrics = metrics;
+    }
+
+    /**
+     * This method follows the progress of a handshake after an operation of
+     * engine.
+     *
+     * @param result Result of operation.
+     * @return The given result.
+     */
+    private SSLEngineResult track(final SSLEngineResult result) {
+        HandshakeStatus status = result.getHandshakeStatus();
+        if (!handshaking && status != HandshakeStatus.NOT_HANDSHAKING
+                && status != HandshakeStatus.FINISHED)
+            startHandshake();
+        if (status == HandshakeStatus.FINISHED) {
+            long elapsed = handshaking ? System.nanoTime() - handshakeStart
+                    : 0;
+            handshaking = false;
+            SSLSession session = engine.getSession();
+            metrics.recordHandshake(session.getCreationTime() < creationTime,
+                    elapsed);
+        }
+        return result;
+    }
+
+    /** This method marks the start of a handshake. */
+    private void startHandshake() {
+        handshaking = true;
+        handshakeStart = System.nanoTime();
+    }
+
+    @Override
+    public SSLEngineResult wrap(final ByteBuffer[] srcs, final int offset,
+            final int length, final ByteBuffer dst) throws SSLException {
+        return track(engine.wrap(srcs, offset, length, dst));
+    }
+
+    @Override
+    public SSLEngineResult unwrap(final ByteBuffer src,
+            final ByteBuffer[] dsts, final int offset, final int length)
+            throws SSLException {
+        return track(engine.unwrap(src, dsts, offset, length));
+    }
+
+    @Override
+    public Runnable getDelegatedTask() {
+        return engine.getDelegatedTask();
+    }
+
+    @Override
+    public void closeInbound() throws SSLException {
+        engine.closeInbound();
+    }
+
+    @Override
+    public boolean isInboundDone() {
+        return engine.isInboundDone();
+    }
+
+    @Override
+    public void closeOutbound() {
+        engine.closeOutbound();
+    }
+
+    @Override
+    public boolean isOutboundDone() {
+        return engine.isOutboundDone();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return engine.getSupportedCipherSuites();
+    }
+
+    @Override
+    public String[] getEnabledCipherSuites() {
+        return engine.getEnabledCipherSuites();
+    }
+
+    @Override
+    public void setEnabledCipherSuites(final String[] suites) {
+        engine.setEnabledCipherSuites(suites);
+    }
+
+    @Override
+    public String[] getSupportedProtocols() {
+        return engine.getSupportedProtocols();
+    }
+
+    @Override
+    public String[] getEnabledProtocols() {
+        return engine.getEnabledProtocols();
+    }
+
+    @Override
+    public void setEnabledProtocols(final String[] protocols) {
+        engine.setEnabledProtocols(protocols);
+    }
+
+    @Override
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    @Override
+    public SSLSession getHandshakeSession() {
+        return engine.getHandshakeSession();
+    }
+
+    @Override
+    public void beginHandshake() throws SSLException {
+        engine.beginHandshake();
+        if (!handshaking)
+            startHandshake();
+    }
+
+    @Override
+    public HandshakeStatus getHandshakeStatus() {
+        return engine.getHandshakeStatus();
+    }
+
+    @Override
+    public void setUseClientMode(final boolean mode) {
+        engine.setUseClientMode(mode);
+    }
+
+    @Override
+    public boolean getUseClientMode() {
+        return engine.getUseClientMode();
+    }
+
+    @Override
+    public void setNeedClientAuth(final boolean need) {
+        engine.setNeedClientAuth(need);
+    }
+
+    @Override
+    public boolean getNeedClientAuth() {
+        return engine.getNeedClientAuth();
+    }
+
+    @Override
+    public void setWantClientAuth(final boolean want) {
+        engine.setWantClientAuth(want);
+    }
+
+    @Override
+    public boolean getWantClientAuth() {
+        return engine.getWantClientAuth();
+    }
+
+    @Override
+    public void setEnableSessionCreation(final boolean flag) {
+        engine.setEnableSessionCreation(flag);
+    }
+
+    @Override
+    public boolean getEnableSessionCreation() {
+        return engine.getEnableSessionCreation();
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        return engine.getSSLParameters();
+    }
+
+    @Override
+    public void setSSLParameters(final SSLParameters params) {
+        engine.setSSLParameters(params);
+    }
+}
@@ -0,0 +1,130 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.ssl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects the statistics of the TLS connections which are
+ * accepted by escrow agent.
+ *
+ * A handshake is resumed when the client presents a session which is found
+ * in the session cache of the server; otherwise a full handshake takes
+ * place.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class SSLMetrics {
+    /** Number of SSL engines created. */
+    private final AtomicLong engines = new AtomicLong();
+
+    /** Number of full handshakes completed. */
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    /** Number of resumed handshakes completed. */
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /** Total time (in nanoseconds) spent on full handshakes. */
+    private final AtomicLong fullHandshakeTime = new AtomicLong();
+
+    /** Total time (in nanoseconds) spent on resumed handshakes. */
+    private final AtomicLong resumedHandshakeTime = new AtomicLong();
+
+    /** Number of times that the keystore of escrow agent was reloaded. */
+    private final AtomicLong reloads = new AtomicLong();
+
+    /** This method records the creation of an SSL engine. */
+    void recordEngineCreation() {
+        engines.incrementAndGet();
+    }
+
+    /**
+     * This method records a completed handshake.
+     *
+     * @param resumed true if an existing session was resumed.
+     * @param elapsed Time (in nanoseconds) spent on handshake.
+     */
+    void recordHandshake(final boolean resumed, final long elapsed) {
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+            resumedHandshakeTime.addAndGet(elapsed);
+        } else {
+            fullHandshakes.incrementAndGet();
+            fullHandshakeTime.addAndGet(elapsed);
+        }
+    }
+
+    /** This method records a reload of the keystore of escrow agent. */
+    void recordReload() {
+        reloads.incrementAndGet();
+    }
+
+    /**
+     * Getter of the number of SSL engines created.
+     *
+     * @return Number of SSL engines created, one per accepted connection.
+     */
+    public long getEngineCount() {
+        return engines.get();
+    }
+
+    /**
+     * Getter of the number of full handshakes.
+     *
+     * @return Number of full handshakes completed.
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Getter of the number of resumed handshakes.
+     *
+     * @return Number of resumed handshakes completed.
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Getter of the total time of full handshakes.
+     *
+     * @return Total time (in nanoseconds) spent on full handshakes.
+     */
+    public long getFullHandshakeTime() {
+        return fullHandshakeTime.get();
+    }
+
+    /**
+     * Getter of the total time of resumed handshakes.
+     *
+     * @return Total time (in nanoseconds) spent on resumed handshakes.
+     */
+    public long getResumedHandshakeTime() {
+        return resumedHandshakeTime.get();
+    }
+
+    /**
+     * Getter of the number of keystore reloads.
+     *
+     * @return Number of times that the keystore of escrow agent was
+     * reloaded after it was changed.
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+}
@@ -19,6 +19,7 @@ package org.pdguard.eagent.utils;
 import org.pdguard.api.exceptions.CryptoException;
 import org.pdguard.api.exceptions.UnretrievableKeyException;
 import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.security.CipherEngine;
 import org.pdguard.api.utils.DataType;
 import org.pdguard.eagent.models.DataController;
 import org.pdguard.eagent.models.DataSubject;
@@ -26,10 +27,6 @@ import org.pdguard.eagent.models.Key;
 import play.Play;
 import play.i18n.Messages;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -38,7 +35,6 @@ import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 
 import java.nio.file.Paths;
-import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
@@ -104,7 +100,8 @@ public final class KeyManager {
      * encryption key is needed to be stored in escrow agent's database
      * encrypted.
      *
-     * So, master key is used to store encryption key safely.
+     * So, master key is used to store encryption key safely. The key is
+     * encrypted with AES-GCM in the format of {@link CipherEngine}.
      *
      * @throws CryptoException when an unexpected error in the encryption
      * occurs.
@@ -116,16 +113,9 @@ public final class KeyManager {
      */
     static byte[] encryptKey(final byte[] key) {
         SecretKey masterKey = loadMasterKey();
-        try {
-            Cipher cipher = Cipher.getInstance(CRYPTOGRAPHIC_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, masterKey);
-            return cipher.doFinal(key);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException
-                | InvalidKeyException | IllegalBlockSizeException
-                | BadPaddingException e) {
-            throw new CryptoException(Messages.get("crypto.error"),
-                    e.getCause());
-        }
+        if (masterKey == null)
+            throw new CryptoException(Messages.get("crypto.error"));
+        return CipherEngine.encrypt(key, masterKey);
     }
 
     /**
@@ -137,7 +127,8 @@ public final class KeyManager {
      * personal data of a subject.
      *
      * So, master key is used to decrypt it, because encryption keys are stored
-     * encrypted in escrow agent's database.
+     * encrypted in escrow agent's database. Keys stored with plain AES by
+     * earlier versions are still accepted.
      *
      * @throws CryptoException when an unexpected error in the encryption
      * occurs.
@@ -149,16 +140,9 @@ public final class KeyManager {
      */
     static byte[] decryptKey(final byte[] encryptedKey) {
         SecretKey masterKey = loadMasterKey();
-        try {
-            Cipher cipher = Cipher.getInstance(CRYPTOGRAPHIC_ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, masterKey);
-            return cipher.doFinal(encryptedKey);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException
-                | InvalidKeyException | IllegalBlockSizeException
-                | BadPaddingException e) {
-            throw new CryptoException(Messages.get("crypto.error"),
-                    e.getCause());
-        }
+        if (masterKey == null)
+            throw new CryptoException(Messages.get("crypto.error"));
+        return CipherEngine.decrypt(encryptedKey, masterKey);
     }
 
     /**
@@ -16,15 +16,9 @@
 
 package org.pdguard.eagent.utils;
 
-import com.google.common.base.CaseFormat;
+import org.pdguard.api.utils.ParameterCodec;
 import org.pdguard.eagent.forms.ParametersBundle;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Locale;
-import java.util.List;
 import java.util.TreeMap;
 
 /**
@@ -42,7 +36,8 @@ public final class ParametersMapper {
      * This method creates a TreeMap object from a bundle of request parameters.
      *
      * It stores only the parameters that have been included in the signature
-     * calculation of request.
+     * calculation of request. Values are read through the
+     * {@link ParameterCodec} of the class, which is built once per class.
      *
      * @param aclass Class of bundle of request parameters.
      * @param bundle Object of bundle of request parameters.
@@ -51,46 +46,6 @@ public final class ParametersMapper {
      */
     public static TreeMap<String, String> mapObject(
             Class<? extends ParametersBundle> aclass, ParametersBundle bundle) {
-        TreeMap<String, String> parameters = new TreeMap<>();
-        List<Field> fields = new ArrayList<>(
-                Arrays.asList(aclass.getDeclaredFields()));
-        if (aclass.getSuperclass() != null)
-            fields.addAll(Arrays.asList(aclass.getSuperclass()
-                    .getDeclaredFields()));
-        for (Field field: fields) {
-            String fieldName = field.getName();
-            if (!fieldName.equals("signature"))
-                parameters.put(CaseFormat.UPPER_CAMEL.to(
-                        CaseFormat.LOWER_UNDERSCORE, fieldName),
-                        getFieldValue(aclass, bundle, fieldName));
-        }
-        return parameters;
-    }
-
-    /**
-     * This method gets the value of a field via its getter.
-     *
-     * @param aclass Class of bundle of request parameters.
-     * @param bundle Object of bundle of request parameters.
-     * @param fieldName Field name.
-     *
-     * @return Value of field.
-     *
-     * @throws RuntimeException is thrown when an unxpected error occurs.
-     */
-    static String getFieldValue(Class<? extends ParametersBundle> aclass,
-            ParametersBundle bundle, String fieldName) {
-        String capitalizedField = fieldName.substring(0, 1).toUpperCase(
-                Locale.ENGLISH) + fieldName.substring(1);
-        String getter = "get" + capitalizedField;
-        String fieldValue;
-        try {
-            fieldValue = String.valueOf(aclass.getMethod(getter)
-                    .invoke(bundle));
-        } catch (IllegalAccessException | InvocationTargetException
-                | NoSuchMethodException e) {
-            throw new RuntimeException(e.getMessage(), e.getCause());
-        }
-        return fieldValue;
+        return ParameterCodec.forClass(aclass).toMap(bundle, "signature");
     }
 }
@@ -0,0 +1,57 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.validation;
+
+import org.pdguard.eagent.models.Client;
+import org.pdguard.eagent.models.Nonce;
+
+import javax.persistence.PersistenceException;
+
+/**
+ * This class is a {@link ReplayStore} which records nonces to the database
+ * of escrow agent, so that it can be shared by several instances of escrow
+ * agent.
+ *
+ * Nonce value is the primary key of {@link Nonce}, so when the same nonce is
+ * recorded concurrently, all but one insertions fail.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class DatabaseReplayStore implements ReplayStore {
+    /**
+     * This method records the nonce of a request to the database unless it
+     * has already been used.
+     *
+     * @param clientId Id of client who sent request.
+     * @param nonce Nonce value of request.
+     * @param timestamp Timestamp of request.
+     * @return true if nonce was recorded, false if it has already been used.
+     */
+    @Override
+    public boolean add(final String clientId, final String nonce,
+            final long timestamp) {
+        if (Nonce.exists(nonce))
+            return false;
+        try {
+            new Nonce(nonce, timestamp, Client.authenticate(clientId))
+                    .addNonce();
+            return true;
+        } catch (PersistenceException e) {
+            return false;
+        }
+    }
+}
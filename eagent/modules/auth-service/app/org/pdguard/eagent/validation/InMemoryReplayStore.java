@@ -0,0 +1,259 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.validation;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * This class is a {@link ReplayStore} which keeps nonces in the memory of
+ * escrow agent.
+ *
+ * Nonces are grouped in buckets by the time they were recorded. Each bucket
+ * covers an equal part of the window during which nonces are remembered and
+ * it is discarded as a whole once all of its nonces have expired, so expired
+ * nonces cost nothing to remove. Buckets are kept in a ring which is reused
+ * as time passes.
+ *
+ * Every bucket holds a Bloom filter in front of its set of nonces. A fresh
+ * nonce, which is by far the most common case, is usually rejected by the
+ * filters of all buckets with a few bit tests, and sets are only searched
+ * when a filter reports a possible match.
+ *
+ * A nonce is checked and recorded while holding one of a number of locks
+ * chosen by the hash of nonce, so requests with the same nonce are
+ * serialized while requests with different nonces rarely contend.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class InMemoryReplayStore implements ReplayStore {
+    /** Default number of buckets which cover the window. */
+    private static final int DEFAULT_BUCKETS = 10;
+
+    /** Default number of bits of the Bloom filter of a bucket. */
+    private static final int DEFAULT_BLOOM_BITS = 1 << 16;
+
+    /** Number of bit positions tested by Bloom filters for each nonce. */
+    private static final int HASHES = 3;
+
+    /** Number of locks which serialize requests with the same nonce. */
+    private static final int LOCKS = 64;
+
+    /** Constant used to derive the second hash of a nonce. */
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+
+    /** Shift of the second hash of a nonce. */
+    private static final int ROTATION = 16;
+
+    /** Width (in milliseconds) of the time covered by a bucket. */
+    private final long bucketWidth;
+
+    /** Number of bits of the Bloom filter of a bucket. */
+    private final int bloomBits;
+
+    /** Ring of buckets indexed by their period modulo its length. */
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /** Locks which serialize requests with the same nonce. */
+    private final Object[] locks = new Object[LOCKS];
+
+    /** Source of the current time (in milliseconds). */
+    private final LongSupplier clock;
+
+    /**
+     * Creates an empty store.
+     *
+     * @param window Time (in milliseconds) during which nonces are
+     * remembered.
+     */
+    public InMemoryReplayStore(final long window) {
+        this(window, DEFAULT_BUCKETS, DEFAULT_BLOOM_BITS,
+                new LongSupplier() {
+                    @Override
+                    public long getAsLong() {
+                        return System.currentTimeMillis();
+                    }
+                });
+    }
+
+    /**
+     * Creates an empty store.
+     *
+     * @param window Time (in milliseconds) during which nonces are
+     * remembered.
+     * @param bucketCount Number of buckets which cover the window.
+     * @param bloomBits Number of bits of the Bloom filter of a bucket; it must
+     * be a power of two and at least {@link Long#SIZE}.
+     * @param clock Source of the current time (in milliseconds).
+     */
+    InMemoryReplayStore(final long window, final int bucketCount,
+            final int bloomBits, final LongSupplier clock) {
+        if (window < 1 || bucketCount < 1 || bloomBits < Long.SIZE
+                || Integer.bitCount(bloomBits) != 1)
+            throw new IllegalArgumentException(
+                    "Invalid replay store configuration");
+        this.bucketWidth = (window + bucketCount - 1) / bucketCount;
+        this.bloomBits = bloomBits;
+        this.clock = clock;
+        buckets = new AtomicReferenceArray<>(bucketCount + 1);
+        for (int i = 0; i < LOCKS; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * This method records the nonce of a request unless it has been recorded
+     * during the window of store.
+     *
+     * Nonces are remembered from the time they are recorded, which is not
+     * earlier than the timestamp of their request, so timestamp is not used.
+     *
+     * @param clientId Id of client who sent request.
+     * @param nonce Nonce value of request.
+     * @param timestamp Timestamp of request.
+     * @return true if nonce was recorded, false if it has already been used.
+     */
+    @Override
+    public boolean add(final String clientId, final String nonce,
+            final long timestamp) {
+        int hash = nonce.hashCode();
+        int hash2 = Integer.rotateLeft(hash * GOLDEN_RATIO, ROTATION) | 1;
+        synchronized (locks[hash & (LOCKS - 1)]) {
+            long period = Math.floorDiv(clock.getAsLong(), bucketWidth);
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket != null && isLive(bucket, period)
+                        && bucket.contains(nonce, hash, hash2))
+                    return false;
+            }
+            currentBucket(period).add(nonce, hash, hash2);
+            return true;
+        }
+    }
+
+    /**
+     * This method checks whether the nonces of a bucket have not expired.
+     *
+     * @param bucket Bucket of nonces.
+     * @param period Current period.
+     * @return true if nonces of bucket are still remembered.
+     */
+    private boolean isLive(final Bucket bucket, final long period) {
+        return bucket.period > period - buckets.length();
+    }
+
+    /**
+     * This method finds the bucket of the current period, replacing the
+     * expired bucket which occupies its place in the ring.
+     *
+     * @param period Current period.
+     * @return Bucket of current period.
+     */
+    private Bucket currentBucket(final long period) {
+        int index = (int) Math.floorMod(period, (long) buckets.length());
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.period >= period)
+                return bucket;
+            Bucket created = new Bucket(period, bloomBits);
+            if (buckets.compareAndSet(index, bucket, created))
+                return created;
+        }
+    }
+
+    /**
+     * Getter of the number of remembered nonces.
+     *
+     * @return Number of nonces which have not expired.
+     */
+    public int size() {
+        long period = Math.floorDiv(clock.getAsLong(), bucketWidth);
+        int size = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && isLive(bucket, period))
+                size += bucket.nonces.size();
+        }
+        return size;
+    }
+
+    /** Nonces recorded during a period of time. */
+    private static final class Bucket {
+        /** Period of time (in multiples of width of buckets). */
+        private final long period;
+
+        /** Bits of Bloom filter. */
+        private final AtomicLongArray bloom;
+
+        /** Mask of the bit positions of Bloom filter. */
+        private final int mask;
+
+        /** Nonces recorded during period. */
+        private final Set<String> nonces = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Creates an empty bucket.
+         *
+         * @param period Period of time (in multiples of width of buckets).
+         * @param bloomBits Number of bits of Bloom filter.
+         */
+        Bucket(final long period, final int bloomBits) {
+            this.period = period;
+            bloom = new AtomicLongArray(bloomBits / Long.SIZE);
+            mask = bloomBits - 1;
+        }
+
+        /**
+         * This method checks whether a nonce was recorded in this bucket.
+         *
+         * @param nonce Nonce value.
+         * @param hash First hash of nonce.
+         * @param hash2 Second hash of nonce.
+         * @return true if nonce was recorded.
+         */
+        boolean contains(final String nonce, final int hash,
+                final int hash2) {
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (hash + i * hash2) & mask;
+                if ((bloom.get(bit / Long.SIZE) & (1L << bit)) == 0)
+                    return false;
+            }
+            return nonces.contains(nonce);
+        }
+
+        /**
+         * This method records a nonce in this bucket.
+         *
+         * @param nonce Nonce value.
+         * @param hash First hash of nonce.
+         * @param hash2 Second hash of nonce.
+         */
+        void add(final String nonce, final int hash, final int hash2) {
+            nonces.add(nonce);
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (hash + i * hash2) & mask;
+                long word;
+                do {
+                    word = bloom.get(bit / Long.SIZE);
+                } while ((word & (1L << bit)) == 0 && !bloom.compareAndSet(
+                        bit / Long.SIZE, word, word | (1L << bit)));
+            }
+        }
+    }
+}
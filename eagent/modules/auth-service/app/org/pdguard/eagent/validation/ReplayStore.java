@@ -0,0 +1,45 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.validation;
+
+/**
+ * This interface defines a store of the nonces of PDGuard requests, which
+ * protects escrow agent against replayed requests.
+ *
+ * A nonce has to be remembered only as long as the timestamp of its request
+ * is accepted by {@link RequestValidator}; requests with older timestamps are
+ * rejected anyway. Deployments with several instances of escrow agent have to
+ * use a store which is shared by all of them, e.g. {@link
+ * DatabaseReplayStore}.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public interface ReplayStore {
+    /**
+     * This method records the nonce of a request unless it has already been
+     * used.
+     *
+     * Checking and recording a nonce is atomic, so when the same nonce is
+     * sent by concurrent requests, only one of them is accepted.
+     *
+     * @param clientId Id of client who sent request.
+     * @param nonce Nonce value of request.
+     * @param timestamp Timestamp of request.
+     * @return true if nonce was recorded, false if it has already been used.
+     */
+    boolean add(String clientId, String nonce, long timestamp);
+}
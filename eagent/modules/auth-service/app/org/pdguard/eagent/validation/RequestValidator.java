@@ -17,16 +17,13 @@
 package org.pdguard.eagent.validation;
 
 import org.pdguard.api.exceptions.UnverifiedRequestException;
-import org.pdguard.api.model.SignatureBase;
-import org.pdguard.api.security.Signature;
+import org.pdguard.api.security.SigningEngine;
 import org.pdguard.eagent.forms.ParametersBundle;
 import org.pdguard.eagent.forms.ParametersBundleReq;
 import org.pdguard.eagent.models.Client;
-import org.pdguard.eagent.models.Nonce;
 import org.pdguard.eagent.utils.ParametersMapper;
 import play.i18n.Messages;
 
-import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.TreeMap;
@@ -47,6 +44,18 @@ public class RequestValidator {
     /** Allowable difference between current timestamp and request timestamp. */
     private static final long TIMESTAMP_DURATION = 5 * 60 * 1000L;
 
+    /**
+     * Store of the nonces of validated requests.
+     *
+     * Nonces are kept in memory unless system property
+     * {@code pdguard.replayStore} is set to {@code database}, which is
+     * required when several instances of escrow agent serve requests.
+     */
+    private static volatile ReplayStore replayStore =
+            "database".equals(System.getProperty("pdguard.replayStore"))
+                    ? new DatabaseReplayStore()
+                    : new InMemoryReplayStore(TIMESTAMP_DURATION);
+
     /**
      * Creates a new request validator according to bundle of request
      * parameters.
@@ -81,7 +90,10 @@ public class RequestValidator {
      *
      * Signature uses HMAC-SHA1 algorithm, so escrow agent validates signature
      * by recalculating signature using the secret key defining by corresponding
-     * entity's id and comparing with that signature sent on request.
+     * entity's id and comparing with that signature sent on request. The
+     * signature base string is built and signed by {@link SigningEngine}
+     * without intermediate strings, and signatures are compared in constant
+     * time.
      *
      * @param uri Escrow agent's web service end point.
      * @param signatureKey Signature key used to calculate signature.
@@ -92,14 +104,8 @@ public class RequestValidator {
     void validateSignature(final String uri,
             final String signatureKey)
             throws UnsupportedEncodingException, UnverifiedRequestException {
-        SignatureBase signatureBase = new SignatureBase(parameters,
-                uri, "POST");
-        SecretKeySpec secretKey = new SecretKeySpec(signatureKey
-                .getBytes("UTF-8"), "HmacSHA1");
-        Signature signature = new Signature(signatureBase
-                .getSignatureBaseString(), secretKey);
-        signature.signMessage();
-        if (!signature.getSignatureContent().equals(params.getSignature()))
+        if (!SigningEngine.verify(parameters, uri, "POST", signatureKey,
+                params.getSignature()))
             throw new UnverifiedRequestException(
                     Messages.get("auth.invalid_signature"));
     }
@@ -108,15 +114,16 @@ public class RequestValidator {
      * This method validates nonce value so that this request has never been
      * made before.
      *
+     * Nonce is checked and recorded atomically by {@link ReplayStore}.
+     *
      * @throws UnverifiedRequestException is thrown when the defined nonce value
      * has already been used.
      */
     void validateNonce() throws UnverifiedRequestException {
-        if (Nonce.exists(params.getNonce()))
+        if (!replayStore.add(params.getClientId(), params.getNonce(),
+                params.getTimestamp()))
             throw new UnverifiedRequestException(
                     Messages.get("auth.invalid_nonce"));
-        new Nonce(params.getNonce(), params.getTimestamp(),
-                Client.authenticate(params.getClientId())).addNonce();
     }
 
     /**
@@ -138,14 +145,14 @@ public class RequestValidator {
     /**
      * This method validates a PDGuard request.
      *
-     * Request validation is associated with the validation of nonce so that
-     * given nonce has never been used before. Moreover, it is related to the
-     * validation of timestamp sot that given timestamp is between allowable
-     * limits.
-     * Finally, this method validates the signature of a request using HMAC-SHA1
-     * algorithm by recalculating signature using the secret key defining by
-     * corresponding entity's id and comparing with that signature sent on
-     * request.
+     * Request validation is associated with the validation of timestamp so
+     * that given timestamp is between allowable limits. Moreover, this method
+     * validates the signature of a request using HMAC-SHA1 algorithm by
+     * recalculating signature using the secret key defining by corresponding
+     * entity's id and comparing with that signature sent on request.
+     * Finally, it validates nonce so that given nonce has never been used
+     * before. Nonce is validated last, so that only nonces of authentic
+     * requests within the allowable limits are recorded.
      *
      * @param uri Escrow agent's web service end point.
      * @param signatureKey Signature key used to calculate signature.
@@ -155,13 +162,31 @@ public class RequestValidator {
      */
     public void validateRequest(final String uri, final String signatureKey)
             throws UnverifiedRequestException {
-        validateNonce();
         validateTimestamp();
         try {
             validateSignature(uri, signatureKey);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
         }
+        validateNonce();
+    }
+
+    /**
+     * Getter of replayStore field.
+     *
+     * @return Store of the nonces of validated requests.
+     */
+    public static ReplayStore getReplayStore() {
+        return replayStore;
+    }
+
+    /**
+     * Setter of replayStore field.
+     *
+     * @param replayStore Store of the nonces of validated requests.
+     */
+    public static void setReplayStore(final ReplayStore replayStore) {
+        RequestValidator.replayStore = replayStore;
     }
 
     /**
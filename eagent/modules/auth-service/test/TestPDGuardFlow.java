@@ -1,4 +1,5 @@
 import com.google.common.collect.ImmutableMap;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.pdguard.api.model.*;
@@ -12,6 +13,9 @@ import org.pdguard.eagent.models.ReqToken;
 import org.pdguard.eagent.utils.CredentialsGenerator;
 import org.pdguard.eagent.utils.EscrowAgentInfo;
 import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.InMemoryReplayStore;
+import org.pdguard.eagent.validation.ReplayStore;
+import org.pdguard.eagent.validation.RequestValidator;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.test.FakeApplication;
@@ -28,6 +32,7 @@ import java.util.UUID;
 import static org.apache.commons.codec.binary.Hex.encodeHex;
 import static org.junit.Assert.*;
 import static play.mvc.Http.Status.OK;
+import static play.mvc.Http.Status.UNAUTHORIZED;
 import static play.test.Helpers.*;
 import static play.test.Helpers.contentAsString;
 
@@ -43,6 +48,12 @@ public class TestPDGuardFlow extends WithApplication {
 
     private static final String contentType = "application/x-www-form-urlencoded";
 
+    private ReplayStore previousReplayStore;
+
+    private InMemoryReplayStore replayStore;
+
+    private TreeMap<String, String> requestTokenParameters;
+
     private void addData() {
         DataController dataController = new DataController("id", "ABC");
         DataSubject dataSubject = new DataSubject("id", "Nick Apostolopoulos",
@@ -147,6 +158,7 @@ public class TestPDGuardFlow extends WithApplication {
     private org.pdguard.api.model.RequestToken generateRequestToken()
             throws UnsupportedEncodingException {
         TreeMap<String, String> parameters = prepareParametersRequestTokenGeneration();
+        requestTokenParameters = parameters;
         Http.RequestBuilder request = new Http.RequestBuilder().bodyForm(parameters).uri(
                 String.valueOf(routes.PDGuardService.requestToken())).method(POST);
         Result result = route(request);
@@ -206,10 +218,18 @@ public class TestPDGuardFlow extends WithApplication {
 
     @Before
     public void setUp() {
+        previousReplayStore = RequestValidator.getReplayStore();
+        replayStore = new InMemoryReplayStore(5 * 60 * 1000L);
+        RequestValidator.setReplayStore(replayStore);
         fakeApplication(inMemoryDatabase());
         addData();
     }
 
+    @After
+    public void tearDown() {
+        RequestValidator.setReplayStore(previousReplayStore);
+    }
+
     @Test
     public void testPDGuardFlow() throws UnsupportedEncodingException {
         org.pdguard.api.model.RequestToken token = generateRequestToken();
@@ -219,7 +239,15 @@ public class TestPDGuardFlow extends WithApplication {
         authorizeRequestToken(token);
         org.pdguard.api.model.EncryptionKey key2 = exchangeRequestToken(token);
         assertEquals(key.getEncryptionKey(), key2.getEncryptionKey());
-        assertEquals(Nonce.getFinder().all().size(), 6);
+        assertEquals(6, replayStore.size());
+        Result replay = route(new Http.RequestBuilder()
+                .bodyForm(requestTokenParameters)
+                .uri(String.valueOf(routes.PDGuardService.requestToken()))
+                .method(POST));
+        assertEquals(UNAUTHORIZED, replay.status());
+        assertEquals(6, replayStore.size());
+        assertFalse(replayStore.add(clientId, requestTokenParameters.get("nonce"),
+                Long.parseLong(requestTokenParameters.get("timestamp"))));
     }
 
     @Test(expected = AssertionError.class)
@@ -33,7 +33,7 @@ public class TestAuthorizationApi {
 
     private DataProvenance dataProvenance = DataProvenance.DATA_CONTROLLER;
 
-    @PrepareForTest({ AllowableAction.class })
+    @PrepareForTest({ PolicyEngine.class })
     @Test
     public void testProcessAuthorizationDecryption() {
         DecryptionBundle decryptionBundle = new DecryptionBundle(dataType,
@@ -42,22 +42,22 @@ public class TestAuthorizationApi {
         String dataControllerId = "data controller id";
         DecryptionAuthorization auth = new DecryptionAuthorization(
                 decryptionBundle, dataSubjectId, dataControllerId);
-        PowerMockito.mockStatic(AllowableAction.class);
-        PowerMockito.when(AllowableAction.isAuthorized(dataSubjectId,
+        PowerMockito.mockStatic(PolicyEngine.class);
+        PowerMockito.when(PolicyEngine.isAuthorized(dataSubjectId,
                 dataControllerId, dataType, dataUse))
                 .thenReturn(true);
         auth.processAuthorization();
         assertEquals(AuthorizationResult.ALLOWED, auth.getAuthResult());
         PowerMockito.verifyStatic();
-        AllowableAction.isAuthorized(dataSubjectId,
+        PolicyEngine.isAuthorized(dataSubjectId,
                 dataControllerId, dataType, dataUse);
-        PowerMockito.when(AllowableAction.isAuthorized(dataSubjectId,
+        PowerMockito.when(PolicyEngine.isAuthorized(dataSubjectId,
                 dataControllerId, dataType, dataUse))
                 .thenReturn(false);
         auth.processAuthorization();
         assertEquals(AuthorizationResult.DENIED_BY_DATA_SUBJECT,
                 auth.getAuthResult());
-        AllowableAction.isAuthorized(dataSubjectId,
+        PolicyEngine.isAuthorized(dataSubjectId,
                 dataControllerId, dataType, dataUse);
     }
 
@@ -83,7 +83,7 @@ public class TestAuthorizationApi {
         AllowableAction.isAuthorized(dataType, dataUse);
     }
 
-    @PrepareForTest({ AllowableProvenance.class })
+    @PrepareForTest({ PolicyEngine.class })
     @Test
     public void testProcessAuthorizationEncryption() {
         DataSubject dataSubject = new DataSubject("ID", "james", "james@example.com",
@@ -93,20 +93,20 @@ public class TestAuthorizationApi {
                 dataProvenance, true);
         EncryptionAuthorization auth = new EncryptionAuthorization(
                 encryptionBundle, dataSubject, dataController);
-        PowerMockito.mockStatic(AllowableProvenance.class);
-        PowerMockito.when(AllowableProvenance.isAuthorized(dataSubject.getId(),
+        PowerMockito.mockStatic(PolicyEngine.class);
+        PowerMockito.when(PolicyEngine.isAuthorized(dataSubject.getId(),
                 dataController.getId(), dataType, dataProvenance)).thenReturn(true);
         auth.processAuthorization();
         assertEquals(AuthorizationResult.ALLOWED, auth.getAuthResult());
         PowerMockito.verifyStatic();
-        AllowableProvenance.isAuthorized(dataSubject.getId(), dataController.getId(),
+        PolicyEngine.isAuthorized(dataSubject.getId(), dataController.getId(),
                 dataType, dataProvenance);
-        PowerMockito.when(AllowableProvenance.isAuthorized(dataSubject.getId(),
+        PowerMockito.when(PolicyEngine.isAuthorized(dataSubject.getId(),
                 dataController.getId(), dataType, dataProvenance)).thenReturn(false);
         auth.processAuthorization();
         assertEquals(AuthorizationResult.DENIED_BY_DATA_SUBJECT,
                 auth.getAuthResult());
-        AllowableProvenance.isAuthorized(dataSubject.getId(), dataController.getId(),
+        PolicyEngine.isAuthorized(dataSubject.getId(), dataController.getId(),
                 dataType, dataProvenance);
         encryptionBundle = new EncryptionBundle(dataType, dataProvenance, false);
         auth = new EncryptionAuthorization(encryptionBundle, dataSubject, dataController);
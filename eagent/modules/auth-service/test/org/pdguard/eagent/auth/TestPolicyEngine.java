@@ -0,0 +1,157 @@
+package org.pdguard.eagent.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.eagent.models.AllowableAction;
+import org.pdguard.eagent.models.AllowableProvenance;
+import org.pdguard.eagent.models.AuthorizationRule;
+import org.pdguard.eagent.models.DataController;
+import org.pdguard.eagent.models.DataSubject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPolicyEngine {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private AuthorizationRule rule;
+
+    @Before
+    public void setUp() {
+        DataSubject dataSubject = new DataSubject("ID", "james",
+                "james@example.com", "password");
+        DataController dataController = new DataController("ID", "example");
+        rule = new AuthorizationRule(dataSubject, dataController,
+                DataType.SURNAME);
+        Date now = new Date();
+        rule.getAllowableActions().add(new AllowableAction(rule,
+                DataUse.INTRANET, now, null));
+        rule.getAllowableActions().add(new AllowableAction(rule,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, new Date(now.getTime()
+                - 2 * DAY), new Date(now.getTime() - DAY)));
+        rule.getAllowableProvenances().add(new AllowableProvenance(rule,
+                DataProvenance.DATA_CONTROLLER, now, null));
+    }
+
+    @Test
+    public void testCompiledPolicy() {
+        CompiledPolicy policy = new CompiledPolicy(
+                Collections.singletonList(rule));
+        long now = System.currentTimeMillis();
+        assertTrue(policy.isAllowed(DataType.SURNAME, DataUse.INTRANET, now));
+        assertFalse(policy.isAllowed(DataType.SURNAME,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT, now));
+        assertFalse(policy.isAllowed(DataType.GIVEN_NAME, DataUse.INTRANET,
+                now));
+        assertTrue(policy.isAllowed(DataType.SURNAME,
+                DataProvenance.DATA_CONTROLLER, now));
+        assertFalse(policy.isAllowed(DataType.GIVEN_NAME,
+                DataProvenance.DATA_CONTROLLER, now));
+        assertFalse(policy.isAllowed(DataType.SURNAME, DataUse.INTRANET,
+                now + 3 * 365 * DAY));
+    }
+
+    @Test
+    public void testPolicyIsCompiledOnce() {
+        PolicyEngine engine = new PolicyEngine(10, (subject, controller) ->
+                Collections.singletonList(rule));
+        engine.getPolicy("subject", "controller");
+        engine.getPolicy("subject", "controller");
+        assertEquals(1, engine.getCompilationCount());
+        engine.ruleChanged("subject", "controller");
+        assertEquals(0, engine.size());
+        engine.getPolicy("subject", "controller");
+        assertEquals(2, engine.getCompilationCount());
+    }
+
+    @Test
+    public void testPolicyCompiledDuringChangeIsNotKept() {
+        PolicyEngine[] engine = new PolicyEngine[1];
+        engine[0] = new PolicyEngine(10, (subject, controller) -> {
+            engine[0].ruleChanged(subject, controller);
+            return Collections.singletonList(rule);
+        });
+        engine[0].getPolicy("subject", "controller");
+        assertEquals(0, engine[0].size());
+    }
+
+    @Test
+    public void testRevocationDuringCompilationIsNotCached()
+            throws Exception {
+        AtomicReference<List<AuthorizationRule>> committed =
+                new AtomicReference<>(Collections.singletonList(rule));
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch revoked = new CountDownLatch(1);
+        PolicyEngine engine = new PolicyEngine(10, (subject, controller) -> {
+            List<AuthorizationRule> rules = committed.get();
+            loaded.countDown();
+            try {
+                revoked.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return rules;
+        });
+        AtomicReference<CompiledPolicy> stale = new AtomicReference<>();
+        Thread reader = new Thread(() -> stale.set(engine.getPolicy(
+                "subject", "controller")));
+        reader.start();
+        loaded.await();
+        committed.set(Collections.emptyList());
+        engine.ruleChanged("subject", "controller");
+        revoked.countDown();
+        reader.join();
+        long now = System.currentTimeMillis();
+        assertTrue(stale.get().isAllowed(DataType.SURNAME, DataUse.INTRANET,
+                now));
+        assertFalse(engine.getPolicy("subject", "controller").isAllowed(
+                DataType.SURNAME, DataUse.INTRANET, now));
+        assertEquals(2, engine.getCompilationCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPolicyIsDiscarded() {
+        PolicyEngine engine = new PolicyEngine(2, (subject, controller) ->
+                Collections.singletonList(rule));
+        engine.getPolicy("first", "controller");
+        engine.getPolicy("second", "controller");
+        engine.getPolicy("first", "controller");
+        engine.getPolicy("third", "controller");
+        assertEquals(2, engine.size());
+        engine.getPolicy("first", "controller");
+        assertEquals(3, engine.getCompilationCount());
+    }
+
+    @Test
+    public void testNearestAncestorRuleApplies() {
+        AuthorizationRule identity = new AuthorizationRule(
+                rule.getDataSubject(), rule.getDataController(),
+                DataType.IDENTITY);
+        identity.getAllowableActions().add(new AllowableAction(identity,
+                DataUse.REPORT, new Date(), null));
+        AuthorizationRule initials = new AuthorizationRule(
+                rule.getDataSubject(), rule.getDataController(),
+                DataType.INITIALS);
+        initials.getAllowableActions().add(new AllowableAction(initials,
+                null, new Date(), null));
+        CompiledPolicy policy = new CompiledPolicy(Arrays.asList(rule,
+                identity, initials));
+        long now = System.currentTimeMillis();
+        assertTrue(policy.isAllowed(DataType.GIVEN_NAME, DataUse.REPORT, now));
+        assertTrue(policy.isAllowed(DataType.INITIALS, DataUse.REPORT, now));
+        assertFalse(policy.isAllowed(DataType.SURNAME, DataUse.REPORT, now));
+        assertTrue(policy.isAllowed(DataType.SURNAME, DataUse.INTRANET, now));
+        assertFalse(policy.isAllowed(DataType.PERSONAL, DataUse.REPORT, now));
+    }
+}
@@ -13,6 +13,7 @@ import org.pdguard.eagent.models.ReqToken;
 import org.pdguard.eagent.utils.CredentialsGenerator;
 import org.pdguard.eagent.utils.EscrowAgentInfo;
 import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.RequestValidator;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.test.FakeApplication;
@@ -182,7 +183,7 @@ public class TestPDGuardService extends WithApplication {
     @Test
     public void testInvalidNonce() throws UnsupportedEncodingException {
         TreeMap<String, String> parameters = prepareParameters();
-        new Nonce(nonce, timestamp, Client.authenticate(clientId)).addNonce();
+        RequestValidator.getReplayStore().add(clientId, nonce, timestamp);
         Http.RequestBuilder request = new Http.RequestBuilder().bodyForm(parameters).uri(
                 String.valueOf(routes.PDGuardService.requestToken())).method(POST);
         Result result = route(request);
@@ -258,7 +259,7 @@ public class TestPDGuardService extends WithApplication {
     public void testAuthorizedRequestTokenInvalidNonce()
             throws UnsupportedEncodingException {
         TreeMap<String, String> parameters = prepareAuthorizationParameters();
-        new Nonce(nonce, timestamp, Client.authenticate(clientId)).addNonce();
+        RequestValidator.getReplayStore().add(clientId, nonce, timestamp);
         Http.RequestBuilder request = new Http.RequestBuilder().bodyForm(parameters).uri(
                 String.valueOf(routes.PDGuardService.authorizeRequestToken()))
                 .method(POST);
@@ -315,7 +316,7 @@ public class TestPDGuardService extends WithApplication {
         ReqToken token = ReqToken.authenticate(tokeId, clientId);
         token.authorizeRequestToken();
         TreeMap<String, String> parameters = prepareRequestTokenParameters();
-        new Nonce(nonce, timestamp, Client.authenticate(clientId)).addNonce();
+        RequestValidator.getReplayStore().add(clientId, nonce, timestamp);
         Http.RequestBuilder request = new Http.RequestBuilder().bodyForm(parameters).uri(
                 String.valueOf(routes.PDGuardService.requestTokenExchange()))
                 .method(POST);
@@ -0,0 +1,157 @@
+package org.pdguard.eagent.requests;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.pdguard.api.exceptions.UnretrievableKeyException;
+import org.pdguard.api.exceptions.UnverifiedRequestException;
+import org.pdguard.api.model.AuthorizationBundle;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.eagent.auth.AuthorizationApi;
+import org.pdguard.eagent.forms.ParametersBundleReq;
+import org.pdguard.eagent.logs.AuthorizationResult;
+import org.pdguard.eagent.models.AuthorizedApplication;
+import org.pdguard.eagent.models.Client;
+import org.pdguard.eagent.models.DataController;
+import org.pdguard.eagent.models.DataSubject;
+import org.pdguard.eagent.models.ReqToken;
+import org.pdguard.eagent.utils.CredentialsGenerator;
+import org.pdguard.eagent.utils.EscrowAgentInfo;
+import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.RequestValidator;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.apache.commons.codec.binary.Hex.encodeHex;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class TestBatchAuthorization {
+    private BatchAuthorization batchAuth;
+
+    private List<AuthorizationBundle> authBundles;
+
+    private Client client;
+
+    @Before
+    public void setUp() {
+        authBundles = Arrays.asList(
+                new DecryptionBundle(DataType.AIM_ID,
+                        DataUse.UPDATE_THIRD_PARTY_DATA,
+                        InteractionPurpose.ADVERT),
+                new EncryptionBundle(DataType.SURNAME,
+                        DataProvenance.DATA_CONTROLLER, false),
+                new DecryptionBundle(DataType.AIM_ID, DataUse.ANALYTICS,
+                        InteractionPurpose.ADVERT));
+        BatchAuthorization batch = new BatchAuthorization(
+                new ParametersBundleReq("client id", "signature", "nonce",
+                        1000L, "req"), authBundles);
+        DataSubject dataSubject = new DataSubject("id", "Nick Apostolopoulos",
+                "nap@hotmail.com", "password");
+        DataController dataController = new DataController("id", "ABC");
+        AuthorizedApplication authApp = new AuthorizedApplication("id",
+                dataController, "App");
+        client = new Client("id", CredentialsGenerator.generateHmacSHA1Secret(),
+                dataSubject, dataController, authApp);
+        batchAuth = PowerMockito.spy(batch);
+    }
+
+    @Test
+    public void testAddAuthorizationParameters() {
+        TreeMap<String, String> parameters = new TreeMap<>();
+        batchAuth.addAuthorizationParameters(parameters);
+        assertEquals("3", parameters.get("item_count"));
+        assertEquals("AIM_ID", parameters.get("item_0_data_type"));
+        assertEquals("DECRYPTION", parameters.get("item_0_request_type"));
+        assertEquals("UPDATE_THIRD_PARTY_DATA",
+                parameters.get("item_0_data_use"));
+        assertEquals("ADVERT", parameters.get("item_0_interaction_purpose"));
+        assertEquals("ENCRYPTION", parameters.get("item_1_request_type"));
+        assertEquals("DATA_CONTROLLER",
+                parameters.get("item_1_data_provenance"));
+        assertEquals("false", parameters.get("item_1_update"));
+        assertEquals(13, parameters.size());
+    }
+
+    @PrepareForTest({ ReqToken.class })
+    @Test
+    public void testValidateBatchRequest()
+            throws UnverifiedRequestException, UnsupportedEncodingException {
+        Client mockClient = PowerMockito.spy(client);
+        ReqToken mockToken = PowerMockito.spy(new ReqToken("token",
+                new byte[0], mockClient));
+        RequestValidator fakeValidator = PowerMockito.mock(
+                RequestValidator.class);
+        String signatureKey = new String(encodeHex(client.getSecret())) + "&"
+                + new String(encodeHex(mockToken.getSecret()));
+        String uri = EscrowAgentInfo.getUrl()
+                + EscrowAgent.getBatchAuthorizationService();
+        doNothing().when(fakeValidator).validateRequest(uri, signatureKey);
+        doNothing().when(batchAuth).validateRequestToken(mockToken);
+        when(fakeValidator.validateClient()).thenReturn(mockClient);
+        when(fakeValidator.getParameters()).thenReturn(new TreeMap<>());
+        when(batchAuth.initValidator()).thenReturn(fakeValidator);
+        PowerMockito.mockStatic(ReqToken.class);
+        PowerMockito.when(ReqToken.authenticate(batchAuth.getParams()
+                .getRequestToken(), mockClient.getId())).thenReturn(mockToken);
+        batchAuth.validateBatchRequest();
+        verify(fakeValidator, times(1)).validateRequest(uri, signatureKey);
+        verify(batchAuth, times(1)).validateRequestToken(mockToken);
+    }
+
+    @PrepareForTest({ KeyManager.class })
+    @Test
+    public void testAuthorizeBatch() throws UnretrievableKeyException {
+        AuthorizationApi allowed = Mockito.mock(AuthorizationApi.class);
+        when(allowed.processAuthorization()).thenReturn(
+                AuthorizationResult.ALLOWED);
+        AuthorizationApi denied = Mockito.mock(AuthorizationApi.class);
+        when(denied.processAuthorization()).thenReturn(
+                AuthorizationResult.DENIED_BY_DATA_SUBJECT);
+        doReturn(allowed).when(batchAuth).initAuthorizationApi(
+                authBundles.get(0));
+        doReturn(denied).when(batchAuth).initAuthorizationApi(
+                authBundles.get(1));
+        doReturn(allowed).when(batchAuth).initAuthorizationApi(
+                authBundles.get(2));
+        ReqToken mockToken = Mockito.mock(ReqToken.class);
+        batchAuth.setClient(client);
+        batchAuth.setReqToken(mockToken);
+        PowerMockito.mockStatic(KeyManager.class);
+        PowerMockito.when(KeyManager.requestEncryptionKey(
+                client.getDataSubject().getId(),
+                client.getDataController().getId(), DataType.AIM_ID))
+                .thenReturn(new EncryptionKey("0a0b"));
+        assertEquals("item_count=3&item_0_result=ALLOWED"
+                + "&item_0_encryption_key=0a0b"
+                + "&item_1_result=DENIED_BY_DATA_SUBJECT"
+                + "&item_2_result=ALLOWED&item_2_encryption_key=0a0b",
+                batchAuth.authorizeBatch());
+        verify(allowed, times(2)).addAuthorizationLog(any());
+        verify(denied, times(1)).addAuthorizationLog(any());
+        verify(mockToken, times(1)).revokeRequestToken(true);
+        PowerMockito.verifyStatic(times(1));
+        KeyManager.requestEncryptionKey(client.getDataSubject().getId(),
+                client.getDataController().getId(), DataType.AIM_ID);
+    }
+}
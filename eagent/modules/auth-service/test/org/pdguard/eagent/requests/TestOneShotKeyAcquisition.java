@@ -0,0 +1,125 @@
+package org.pdguard.eagent.requests;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.pdguard.api.exceptions.AccessDeniedException;
+import org.pdguard.api.exceptions.UnretrievableKeyException;
+import org.pdguard.api.exceptions.UnverifiedRequestException;
+import org.pdguard.api.model.DecryptionBundle;
+import org.pdguard.api.model.EncryptionKey;
+import org.pdguard.api.model.EscrowAgent;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.api.utils.InteractionPurpose;
+import org.pdguard.api.utils.PDGuardRequestType;
+import org.pdguard.eagent.auth.AuthorizationApi;
+import org.pdguard.eagent.forms.ParametersBundle;
+import org.pdguard.eagent.logs.AuthorizationResult;
+import org.pdguard.eagent.models.AuthorizedApplication;
+import org.pdguard.eagent.models.Client;
+import org.pdguard.eagent.models.DataController;
+import org.pdguard.eagent.models.DataSubject;
+import org.pdguard.eagent.utils.CredentialsGenerator;
+import org.pdguard.eagent.utils.EscrowAgentInfo;
+import org.pdguard.eagent.utils.KeyManager;
+import org.pdguard.eagent.validation.RequestValidator;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import play.i18n.Messages;
+
+import java.io.UnsupportedEncodingException;
+import java.util.TreeMap;
+
+import static org.apache.commons.codec.binary.Hex.encodeHex;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+public class TestOneShotKeyAcquisition {
+    private OneShotKeyAcquisition acquisition;
+
+    private Client client;
+
+    @Before
+    public void setUp() {
+        OneShotKeyAcquisition request = new OneShotKeyAcquisition(
+                new ParametersBundle("client id", "signature", "nonce", 1000L),
+                new DecryptionBundle(DataType.AIM_ID, DataUse.ANALYTICS,
+                        InteractionPurpose.ADVERT),
+                PDGuardRequestType.DECRYPTION);
+        DataSubject dataSubject = new DataSubject("id", "Nick Apostolopoulos",
+                "nap@hotmail.com", "password");
+        DataController dataController = new DataController("id", "ABC");
+        AuthorizedApplication authApp = new AuthorizedApplication("id",
+                dataController, "App");
+        client = new Client("id", CredentialsGenerator.generateHmacSHA1Secret(),
+                dataSubject, dataController, authApp);
+        acquisition = PowerMockito.spy(request);
+    }
+
+    @Test
+    public void testAddAuthorizationParameters() {
+        TreeMap<String, String> parameters = new TreeMap<>();
+        acquisition.addAuthorizationParameters(parameters);
+        assertEquals("AIM_ID", parameters.get("data_type"));
+        assertEquals("DECRYPTION", parameters.get("request_type"));
+        assertEquals("ANALYTICS", parameters.get("data_use"));
+        assertEquals("ADVERT", parameters.get("interaction_purpose"));
+    }
+
+    @Test
+    public void testValidateRequest() throws UnverifiedRequestException,
+            UnsupportedEncodingException {
+        RequestValidator fakeValidator = PowerMockito.mock(
+                RequestValidator.class);
+        String uri = EscrowAgentInfo.getUrl()
+                + EscrowAgent.getOneShotKeyService();
+        String signatureKey = new String(encodeHex(client.getSecret())) + "&";
+        doNothing().when(fakeValidator).validateRequest(uri, signatureKey);
+        when(fakeValidator.validateClient()).thenReturn(client);
+        when(fakeValidator.getParameters()).thenReturn(new TreeMap<>());
+        when(acquisition.initValidator()).thenReturn(fakeValidator);
+        acquisition.validateRequest();
+        verify(fakeValidator, times(1)).validateRequest(uri, signatureKey);
+    }
+
+    @PrepareForTest({ KeyManager.class })
+    @Test
+    public void testAcquireEncryptionKey() throws AccessDeniedException,
+            UnretrievableKeyException {
+        AuthorizationApi authApi = Mockito.mock(AuthorizationApi.class);
+        when(authApi.processAuthorization()).thenReturn(
+                AuthorizationResult.ALLOWED);
+        doReturn(authApi).when(acquisition).initAuthorizationApi();
+        acquisition.setClient(client);
+        PowerMockito.mockStatic(KeyManager.class);
+        PowerMockito.when(KeyManager.requestEncryptionKey(
+                client.getDataSubject().getId(),
+                client.getDataController().getId(), DataType.AIM_ID))
+                .thenReturn(new EncryptionKey("0a0b"));
+        assertEquals("0a0b", acquisition.acquireEncryptionKey()
+                .getEncryptionKey());
+        verify(authApi, times(1)).addAuthorizationLog(any());
+    }
+
+    @PrepareForTest({ Messages.class })
+    @Test(expected = AccessDeniedException.class)
+    public void testAccessDenied() throws AccessDeniedException,
+            UnretrievableKeyException {
+        AuthorizationApi authApi = Mockito.mock(AuthorizationApi.class);
+        when(authApi.processAuthorization()).thenReturn(
+                AuthorizationResult.DENIED_BY_DATA_SUBJECT);
+        doReturn(authApi).when(acquisition).initAuthorizationApi();
+        acquisition.setClient(client);
+        PowerMockito.mockStatic(Messages.class);
+        acquisition.acquireEncryptionKey();
+    }
+}
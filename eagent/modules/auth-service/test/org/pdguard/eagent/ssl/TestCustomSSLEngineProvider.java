@@ -130,4 +130,28 @@ public class TestCustomSSLEngineProvider {
             Assert.assertTrue(sslEngine.getNeedClientAuth());
         });
     }
+
+    /**
+     * Method passes test when all engines are created by the same SSL context
+     * and its session cache is configured.
+     */
+    @Test
+    public void testSSLContextIsShared() {
+        running(fakeApplication(inMemoryDatabase()), () -> {
+            SSLContext sslContext = sslEngineProvider.getSSLContext();
+            long engines = CustomSSLEngineProvider.getMetrics()
+                    .getEngineCount();
+            sslEngineProvider.createSSLEngine();
+            sslEngineProvider.createSSLEngine();
+            Assert.assertSame(sslContext, sslEngineProvider.getSSLContext());
+            Assert.assertEquals(engines + 2, CustomSSLEngineProvider
+                    .getMetrics().getEngineCount());
+            Assert.assertEquals(
+                    CustomSSLEngineProvider.DEFAULT_SESSION_CACHE_SIZE,
+                    sslContext.getServerSessionContext().getSessionCacheSize());
+            Assert.assertEquals(
+                    CustomSSLEngineProvider.DEFAULT_SESSION_TIMEOUT,
+                    sslContext.getServerSessionContext().getSessionTimeout());
+        });
+    }
 }
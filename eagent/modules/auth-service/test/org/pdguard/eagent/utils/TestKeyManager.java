@@ -19,6 +19,7 @@ import play.Application;
 import play.Play;
 import play.i18n.Messages;
 
+import javax.crypto.Cipher;
 import java.io.File;
 import java.util.Date;
 
@@ -72,6 +73,17 @@ public class TestKeyManager {
                 String.valueOf(encodeHex(encryptedKey))));
     }
 
+    @Test
+    @PrepareForTest({Play.class})
+    public void testDecryptLegacyKey() throws Exception {
+        mockApplication();
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, KeyManager.loadMasterKey());
+        byte[] encryptedKey = cipher.doFinal(key.getEncodedKeyContent());
+        Assert.assertArrayEquals(key.getEncodedKeyContent(),
+                KeyManager.decryptKey(encryptedKey));
+    }
+
     @PrepareForTest({Key.class, Play.class})
     @Test
     public void testRequestEncryptionKey() throws UnretrievableKeyException,
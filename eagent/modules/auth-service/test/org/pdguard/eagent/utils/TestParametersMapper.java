@@ -21,15 +21,6 @@ public class TestParametersMapper {
         bundleReq = new ParametersBundleReq("client id", "signature", "nonce",
                 1000L, "token");
     }
-    @Test(expected = RuntimeException.class)
-    public void testGetFieldValue() {
-        Assert.assertEquals(ParametersMapper.getFieldValue(ParametersBundle.class,
-                bundle, "clientId"), "client id");
-        Assert.assertEquals(ParametersMapper.getFieldValue(ParametersBundleReq.class,
-                bundleReq, "clientId"), "client id");
-        ParametersMapper.getFieldValue(ParametersBundle.class,
-                bundle, "requestToken");
-    }
 
     @Test
     public void testMapObject() {
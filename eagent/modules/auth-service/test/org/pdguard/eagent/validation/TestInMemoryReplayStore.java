@@ -0,0 +1,76 @@
+package org.pdguard.eagent.validation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestInMemoryReplayStore {
+    private final AtomicLong now = new AtomicLong(1000000L);
+
+    private InMemoryReplayStore store(int bloomBits) {
+        return new InMemoryReplayStore(1000, 10, bloomBits, now::get);
+    }
+
+    @Test
+    public void testReplayIsRejected() {
+        InMemoryReplayStore store = store(1 << 10);
+        assertTrue(store.add("client", "nonce", now.get()));
+        assertTrue(store.add("client", "other", now.get()));
+        now.addAndGet(500);
+        assertFalse(store.add("client", "nonce", now.get()));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testNonceExpiresAfterWindow() {
+        InMemoryReplayStore store = store(1 << 10);
+        assertTrue(store.add("client", "nonce", now.get()));
+        now.addAndGet(999);
+        assertFalse(store.add("client", "nonce", now.get()));
+        now.addAndGet(1001);
+        assertEquals(0, store.size());
+        assertTrue(store.add("client", "nonce", now.get()));
+    }
+
+    @Test
+    public void testFalsePositivesOfBloomFilter() {
+        InMemoryReplayStore store = store(Long.SIZE);
+        for (int i = 0; i < 1000; i++)
+            assertTrue(store.add("client", "nonce" + i, now.get()));
+        for (int i = 0; i < 1000; i++)
+            assertFalse(store.add("client", "nonce" + i, now.get()));
+        assertEquals(1000, store.size());
+    }
+
+    @Test
+    public void testConcurrentReplayIsRejected() throws Exception {
+        InMemoryReplayStore store = store(1 << 10);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 64; i++)
+                tasks.add(() -> store.add("client", "nonce", now.get()));
+            int accepted = 0;
+            for (Future<Boolean> result : executor.invokeAll(tasks))
+                accepted += result.get() ? 1 : 0;
+            assertEquals(1, accepted);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBloomFilter() {
+        store(100);
+    }
+}
@@ -1,5 +1,6 @@
 package org.pdguard.eagent.validation;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,7 +11,6 @@ import org.pdguard.api.model.SignatureBase;
 import org.pdguard.api.security.Signature;
 import org.pdguard.eagent.forms.ParametersBundle;
 import org.pdguard.eagent.models.Client;
-import org.pdguard.eagent.models.Nonce;
 import org.pdguard.eagent.utils.CredentialsGenerator;
 import org.pdguard.eagent.utils.EscrowAgentInfo;
 import org.pdguard.eagent.utils.ParametersMapper;
@@ -33,8 +33,11 @@ public class TestRequestValidator {
 
     private byte[] secret = CredentialsGenerator.generateHmacSHA1Secret();
 
+    private ReplayStore replayStore;
+
     @Before
     public void setUp() throws UnsupportedEncodingException {
+        replayStore = RequestValidator.getReplayStore();
         ParametersBundle bundle = new ParametersBundle("client id", "signature",
                 "nonce", 1000L);
         TreeMap<String, String> parameters = ParametersMapper.mapObject(
@@ -51,6 +54,11 @@ public class TestRequestValidator {
                 signature.getSignatureContent(), "nonce", 1000L));
     }
 
+    @After
+    public void tearDown() {
+        RequestValidator.setReplayStore(replayStore);
+    }
+
     @PrepareForTest({Client.class, Messages.class})
     @Test(expected = UnverifiedRequestException.class)
     public void testValidateClient() throws UnverifiedRequestException {
@@ -68,17 +76,14 @@ public class TestRequestValidator {
         validator.validateClient();
     }
 
-    @PrepareForTest({ Nonce.class, Client.class, Messages.class })
+    @PrepareForTest({ Messages.class })
     @Test(expected = UnverifiedRequestException.class)
     public void testValidateNonce() throws Exception {
         PowerMockito.mockStatic(Messages.class);
         PowerMockito.when(Messages.get("auth.invalid_nonce")).thenReturn("");
-        PowerMockito.mockStatic(Nonce.class);
-        PowerMockito.when(Nonce.exists(validator.getParams().getNonce()))
-                .thenReturn(true);
+        RequestValidator.setReplayStore(new InMemoryReplayStore(60000));
+        validator.validateNonce();
         validator.validateNonce();
-        PowerMockito.verifyStatic();
-        Nonce.exists(validator.getParams().getNonce());
     }
 
     @PrepareForTest({ Messages.class })
@@ -0,0 +1,73 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.common;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class notifies the registered {@link AuthRuleListener} objects of the
+ * changes of authorization rules.
+ *
+ * Changes are reported by an Ebean persist listener of the entities of
+ * authorization rules once they are committed, so listeners are notified no
+ * matter whether a rule was changed by the web interface of data subjects or
+ * by the authorization service, and never before the change is visible to
+ * other transactions.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class AuthRuleEvents {
+    /** Listeners which are notified of changes. */
+    private static final List<AuthRuleListener> LISTENERS =
+            new CopyOnWriteArrayList<>();
+
+    /** Hides constructor of utility class. */
+    private AuthRuleEvents() {
+    }
+
+    /**
+     * This method registers a listener of changes.
+     *
+     * @param listener Listener to be notified of changes.
+     */
+    public static void addListener(final AuthRuleListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * This method unregisters a listener of changes.
+     *
+     * @param listener Listener to stop being notified of changes.
+     */
+    public static void removeListener(final AuthRuleListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * This method notifies all listeners that the rules which a data subject
+     * has defined for a data controller have changed.
+     *
+     * @param dataSubjectId Id of data subject who defines the rules.
+     * @param dataControllerId Id of data controller whom the rules refer to.
+     */
+    public static void fireRuleChanged(final String dataSubjectId,
+            final String dataControllerId) {
+        for (AuthRuleListener listener : LISTENERS)
+            listener.ruleChanged(dataSubjectId, dataControllerId);
+    }
+}
@@ -0,0 +1,36 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.common;
+
+/**
+ * This interface is implemented by components which keep state derived from
+ * the authorization rules of data subjects, e.g. compiled policies, and
+ * therefore they must be told when these rules change.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public interface AuthRuleListener {
+    /**
+     * This method is called after the creation, update or deletion of an
+     * authorization rule, an allowable action or an allowable provenance has
+     * been committed.
+     *
+     * @param dataSubjectId Id of data subject who defines the rule.
+     * @param dataControllerId Id of data controller whom the rule refers to.
+     */
+    void ruleChanged(String dataSubjectId, String dataControllerId);
+}
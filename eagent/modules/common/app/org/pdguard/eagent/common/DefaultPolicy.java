@@ -0,0 +1,351 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import play.Play;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is the compiled form of the default authorization rules of
+ * escrow agent, which apply when data subject has not defined rules of
+ * their own.
+ *
+ * Default rules are defined in a JSON file which maps the name of a type of
+ * data to its allowable actions and provenances, e.g.
+ * <pre>
+ * { "PERSONAL": { "actions": ["INTRANET"], "provenances": ["PUBLIC_DATA"] } }
+ * </pre>
+ * The file is compiled into bitmasks of the ordinals of {@link DataUse} and
+ * {@link DataProvenance} indexed by the ordinal of {@link DataType}, so a
+ * decision reads a single mask. Types of data which are not listed are not
+ * allowed anything. A file with unknown names is rejected as a whole.
+ *
+ * The current policy is replaced atomically when the file is reloaded, e.g.
+ * by the watcher started with {@link #watch(Path)}; a policy is immutable, so
+ * it can be shared by concurrent requests.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class DefaultPolicy {
+    /** Location of file of default rules relative to application. */
+    private static final String DEFAULT_RULES =
+            "../../data/auth-rules/default_rules.json";
+
+    /** Number of bits of a mask. */
+    private static final int MASK_BITS = Long.SIZE;
+
+    static {
+        if (DataUse.values().length > MASK_BITS
+                || DataProvenance.values().length > MASK_BITS)
+            throw new IllegalStateException("Too many values for a bitmask");
+    }
+
+    /** Field of a rule which holds the allowable actions. */
+    private static final String ACTIONS = "actions";
+
+    /** Field of a rule which holds the allowable provenances. */
+    private static final String PROVENANCES = "provenances";
+
+    /** Policy which does not allow anything. */
+    private static final DefaultPolicy EMPTY = new DefaultPolicy();
+
+    /** Policy which is currently in force or null if it is not loaded yet. */
+    private static final AtomicReference<DefaultPolicy> CURRENT =
+            new AtomicReference<>();
+
+    /** Thread which watches the file of default rules. */
+    private static Thread watcher;
+
+    /** Masks of allowable uses indexed by the ordinal of type of data. */
+    private final long[] useMasks = new long[DataType.values().length];
+
+    /** Masks of allowable provenances indexed by type of data. */
+    private final long[] provenanceMasks = new long[DataType.values()
+            .length];
+
+    /** Creates a policy which does not allow anything. */
+    private DefaultPolicy() {
+    }
+
+    /**
+     * This method compiles the default authorization rules.
+     *
+     * @param rules JSON object of the default authorization rules.
+     * @return Compiled rules.
+     *
+     * @throws IllegalArgumentException is thrown when rules are malformed or
+     * they contain unknown types of data, uses, provenances or fields.
+     */
+    public static DefaultPolicy compile(final JsonNode rules) {
+        if (rules == null || !rules.isObject())
+            throw new IllegalArgumentException(
+                    "Default rules must be a JSON object");
+        DefaultPolicy policy = new DefaultPolicy();
+        Iterator<Map.Entry<String, JsonNode>> it = rules.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            DataType dataType = valueOf(DataType.class, entry.getKey());
+            JsonNode rule = entry.getValue();
+            if (!rule.isObject())
+                throw new IllegalArgumentException("Rule of " + dataType
+                        + " must be a JSON object");
+            Iterator<String> fields = rule.fieldNames();
+            while (fields.hasNext()) {
+                String field = fields.next();
+                if (!field.equals(ACTIONS) && !field.equals(PROVENANCES))
+                    throw new IllegalArgumentException("Unknown field "
+                            + field + " in rule of " + dataType);
+            }
+            policy.useMasks[dataType.ordinal()] = mask(DataUse.class,
+                    rule.get(ACTIONS));
+            policy.provenanceMasks[dataType.ordinal()] = mask(
+                    DataProvenance.class, rule.get(PROVENANCES));
+        }
+        return policy;
+    }
+
+    /**
+     * This method compiles an array of names of an enum into a bitmask.
+     *
+     * @param type Type of enum.
+     * @param names JSON array of names or null if none is allowed.
+     * @param <E> Type of enum.
+     * @return Mask of the ordinals of the given values.
+     */
+    private static <E extends Enum<E>> long mask(final Class<E> type,
+            final JsonNode names) {
+        if (names == null)
+            return 0;
+        if (!names.isArray())
+            throw new IllegalArgumentException("Values of "
+                    + type.getSimpleName() + " must be a JSON array");
+        long mask = 0;
+        for (JsonNode name : names) {
+            if (!name.isTextual())
+                throw new IllegalArgumentException("Value of "
+                        + type.getSimpleName() + " must be a string");
+            mask |= 1L << valueOf(type, name.asText()).ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * This method finds the value of an enum with the specified name.
+     *
+     * @param type Type of enum.
+     * @param name Name of value.
+     * @param <E> Type of enum.
+     * @return Value of enum.
+     *
+     * @throws IllegalArgumentException is thrown when there is no value with
+     * such name.
+     */
+    private static <E extends Enum<E>> E valueOf(final Class<E> type,
+            final String name) {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown "
+                    + type.getSimpleName() + ": " + name, e);
+        }
+    }
+
+    /**
+     * This method reads and compiles a file of default authorization rules.
+     *
+     * @param path Path of file.
+     * @return Compiled rules.
+     *
+     * @throws IOException is thrown when file cannot be read or it is not
+     * valid JSON.
+     * @throws IllegalArgumentException is thrown when rules are invalid.
+     */
+    public static DefaultPolicy load(final Path path) throws IOException {
+        return compile(Json.mapper().readTree(Files.readAllBytes(path)));
+    }
+
+    /**
+     * This method loads a file of default authorization rules and puts them
+     * in force.
+     *
+     * If file cannot be loaded, the rules in force are kept.
+     *
+     * @param path Path of file.
+     * @return true if rules were replaced, false otherwise.
+     */
+    public static boolean reload(final Path path) {
+        try {
+            CURRENT.set(load(path));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            play.Logger.warn("Default rules " + path + " were rejected: "
+                    + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * This method puts the specified rules in force.
+     *
+     * @param policy Compiled default authorization rules.
+     */
+    public static void install(final DefaultPolicy policy) {
+        CURRENT.set(policy);
+    }
+
+    /**
+     * This method returns the default authorization rules in force.
+     *
+     * Rules are loaded from {@link #getPath()} when they are first asked for,
+     * if they have not been loaded yet. If they cannot be loaded, nothing is
+     * allowed until a valid file is reloaded.
+     *
+     * @return Compiled default authorization rules.
+     */
+    public static DefaultPolicy getInstance() {
+        DefaultPolicy policy = CURRENT.get();
+        if (policy != null)
+            return policy;
+        synchronized (DefaultPolicy.class) {
+            if (CURRENT.get() == null && !reload(getPath()))
+                CURRENT.compareAndSet(null, EMPTY);
+            return CURRENT.get();
+        }
+    }
+
+    /**
+     * Getter of the location of the file of default authorization rules.
+     *
+     * @return Path of file.
+     */
+    public static Path getPath() {
+        return Paths.get(Play.application().path().getAbsolutePath(),
+                DEFAULT_RULES).normalize();
+    }
+
+    /**
+     * This method starts watching a file of default authorization rules, so
+     * that they are reloaded whenever the file is changed.
+     *
+     * Only one file is watched; subsequent calls have no effect.
+     *
+     * @param path Path of file.
+     *
+     * @throws IOException is thrown when the directory of file cannot be
+     * watched.
+     */
+    public static synchronized void watch(final Path path) throws IOException {
+        if (watcher != null)
+            return;
+        final Path file = path.toAbsolutePath();
+        final WatchService service = FileSystems.getDefault()
+                .newWatchService();
+        file.getParent().register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watchFile(service, file);
+                } finally {
+                    try {
+                        service.close();
+                    } catch (IOException e) {
+                        play.Logger.warn("Cannot close watch service: "
+                                + e.getMessage());
+                    }
+                }
+            }
+        }, "default-rules-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * This method reloads a file of default authorization rules each time
+     * the watch service reports that it has been changed.
+     *
+     * Editors which save a file by replacing it are also supported, since
+     * creations of file are reported as well.
+     *
+     * @param service Watch service where the directory of file is registered.
+     * @param file Absolute path of file.
+     */
+    private static void watchFile(final WatchService service,
+            final Path file) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents())
+                changed |= file.getFileName().equals(event.context());
+            if (changed)
+                reload(file);
+            if (!key.reset())
+                return;
+        }
+    }
+
+    /**
+     * This method decides whether data can be used in a specific way.
+     *
+     * @param dataType Type of data.
+     * @param dataUse Intended use of the decrypted data.
+     * @return true if default rules allow this use of data.
+     */
+    public boolean isAllowed(final DataType dataType, final DataUse dataUse) {
+        return dataUse != null && (useMasks[dataType.ordinal()]
+                & (1L << dataUse.ordinal())) != 0;
+    }
+
+    /**
+     * This method decides whether data obtained from a specific source can
+     * be stored.
+     *
+     * @param dataType Type of data.
+     * @param dataProvenance Source where data were obtained from.
+     * @return true if default rules allow this provenance of data.
+     */
+    public boolean isAllowed(final DataType dataType,
+            final DataProvenance dataProvenance) {
+        return dataProvenance != null && (provenanceMasks[dataType.ordinal()]
+                & (1L << dataProvenance.ordinal())) != 0;
+    }
+}
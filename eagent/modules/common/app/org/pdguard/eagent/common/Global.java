@@ -41,7 +41,12 @@ import static org.apache.commons.codec.binary.Hex.encodeHex;
  * @author Thodoris Sotiropoulos
  */
 public class Global extends GlobalSettings {
-    /** Adds initial data when application is running for fist time. */
+    /**
+     * Adds initial data when application is running for fist time,
+     * collapses once, if configured, the authorization rules which types of
+     * data inherit anyway and loads the default authorization rules, which
+     * are reloaded whenever their file changes.
+     */
     @Override
     public void onStart(Application app) {
         if (Play.application().configuration().getBoolean("startAkkaActor")) {
@@ -52,7 +57,18 @@ public class Global extends GlobalSettings {
                     e.printStackTrace();
                 }
         }
-
+        if (Play.application().configuration().getBoolean(
+                "collapseRedundantRules", false))
+            RuleMigration.collapseRedundantRulesOnce(
+                    RuleMigration.getMarkerPath());
+        Path defaultRules = DefaultPolicy.getPath();
+        DefaultPolicy.reload(defaultRules);
+        try {
+            DefaultPolicy.watch(defaultRules);
+        } catch (IOException e) {
+            play.Logger.warn("Default rules will not be reloaded: "
+                    + e.getMessage());
+        }
     }
     /**
      * This method adds initial data when escrow agent runs for demonstration.
@@ -28,6 +28,9 @@ import java.util.Date;
  * @author Thodoris Sotiropoulos
  */
 public interface PeriodValidity {
+    /** Year of the end of validity periods which never expire. */
+    int INFINITY_YEAR = 9999;
+
     /**
      * This methods sets the expiration date of a validity period.
      *
@@ -49,6 +52,19 @@ public interface PeriodValidity {
         return calendar.getTime();
     }
 
+    /**
+     * This method checks if a validity period never expires.
+     *
+     * @param validTo Date when validity period ends.
+     *
+     * @return True if the validity period ends in {@link #INFINITY_YEAR}.
+     */
+    default boolean isPermanent(final Date validTo) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(validTo);
+        return calendar.get(Calendar.YEAR) >= INFINITY_YEAR;
+    }
+
     /**
      * This method checks if the validity period has passed.
      *
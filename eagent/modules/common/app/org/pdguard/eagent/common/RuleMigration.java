@@ -0,0 +1,242 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.common;
+
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.SubsumptionIndex;
+import org.pdguard.eagent.models.AllowableAction;
+import org.pdguard.eagent.models.AllowableProvenance;
+import org.pdguard.eagent.models.AuthorizationRule;
+import play.Play;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class collapses the authorization rules which are redundant because
+ * types of data inherit the rules of their ancestors.
+ *
+ * A rule of a type of data is redundant when its allowable actions and its
+ * allowable provenances, together with their validity periods, are the same
+ * as the ones it would inherit from its nearest ancestor. A redundant rule is
+ * not deleted, since it records which types of data a data controller stores
+ * and data subject edits it through the web interface; it is turned into a
+ * placeholder which does not permit anything, as created by default when
+ * data are first stored, so that the type of data inherits the rules of its
+ * ancestors.
+ *
+ * From then on, the type of data follows the changes of the rules of its
+ * ancestors, so the migration is opt-in and it runs once; see
+ * {@link #collapseRedundantRulesOnce(Path)}.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public final class RuleMigration {
+    /** Location of marker of migration relative to application. */
+    private static final String MARKER =
+            "../../data/auth-rules/.redundant_rules_collapsed";
+
+    /** Hides constructor of utility class. */
+    private RuleMigration() {
+    }
+
+    /**
+     * This method collapses the redundant rules of escrow agent's database
+     * unless they have been collapsed before.
+     *
+     * The marker file is created before the rules are collapsed, so that the
+     * migration does not run again, and it is removed if migration fails.
+     *
+     * @param marker Path of file which marks that the migration has run.
+     * @return Number of rules collapsed.
+     */
+    public static int collapseRedundantRulesOnce(final Path marker) {
+        try {
+            Files.createDirectories(marker.getParent());
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            return 0;
+        } catch (IOException e) {
+            play.Logger.warn("Redundant authorization rules will not be"
+                    + " collapsed: " + e.getMessage());
+            return 0;
+        }
+        try {
+            int collapsed = collapseRedundantRules();
+            play.Logger.info("Redundant authorization rules collapsed: "
+                    + collapsed);
+            return collapsed;
+        } catch (RuntimeException e) {
+            try {
+                Files.deleteIfExists(marker);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Getter of the location of the marker of migration.
+     *
+     * @return Path of file which marks that the migration has run.
+     */
+    public static Path getMarkerPath() {
+        return Paths.get(Play.application().path().getAbsolutePath(),
+                MARKER).normalize();
+    }
+
+    /**
+     * This method turns all redundant rules of escrow agent's database into
+     * placeholders which inherit the rules of their ancestors.
+     *
+     * @return Number of rules collapsed.
+     */
+    public static int collapseRedundantRules() {
+        Map<String, Map<DataType, AuthorizationRule>> groups = new HashMap<>();
+        for (AuthorizationRule rule : AuthorizationRule.getFinder()
+                .fetch("allowableActions").fetch("allowableProvenances")
+                .findList()) {
+            String group = rule.getDataSubject().getId() + "\u0000"
+                    + rule.getDataController().getId();
+            Map<DataType, AuthorizationRule> rules = groups.get(group);
+            if (rules == null) {
+                rules = new EnumMap<>(DataType.class);
+                groups.put(group, rules);
+            }
+            rules.put(rule.getDataType(), rule);
+        }
+        List<AuthorizationRule> redundant = new ArrayList<>();
+        for (Map<DataType, AuthorizationRule> rules : groups.values())
+            redundant.addAll(findRedundantRules(rules));
+        for (AuthorizationRule rule : redundant)
+            rule.inheritRules();
+        return redundant.size();
+    }
+
+    /**
+     * This method finds the redundant rules which a data subject has defined
+     * for a data controller.
+     *
+     * @param rules Rules of data subject and data controller indexed by type
+     * of data.
+     * @return Redundant rules.
+     */
+    static List<AuthorizationRule> findRedundantRules(
+            final Map<DataType, AuthorizationRule> rules) {
+        List<AuthorizationRule> redundant = new ArrayList<>();
+        for (AuthorizationRule rule : rules.values()) {
+            Set<List<Object>> uses = uses(rule);
+            Set<List<Object>> provenances = provenances(rule);
+            if (uses == null && provenances == null)
+                continue;
+            if (isInherited(uses, rules, rule.getDataType(), true)
+                    && isInherited(provenances, rules, rule.getDataType(),
+                    false))
+                redundant.add(rule);
+        }
+        return redundant;
+    }
+
+    /**
+     * This method checks whether a rule of a type of data is the same as the
+     * one which the type would inherit.
+     *
+     * @param own Rule of type of data; null if it is inherited anyway.
+     * @param rules Rules of data subject and data controller.
+     * @param dataType Type of data.
+     * @param actions true to compare allowable actions; false to compare
+     * allowable provenances.
+     * @return true if type of data would have the same rule without it.
+     */
+    private static boolean isInherited(final Set<List<Object>> own,
+            final Map<DataType, AuthorizationRule> rules,
+            final DataType dataType, final boolean actions) {
+        if (own == null)
+            return true;
+        SubsumptionIndex<DataType> index = DataType.getIndex();
+        for (int distance = 1; distance <= index.getDepth(dataType);
+                distance++) {
+            AuthorizationRule ancestor = rules.get(index.getAncestor(dataType,
+                    distance));
+            if (ancestor == null)
+                continue;
+            Set<List<Object>> inherited = actions ? uses(ancestor)
+                    : provenances(ancestor);
+            if (inherited != null)
+                return inherited.equals(own);
+        }
+        return false;
+    }
+
+    /**
+     * This method describes the allowable actions of a rule.
+     *
+     * @param rule Authorization rule.
+     * @return Allowable uses along with their validity periods, or null if
+     * the rule does not define any and it does not lock data.
+     */
+    private static Set<List<Object>> uses(final AuthorizationRule rule) {
+        Set<List<Object>> uses = new HashSet<>();
+        boolean locked = false;
+        for (AllowableAction action : rule.getAllowableActions())
+            if (action.getDataUse() != null)
+                uses.add(Arrays.<Object>asList(action.getDataUse(),
+                        action.getValidFrom().getTime(),
+                        action.getValidTo().getTime()));
+            else
+                locked |= action.isLock();
+        if (uses.isEmpty() && !locked)
+            return null;
+        return uses;
+    }
+
+    /**
+     * This method describes the allowable provenances of a rule.
+     *
+     * @param rule Authorization rule.
+     * @return Allowable provenances along with their validity periods, or
+     * null if the rule does not define any and it does not lock data.
+     */
+    private static Set<List<Object>> provenances(
+            final AuthorizationRule rule) {
+        Set<List<Object>> provenances = new HashSet<>();
+        boolean locked = false;
+        for (AllowableProvenance provenance : rule.getAllowableProvenances())
+            if (provenance.getDataProvenance() != null)
+                provenances.add(Arrays.<Object>asList(
+                        provenance.getDataProvenance(),
+                        provenance.getValidFrom().getTime(),
+                        provenance.getValidTo().getTime()));
+            else
+                locked |= provenance.isLock();
+        if (provenances.isEmpty() && !locked)
+            return null;
+        return provenances;
+    }
+}
@@ -17,11 +17,11 @@
 package org.pdguard.eagent.models;
 
 import com.avaje.ebean.Model;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.pdguard.api.utils.DataType;
 import org.pdguard.api.utils.DataUse;
+import org.pdguard.eagent.common.DefaultPolicy;
 import org.pdguard.eagent.common.PeriodValidity;
 import play.data.format.Formats;
 import play.data.validation.Constraints;
@@ -134,10 +134,9 @@ public final class AllowableAction extends Model implements PeriodValidity {
      * performed on data they are associated.
      */
     public void setDefaultAuthRule() {
-        final int infinityYear = 9999;
         final int day = 31;
         Calendar calendar = Calendar.getInstance();
-        calendar.set(infinityYear, Calendar.DECEMBER, day);
+        calendar.set(INFINITY_YEAR, Calendar.DECEMBER, day);
         setDataUse(null);
         setValidFrom(new Date());
         setValidTo(calendar.getTime());
@@ -198,12 +197,7 @@ public final class AllowableAction extends Model implements PeriodValidity {
      */
     public static boolean isAuthorized(final DataType dataType,
             final DataUse dataUse) {
-        JsonNode authRules = AuthorizationRule.getDefaultAuthRules();
-        if (authRules == null)
-            return false;
-        JsonNode allowableActions = authRules.get(
-                dataType.toString()).get("actions");
-        return allowableActions.toString().contains(dataUse.toString());
+        return DefaultPolicy.getInstance().isAllowed(dataType, dataUse);
     }
 
     /**
@@ -345,6 +339,32 @@ public final class AllowableAction extends Model implements PeriodValidity {
         return actions;
     }
 
+    /**
+     * This method checks if this allowable action locks data.
+     *
+     * Data are locked when data subject removes all the permissions of a type
+     * of data. Then the last allowable action is replaced by a permanent one
+     * which does not permit anything; see {@link #setDefaultAuthRule()}.
+     *
+     * @return True if data are locked by this allowable action.
+     */
+    public boolean isLock() {
+        return dataUse == null && validTo != null && isPermanent(validTo);
+    }
+
+    /**
+     * This method notifies the listeners of authorization rules that the
+     * rules of data subject and data controller have changed.
+     *
+     * It is called by {@link AuthRuleChangeListener} after the transaction
+     * which saved, updated or deleted this allowable action has been
+     * committed.
+     */
+    void notifyRuleChanged() {
+        if (authorizationRule != null)
+            authorizationRule.notifyRuleChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -17,11 +17,11 @@
 package org.pdguard.eagent.models;
 
 import com.avaje.ebean.Model;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataType;
+import org.pdguard.eagent.common.DefaultPolicy;
 import org.pdguard.eagent.common.PeriodValidity;
 import play.data.format.Formats;
 import play.data.validation.Constraints;
@@ -183,13 +183,7 @@ public final class AllowableProvenance extends Model
      */
     public static boolean isAuthorized(final DataType dataType,
             final DataProvenance dataProvenance) {
-        JsonNode authRules = AuthorizationRule.getDefaultAuthRules();
-        if (authRules == null)
-            return false;
-        JsonNode allowableProvenances = authRules.get(
-                dataType.toString()).get("provenances");
-        return allowableProvenances.toString().contains(dataProvenance
-                .toString());
+        return DefaultPolicy.getInstance().isAllowed(dataType, dataProvenance);
     }
 
     /**
@@ -341,16 +335,42 @@ public final class AllowableProvenance extends Model
      * provenances where data can be obtained from.
      */
     public void setDefaultAuthRule() {
-        final int infinityYear = 9999;
         final int day = 31;
         Calendar calendar = Calendar.getInstance();
-        calendar.set(infinityYear, Calendar.DECEMBER, day);
+        calendar.set(INFINITY_YEAR, Calendar.DECEMBER, day);
         setDataProvenance(null);
         setValidFrom(new Date());
         setValidTo(calendar.getTime());
         update();
     }
 
+    /**
+     * This method checks if this allowable provenance locks data.
+     *
+     * Data are locked when data subject removes all the permissions of a type
+     * of data. Then the last allowable provenance is replaced by a permanent
+     * one which does not permit anything; see {@link #setDefaultAuthRule()}.
+     *
+     * @return True if data are locked by this allowable provenance.
+     */
+    public boolean isLock() {
+        return dataProvenance == null && validTo != null
+                && isPermanent(validTo);
+    }
+
+    /**
+     * This method notifies the listeners of authorization rules that the
+     * rules of data subject and data controller have changed.
+     *
+     * It is called by {@link AuthRuleChangeListener} after the transaction
+     * which saved, updated or deleted this allowable provenance has been
+     * committed.
+     */
+    void notifyRuleChanged() {
+        if (authorizationRule != null)
+            authorizationRule.notifyRuleChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,102 @@
+/*-
+ * Copyright 2014-2015 Thodoris Sotiropoulos
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.pdguard.eagent.models;
+
+import com.avaje.ebean.event.BeanPersistListener;
+
+import javax.persistence.PersistenceException;
+import java.util.Set;
+
+/**
+ * This class notifies the listeners of authorization rules when an
+ * authorization rule, an allowable action or an allowable provenance is
+ * inserted, updated or deleted.
+ *
+ * Ebean calls it in a background thread, only after the transaction which
+ * changed the bean has been committed. Therefore, a policy compiled after
+ * the notification always sees the change, and a policy compiled from the
+ * rows before the change is discarded by the notification.
+ *
+ * Ebean registers this class automatically because it belongs to a package
+ * of entities.
+ *
+ * @author Thodoris Sotiropoulos
+ */
+public class AuthRuleChangeListener implements BeanPersistListener {
+    @Override
+    public boolean isRegisterFor(final Class<?> cls) {
+        return AuthorizationRule.class.equals(cls)
+                || AllowableAction.class.equals(cls)
+                || AllowableProvenance.class.equals(cls);
+    }
+
+    @Override
+    public boolean inserted(final Object bean) {
+        notifyRuleChanged(bean);
+        return false;
+    }
+
+    @Override
+    public boolean updated(final Object bean,
+            final Set<String> updatedProperties) {
+        notifyRuleChanged(bean);
+        return false;
+    }
+
+    @Override
+    public boolean deleted(final Object bean) {
+        notifyRuleChanged(bean);
+        return false;
+    }
+
+    @Override
+    public void remoteInsert(final Object id) {
+        // Escrow agent does not run in a cluster.
+    }
+
+    @Override
+    public void remoteUpdate(final Object id) {
+        // Escrow agent does not run in a cluster.
+    }
+
+    @Override
+    public void remoteDelete(final Object id) {
+        // Escrow agent does not run in a cluster.
+    }
+
+    /**
+     * This method notifies the listeners of authorization rules that the
+     * rules which the given bean belongs to have changed.
+     *
+     * @param bean Authorization rule, allowable action or allowable
+     * provenance which was changed.
+     */
+    private static void notifyRuleChanged(final Object bean) {
+        try {
+            if (bean instanceof AuthorizationRule)
+                ((AuthorizationRule) bean).notifyRuleChanged();
+            else if (bean instanceof AllowableAction)
+                ((AllowableAction) bean).notifyRuleChanged();
+            else if (bean instanceof AllowableProvenance)
+                ((AllowableProvenance) bean).notifyRuleChanged();
+        } catch (PersistenceException e) {
+            // The authorization rule was deleted along with the bean; the
+            // notification of its own deletion covers the change.
+            return;
+        }
+    }
+}
@@ -17,10 +17,9 @@
 package org.pdguard.eagent.models;
 
 import com.avaje.ebean.Model;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.pdguard.api.utils.DataType;
-import play.Play;
+import org.pdguard.eagent.common.AuthRuleEvents;
 import play.data.validation.Constraints;
 import play.libs.Json;
 
@@ -34,10 +33,6 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.UniqueConstraint;
 import javax.persistence.Table;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -243,6 +238,65 @@ public class AuthorizationRule extends Model {
         lockProvenances(allowableProvenances.iterator());
     }
 
+    /**
+     * This method turns authorization rule into a placeholder which neither
+     * permits anything nor locks data, like the default rule which is
+     * created when data are first stored. Then, type of data inherits the
+     * authorization rules of its ancestors, while data subject can still
+     * edit or lock the rule of this type of data.
+     */
+    public void inheritRules() {
+        inheritActions(allowableActions.iterator());
+        inheritProvenances(allowableProvenances.iterator());
+    }
+
+    /**
+     * This method replaces all allowable actions related to an authorization
+     * rule by one which does not permit anything and does not lock data.
+     *
+     * @param iter Iterator of allowable actions.
+     */
+    static void inheritActions(final Iterator<AllowableAction> iter) {
+        while (iter.hasNext()) {
+            AllowableAction authAllowableAction = iter.next();
+            if (iter.hasNext()) {
+                authAllowableAction.delete();
+                iter.remove();
+            } else {
+                authAllowableAction.setDataUse(null);
+                Date validFrom = new Date();
+                authAllowableAction.setValidFrom(validFrom);
+                authAllowableAction.setValidTo(authAllowableAction
+                        .getExpirationDate(validFrom));
+                authAllowableAction.update();
+            }
+        }
+    }
+
+    /**
+     * This method replaces all allowable provenances related to an
+     * authorization rule by one which does not permit anything and does not
+     * lock data.
+     *
+     * @param iter Iterator of allowable provenances.
+     */
+    static void inheritProvenances(final Iterator<AllowableProvenance> iter) {
+        while (iter.hasNext()) {
+            AllowableProvenance authAllowableProvenance = iter.next();
+            if (iter.hasNext()) {
+                authAllowableProvenance.delete();
+                iter.remove();
+            } else {
+                authAllowableProvenance.setDataProvenance(null);
+                Date validFrom = new Date();
+                authAllowableProvenance.setValidFrom(validFrom);
+                authAllowableProvenance.setValidTo(authAllowableProvenance
+                        .getExpirationDate(validFrom));
+                authAllowableProvenance.update();
+            }
+        }
+    }
+
     /**
      * This method deletes all allowable actions related to an authorization
      * rule so that a data controller cannot read data.
@@ -280,33 +334,37 @@ public class AuthorizationRule extends Model {
     }
 
     /**
-     * This method loads the default authorization rules from the corresponding
-     * file and then  creates a JSON object.
+     * This method retrieves all authorization rules which a data subject has
+     * defined for a data controller along with their allowable actions and
+     * provenances.
+     *
+     * @param dataSubjectId Id of data subject.
+     * @param dataControllerId Id of data controller.
+     *
+     * @return List of authorization rules; one rule per type of data.
+     */
+    public static List<AuthorizationRule> findRules(
+            final String dataSubjectId, final String dataControllerId) {
+        return AuthorizationRule.finder.fetch("allowableActions")
+                .fetch("allowableProvenances")
+                .where()
+                .eq("dataSubject.id", dataSubjectId)
+                .eq("dataController.id", dataControllerId)
+                .findList();
+    }
+
+    /**
+     * This method notifies the listeners of authorization rules that the
+     * rules of data subject and data controller have changed.
      *
-     * @return JSON object of the default authorization rules.
+     * It is called by {@link AuthRuleChangeListener} after the transaction
+     * which saved, updated or deleted this authorization rule has been
+     * committed.
      */
-    public static JsonNode getDefaultAuthRules() {
-        final String path = Play.application().path().getAbsolutePath()
-                + "/../../data/auth-rules/default_rules.json";
-        StringBuilder response = new StringBuilder();
-        String output;
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(path), "UTF-8"));
-            while ((output = br.readLine()) != null)
-                response.append(output);
-        } catch (IOException e) {
-            return null;
-        } finally {
-            try {
-                if (br != null)
-                    br.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return Json.parse(response.toString());
+    void notifyRuleChanged() {
+        if (dataSubject != null && dataController != null)
+            AuthRuleEvents.fireRuleChanged(dataSubject.getId(),
+                    dataController.getId());
     }
 
     /** Updates an existing authorization rule. */
@@ -0,0 +1,104 @@
+package org.pdguard.eagent.common;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.start;
+
+public class TestDefaultPolicy {
+    private static final String RULES = "{\"IDENTITY\": {"
+            + "\"provenances\": [\"PUBLIC_DATA\"],"
+            + "\"actions\": [\"INTRANET\", \"COMPOSE_EMAIL_TO_SUBJECT\"]}}";
+
+    @Before
+    public void setUp() {
+        start(fakeApplication(inMemoryDatabase()));
+    }
+
+    private Path write(Path file, String content) throws IOException {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompile() {
+        DefaultPolicy policy = DefaultPolicy.compile(Json.parse(RULES));
+        assertTrue(policy.isAllowed(DataType.IDENTITY, DataUse.INTRANET));
+        assertTrue(policy.isAllowed(DataType.IDENTITY,
+                DataUse.COMPOSE_EMAIL_TO_SUBJECT));
+        assertFalse(policy.isAllowed(DataType.IDENTITY,
+                DataUse.SEND_SMS_TO_SUBJECT));
+        assertTrue(policy.isAllowed(DataType.IDENTITY,
+                DataProvenance.PUBLIC_DATA));
+        assertFalse(policy.isAllowed(DataType.IDENTITY,
+                DataProvenance.DATA_CONTROLLER));
+        assertFalse(policy.isAllowed(DataType.SURNAME, DataUse.INTRANET));
+        assertFalse(policy.isAllowed(DataType.IDENTITY, (DataUse) null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDataType() {
+        DefaultPolicy.compile(Json.parse("{\"NICKNAME\": {\"actions\": []}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDataUse() {
+        DefaultPolicy.compile(Json.parse(
+                "{\"IDENTITY\": {\"actions\": [\"INTRA\"]}}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() {
+        DefaultPolicy.compile(Json.parse(
+                "{\"IDENTITY\": {\"action\": [\"INTRANET\"]}}"));
+    }
+
+    @Test
+    public void testInvalidFileKeepsRules() throws IOException {
+        Path file = Files.createTempFile("default_rules", ".json");
+        DefaultPolicy previous = DefaultPolicy.getInstance();
+        try {
+            assertTrue(DefaultPolicy.reload(write(file, RULES)));
+            DefaultPolicy loaded = DefaultPolicy.getInstance();
+            assertFalse(DefaultPolicy.reload(write(file,
+                    "{\"IDENTITY\": {\"actions\": [\"INTRA\"]}}")));
+            assertFalse(DefaultPolicy.reload(write(file, "{\"IDENTITY\"")));
+            assertSame(loaded, DefaultPolicy.getInstance());
+        } finally {
+            DefaultPolicy.install(previous);
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testChangedFileIsReloaded() throws Exception {
+        Path file = Files.createTempFile("default_rules", ".json");
+        DefaultPolicy previous = DefaultPolicy.getInstance();
+        try {
+            DefaultPolicy.install(DefaultPolicy.compile(Json.parse("{}")));
+            DefaultPolicy.watch(file);
+            write(file, RULES);
+            for (int i = 0; i < 100 && !DefaultPolicy.getInstance().isAllowed(
+                    DataType.IDENTITY, DataUse.INTRANET); i++)
+                Thread.sleep(100);
+            assertTrue(DefaultPolicy.getInstance().isAllowed(
+                    DataType.IDENTITY, DataUse.INTRANET));
+        } finally {
+            DefaultPolicy.install(previous);
+            Files.delete(file);
+        }
+    }
+}
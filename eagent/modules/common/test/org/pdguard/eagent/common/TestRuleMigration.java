@@ -0,0 +1,124 @@
+package org.pdguard.eagent.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Test;
+import org.pdguard.api.utils.DataProvenance;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.api.utils.DataUse;
+import org.pdguard.eagent.models.AllowableAction;
+import org.pdguard.eagent.models.AllowableProvenance;
+import org.pdguard.eagent.models.AuthorizationRule;
+import org.pdguard.eagent.models.DataController;
+import org.pdguard.eagent.models.DataSubject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.start;
+
+public class TestRuleMigration {
+    private final DataSubject dataSubject = new DataSubject("ID", "james",
+            "james@example.com", "password");
+
+    private final DataController dataController = new DataController("ID",
+            "example");
+
+    private final Date validFrom = new Date();
+
+    private AuthorizationRule rule(DataType dataType, DataUse dataUse) {
+        AuthorizationRule rule = new AuthorizationRule(dataSubject,
+                dataController, dataType);
+        rule.getAllowableActions().add(new AllowableAction(rule, dataUse,
+                validFrom, null));
+        return rule;
+    }
+
+    @Test
+    public void testFindRedundantRules() {
+        Map<DataType, AuthorizationRule> rules = new EnumMap<>(DataType.class);
+        rules.put(DataType.IDENTITY, rule(DataType.IDENTITY, DataUse.INTRANET));
+        AuthorizationRule surname = rule(DataType.SURNAME, DataUse.INTRANET);
+        rules.put(DataType.SURNAME, surname);
+        rules.put(DataType.GIVEN_NAME, rule(DataType.GIVEN_NAME,
+                DataUse.REPORT));
+        rules.put(DataType.INITIALS, rule(DataType.INITIALS, null));
+        List<AuthorizationRule> redundant = RuleMigration.findRedundantRules(
+                rules);
+        assertEquals(1, redundant.size());
+        assertSame(surname, redundant.get(0));
+    }
+
+    @Test
+    public void testRedundantRulesAreCollapsedOnce() throws IOException {
+        start(fakeApplication(inMemoryDatabase()));
+        dataSubject.save();
+        dataController.save();
+        rule(DataType.IDENTITY, DataUse.INTRANET).save();
+        rule(DataType.SURNAME, DataUse.INTRANET).save();
+        Path marker = Files.createTempDirectory("migration").resolve(
+                "collapsed");
+        assertEquals(1, RuleMigration.collapseRedundantRulesOnce(marker));
+        assertTrue(Files.exists(marker));
+        AuthorizationRule surname = AuthorizationRule.authenticate("ID", "ID",
+                DataType.SURNAME);
+        assertNotNull(surname);
+        assertEquals(1, surname.getAllowableActions().size());
+        AllowableAction placeholder = surname.getAllowableActions()
+                .iterator().next();
+        assertNull(placeholder.getDataUse());
+        assertFalse(placeholder.isLock());
+        rule(DataType.GIVEN_NAME, DataUse.INTRANET).save();
+        assertEquals(0, RuleMigration.collapseRedundantRulesOnce(marker));
+        assertEquals(DataUse.INTRANET, AuthorizationRule.authenticate("ID",
+                "ID", DataType.GIVEN_NAME).getAllowableActions().iterator()
+                .next().getDataUse());
+    }
+
+    @Test
+    public void testCollapsedRuleCanBeReadBack() throws IOException {
+        start(fakeApplication(inMemoryDatabase()));
+        dataSubject.save();
+        dataController.save();
+        for (DataType dataType : new DataType[] {DataType.IDENTITY,
+                DataType.SURNAME}) {
+            AuthorizationRule rule = rule(dataType, DataUse.INTRANET);
+            rule.getAllowableProvenances().add(new AllowableProvenance(rule,
+                    DataProvenance.DATA_CONTROLLER, validFrom, null));
+            rule.save();
+        }
+        assertEquals(1, RuleMigration.collapseRedundantRulesOnce(
+                Files.createTempDirectory("migration").resolve("collapsed")));
+        AuthorizationRule surname = AuthorizationRule.findRules("ID", "ID")
+                .stream().filter(rule -> rule.getDataType()
+                        == DataType.SURNAME).findFirst().get();
+        AllowableAction action = surname.getAllowableActions().iterator()
+                .next();
+        assertNotNull(action.getValidTo());
+        assertFalse(action.isExpired(action.getValidFrom(),
+                action.getValidTo()));
+        AllowableProvenance provenance = surname.getAllowableProvenances()
+                .iterator().next();
+        assertNull(provenance.getDataProvenance());
+        assertNotNull(provenance.getValidTo());
+        assertFalse(provenance.isLock());
+        JsonNode actions = AllowableAction.parseAllowableActions(
+                surname.getAllowableActions());
+        assertEquals(1, actions.size());
+        assertTrue(actions.get(0).has("validTo"));
+        assertEquals(1, AllowableProvenance.parseAllowableProvenances(
+                surname.getAllowableProvenances()).size());
+    }
+}
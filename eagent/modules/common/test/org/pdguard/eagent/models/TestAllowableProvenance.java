@@ -5,12 +5,10 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.Mockito;
 import org.pdguard.api.utils.DataProvenance;
 import org.pdguard.api.utils.DataType;
-import org.powermock.api.mockito.PowerMockito;
+import org.pdguard.eagent.common.DefaultPolicy;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
-import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import play.libs.Json;
 
@@ -70,7 +68,6 @@ public class TestAllowableProvenance {
         assertFalse(notAuthorized);
     }
 
-    @PrepareForTest({ AuthorizationRule.class })
     @Test
     public void testIsAuthorizedDefaultRules() {
         JsonNode defaultRules = Json.parse("{\n" +
@@ -78,15 +75,18 @@ public class TestAllowableProvenance {
                 "        \"provenances\": [\"PUBLIC_DATA\"],\n" +
                 "        \"actions\": [\"INTRANET\"]\n" +
                 "    }}");
-        PowerMockito.mockStatic(AuthorizationRule.class);
-        PowerMockito.when(AuthorizationRule.getDefaultAuthRules())
-                .thenReturn(defaultRules);
-        assertTrue(AllowableProvenance.isAuthorized(DataType.PERSONAL,
-                DataProvenance.PUBLIC_DATA));
-        assertFalse(AllowableProvenance.isAuthorized(DataType.PERSONAL,
-                DataProvenance.DATA_SUBJECT_EXPLICIT));
-        PowerMockito.verifyStatic(Mockito.times(2));
-        AuthorizationRule.getDefaultAuthRules();
+        DefaultPolicy previous = DefaultPolicy.getInstance();
+        DefaultPolicy.install(DefaultPolicy.compile(defaultRules));
+        try {
+            assertTrue(AllowableProvenance.isAuthorized(DataType.PERSONAL,
+                    DataProvenance.PUBLIC_DATA));
+            assertFalse(AllowableProvenance.isAuthorized(DataType.PERSONAL,
+                    DataProvenance.DATA_SUBJECT_EXPLICIT));
+            assertFalse(AllowableProvenance.isAuthorized(DataType.IDENTITY,
+                    DataProvenance.PUBLIC_DATA));
+        } finally {
+            DefaultPolicy.install(previous);
+        }
     }
 
     @Test
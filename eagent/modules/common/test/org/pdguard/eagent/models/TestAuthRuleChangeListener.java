@@ -0,0 +1,83 @@
+package org.pdguard.eagent.models;
+
+import com.avaje.ebean.Ebean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pdguard.api.utils.DataType;
+import org.pdguard.eagent.common.AuthRuleEvents;
+import org.pdguard.eagent.common.AuthRuleListener;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertTrue;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.start;
+
+public class TestAuthRuleChangeListener {
+    private final List<String> changes = new CopyOnWriteArrayList<>();
+
+    private final AuthRuleListener listener = (dataSubjectId,
+            dataControllerId) -> changes.add(dataSubjectId + "/"
+            + dataControllerId);
+
+    private DataSubject dataSubject;
+
+    private DataController dataController;
+
+    private void awaitChanges() throws InterruptedException {
+        for (int i = 0; i < 200 && changes.isEmpty(); i++)
+            Thread.sleep(5);
+    }
+
+    @Before
+    public void setUp() {
+        start(fakeApplication(inMemoryDatabase()));
+        dataSubject = new DataSubject("subject", "James Parker",
+                "test@example.com", "password");
+        dataSubject.save();
+        dataController = new DataController("controller", "ABC");
+        dataController.save();
+        AuthRuleEvents.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        AuthRuleEvents.removeListener(listener);
+    }
+
+    @Test
+    public void testListenersAreNotifiedAfterCommit() throws Exception {
+        Ebean.beginTransaction();
+        try {
+            AuthorizationRule rule = new AuthorizationRule(dataSubject,
+                    dataController, DataType.AIM_ID);
+            rule.save();
+            new AllowableAction(rule, null, new Date(), null).save();
+            Thread.sleep(50);
+            assertTrue(changes.isEmpty());
+            Ebean.commitTransaction();
+        } finally {
+            Ebean.endTransaction();
+        }
+        awaitChanges();
+        assertTrue(changes.contains("subject/controller"));
+    }
+
+    @Test
+    public void testListenersAreNotNotifiedOfRollback() throws Exception {
+        Ebean.beginTransaction();
+        try {
+            new AuthorizationRule(dataSubject, dataController,
+                    DataType.AIM_ID).save();
+            Ebean.rollbackTransaction();
+        } finally {
+            Ebean.endTransaction();
+        }
+        awaitChanges();
+        assertTrue(changes.isEmpty());
+    }
+}